@@ -1,13 +1,12 @@
 package com.slickapps.blackbird;
 
+import static java.lang.System.currentTimeMillis;
 import static java.time.temporal.ChronoUnit.SECONDS;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.LocalDateTime;
@@ -15,30 +14,33 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.ClassUtils;
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.reflect.ClassPath;
-import com.google.common.reflect.ClassPath.ClassInfo;
 import com.slickapps.blackbird.data.CSVOrderCompletionDAO;
 import com.slickapps.blackbird.data.DBQuoteWriter;
 import com.slickapps.blackbird.data.EmailOrderCompletionDAO;
 import com.slickapps.blackbird.data.ParametersDAO;
 import com.slickapps.blackbird.data.SaveFileDAO;
-import com.slickapps.blackbird.exchanges.AbstractBlackbirdExchange;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.exchanges.ExchangeRegistry;
 import com.slickapps.blackbird.listener.BlackbirdEventListener;
 import com.slickapps.blackbird.listener.SpreadMonitor;
 import com.slickapps.blackbird.listener.VolatilityMonitor;
@@ -50,12 +52,18 @@ import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.processes.AutoFileSave;
 import com.slickapps.blackbird.processes.ExchangeWalletPoller;
 import com.slickapps.blackbird.processes.ExitFileMonitor;
+import com.slickapps.blackbird.processes.OrderStatusTracker;
+import com.slickapps.blackbird.processes.SpreadStateAutoSave;
 import com.slickapps.blackbird.processes.StatusLogger;
 import com.slickapps.blackbird.service.BalanceService;
+import com.slickapps.blackbird.service.DecisionService;
+import com.slickapps.blackbird.service.DecisionService.Decisions;
 import com.slickapps.blackbird.service.MarketEntryService;
 import com.slickapps.blackbird.service.MarketExitService;
 import com.slickapps.blackbird.service.QuoteService;
+import com.slickapps.blackbird.service.SpreadHistoryService;
 import com.slickapps.blackbird.util.FormatUtil;
+import com.slickapps.blackbird.util.FutureUtil;
 import com.slickapps.blackbird.util.exception.ExceptionUtil;
 import com.slickapps.blackbird.util.exception.ExchangeRuntimeException;
 import com.slickapps.blackbird.util.exception.PairsInMarketUpdatedNotification;
@@ -65,6 +73,7 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 
 	public static final String NL = System.lineSeparator();
 	public static final File SAVE_FILE = new File("blackbird-save.json");
+	public static final File SAVE_JOURNAL_FILE = new File("blackbird-save.journal");
 
 	public static final BigDecimal NEGATIVE_ONE = new BigDecimal(-1);
 	public static final BigDecimal TWO = new BigDecimal(2);
@@ -77,6 +86,7 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 	 */
 	public static boolean stillRunning = true;
 	private static final String PID_LOCK_FILENAME = "blackbird.lok";
+	private static final long DEFAULT_EXCHANGE_INIT_TIMEOUT_MILLIS = 60000;
 
 	public static void main(String[] args) throws Exception {
 		ensureSingleInstance();
@@ -142,6 +152,8 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 
 	List<BlackbirdExchange> exchanges = new ArrayList<>();
 	List<Thread> exchangeBackgroundJobs = new ArrayList<>();
+	/* Startup phase -> elapsed millis, in the order the phases ran */
+	Map<String, Long> startupTimings = new LinkedHashMap<>();
 	List<ExchangeAndCurrencyPair> exchangeAndCurrencyPairs;
 	int maxCombinedNameLength;
 
@@ -156,6 +168,7 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 
 	MarketEntryService marketEntryService;
 	MarketExitService marketExitService;
+	DecisionService decisionService;
 	BalanceService balanceService;
 	QuoteService quoteService;
 
@@ -213,40 +226,52 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 			Set<ExchangePairAndCurrencyPair> inMarketPairs = inMarketPairs();
 			Set<ExchangePairAndCurrencyPair> outOfMarketPairs = outOfMarketPairs(inMarketPairs);
 
-			/* check for exit opportunities for any exchange pairs in market */
-			ExchangePairInMarket pairExiting = marketExitService.prepareNextPairReadyToExit(exchangePairsInMarket);
+			/*
+			 * Check for exit opportunities for any exchange pairs in market, and new market
+			 * opportunities on all the exchange combinations
+			 */
+			List<Decisions> decisions = decisionService.decide(exchangePairsInMarket.getSnapshot().getPairs(),
+					outOfMarketPairs);
+
+			boolean pairsUpdated = false;
+			for (Decisions d : decisions) {
+				for (ExchangePairInMarket pairExiting : d.getPairsExiting())
+					marketExitService.beginExitOrderCompletionPollers(pairExiting);
+
+				for (ExchangePairInMarket pairEntering : d.getPairsEntering()) {
+					/*
+					 * We found a new pair to add to the market; its entry orders have already been
+					 * placed.
+					 */
+					exchangePairsInMarket.addPairInMarket(pairEntering);
+					marketEntryService.beginEntryOrderCompletionPollers(pairEntering);
+					log.info(pairEntering.getEntryInfo());
+				}
 
-			if (pairExiting != null) {
-				marketExitService.beginExitOrderCompletionPollers(pairExiting);
+				pairsUpdated |= !d.isEmpty();
+			}
 
-				/*
-				 * Break out of the search for ExchangePairInMarket's that need to exit (and
-				 * restart the master loop immediately) just to be safe - this may be
-				 * unnecessary but we'll pick up future exitable pairs immediately in the next
-				 * loop
-				 */
-				throw new PairsInMarketUpdatedNotification();
+			/*
+			 * Now that whatever was placed has been taken on, rethrow the first group's
+			 * failure, if any. A group that only restarted the loop doesn't count when
+			 * we're restarting anyway.
+			 */
+			for (Decisions d : decisions) {
+				if (d.getFailure() == null
+						|| pairsUpdated && d.getFailure() instanceof PairsInMarketUpdatedNotification)
+					continue;
+				if (pairsUpdated)
+					quoteService.marketPairsUpdated();
+				d.rethrowFailure();
 			}
 
-			/* Looks for new market opportunities on all the exchange combinations */
-			ExchangePairInMarket pairEntering = marketEntryService.prepareNextPairReadyToEnter(outOfMarketPairs);
-
-			if (pairEntering != null) {
-				/*
-				 * We found a new pair to add to the market; its entry orders have already been
-				 * placed.
-				 */
-				exchangePairsInMarket.addPairInMarket(pairEntering);
-				marketEntryService.beginEntryOrderCompletionPollers(pairEntering);
-				log.info(pairEntering.getEntryInfo());
-
-				/*
-				 * Break out of the search for new arbitrage combinations (and restart the
-				 * master loop immediately) since we just placed a new pair of market orders and
-				 * the two exchange/currency combinations should no longer be available.
-				 */
+			/*
+			 * Restart the master loop immediately since we just placed new orders and
+			 * their exchange/currency combinations should no longer be available; we'll
+			 * pick up any further opportunities in the next loop
+			 */
+			if (pairsUpdated)
 				throw new PairsInMarketUpdatedNotification();
-			}
 
 			/*
 			 * reset the quote service so that we wait for a new quote to arrive before
@@ -311,14 +336,36 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 			eventListeners.add(statusLogger);
 		}
 
+		long listenerInitStart = currentTimeMillis();
 		for (BlackbirdEventListener l : eventListeners)
 			l.init(exchanges, this, params);
+		startupTimings.put("listener init", currentTimeMillis() - listenerInitStart);
 
 		marketExitService = new MarketExitService(params, this, this, quoteService, spreadMonitor);
+		decisionService = new DecisionService(params, marketEntryService, marketExitService);
+
+		if (params.getBoolean("SpreadStateSaveEnabled", true))
+			eventListeners.add(SpreadStateAutoSave.initAndStart(params, exchanges, spreadMonitor,
+					marketEntryService.getTrailingStopFilter(), marketExitService.getTrailingStopFilter()));
+
+		if (params.getBoolean("SpreadHistoryReplayEnabled", true)) {
+			long replayStart = currentTimeMillis();
+			Set<ExchangePairAndCurrencyPair> inMarketPairs = inMarketPairs();
+			try {
+				new SpreadHistoryService(params, quoteService, spreadMonitor).rebuildSpreadWindows(exchanges,
+						exchangePairsInMarket.getSnapshot().getPairs(), outOfMarketPairs(inMarketPairs));
+			} catch (Exception e) {
+				log.warn("Couldn't rebuild the spread windows from the quote history", e);
+			}
+			startupTimings.put("spread history replay", currentTimeMillis() - replayStart);
+		}
 
 		balanceService = new BalanceService(params);
+		long walletStart = currentTimeMillis();
 		balanceService.populateAndValidateBalances(exchanges, exchangePairsInMarket);
-		ExchangeWalletPoller.initAndStart(params, exchanges, exchangePairsInMarket);
+		startupTimings.put("wallet population", currentTimeMillis() - walletStart);
+		ExchangeWalletPoller.initAndStart(params, exchanges, exchangePairsInMarket, this);
+		OrderStatusTracker.configure(params);
 
 		/*
 		 * If any of our pairs in market are trying to (enter or leave) and have their
@@ -337,6 +384,9 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 			log.info("Starting exchange background job {}.", t.getName());
 			t.start();
 		}
+
+		log.info("Startup timing: {}", startupTimings.entrySet().stream()
+				.map(e -> e.getKey() + " " + e.getValue() + " ms").collect(Collectors.joining(", ")));
 	}
 
 	private void waitForTradeCompletion() {
@@ -344,15 +394,12 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 	}
 
 	/**
-	 * Checks for (and imports data from) a saved data file, to see if the program
-	 * exited with any open positions; if no file exists, initializes with empty
-	 * ExchangePairsInMarket.
+	 * Checks for (and imports data from) a saved data file and its journal, to see
+	 * if the program exited with any open positions; if neither exists, initializes
+	 * with empty ExchangePairsInMarket.
 	 */
 	protected ExchangePairsInMarket createOrImportPairsInMarket() throws IOException {
-		ExchangePairsInMarket exchangePairsInMarket = new ExchangePairsInMarket();
-		if (SAVE_FILE.canRead())
-			exchangePairsInMarket = SaveFileDAO.fileImport(exchanges, SAVE_FILE);
-		return exchangePairsInMarket;
+		return SaveFileDAO.recover(exchanges, SAVE_FILE, SAVE_JOURNAL_FILE);
 	}
 
 	private void logIntro() throws Exception {
@@ -386,42 +433,54 @@ public class Main implements MarketPairsProvider, EventListenerProvider {
 		if (exchangeOverrides != null) {
 			this.exchanges = exchangeOverrides;
 		} else {
-			ImmutableSet<ClassInfo> exchangeClasses = ClassPath.from(AbstractBlackbirdExchange.class.getClassLoader())
-					.getTopLevelClasses(AbstractBlackbirdExchange.class.getPackage().getName());
+			List<String> exchangeNames = ExchangeRegistry.getEnabledExchangeNames(params);
+			log.info("Enabled exchanges: {}", exchangeNames);
 
 			/*
-			 * Initialize all exchange classes in the same package as
-			 * AbstractArbitrageExchange that aren't abstract and implement the
-			 * ArbitrageExchange interface
+			 * Constructing an exchange makes network calls (e.g. XChange's remoteInit), so
+			 * initialize them all concurrently; the results are kept in registry order
 			 */
-			exchangeClasses.forEach(p -> {
-				Class<?> clazz = p.load();
-				if (ClassUtils.getAllInterfaces(clazz).contains(BlackbirdExchange.class)
-						&& !Modifier.isAbstract(clazz.getModifiers())) {
+			long initStart = currentTimeMillis();
+			long timeoutMillis = params.getLong("ExchangeInitTimeoutMillis", DEFAULT_EXCHANGE_INIT_TIMEOUT_MILLIS);
+			ExecutorService initExecutor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "ExchangeInit");
+				t.setDaemon(true);
+				return t;
+			});
+
+			Map<String, CompletableFuture<BlackbirdExchange>> futures = new LinkedHashMap<>();
+			for (String name : exchangeNames) {
+				futures.put(name, FutureUtil.withTimeout(CompletableFuture.supplyAsync(() -> {
+					long start = currentTimeMillis();
 					try {
-						Constructor<?> constr = clazz.getDeclaredConstructor(Parameters.class);
-						BlackbirdExchange e = (BlackbirdExchange) constr.newInstance(params);
-						exchanges.add(e);
-
-						if (e.isEnabled()) {
-							log.debug("Exchange initialization completed for {}.", e);
-
-							for (Entry<String, Runnable> entry : e.getBackgroundJobs(this).entrySet()) {
-								String threadName = entry.getKey();
-								Runnable runnable = entry.getValue();
-								Thread t = new Thread(runnable, threadName);
-								t.setDaemon(true);
-								exchangeBackgroundJobs.add(t);
-							}
-						}
+						BlackbirdExchange e = ExchangeRegistry.createExchange(name, params);
+						log.debug("Exchange initialization completed for {} in {} ms.", e, currentTimeMillis() - start);
+						return e;
 					} catch (Exception e) {
-						log.error("Couldn't initialize exchange " + clazz.getName()
-								+ "; skipping it for this execution of Blackbird.");
-						e.printStackTrace();
-						// throw new RuntimeException(e);
+						throw new CompletionException(e);
+					}
+				}, initExecutor), timeoutMillis, "Initialization of " + name));
+			}
+
+			for (Entry<String, CompletableFuture<BlackbirdExchange>> entry : futures.entrySet()) {
+				try {
+					BlackbirdExchange e = entry.getValue().join();
+					exchanges.add(e);
+
+					for (Entry<String, Runnable> job : e.getBackgroundJobs(this).entrySet()) {
+						String threadName = job.getKey();
+						Runnable runnable = job.getValue();
+						Thread t = new Thread(runnable, threadName);
+						t.setDaemon(true);
+						exchangeBackgroundJobs.add(t);
 					}
+				} catch (Exception e) {
+					log.error("Couldn't initialize exchange " + entry.getKey()
+							+ "; skipping it for this execution of Blackbird.", FutureUtil.unwrap(e));
 				}
-			});
+			}
+			initExecutor.shutdown();
+			startupTimings.put("exchange init", currentTimeMillis() - initStart);
 		}
 
 		if (exchanges.size() < 2)
@@ -2,6 +2,7 @@ package com.slickapps.blackbird.data;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.format.DateTimeFormatter;
@@ -34,16 +35,34 @@ public class DBQuoteWriter extends DefaultBlackbirdEventListener {
 
 	private void createTableIfNeeded(String exchangeName, Parameters params) throws SQLException {
 		String query = "CREATE TABLE IF NOT EXISTS `" + exchangeName
-				+ "` (Datetime DATETIME NOT NULL, bid DECIMAL(8, 2), ask DECIMAL(8, 2));";
+				+ "` (Datetime DATETIME NOT NULL, bid DECIMAL(8, 2), ask DECIMAL(8, 2), CurrencyPair TEXT);";
 		try (Statement stmt = connection.createStatement();) {
 			stmt.execute(query);
+			/* tables created by older versions don't record the currency pair */
+			if (!hasColumn(stmt, exchangeName, "CurrencyPair"))
+				stmt.execute("ALTER TABLE `" + exchangeName + "` ADD COLUMN CurrencyPair TEXT;");
+			stmt.execute("CREATE INDEX IF NOT EXISTS `" + exchangeName + "_Datetime` ON `" + exchangeName
+					+ "` (Datetime);");
 		} catch (SQLException e) {
 			System.err.println(e.getErrorCode() + " - " + e.getMessage());
 			throw e;
 		}
 	}
 
-	private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd H:mm:ss");
+	private static boolean hasColumn(Statement stmt, String tableName, String columnName) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(`" + tableName + "`);")) {
+			while (rs.next())
+				if (columnName.equalsIgnoreCase(rs.getString("name")))
+					return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Zero padded so that the values sort chronologically, which
+	 * QuoteHistoryDAO's range queries rely on
+	 */
+	static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
 	@Override
 	public void quoteReceived(Quote q) {
@@ -51,8 +70,10 @@ public class DBQuoteWriter extends DefaultBlackbirdEventListener {
 		String datetime = dtf.format(q.getCreationTime());
 		String bid = String.valueOf(q.getBid());
 		String ask = String.valueOf(q.getAsk());
+		String currencyPair = q.getCurrencyPair().toString();
 
-		String query = "INSERT INTO `" + exchangeName + "` VALUES ('" + datetime + "'," + bid + "," + ask + ");";
+		String query = "INSERT INTO `" + exchangeName + "` VALUES ('" + datetime + "'," + bid + "," + ask + ",'"
+				+ currencyPair + "');";
 		try (Statement stmt = connection.createStatement();) {
 			stmt.execute(query);
 		} catch (SQLException e) {
@@ -0,0 +1,73 @@
+package com.slickapps.blackbird.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickapps.blackbird.data.SaveFileDAO.CustomJsonObjectMapper;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
+
+/**
+ * Caches each exchange's metadata in a local file so startup doesn't need to
+ * wait for it to be downloaded again.
+ *
+ * @author barrycon
+ *
+ */
+public class ExchangeMetadataDAO {
+	private static final Logger log = LoggerFactory.getLogger(ExchangeMetadataDAO.class);
+
+	public static final File CACHE_DIR = new File("metadata-cache");
+
+	private static final ObjectMapper OBJECT_MAPPER = new CustomJsonObjectMapper();
+
+	/**
+	 * @return The cached metadata for the specified exchange, or empty if there
+	 *         isn't any, it's older than the TTL or it can't be read
+	 */
+	public static Optional<ExchangeMetadata> load(String exchangeName, long ttlMillis) {
+		File file = getFile(exchangeName);
+		if (!file.exists())
+			return Optional.empty();
+
+		try {
+			ExchangeMetadata metadata = OBJECT_MAPPER.readValue(file, ExchangeMetadata.class);
+			if (!metadata.isFresh(ttlMillis)) {
+				log.info("Cached metadata for {} has expired; ignoring it", exchangeName);
+				return Optional.empty();
+			}
+			return Optional.of(metadata);
+		} catch (IOException e) {
+			log.warn("Couldn't read cached metadata for " + exchangeName + "; ignoring it", e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first so a crash never leaves a partial cache
+	 * file behind
+	 */
+	public static void save(String exchangeName, ExchangeMetadata metadata) {
+		File file = getFile(exchangeName);
+		File tempFile = new File(CACHE_DIR, file.getName() + ".tmp");
+		try {
+			Files.createDirectories(CACHE_DIR.toPath());
+			OBJECT_MAPPER.writeValue(tempFile, metadata);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Couldn't cache metadata for " + exchangeName, e);
+		}
+	}
+
+	private static File getFile(String exchangeName) {
+		return new File(CACHE_DIR, exchangeName.toLowerCase() + ".json");
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.slickapps.blackbird.data;
+
+import static java.util.Comparator.comparing;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.Quote;
+
+/**
+ * Reads back the quotes recorded by DBQuoteWriter. Each exchange's table is
+ * read with its own cursor and the cursors are merged by time, so only one row
+ * per exchange is held in memory regardless of how much history is replayed.
+ *
+ * @author barrycon
+ *
+ */
+public class QuoteHistoryDAO {
+	private static final Logger log = LoggerFactory.getLogger(QuoteHistoryDAO.class);
+
+	private static final int FETCH_SIZE = 1000;
+
+	/**
+	 * Passes every quote recorded at or after the specified time to the consumer,
+	 * in chronological order across all the specified exchanges. Rows recorded
+	 * before the currency pair was stored are skipped.
+	 *
+	 * @return The number of quotes replayed
+	 */
+	public static long replay(String dbFile, List<BlackbirdExchange> exchanges, LocalDateTime since,
+			Consumer<Quote> consumer) throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		String sinceStr = DBQuoteWriter.dtf.format(since);
+
+		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile)) {
+			List<Cursor> cursors = new ArrayList<>();
+			PriorityQueue<Cursor> queue = new PriorityQueue<>(comparing(c -> c.current.getCreationTime()));
+			try {
+				for (BlackbirdExchange exchange : exchanges) {
+					try {
+						Cursor cursor = new Cursor(connection, exchange, sinceStr);
+						cursors.add(cursor);
+						if (cursor.advance())
+							queue.add(cursor);
+					} catch (SQLException e) {
+						log.warn("Couldn't read the quote history for " + exchange + "; skipping it", e);
+					}
+				}
+
+				long numQuotes = 0;
+				while (!queue.isEmpty()) {
+					Cursor cursor = queue.poll();
+					consumer.accept(cursor.current);
+					numQuotes++;
+					if (cursor.advance())
+						queue.add(cursor);
+				}
+				return numQuotes;
+			} finally {
+				for (Cursor cursor : cursors)
+					cursor.close();
+			}
+		}
+	}
+
+	private static class Cursor {
+		BlackbirdExchange exchange;
+		PreparedStatement stmt;
+		ResultSet rs;
+		Quote current;
+		Map<String, ExchangeAndCurrencyPair> currencyPairs = new HashMap<>();
+
+		Cursor(Connection connection, BlackbirdExchange exchange, String since) throws SQLException {
+			this.exchange = exchange;
+			stmt = connection.prepareStatement("SELECT Datetime, CurrencyPair, bid, ask FROM `"
+					+ exchange.getDbTableName()
+					+ "` WHERE Datetime >= ? AND CurrencyPair IS NOT NULL ORDER BY Datetime;");
+			stmt.setFetchSize(FETCH_SIZE);
+			stmt.setString(1, since);
+			rs = stmt.executeQuery();
+		}
+
+		boolean advance() throws SQLException {
+			while (rs.next()) {
+				BigDecimal bid = rs.getBigDecimal("bid");
+				BigDecimal ask = rs.getBigDecimal("ask");
+				if (bid == null || ask == null)
+					continue;
+
+				ExchangeAndCurrencyPair ecp = currencyPairs.computeIfAbsent(rs.getString("CurrencyPair"),
+						cp -> new ExchangeAndCurrencyPair(exchange, new CurrencyPair(cp)));
+				LocalDateTime time = LocalDateTime.parse(rs.getString("Datetime"), DBQuoteWriter.dtf);
+				current = new Quote(ecp, bid, ask, time);
+				return true;
+			}
+			current = null;
+			return false;
+		}
+
+		void close() {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				log.debug("Couldn't close the quote history cursor for " + exchange, e);
+			}
+		}
+	}
+
+}
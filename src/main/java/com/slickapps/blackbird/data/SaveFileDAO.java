@@ -1,9 +1,18 @@
 package com.slickapps.blackbird.data;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -18,23 +27,64 @@ import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.exchanges.ExchangeRegistry;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
 import com.slickapps.blackbird.model.ExchangePairsInMarket;
 
 public class SaveFileDAO {
+	private static final Logger log = LoggerFactory.getLogger(SaveFileDAO.class);
 
 	private static final ObjectMapper OBJECT_MAPPER = new CustomJsonObjectMapper();
 
+	/**
+	 * Saved pairs on exchanges which are supported but no longer enabled are kept,
+	 * using disabled placeholder exchanges, so they aren't lost the next time the
+	 * file is saved.
+	 */
 	public static ExchangePairsInMarket fileImport(Collection<? extends BlackbirdExchange> exchanges, File file)
 			throws IOException {
 		ExchangePairsInMarket results = OBJECT_MAPPER.readValue(file, ExchangePairsInMarket.class);
-		results.filterExchanges(exchanges);
+		results.filterExchanges(exchanges, ExchangeRegistry::createDisabledExchange);
+		results.resetVersions();
+		return results;
+	}
+
+	/**
+	 * Restores our pairs in market from the save file (if any) plus any entries
+	 * journaled since it was written.
+	 */
+	public static ExchangePairsInMarket recover(Collection<? extends BlackbirdExchange> exchanges, File file,
+			File journalFile) throws IOException {
+		Map<Integer, ExchangePairInMarket> pairsById = new TreeMap<>();
+		if (file.canRead())
+			OBJECT_MAPPER.readValue(file, ExchangePairsInMarket.class)
+					.forEach(p -> pairsById.put(p.getId(), p));
+
+		int numEntries = SaveFileJournal.replay(journalFile, pairsById);
+		if (numEntries > 0)
+			log.info("Replayed {} journaled changes to the saved pairs in market", numEntries);
+
+		ExchangePairsInMarket results = new ExchangePairsInMarket();
+		for (ExchangePairInMarket p : pairsById.values())
+			results.addPairInMarket(p);
+		results.filterExchanges(exchanges, ExchangeRegistry::createDisabledExchange);
 		results.resetVersions();
 		return results;
 	}
 
+	/**
+	 * Writes to a temporary file and syncs it before renaming it over the save
+	 * file, so a crash never leaves a partial save file behind
+	 */
 	public static void fileExport(File file, ExchangePairsInMarket exchangePairsInMarket) throws IOException {
 		if (exchangePairsInMarket.getNumPairsInMarket() != 0) {
-			OBJECT_MAPPER.writeValue(file, exchangePairsInMarket);
+			File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+			try (FileOutputStream out = new FileOutputStream(tempFile)) {
+				OBJECT_MAPPER.writeValue(new CloseShieldOutputStream(out), exchangePairsInMarket);
+				out.getFD().sync();
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
 		} else {
 			if (file.exists())
 				file.delete();
@@ -0,0 +1,184 @@
+package com.slickapps.blackbird.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.slickapps.blackbird.data.SaveFileDAO.CustomJsonObjectMapper;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+
+/**
+ * An append-only log of changes to our pairs in market, which sits alongside
+ * the save file. Each line is a complete JSON entry recording either the full
+ * new state of a pair or its removal, so replaying the journal over the last
+ * save file (snapshot) is idempotent. Entries are fsync'd before append()
+ * returns.
+ * <p>
+ * The journal is periodically compacted by writing a new snapshot (atomically,
+ * via SaveFileDAO) and then truncating the journal. If we crash between the
+ * two, the old entries are simply replayed over the new snapshot.
+ *
+ * @author barrycon
+ *
+ */
+public class SaveFileJournal implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(SaveFileJournal.class);
+
+	private static final ObjectMapper OBJECT_MAPPER = new CustomJsonObjectMapper();
+	private static final ObjectWriter LINE_WRITER = OBJECT_MAPPER.writer()
+			.without(SerializationFeature.INDENT_OUTPUT);
+
+	private File snapshotFile;
+	private File journalFile;
+	private FileOutputStream out;
+	private int entriesSinceCompaction;
+
+	/**
+	 * A single line in the journal
+	 */
+	public static class Entry {
+		private int id;
+		/* The new state of the pair, or null if it was removed */
+		private ExchangePairInMarket pair;
+
+		public Entry() {
+		}
+
+		public static Entry upsert(ExchangePairInMarket pair) {
+			Entry e = new Entry();
+			e.id = pair.getId();
+			e.pair = pair;
+			return e;
+		}
+
+		public static Entry removal(int id) {
+			Entry e = new Entry();
+			e.id = id;
+			return e;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public void setId(int id) {
+			this.id = id;
+		}
+
+		public ExchangePairInMarket getPair() {
+			return pair;
+		}
+
+		public void setPair(ExchangePairInMarket pair) {
+			this.pair = pair;
+		}
+	}
+
+	public SaveFileJournal(File snapshotFile, File journalFile) throws IOException {
+		this.snapshotFile = snapshotFile;
+		this.journalFile = journalFile;
+		this.out = new FileOutputStream(journalFile, true);
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * Appends the specified entries and waits for them to reach the disk
+	 */
+	public synchronized void append(List<Entry> entries) throws IOException {
+		if (entries.isEmpty())
+			return;
+
+		StringBuilder sb = new StringBuilder();
+		for (Entry e : entries)
+			sb.append(LINE_WRITER.writeValueAsString(e)).append('\n');
+		out.write(sb.toString().getBytes(UTF_8));
+		out.getFD().sync();
+		entriesSinceCompaction += entries.size();
+	}
+
+	/**
+	 * Replaces the snapshot with the specified state and empties the journal
+	 */
+	public synchronized void compact(ExchangePairsInMarket exchangePairsInMarket) throws IOException {
+		SaveFileDAO.fileExport(snapshotFile, exchangePairsInMarket);
+		out.getChannel().truncate(0);
+		out.getFD().sync();
+		entriesSinceCompaction = 0;
+	}
+
+	public synchronized int getEntriesSinceCompaction() {
+		return entriesSinceCompaction;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Applies each complete entry in the specified journal, in order, to the
+	 * specified pairs (keyed by ID). Only the final line may be unreadable, since
+	 * that's all a crash during append() can leave behind; it's ignored. An
+	 * unreadable line anywhere else means the journal is corrupt, so rather than
+	 * skip changes that later entries build on, we fail.
+	 *
+	 * @return The number of entries applied
+	 * @throws IOException
+	 *             If the journal can't be read or an entry before the final line
+	 *             is unreadable
+	 */
+	static int replay(File journalFile, Map<Integer, ExchangePairInMarket> pairsById) throws IOException {
+		if (!journalFile.exists())
+			return 0;
+
+		int numEntries = 0;
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(journalFile), UTF_8))) {
+			int lineNumber = 0;
+			String line = reader.readLine();
+			while (line != null) {
+				lineNumber++;
+				String nextLine = reader.readLine();
+				if (line.isEmpty()) {
+					line = nextLine;
+					continue;
+				}
+
+				Entry e;
+				try {
+					e = OBJECT_MAPPER.readValue(line, Entry.class);
+				} catch (IOException ex) {
+					if (nextLine != null)
+						throw new IOException("Unreadable entry on line " + lineNumber + " of " + journalFile
+								+ "; the journal is corrupt", ex);
+					log.warn("Ignoring an incomplete final entry in {}: {}", journalFile, line);
+					break;
+				}
+
+				if (e.getPair() == null)
+					pairsById.remove(e.getId());
+				else
+					pairsById.put(e.getId(), e.getPair());
+				numEntries++;
+				line = nextLine;
+			}
+		}
+		return numEntries;
+	}
+
+}
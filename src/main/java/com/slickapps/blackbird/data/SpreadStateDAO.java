@@ -0,0 +1,56 @@
+package com.slickapps.blackbird.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickapps.blackbird.data.SaveFileDAO.CustomJsonObjectMapper;
+import com.slickapps.blackbird.model.spread.SpreadState;
+
+/**
+ * Saves our spread windows and trailing stops to a local file so they survive
+ * a restart.
+ *
+ * @author barrycon
+ *
+ */
+public class SpreadStateDAO {
+	private static final Logger log = LoggerFactory.getLogger(SpreadStateDAO.class);
+
+	public static final File SPREAD_STATE_FILE = new File("blackbird-spreads.json");
+
+	private static final ObjectMapper OBJECT_MAPPER = new CustomJsonObjectMapper();
+
+	/**
+	 * @return The saved state, or empty if there isn't any or it can't be read
+	 */
+	public static Optional<SpreadState> load(File file) {
+		if (!file.exists())
+			return Optional.empty();
+
+		try {
+			return Optional.of(OBJECT_MAPPER.readValue(file, SpreadState.class));
+		} catch (IOException e) {
+			log.warn("Couldn't read saved spread state from " + file + "; ignoring it", e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first so a crash never leaves a partial file
+	 * behind
+	 */
+	public static void save(File file, SpreadState state) throws IOException {
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		OBJECT_MAPPER.writeValue(tempFile, state);
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
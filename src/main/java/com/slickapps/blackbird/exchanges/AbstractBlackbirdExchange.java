@@ -7,9 +7,11 @@ import static com.slickapps.blackbird.exchanges.OperationType.PLACE_MARKET_ORDER
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_EXCHANGE_INFO;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER_BOOK;
+import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER_STATUS;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_TRADE_HISTORY;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_WALLET;
 import static com.slickapps.blackbird.model.orderCompletion.OrderRollbackType.CUMULATIVE;
+import static com.slickapps.blackbird.model.orderCompletion.OrderRollbackType.REMAINING;
 import static com.slickapps.blackbird.util.FormatUtil.formatCurrency;
 import static com.slickapps.blackbird.util.FormatUtil.getQuantityFormatter;
 import static com.slickapps.blackbird.util.exception.ExceptionUtil.wrapExceptionHandling;
@@ -27,11 +29,11 @@ import static org.knowm.xchange.dto.Order.OrderType.BID;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.text.NumberFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -44,6 +46,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -62,10 +66,10 @@ import org.knowm.xchange.dto.Order.OrderType;
 import org.knowm.xchange.dto.account.AccountInfo;
 import org.knowm.xchange.dto.account.Balance;
 import org.knowm.xchange.dto.account.Wallet;
-import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.knowm.xchange.dto.marketdata.Ticker;
 import org.knowm.xchange.dto.trade.LimitOrder;
 import org.knowm.xchange.dto.trade.MarketOrder;
+import org.knowm.xchange.dto.trade.UserTrade;
 import org.knowm.xchange.dto.trade.UserTrades;
 import org.knowm.xchange.exceptions.ExchangeException;
 import org.knowm.xchange.service.account.AccountService;
@@ -74,23 +78,34 @@ import org.knowm.xchange.service.trade.TradeService;
 import org.knowm.xchange.service.trade.params.TradeHistoryParamCurrencyPair;
 import org.knowm.xchange.service.trade.params.TradeHistoryParamLimit;
 import org.knowm.xchange.service.trade.params.TradeHistoryParams;
+import org.knowm.xchange.service.trade.params.TradeHistoryParamsIdSpan;
+import org.knowm.xchange.service.trade.params.TradeHistoryParamsTimeSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.util.concurrent.RateLimiter;
 import com.slickapps.blackbird.EventListenerProvider;
+import com.slickapps.blackbird.Main;
 import com.slickapps.blackbird.MarketPairsProvider;
+import com.slickapps.blackbird.data.ExchangeMetadataDAO;
 import com.slickapps.blackbird.model.DummyOrder;
 import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
 import com.slickapps.blackbird.model.OrderPair;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.balance.BalanceLedger;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
+import com.slickapps.blackbird.model.orderBook.LocalOrderBook;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
 import com.slickapps.blackbird.model.orderCompletion.OrderRollbackType;
+import com.slickapps.blackbird.model.tradeHistory.TradeHistoryCache;
 import com.slickapps.blackbird.model.tradingRules.TradingRule;
+import com.slickapps.blackbird.processes.OrderStatusTracker;
 import com.slickapps.blackbird.processes.QuoteGenerator;
 import com.slickapps.blackbird.service.ExchangeCalculationService;
 import com.slickapps.blackbird.service.ExchangeCalculationService.UserTradesAggregateResult;
 import com.slickapps.blackbird.service.QuoteService;
+import com.slickapps.blackbird.util.FutureUtil;
 import com.slickapps.blackbird.util.NoOpExchange;
 import com.slickapps.blackbird.util.RateLimitedSupplier;
 import com.slickapps.blackbird.util.RateLimiterProfile;
@@ -114,6 +129,14 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	/* Only refresh wallet at most once every 5 minutes */
 	private static final int WALLET_CACHE_EXPIRY_SECONDS = 5 * 60;
 	private static final int CANCEL_OR_REVERT_ORDER_INITIAL_DELAY_MILLIS = 30000;
+	/* How long to watch a revert order that wasn't complete when first queried */
+	private static final long REVERT_ORDER_MAX_TRACKING_MILLIS = 10 * 60 * 1000;
+	/* Answer limit price queries from our local order book if it's at most this old */
+	private static final long DEFAULT_ORDER_BOOK_CACHE_MAX_AGE_MILLIS = 1000;
+	protected static final int TRADE_HISTORY_PAGE_SIZE = 500;
+	private static final long DEFAULT_METADATA_CACHE_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+	private static final long DEFAULT_METADATA_REFRESH_MILLIS = 15 * 60 * 1000L;
+	private static final int MAX_TRADE_HISTORY_PAGES = 10;
 
 	private static final String DUMMY_ORDER_ID_PREFIX = "DummyOrder";
 	protected static final BigDecimal DUMMY_MARKET_ORDER_PRICE = new BigDecimal(100);
@@ -145,15 +168,26 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	protected List<CurrencyPair> currenciesForLongPositions;
 
 	protected Map<Currency, TradingRule> tradingRulesByCurrency = new HashMap<>();
-	protected Map<CurrencyPair, TradingRule> tradingRulesByCurrencyPair = new HashMap<>();
+	/* concurrent since the metadata refresher may add rules at any time */
+	protected Map<CurrencyPair, TradingRule> tradingRulesByCurrencyPair = new ConcurrentHashMap<>();
+	protected ExchangeMetadata metadata;
+	private boolean metadataFromCache;
+	private final Object metadataLock = new Object();
+	private Set<CurrencyPair> delistedCurrencyPairs = ConcurrentHashMap.newKeySet();
 
 	protected Wallet walletCache;
 	protected LocalDateTime walletLastUpdated;
 	protected String walletName;
+	protected BalanceLedger balanceLedger = new BalanceLedger(getClass().getSimpleName());
 
 	protected LocalDateTime disabledUntilDate;
 	protected ExchangeCalculationService calcService = new ExchangeCalculationService();
-	protected Map<String, RateLimiter> rateLimiterMap = new HashMap<>();
+	protected volatile Map<String, RateLimiter> rateLimiterMap = new HashMap<>();
+	protected Map<CurrencyPair, LocalOrderBook> orderBookCache = new ConcurrentHashMap<>();
+	protected Map<CurrencyPair, TradeHistoryCache> tradeHistoryCache = new ConcurrentHashMap<>();
+	protected long orderBookCacheMaxAgeMillis;
+	protected long orderBookSnapshotIntervalMillis;
+	protected long cancelOrRevertDelayMillis = CANCEL_OR_REVERT_ORDER_INITIAL_DELAY_MILLIS;
 	private ExecutorService executorService = Executors.newCachedThreadPool();
 
 	protected AbstractBlackbirdExchange() {
@@ -171,6 +205,9 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 				RateLimiter.create(this.maxRequestsPerTenMinutes != 0 ? this.maxRequestsPerTenMinutes / 600.0
 						: DEFAULT_MAX_REQUESTS_PER_SEC));
 		
+		balanceLedger.setDriftAlarmPercentage(
+				params.getBigDecimal("BalanceDriftAlarmPercentage", BalanceLedger.DEFAULT_DRIFT_ALARM_PERCENTAGE));
+
 		Boolean enabled = params.getBoolean(propertyPrefix + "Enabled", false);
 
 		if (enabled == null || !enabled) {
@@ -229,6 +266,11 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 				DECIMAL64);
 		this.walletName = params.getString(propertyPrefix + "WalletName", null);
 
+		this.orderBookCacheMaxAgeMillis = params.getLong(propertyPrefix + "OrderBookCacheMaxAgeMillis",
+				params.getLong("OrderBookCacheMaxAgeMillis", DEFAULT_ORDER_BOOK_CACHE_MAX_AGE_MILLIS));
+		this.orderBookSnapshotIntervalMillis = params.getLong(propertyPrefix + "OrderBookSnapshotIntervalMillis",
+				params.getLong("OrderBookSnapshotIntervalMillis", 0L));
+
 		exchange = createExchange();
 	}
 
@@ -251,6 +293,117 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		return tradingRulesByCurrency.computeIfAbsent(c, k -> new TradingRule());
 	}
 
+	/**
+	 * Loads this exchange's metadata from the metadata cache if it's fresh enough,
+	 * otherwise downloads it. A cached copy is refreshed by the metadata refresher
+	 * as soon as the background jobs start. Exchanges publishing metadata should
+	 * call this from their constructor.
+	 */
+	protected void initializeMetadata() {
+		long ttlMillis = params.getLong("ExchangeMetadataCacheTtlMillis", DEFAULT_METADATA_CACHE_TTL_MILLIS);
+		Optional<ExchangeMetadata> cached = ExchangeMetadataDAO.load(getName(), ttlMillis);
+		if (cached.isPresent()) {
+			log.info("Using cached {} metadata from {}", getName(), new Date(cached.get().getFetchedMillis()));
+			applyMetadata(cached.get());
+			metadata = cached.get();
+			metadataFromCache = true;
+			return;
+		}
+
+		log.info("Querying dynamic {} configuration...", getName());
+		downloadMetadata();
+	}
+
+	/**
+	 * Downloads this exchange's metadata, if it publishes any, and applies it
+	 */
+	protected void downloadMetadata() {
+		Optional<ExchangeMetadata> fresh = callSyncWithRetry(() -> fetchMetadataWithinRate(),
+				getRateLimitersForOperation(QUERY_EXCHANGE_INFO));
+		if (fresh.isPresent())
+			refreshMetadata(fresh.get());
+		else
+			log.debug("{} doesn't publish any metadata", getName());
+	}
+
+	/**
+	 * Downloads this exchange's metadata. Exchanges publishing any should
+	 * override this; by default there's none.
+	 */
+	protected Optional<ExchangeMetadata> fetchMetadataWithinRate() throws Exception {
+		return Optional.empty();
+	}
+
+	/**
+	 * Applies the specified metadata if it differs from our current metadata, and
+	 * caches it either way so the cache's age reflects the latest download
+	 *
+	 * @return true if anything changed
+	 */
+	protected boolean refreshMetadata(ExchangeMetadata fresh) {
+		synchronized (metadataLock) {
+			boolean changed = metadata == null || !fresh.equals(metadata);
+			if (changed) {
+				if (metadata != null)
+					log.info("{} metadata updated: {}", getName(), fresh.describeChangesFrom(metadata));
+				applyMetadata(fresh);
+			}
+			metadata = fresh;
+			ExchangeMetadataDAO.save(getName(), fresh);
+			return changed;
+		}
+	}
+
+	/**
+	 * Copies the trading rules in the specified metadata over our own (leaving any
+	 * fields it doesn't specify alone) and updates our rate limiters. Pairs with
+	 * trading rules in our current metadata but not in the specified one have been
+	 * delisted, so their rules and order books are dropped and no more quotes are
+	 * generated for them. Exchanges with other metadata should extend this.
+	 */
+	protected void applyMetadata(ExchangeMetadata m) {
+		if (metadata != null)
+			for (String pair : metadata.getTradingRules().keySet()) {
+				if (m.getTradingRules().containsKey(pair))
+					continue;
+				CurrencyPair cp = new CurrencyPair(pair);
+				log.warn("{} is no longer listed on {}", cp, getName());
+				tradingRulesByCurrencyPair.remove(cp);
+				orderBookCache.remove(cp);
+				delistedCurrencyPairs.add(cp);
+			}
+
+		m.getTradingRules().forEach((pair, rule) -> {
+			delistedCurrencyPairs.remove(new CurrencyPair(pair));
+			TradingRule tradingRule = getOrCreateTradingRule(new CurrencyPair(pair));
+			if (rule.getMinQuantity() != null)
+				tradingRule.setMinQuantity(rule.getMinQuantity());
+			if (rule.getMinPrice() != null)
+				tradingRule.setMinPrice(rule.getMinPrice());
+			if (rule.getMinTotal() != null)
+				tradingRule.setMinTotal(rule.getMinTotal());
+			if (rule.getStepSizeForQuantity() != null)
+				tradingRule.setStepSizeForQuantity(rule.getStepSizeForQuantity());
+			if (rule.getStepSizeForPrice() != null)
+				tradingRule.setStepSizeForPrice(rule.getStepSizeForPrice());
+			if (!rule.getLeveragesSupported().isEmpty())
+				tradingRule.setLeveragesSupported(rule.getLeveragesSupported());
+		});
+
+		if (!m.getRateLimits().isEmpty()) {
+			/* replaced rather than modified since other threads read it without locking */
+			Map<String, RateLimiter> newRateLimiterMap = new HashMap<>(rateLimiterMap);
+			m.getRateLimits().forEach((name, ratePerSecond) -> {
+				RateLimiter existing = newRateLimiterMap.get(name);
+				if (existing == null)
+					newRateLimiterMap.put(name, RateLimiter.create(ratePerSecond));
+				else if (existing.getRate() != ratePerSecond)
+					existing.setRate(ratePerSecond);
+			});
+			rateLimiterMap = newRateLimiterMap;
+		}
+	}
+
 	protected Exchange createExchange() {
 		return callSyncWithRetry(() -> {
 			Exchange exchange = createExchangeInstance();
@@ -293,6 +446,11 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		return uniqueCurrencyPairs;
 	}
 
+	@Override
+	public boolean isDelisted(CurrencyPair currencyPair) {
+		return delistedCurrencyPairs.contains(currencyPair);
+	}
+
 	private BigDecimal applyTradingRules(CurrencyPair c, Function<TradingRule, BigDecimal> f, BigDecimal defaultVal) {
 		TradingRule tr1 = tradingRulesByCurrencyPair.get(c);
 		TradingRule tr2 = tradingRulesByCurrency.get(c.base);
@@ -366,6 +524,9 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	public CompletableFuture<Quote> queryForQuote(CurrencyPair currencyPair) {
 		BlackbirdExchange e = this;
 
+		if (params.useExecutableSpread)
+			return queryForQuoteWithDepth(currencyPair);
+
 		return callAsyncWithRetry(() -> {
 			MarketDataService marketDataService = exchange.getMarketDataService();
 			Ticker ticker = marketDataService.getTicker(currencyPair);
@@ -377,6 +538,88 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		}, getRateLimitersForOperation(OperationType.QUERY_FOR_QUOTE));
 	}
 
+	/**
+	 * Derives a quote from the order book rather than the ticker, so that in
+	 * addition to the top of book prices it carries the volume weighted prices
+	 * needed to fill our maximum transaction amount (times the order book factor).
+	 * The order book is also left in our local cache so a subsequent limit price
+	 * query doesn't need another round trip.
+	 * <p>
+	 * While our local order book is kept current in the background (by a diff
+	 * stream or the order book refresher), the quote is derived from it rather
+	 * than downloading the book again for every quote.
+	 */
+	protected CompletableFuture<Quote> queryForQuoteWithDepth(CurrencyPair currencyPair) {
+		LocalOrderBook cached = orderBookCache.get(currencyPair);
+		if (cached != null && !cached.isFresh(getQuotableOrderBookMaxAgeMillis()))
+			cached = null;
+		Quote cachedQuote = cached != null ? createQuoteFromOrderBook(cached) : null;
+		if (cachedQuote != null)
+			return completedFuture(cachedQuote);
+
+		return callAsyncWithRetry(() -> {
+			LocalOrderBook orderBook = getOrCreateLocalOrderBook(currencyPair);
+			loadOrderBookSnapshotWithinRate(currencyPair, orderBook);
+			Quote quote = createQuoteFromOrderBook(orderBook);
+			if (quote == null) {
+				log.warn("Exchange {} returned an empty {} order book side, ignoring result...", getName(),
+						currencyPair);
+				throw new Exception("Empty order book returned by exchange, ignoring result");
+			}
+			return quote;
+		}, getRateLimitersForOperation(QUERY_ORDER_BOOK));
+	}
+
+	/*
+	 * The refresher reloads a book once it's older than its interval and then
+	 * sleeps for another interval, so a book it maintains is never much older than
+	 * two intervals. Without the refresher, books are only as fresh as the limit
+	 * price queries require.
+	 */
+	private long getQuotableOrderBookMaxAgeMillis() {
+		return Math.max(orderBookCacheMaxAgeMillis, 2 * orderBookSnapshotIntervalMillis);
+	}
+
+	/**
+	 * @return A quote derived from the specified order book, or null if either side
+	 *         of the book is empty
+	 */
+	protected Quote createQuoteFromOrderBook(LocalOrderBook orderBook) {
+		CurrencyPair currencyPair = orderBook.getCurrencyPair();
+		BigDecimal bid = orderBook.getBestPrice(BID);
+		BigDecimal ask = orderBook.getBestPrice(ASK);
+		if (bid == null || ask == null)
+			return null;
+
+		BigDecimal executableBid = null, executableAsk = null;
+		BigDecimal maxTransactionAmount = getMaxTransactionAmountOrNull(currencyPair);
+		if (maxTransactionAmount != null) {
+			BigDecimal volume = maxTransactionAmount.divide(bid.add(ask).divide(Main.TWO, DECIMAL64), DECIMAL64)
+					.multiply(params.orderBookFactor);
+			executableBid = orderBook.getVolumeWeightedPrice(BID, volume);
+			executableAsk = orderBook.getVolumeWeightedPrice(ASK, volume);
+
+			/*
+			 * If there isn't enough depth to fill our volume at all, use the deepest price
+			 * so the spread is penalized rather than silently ignored
+			 */
+			if (executableBid == null)
+				executableBid = orderBook.getLimitPrice(BID, volume);
+			if (executableAsk == null)
+				executableAsk = orderBook.getLimitPrice(ASK, volume);
+		}
+
+		return new Quote(new ExchangeAndCurrencyPair(this, currencyPair), bid, ask, executableBid, executableAsk);
+	}
+
+	private BigDecimal getMaxTransactionAmountOrNull(CurrencyPair currencyPair) {
+		try {
+			return params.getMaxTransactionAmount(currencyPair);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public CompletableFuture<List<Quote>> queryForQuotes(List<CurrencyPair> uniqueCurrencyPairs) {
 		List<CompletableFuture<Quote>> allFutures = new ArrayList<>();
@@ -406,11 +649,40 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		});
 	}
 
+	@Override
+	public CompletableFuture<Balance> queryAvailableBalance(Currency currency) {
+		Optional<BigDecimal> available = balanceLedger.getAvailable(currency);
+		if (available.isPresent())
+			return completedFuture(new Balance(currency, available.get(), available.get()));
+		return queryBalance(currency, false);
+	}
+
+	@Override
+	public BalanceLedger getBalanceLedger() {
+		return balanceLedger;
+	}
+
+	@Override
+	public Currency getFeeCurrency(CurrencyPair currencyPair, String orderId) {
+		TradeHistoryCache cache = tradeHistoryCache.get(currencyPair);
+		if (cache != null)
+			for (UserTrade t : cache.getTradesForOrder(orderId))
+				if (t.getFeeCurrency() != null)
+					return t.getFeeCurrency();
+		return currencyPair.counter;
+	}
+
+	private void orderSettled(CurrencyPair currencyPair, Order order) {
+		balanceLedger.orderSettled(order, order.getStatus(), getFeeCurrency(currencyPair, order.getId()));
+	}
+
 	@Override
 	public CompletableFuture<Optional<Order>> queryOrder(CurrencyPair currencyPair, String orderId) {
 		return callAsyncWithRetry(() -> {
-			return queryOrderWithinRate(currencyPair, orderId);
-		}, getRateLimitersForOperation(QUERY_ORDER));
+			return queryOrderWithoutAggregatesWithinRate(currencyPair, orderId);
+		}, getRateLimitersForOperation(QUERY_ORDER)).thenCompose(opt -> !opt.isPresent() ? completedFuture(opt)
+				/* the trade history requests acquire their own permits */
+				: callAsync(() -> Optional.of(addTradeAggregates(currencyPair, orderId, opt.get()))));
 	}
 
 	@Override
@@ -422,23 +694,40 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 
 			Order o = opt.get();
 			return Optional.ofNullable(o.getStatus());
-		});
+		}, getRateLimitersForOperation(QUERY_ORDER_STATUS));
 	}
 
-	protected Optional<Order> queryOrderWithinRate(CurrencyPair currencyPair, String orderId) throws Exception {
-		Optional<Order> opt = queryOrderWithoutAggregatesWithinRate(currencyPair, orderId);
-		if (!opt.isPresent())
-			return Optional.empty();
-		Order o = opt.get();
+	/**
+	 * Queries each order's status individually; exchanges with a bulk order
+	 * endpoint should override this.
+	 */
+	@Override
+	public CompletableFuture<Map<String, OrderStatus>> queryOrderStatuses(CurrencyPair currencyPair,
+			Set<String> orderIds) {
+		Map<String, CompletableFuture<Optional<OrderStatus>>> futures = new HashMap<>();
+		for (String orderId : orderIds)
+			futures.put(orderId, queryOrderStatus(currencyPair, orderId));
 
-		UserTrades userTrades = queryTradeHistoryWithinRate(currencyPair);
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(v -> {
+					Map<String, OrderStatus> results = new HashMap<>();
+					futures.forEach((orderId, f) -> f.join().ifPresent(s -> results.put(orderId, s)));
+					return results;
+				});
+	}
+
+	/**
+	 * Sets the average price, cumulative amount and fee of the specified order from
+	 * its trades. This makes its own rate limited requests, so it must not be
+	 * called within a rate limited context.
+	 */
+	protected Order addTradeAggregates(CurrencyPair currencyPair, String orderId, Order o) {
 		UserTradesAggregateResult aggregateResult = calcService.analyzeTrades(currencyPair, orderId,
-				userTrades.getUserTrades());
+				getTradesForOrder(currencyPair, orderId));
 		o.setAveragePrice(aggregateResult.averagePrice);
 		o.setCumulativeAmount(aggregateResult.sumTradeQuantities);
 		o.setFee(aggregateResult.sumFees);
-
-		return Optional.of(o);
+		return o;
 	}
 
 	protected Optional<Order> queryOrderWithoutAggregatesWithinRate(CurrencyPair currencyPair, String orderId)
@@ -469,6 +758,60 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		return userTrades;
 	}
 
+	/**
+	 * @return Our trades for the specified order, from the trade history cache
+	 *         after fetching any trades newer than those already cached. Each
+	 *         request acquires its own QUERY_TRADE_HISTORY permits, so this must
+	 *         not be called within a rate limited context.
+	 */
+	public List<UserTrade> getTradesForOrder(CurrencyPair currencyPair, String orderId) {
+		TradeHistoryCache cache = tradeHistoryCache.computeIfAbsent(currencyPair, TradeHistoryCache::new);
+		synchronized (cache) {
+			refreshTradeHistory(currencyPair, cache);
+		}
+		return cache.getTradesForOrder(orderId);
+	}
+
+	/**
+	 * Adds the trades newer than the cache's cursor to the cache. The first call
+	 * downloads the full history; after that, exchanges whose trade history can be
+	 * requested from a trade ID (or, failing that, a start time) only return new
+	 * trades, following further pages while each one is full. Other
+	 * exchanges still return their full history, but the cache keeps the lookup by
+	 * order ID cheap. Each page acquires its own QUERY_TRADE_HISTORY permits.
+	 */
+	protected void refreshTradeHistory(CurrencyPair currencyPair, TradeHistoryCache cache) {
+		for (int page = 0; page < MAX_TRADE_HISTORY_PAGES; page++) {
+			TradeHistoryParams tradeHistoryParams = getTradeHistoryParams(currencyPair,
+					cache.isSeeded() ? TRADE_HISTORY_PAGE_SIZE : null);
+			boolean incremental = false;
+			if (cache.getLastTradeId() != null && tradeHistoryParams instanceof TradeHistoryParamsIdSpan) {
+				/* inclusive of our last trade, which is ignored as already seen */
+				((TradeHistoryParamsIdSpan) tradeHistoryParams).setStartId(cache.getLastTradeId());
+				incremental = true;
+			} else if (cache.getLastTimestamp() != null && tradeHistoryParams instanceof TradeHistoryParamsTimeSpan) {
+				((TradeHistoryParamsTimeSpan) tradeHistoryParams).setStartTime(cache.getLastTimestamp());
+				incremental = true;
+			}
+
+			UserTrades userTrades = callSyncWithRetry(() -> {
+				return getTradeHistoryWithinRate(tradeHistoryParams);
+			}, getRateLimitersForOperation(QUERY_TRADE_HISTORY));
+
+			int numAdded = cache.addTrades(userTrades.getUserTrades());
+			if (!incremental || numAdded == 0 || userTrades.getUserTrades().size() < TRADE_HISTORY_PAGE_SIZE)
+				return;
+		}
+	}
+
+	/**
+	 * Downloads one page of our trade history. This method should be called within
+	 * a rate limited context for QUERY_TRADE_HISTORY.
+	 */
+	protected UserTrades getTradeHistoryWithinRate(TradeHistoryParams tradeHistoryParams) throws Exception {
+		return exchange.getTradeService().getTradeHistory(tradeHistoryParams);
+	}
+
 	protected TradeHistoryParams getTradeHistoryParams(CurrencyPair currencyPair, Integer count) {
 		TradeService tradeService = exchange.getTradeService();
 		TradeHistoryParams tradeHistoryParams = tradeService.createTradeHistoryParams();
@@ -519,6 +862,7 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 
 			walletCache = wallet;
 			walletLastUpdated = LocalDateTime.now();
+			balanceLedger.reconcile(wallet);
 			return wallet;
 		};
 	}
@@ -526,15 +870,23 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	@Override
 	public CompletableFuture<String> openLongPosition(CurrencyPair currencyPair, BigDecimal quantity,
 			boolean useMarketOrder, BigDecimal limitPriceOverride) {
-		return useMarketOrder ? sendMarketOrder(BID, quantity, currencyPair)
+		CompletableFuture<String> future = useMarketOrder ? sendMarketOrder(BID, quantity, currencyPair)
 				: sendLimitOrder(BID, currencyPair, quantity, useMarketOrder, limitPriceOverride);
+		return future.thenApply(orderId -> {
+			balanceLedger.orderPlaced(orderId, currencyPair, BID, quantity, useMarketOrder ? null : limitPriceOverride);
+			return orderId;
+		});
 	}
 
 	@Override
 	public CompletableFuture<String> closeLongPosition(CurrencyPair currencyPair, BigDecimal quantity,
 			boolean useMarketOrder, BigDecimal limitPriceOverride) {
-		return useMarketOrder ? sendMarketOrder(ASK, quantity, currencyPair)
+		CompletableFuture<String> future = useMarketOrder ? sendMarketOrder(ASK, quantity, currencyPair)
 				: sendLimitOrder(ASK, currencyPair, quantity, useMarketOrder, limitPriceOverride);
+		return future.thenApply(orderId -> {
+			balanceLedger.orderPlaced(orderId, currencyPair, ASK, quantity, null);
+			return orderId;
+		});
 	}
 
 	public boolean isShortable() {
@@ -544,8 +896,10 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	@Override
 	public final CompletableFuture<String> openShortPosition(CurrencyPair currencyPair, BigDecimal quantity,
 			boolean useMarketOrder, BigDecimal limitPriceOverride) {
-		if (isShortable())
+		if (isShortable()) {
+			markLedgerStale(currencyPair);
 			return openShortPositionImp(currencyPair, quantity, useMarketOrder, limitPriceOverride);
+		}
 		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support short orders");
 	}
 
@@ -560,11 +914,22 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	@Override
 	public final CompletableFuture<String> closeShortPosition(CurrencyPair currencyPair, BigDecimal quantity,
 			boolean useMarketOrder, BigDecimal limitPriceOverride) {
-		if (isShortable())
+		if (isShortable()) {
+			markLedgerStale(currencyPair);
 			return closeShortPositionImp(currencyPair, quantity, useMarketOrder, limitPriceOverride);
+		}
 		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support short orders");
 	}
 
+	/*
+	 * Margin positions affect our balances in exchange-specific ways, so we wait
+	 * for the next wallet snapshot instead of modeling them in the ledger
+	 */
+	private void markLedgerStale(CurrencyPair currencyPair) {
+		balanceLedger.markStale(currencyPair.base);
+		balanceLedger.markStale(currencyPair.counter);
+	}
+
 	/*
 	 * Expected that this will be overridden by exchanges that support short orders
 	 */
@@ -577,8 +942,7 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 			BigDecimal quantity, boolean useMarketOrder, BigDecimal limitPriceOverride) {
 		BigDecimal limitPrice = limitPriceOverride;
 		if (!useMarketOrder && limitPriceOverride == null)
-			limitPrice = callSyncWithRetry(queryLimitPriceInternal(currencyPair, quantity, orderType),
-					getRateLimitersForOperation(QUERY_ORDER_BOOK));
+			limitPrice = queryLimitPriceSync(currencyPair, quantity, orderType);
 		BigDecimal finalPrice = limitPrice;
 
 		return callAsyncWithRetry(() -> {
@@ -642,122 +1006,230 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	@Override
 	public CompletableFuture<BigDecimal> queryLimitPrice(CurrencyPair currencyPair, BigDecimal volume,
 			OrderType orderType) {
-		return callAsyncWithRetry(queryLimitPriceInternal(currencyPair, volume, orderType),
+		return queryOrderBookDepth(currencyPair, orderType)
+				.thenApply(depth -> findLimitPrice(depth, currencyPair, volume));
+	}
+
+	protected BigDecimal queryLimitPriceSync(CurrencyPair currencyPair, BigDecimal volume, OrderType orderType) {
+		LocalOrderBook orderBook = getFreshOrderBook(currencyPair);
+		if (orderBook != null)
+			return findLimitPrice(orderBook.getDepth(orderType), currencyPair, volume);
+
+		return findLimitPrice(callSyncWithRetry(queryOrderBookDepthInternal(currencyPair, orderType),
+				getRateLimitersForOperation(QUERY_ORDER_BOOK)), currencyPair, volume);
+	}
+
+	@Override
+	public CompletableFuture<OrderBookDepth> queryOrderBookDepth(CurrencyPair currencyPair, OrderType orderType) {
+		LocalOrderBook orderBook = getFreshOrderBook(currencyPair);
+		if (orderBook != null)
+			return completedFuture(orderBook.getDepth(orderType));
+
+		return callAsyncWithRetry(queryOrderBookDepthInternal(currencyPair, orderType),
 				getRateLimitersForOperation(QUERY_ORDER_BOOK));
 	}
 
-	protected SupplierWithException<BigDecimal> queryLimitPriceInternal(CurrencyPair currencyPair, BigDecimal volume,
+	protected SupplierWithException<OrderBookDepth> queryOrderBookDepthInternal(CurrencyPair currencyPair,
 			OrderType orderType) {
 		return () -> {
-			MarketDataService marketDataService = exchange.getMarketDataService();
-			OrderBook orderBook = marketDataService.getOrderBook(currencyPair);
-			List<LimitOrder> bidsOrAsks = orderBook.getOrders(orderType);
+			LocalOrderBook orderBook = getOrCreateLocalOrderBook(currencyPair);
+			loadOrderBookSnapshotWithinRate(currencyPair, orderBook);
+			return orderBook.getDepth(orderType);
+		};
+	}
 
-			NumberFormat quantityFormatter = getQuantityFormatter();
-			BigDecimal volTimesOrderBookFactor = volume.abs().multiply(params.orderBookFactor);
+	private BigDecimal findLimitPrice(OrderBookDepth depth, CurrencyPair currencyPair, BigDecimal volume) {
+		BigDecimal volTimesOrderBookFactor = volume.abs().multiply(params.orderBookFactor);
+		BigDecimal price = depth.getLimitPrice(volTimesOrderBookFactor);
 
-			if (log.isInfoEnabled())
-				log.info("Looking for a limit price to fill {} (including order book factor padding) on {}...",
-						formatCurrency(currencyPair.base, volTimesOrderBookFactor), getName());
-
-			BigDecimal price = ZERO;
-			BigDecimal tmpVol = ZERO;
-
-			for (LimitOrder o : bidsOrAsks) {
-				price = o.getLimitPrice();
-				BigDecimal amount = o.getOriginalAmount();
-				if (log.isInfoEnabled())
-					log.info("order book: {} @ {}", quantityFormatter.format(amount),
-							formatCurrency(currencyPair.counter, price));
-				tmpVol = tmpVol.add(amount);
-				if (tmpVol.compareTo(volTimesOrderBookFactor) != -1)
-					break;
-			}
+		if (log.isDebugEnabled())
+			log.debug("Limit price to fill {} (including order book factor padding) on {} is {}",
+					formatCurrency(currencyPair.base, volTimesOrderBookFactor), getName(),
+					formatCurrency(currencyPair.counter, price));
+		return price;
+	}
 
-			return price;
-		};
+	// ---- Local order book maintenance
+
+	protected LocalOrderBook getOrCreateLocalOrderBook(CurrencyPair currencyPair) {
+		return orderBookCache.computeIfAbsent(currencyPair, LocalOrderBook::new);
 	}
 
-	@Override
-	public CompletableFuture<OrderPair> cancelOrRevertLongOrder(CurrencyPair currencyPair, String longOrderId,
-			OrderRollbackType rollbackType) {
-		log.info("Cancelling {} order ID {} on exchange {} after a delay of {}...", currencyPair, longOrderId,
-				getName(), formatDurationWords(CANCEL_OR_REVERT_ORDER_INITIAL_DELAY_MILLIS, true, true));
+	/**
+	 * @return The local order book for the specified currency pair if it's valid
+	 *         and was updated within the last {orderBookCacheMaxAgeMillis},
+	 *         otherwise null
+	 */
+	protected LocalOrderBook getFreshOrderBook(CurrencyPair currencyPair) {
+		LocalOrderBook orderBook = orderBookCache.get(currencyPair);
+		return orderBook != null && orderBook.isFresh(orderBookCacheMaxAgeMillis) ? orderBook : null;
+	}
 
-		return callAsync(() -> {
-			Thread.sleep(CANCEL_OR_REVERT_ORDER_INITIAL_DELAY_MILLIS);
+	/**
+	 * Downloads a full order book snapshot and applies it to the specified local
+	 * book. Exchanges that provide a sequence number (update ID) with their
+	 * snapshots should override this so diffs can be validated against it. This
+	 * method should be called within a rate limited context for QUERY_ORDER_BOOK.
+	 */
+	protected void loadOrderBookSnapshotWithinRate(CurrencyPair currencyPair, LocalOrderBook orderBook)
+			throws Exception {
+		MarketDataService marketDataService = exchange.getMarketDataService();
+		orderBook.applySnapshot(marketDataService.getOrderBook(currencyPair), LocalOrderBook.UNKNOWN_SEQUENCE);
+	}
+
+	/**
+	 * Entry point for exchanges that offer a diff stream. If the update reveals a
+	 * sequence gap, the local book is invalidated (so limit price queries fall back
+	 * to REST) and a new snapshot is requested.
+	 */
+	protected void applyOrderBookUpdate(CurrencyPair currencyPair, long sequence, OrderType side, BigDecimal price,
+			BigDecimal quantity) {
+		LocalOrderBook orderBook = getOrCreateLocalOrderBook(currencyPair);
+		if (!orderBook.applyUpdate(sequence, side, price, quantity)) {
+			log.warn("Sequence gap detected in the {} order book on {} (last sequence {}, received {}); resyncing...",
+					currencyPair, getName(), orderBook.getLastSequence(), sequence);
+			resyncOrderBook(currencyPair);
+		}
+	}
 
+	/**
+	 * Downloads a new snapshot for each of our currency pairs whose local order
+	 * book wasn't updated within the last {orderBookSnapshotIntervalMillis}. Books
+	 * kept current by a diff stream are skipped.
+	 */
+	protected void refreshStaleOrderBooks() {
+		for (CurrencyPair cp : getCombinedCurrencyPairs()) {
+			LocalOrderBook orderBook = getOrCreateLocalOrderBook(cp);
+			if (orderBook.isFresh(orderBookSnapshotIntervalMillis))
+				continue;
 			try {
-				cancelOrder(currencyPair, longOrderId).get();
+				callSyncWithRetry(() -> {
+					loadOrderBookSnapshotWithinRate(cp, orderBook);
+					return orderBook;
+				}, getRateLimitersForOperation(QUERY_ORDER_BOOK));
 			} catch (Exception e) {
-				log.warn("Couldn't cancel " + currencyPair + " long order ID " + longOrderId + " at " + getName()
-						+ " (possibly because it was already filled); attempting to revert any " + rollbackType
-						+ " amount.");
-				log.debug("Full cancellation failure reason:", e);
+				log.warn("Couldn't refresh the {} order book on {}: {}", cp, getName(), e.getMessage());
 			}
+		}
+	}
 
-			Optional<Order> orderOpt = queryOrder(currencyPair, longOrderId).get();
-			if (!orderOpt.isPresent())
-				return new OrderPair(null, null);
-
-			Order order = orderOpt.get();
-			BigDecimal amountToRevert = rollbackType == CUMULATIVE ? order.getCumulativeAmount()
-					: order.getRemainingAmount();
-			if (amountToRevert.signum() == 1) {
-				log.info("Attempting to revert long order on " + getName() + " with a " + rollbackType
-						+ " filled quantity of {}...", formatCurrency(currencyPair.base, amountToRevert));
-				String orderId = closeLongPosition(currencyPair, amountToRevert, true, null).get();
-				Optional<Order> revertOrder = queryOrder(currencyPair, orderId).get();
-				log.info("{} long market order placed.", currencyPair);
-				return new OrderPair(order, revertOrder.orElse(null));
-			} else {
-				log.info("No amount of {} to revert was necessary for long order ID {} on {}.", currencyPair,
-						longOrderId, getName());
-			}
+	protected CompletableFuture<LocalOrderBook> resyncOrderBook(CurrencyPair currencyPair) {
+		return callAsyncWithRetry(() -> {
+			LocalOrderBook orderBook = getOrCreateLocalOrderBook(currencyPair);
+			loadOrderBookSnapshotWithinRate(currencyPair, orderBook);
+			return orderBook;
+		}, getRateLimitersForOperation(QUERY_ORDER_BOOK));
+	}
 
-			return new OrderPair(order, null);
-		});
+	@Override
+	public CompletableFuture<OrderPair> cancelOrRevertLongOrder(CurrencyPair currencyPair, String longOrderId,
+			OrderRollbackType rollbackType) {
+		return cancelOrRevertOrder(currencyPair, longOrderId, rollbackType, true);
 	}
 
 	@Override
 	public CompletableFuture<OrderPair> cancelOrRevertShortOrder(CurrencyPair currencyPair, String shortOrderId,
 			OrderRollbackType rollbackType) {
-		return callAsync(() -> {
-			Thread.sleep(30000);
-			try {
-				cancelOrder(currencyPair, shortOrderId).get();
-			} catch (Exception e) {
-				log.warn("Couldn't cancel " + currencyPair + " short order ID " + shortOrderId + " at " + getName()
-						+ " (possibly because it was already filled); attempting to reverse any " + rollbackType
-						+ " amount...");
-				log.debug("Full cancellation failure reason:", e);
-			}
+		return cancelOrRevertOrder(currencyPair, shortOrderId, rollbackType, false);
+	}
 
-			Optional<Order> orderOpt = queryOrder(currencyPair, shortOrderId).get();
-			if (!orderOpt.isPresent())
-				return new OrderPair(null, null);
-
-			Order order = orderOpt.get();
-			BigDecimal amountToRevert = rollbackType == OrderRollbackType.CUMULATIVE ? order.getCumulativeAmount()
-					: order.getRemainingAmount();
-			if (amountToRevert.signum() == 1) {
-				log.info(
-						"Attempting to revert " + currencyPair + " short order on " + getName() + " with a "
-								+ rollbackType + " filled quantity of {}...",
-						formatCurrency(currencyPair.base, amountToRevert));
-				String orderId = closeShortPosition(currencyPair, amountToRevert, true, null).get();
-				Optional<Order> revertOrder = queryOrder(currencyPair, orderId).get();
-				log.info("{} short market order placed on {}.", currencyPair, getName());
-				return new OrderPair(order, revertOrder.orElse(null));
-			} else {
-				log.info("No amount of {} to revert was necessary on {} for short order ID {}.", currencyPair,
-						getName(), shortOrderId);
-			}
+	/**
+	 * Waits a while so the order shows up at the exchange, then cancels it and
+	 * places a market order to revert its cumulative or remaining amount. An order
+	 * that has filled in the meantime isn't cancelled; it has nothing remaining to
+	 * revert, but a cumulative rollback still reverts everything it filled. The
+	 * wait is a scheduled timer rather than a sleeping thread; the timer is
+	 * cancelled as soon as the returned future completes, so cancelling it before
+	 * the timer fires means nothing is done.
+	 */
+	protected CompletableFuture<OrderPair> cancelOrRevertOrder(CurrencyPair currencyPair, String orderId,
+			OrderRollbackType rollbackType, boolean isLong) {
+		String side = isLong ? "long" : "short";
+		log.info("Cancelling {} {} order ID {} on exchange {} after a delay of {}...", currencyPair, side, orderId,
+				getName(), formatDurationWords(cancelOrRevertDelayMillis, true, true));
+
+		CompletableFuture<OrderPair> result = new CompletableFuture<>();
+		ScheduledFuture<?> timer = FutureUtil.getScheduler().schedule(() -> {
+			queryOrder(currencyPair, orderId).thenCompose(orderOpt -> {
+				if (orderOpt.isPresent() && orderOpt.get().getStatus() == OrderStatus.FILLED) {
+					log.info("{} {} order ID {} on {} filled before it could be cancelled.", currencyPair, side,
+							orderId, getName());
+					orderSettled(currencyPair, orderOpt.get());
+					return revertOrder(currencyPair, orderOpt, rollbackType, isLong);
+				}
 
-			return new OrderPair(order, null);
+				return cancelOrder(currencyPair, orderId).handle((cancelled, t) -> {
+					if (t != null) {
+						log.warn("Couldn't cancel " + currencyPair + " " + side + " order ID " + orderId + " at "
+								+ getName() + " (possibly because it was already filled); attempting to revert any "
+								+ rollbackType + " amount.");
+						log.debug("Full cancellation failure reason:", FutureUtil.unwrap(t));
+					}
+					return cancelled;
+				}).thenCompose(cancelled -> queryOrder(currencyPair, orderId)).thenCompose(cancelledOpt -> {
+					cancelledOpt.ifPresent(o -> orderSettled(currencyPair, o));
+					return revertOrder(currencyPair, cancelledOpt, rollbackType, isLong);
+				});
+			}).whenComplete((orderPair, t) -> {
+				if (t != null)
+					result.completeExceptionally(FutureUtil.unwrap(t));
+				else
+					result.complete(orderPair);
+			});
+		}, cancelOrRevertDelayMillis, TimeUnit.MILLISECONDS);
+
+		result.whenComplete((orderPair, t) -> timer.cancel(false));
+		return result;
+	}
+
+	private CompletableFuture<OrderPair> revertOrder(CurrencyPair currencyPair, Optional<Order> orderOpt,
+			OrderRollbackType rollbackType, boolean isLong) {
+		if (!orderOpt.isPresent())
+			return completedFuture(new OrderPair(null, null));
+
+		Order order = orderOpt.get();
+		String side = isLong ? "long" : "short";
+		/* a cumulative rollback still unwinds a filled order */
+		if (order.getStatus() == OrderStatus.FILLED && rollbackType == REMAINING) {
+			log.info("{} {} order ID {} on {} filled before it was cancelled; nothing remaining to revert.",
+					currencyPair, side, order.getId(), getName());
+			return completedFuture(new OrderPair(order, null));
+		}
+
+		BigDecimal amountToRevert = rollbackType == CUMULATIVE ? order.getCumulativeAmount()
+				: order.getRemainingAmount();
+		if (amountToRevert == null || amountToRevert.signum() != 1) {
+			log.info("No amount of {} to revert was necessary on {} for {} order ID {}.", currencyPair, getName(),
+					side, order.getId());
+			return completedFuture(new OrderPair(order, null));
+		}
+
+		log.info("Attempting to revert " + currencyPair + " " + side + " order on " + getName() + " with a "
+				+ rollbackType + " filled quantity of {}...", formatCurrency(currencyPair.base, amountToRevert));
+		CompletableFuture<String> revertOrderId = isLong
+				? closeLongPosition(currencyPair, amountToRevert, true, null)
+				: closeShortPosition(currencyPair, amountToRevert, true, null);
+		return revertOrderId.thenCompose(id -> queryOrder(currencyPair, id)).thenApply(revertOrder -> {
+			revertOrder.ifPresent(o -> revertOrderPlaced(currencyPair, o));
+			log.info("{} {} market order placed on {}.", currencyPair, side, getName());
+			return new OrderPair(order, revertOrder.orElse(null));
 		});
 	}
 
+	/*
+	 * A market order may not be complete by the time we first query it, in which
+	 * case it's settled in our ledger once its tracker sees it complete. If that
+	 * never happens, its reservation is dropped rather than kept forever.
+	 */
+	private void revertOrderPlaced(CurrencyPair currencyPair, Order order) {
+		orderSettled(currencyPair, order);
+		if (!balanceLedger.isReserved(order.getId()))
+			return;
+
+		OrderStatusTracker.getTracker(this).track(order.getId(), currencyPair, REVERT_ORDER_MAX_TRACKING_MILLIS,
+				completion -> balanceLedger.orderAbandoned(order.getId()));
+	}
+
 	protected Integer getMaxLeverage(CurrencyPair c) {
 		SortedSet<Integer> leverages = getLeveragesSupported(c);
 		if (CollectionUtils.isNotEmpty(leverages))
@@ -839,6 +1311,7 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 	public void clearWallet() {
 		walletLastUpdated = null;
 		walletCache = null;
+		balanceLedger.clear();
 	}
 
 	// ---- Task execution methods
@@ -896,7 +1369,61 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 
 	@Override
 	public Map<String, Runnable> getBackgroundJobs(MarketPairsProvider provider) {
-		return new HashMap<>();
+		Map<String, Runnable> jobs = new HashMap<>();
+		if (orderBookSnapshotIntervalMillis > 0)
+			jobs.put(getName() + "OrderBookRefresher", new Runnable() {
+				@Override
+				public void run() {
+					while (Main.stillRunning) {
+						try {
+							if (!isDisabledTemporarily())
+								refreshStaleOrderBooks();
+							Thread.sleep(orderBookSnapshotIntervalMillis);
+						} catch (InterruptedException e) {
+							log.debug("{} order book refresher interrupted, exiting", getName());
+							return;
+						}
+					}
+				}
+			});
+		if (metadata != null)
+			jobs.put(getName() + "MetadataRefresher", new Runnable() {
+				@Override
+				public void run() {
+					long refreshMillis = params.getLong(getName() + "MetadataRefreshMillis",
+							params.getLong("MetadataRefreshMillis", DEFAULT_METADATA_REFRESH_MILLIS));
+					/* metadata downloaded at startup doesn't need refreshing right away */
+					boolean refreshNow = metadataFromCache;
+					while (Main.stillRunning) {
+						try {
+							if (refreshNow) {
+								log.debug("Refreshing {} metadata...", getName());
+								try {
+									downloadMetadata();
+								} catch (Exception e) {
+									log.error("Couldn't refresh " + getName() + " metadata; trying again later", e);
+								}
+							}
+							refreshNow = true;
+							Thread.sleep(refreshMillis);
+						} catch (InterruptedException e) {
+							log.debug("{} metadata refresher interrupted, exiting", getName());
+							return;
+						}
+					}
+				}
+			});
+		getUserDataStream().ifPresent(s -> jobs.put(getName() + "UserDataStream", s));
+		return jobs;
+	}
+
+	/**
+	 * No user data stream by default; exchanges offering one should override this
+	 * and always return the same instance
+	 */
+	@Override
+	public Optional<UserDataStream> getUserDataStream() {
+		return Optional.empty();
 	}
 
 	// -------------------------------------------- Common Methods
@@ -935,6 +1462,10 @@ public abstract class AbstractBlackbirdExchange implements BlackbirdExchange {
 		return feePercentage;
 	}
 
+	public long getOrderBookCacheMaxAgeMillis() {
+		return orderBookCacheMaxAgeMillis;
+	}
+
 	public boolean isEnabled() {
 		return enabled;
 	}
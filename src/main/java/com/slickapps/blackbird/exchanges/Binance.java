@@ -4,14 +4,17 @@ import static com.slickapps.blackbird.exchanges.OperationType.CANCEL_ORDER;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_OPEN_ORDERS_FOR_ALL_CURRENCY_PAIRS;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_OPEN_ORDERS_FOR_CURRENCY_PAIR;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER;
+import static java.math.BigDecimal.ZERO;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
@@ -20,6 +23,7 @@ import org.knowm.xchange.Exchange;
 import org.knowm.xchange.binance.BinanceAdapters;
 import org.knowm.xchange.binance.BinanceExchange;
 import org.knowm.xchange.binance.dto.BinanceException;
+import org.knowm.xchange.binance.dto.marketdata.BinanceOrderbook;
 import org.knowm.xchange.binance.dto.meta.exchangeinfo.BinanceExchangeInfo;
 import org.knowm.xchange.binance.dto.meta.exchangeinfo.Filter;
 import org.knowm.xchange.binance.dto.meta.exchangeinfo.RateLimit;
@@ -42,8 +46,10 @@ import org.knowm.xchange.service.trade.params.orders.OpenOrdersParamCurrencyPair
 import org.knowm.xchange.service.trade.params.orders.OpenOrdersParams;
 
 import com.google.common.util.concurrent.RateLimiter;
-import com.slickapps.blackbird.MarketPairsProvider;
 import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
+import com.slickapps.blackbird.model.orderBook.LocalOrderBook;
+import com.slickapps.blackbird.model.tradingRules.TradingRule;
 import com.slickapps.blackbird.service.ExchangeCalculationService.UserTradesAggregateResult;
 import com.slickapps.blackbird.util.RateLimiterProfile;
 
@@ -68,6 +74,14 @@ public class Binance extends AbstractBlackbirdExchange {
 		return ORDER_STATUS_MAP.get(status);
 	}
 
+	/* the number of most recent orders to retrieve when checking order statuses in bulk */
+	private static final int BULK_ORDER_STATUS_LIMIT = 50;
+	/*
+	 * Binance weighs a request for all orders like several single order queries,
+	 * so the bulk request is only worth it for more orders than this
+	 */
+	private static final int BULK_ORDER_STATUS_MIN_ORDERS = 5;
+
 	private static final String RATE_LIMITER_TYPE_REQUESTS = "REQUESTS";
 	private static final String RATE_LIMITER_TYPE_ORDERS = "ORDERS";
 
@@ -84,44 +98,70 @@ public class Binance extends AbstractBlackbirdExchange {
 			customTradeService = new CustomBinanceTradeService(exchange);
 		}
 
-		initializeLocal();
+		initializeMetadata();
 	}
 
-	private void initializeLocal() {
-		log.info("Querying dynamic Binance configuration...");
-
+	@Override
+	protected Optional<ExchangeMetadata> fetchMetadataWithinRate() throws Exception {
 		BinanceMarketDataService marketDataService = (BinanceMarketDataService) exchange.getMarketDataService();
-		BinanceExchangeInfo exchangeInfo;
-		try {
-			exchangeInfo = marketDataService.getExchangeInfo();
-		} catch (IOException e) {
-			throw new RuntimeException("Couldn't initialize Binance", e);
-		}
-		Symbol[] symbols = exchangeInfo.getSymbols();
-
-		symbolMap = new HashMap<>();
+		BinanceExchangeInfo exchangeInfo = marketDataService.getExchangeInfo();
 
-		for (Symbol bs : symbols) {
+		ExchangeMetadata m = new ExchangeMetadata(System.currentTimeMillis());
+		for (Symbol bs : exchangeInfo.getSymbols()) {
 			CurrencyPair cp = new CurrencyPair(bs.getBaseAsset(), bs.getQuoteAsset());
-			symbolMap.put(bs.getSymbol(), cp);
+			m.getSymbols().put(bs.getSymbol(), cp.toString());
 
+			TradingRule tradingRule = new TradingRule();
 			for (Filter filter : bs.getFilters()) {
 				if ("LOT_SIZE".equals(filter.getFilterType())) {
 					if (filter.getMinQty() != null)
-						getOrCreateTradingRule(cp).setMinQuantity(new BigDecimal(filter.getMinQty()));
+						tradingRule.setMinQuantity(new BigDecimal(filter.getMinQty()));
 					if (filter.getStepSize() != null)
-						getOrCreateTradingRule(cp).setStepSizeForQuantity(new BigDecimal(filter.getStepSize()));
+						tradingRule.setStepSizeForQuantity(new BigDecimal(filter.getStepSize()));
 				} else if ("PRICE_FILTER".equals(filter.getFilterType())) {
 					if (filter.getMinPrice() != null)
-						getOrCreateTradingRule(cp).setMinPrice(new BigDecimal(filter.getMinPrice()));
+						tradingRule.setMinPrice(new BigDecimal(filter.getMinPrice()));
 					if (filter.getTickSize() != null)
-						getOrCreateTradingRule(cp).setStepSizeForPrice(new BigDecimal(filter.getTickSize()));
+						tradingRule.setStepSizeForPrice(new BigDecimal(filter.getTickSize()));
 				} else if ("MIN_NOTIONAL".equals(filter.getFilterType())) {
 					if (filter.getMinNotional() != null)
-						getOrCreateTradingRule(cp).setMinTotal(new BigDecimal(filter.getMinNotional()));
+						tradingRule.setMinTotal(new BigDecimal(filter.getMinNotional()));
 				}
 			}
+			m.getTradingRules().put(cp.toString(), tradingRule);
 		}
+
+		if (ArrayUtils.isNotEmpty(exchangeInfo.getRateLimits())) {
+			// calculate slowest rate across all limits and go with this for now
+			Map<String, Double> fastestRateMap = m.getRateLimits();
+
+			fastestRateMap.put(RATE_LIMITER_TYPE_ORDERS, Double.MAX_VALUE);
+			fastestRateMap.put(RATE_LIMITER_TYPE_REQUESTS, Double.MAX_VALUE);
+
+			for (RateLimit l : exchangeInfo.getRateLimits()) {
+				String rateLimitType = l.getRateLimitType(); // "ORDERS" or "REQUESTS"
+				Double val = fastestRateMap.get(rateLimitType);
+				double ratePerSecond = RateLimiterProfile.getRatePerSecond(l);
+				if (val != null && ratePerSecond < val)
+					fastestRateMap.put(rateLimitType, ratePerSecond);
+			}
+			fastestRateMap.values().removeIf(v -> v == Double.MAX_VALUE);
+		}
+		return Optional.of(m);
+	}
+
+	@Override
+	protected void applyMetadata(ExchangeMetadata m) {
+		super.applyMetadata(m);
+
+		Map<String, CurrencyPair> newSymbolMap = new HashMap<>();
+		m.getSymbols().forEach((symbol, pair) -> newSymbolMap.put(symbol, new CurrencyPair(pair)));
+		symbolMap = newSymbolMap;
+
+		if (log.isInfoEnabled() && !m.getRateLimits().isEmpty())
+			log.info("Binance rate limits: {} {}/sec, {} {}/sec", RATE_LIMITER_TYPE_ORDERS,
+					m.getRateLimits().get(RATE_LIMITER_TYPE_ORDERS), RATE_LIMITER_TYPE_REQUESTS,
+					m.getRateLimits().get(RATE_LIMITER_TYPE_REQUESTS));
 	}
 
 	protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... operationMethodArgs) {
@@ -204,35 +244,51 @@ public class Binance extends AbstractBlackbirdExchange {
 			BinanceTradeService tradeService = (BinanceTradeService) exchange.getTradeService();
 			List<BinanceOrder> rawOrders = tradeService.allOrders(currencyPair, null, limit.orElse(null), null,
 					System.currentTimeMillis());
-			List<LimitOrder> orders = rawOrders.stream()
-					.map(o -> new LimitOrder(BinanceAdapters.convert(o.side), o.origQty, o.executedQty,
-							symbolMap.get(o.symbol), Long.toString(o.orderId), o.getTime(), o.price))
-					.collect(Collectors.toList());
+			List<LimitOrder> orders = rawOrders.stream().map(o -> {
+				LimitOrder lo = new LimitOrder(BinanceAdapters.convert(o.side), o.origQty, o.executedQty,
+						symbolMap.get(o.symbol), Long.toString(o.orderId), o.getTime(), o.price);
+				lo.setOrderStatus(adaptBinanceOrderStatus(o.status));
+				return lo;
+			}).collect(Collectors.toList());
 			return orders;
 		}, getRateLimitersForOperation(
 				currencyPair != null ? QUERY_OPEN_ORDERS_FOR_CURRENCY_PAIR : QUERY_OPEN_ORDERS_FOR_ALL_CURRENCY_PAIRS));
 	}
 
+	/**
+	 * For more than a few orders, retrieves the most recent orders for the
+	 * currency pair in a single request; any of the specified orders older than
+	 * that are queried individually. Fewer orders are all queried individually.
+	 */
+	@Override
+	public CompletableFuture<Map<String, OrderStatus>> queryOrderStatuses(CurrencyPair currencyPair,
+			Set<String> orderIds) {
+		if (orderIds.size() <= BULK_ORDER_STATUS_MIN_ORDERS)
+			return super.queryOrderStatuses(currencyPair, orderIds);
+
+		return queryAllOrders(currencyPair, Optional.of(BULK_ORDER_STATUS_LIMIT)).thenCompose(orders -> {
+			Map<String, OrderStatus> results = new HashMap<>();
+			for (LimitOrder o : orders)
+				if (orderIds.contains(o.getId()) && o.getStatus() != null)
+					results.put(o.getId(), o.getStatus());
+
+			Set<String> missingOrderIds = new HashSet<>(orderIds);
+			missingOrderIds.removeAll(results.keySet());
+			if (missingOrderIds.isEmpty())
+				return CompletableFuture.completedFuture(results);
+
+			return super.queryOrderStatuses(currencyPair, missingOrderIds).thenApply(m -> {
+				results.putAll(m);
+				return results;
+			});
+		});
+	}
+
 	@Override
 	public CompletableFuture<Optional<Order>> queryOrder(CurrencyPair currencyPair, String orderId) {
 		return callAsyncWithRetry(() -> {
 			try {
-				Optional<Order> opt = queryOrderWithoutAggregatesWithinRate(currencyPair, orderId);
-				if (!opt.isPresent())
-					return Optional.empty();
-
-				Order order = opt.get();
-				UserTrades tradeHistory = getTradeHistoryNow(currencyPair);
-
-				UserTradesAggregateResult aggRes = calcService.analyzeTrades(currencyPair, orderId,
-						tradeHistory.getUserTrades());
-				if (aggRes.foundMatchingTrades) {
-					order.setAveragePrice(aggRes.averagePrice);
-					order.setCumulativeAmount(aggRes.getSumTradeQuantitiesAfterFees(currencyPair));
-					order.setFee(aggRes.sumFees);
-				}
-
-				return Optional.of(order);
+				return queryOrderWithoutAggregatesWithinRate(currencyPair, orderId);
 			} catch (ExchangeException e) {
 				if (e.getMessage() != null && e.getMessage().contains("Invalid order")) {
 					throw new IllegalArgumentException("Order ID " + orderId + " not found");
@@ -240,7 +296,21 @@ public class Binance extends AbstractBlackbirdExchange {
 					throw e;
 				}
 			}
-		});
+		}).thenCompose(opt -> !opt.isPresent() ? CompletableFuture.completedFuture(opt)
+				: callAsync(() -> Optional.of(addTradeAggregates(currencyPair, orderId, opt.get()))));
+	}
+
+	@Override
+	protected Order addTradeAggregates(CurrencyPair currencyPair, String orderId, Order order) {
+		UserTradesAggregateResult aggRes = calcService.analyzeTrades(currencyPair, orderId,
+				getTradesForOrder(currencyPair, orderId));
+		if (aggRes.foundMatchingTrades) {
+			order.setAveragePrice(aggRes.averagePrice);
+			order.setCumulativeAmount(aggRes.getSumTradeQuantitiesAfterFees(currencyPair));
+			/* base currency fees are already netted out of the cumulative amount */
+			order.setFee(currencyPair.base.equals(aggRes.feeCurrency) ? ZERO : aggRes.sumFees);
+		}
+		return order;
 	}
 
 	protected Optional<Order> queryOrderWithoutAggregatesWithinRate(CurrencyPair currencyPair, String orderId)
@@ -331,58 +401,16 @@ public class Binance extends AbstractBlackbirdExchange {
 
 	}
 
+	/*
+	 * Binance snapshots carry a lastUpdateId which diff stream events are
+	 * sequenced against
+	 */
 	@Override
-	public Map<String, Runnable> getBackgroundJobs(MarketPairsProvider provider) {
-		Map<String, Runnable> jobs = new HashMap<>();
-		jobs.put("BinanceRateLimitUpdater", new Runnable() {
-			@Override
-			public void run() {
-				while (true) {
-					log.info("Updating Binance dynamic rate limits...");
-
-					try {
-						BinanceMarketDataService marketDataService = (BinanceMarketDataService) exchange
-								.getMarketDataService();
-						BinanceExchangeInfo exchangeInfo = marketDataService.getExchangeInfo();
-						if (ArrayUtils.isNotEmpty(exchangeInfo.getRateLimits())) {
-							// calculate slowest rate across all limits and go with this for now
-							Map<String, Double> fastestRateMap = new HashMap<>();
-
-							fastestRateMap.put(RATE_LIMITER_TYPE_ORDERS, Double.MAX_VALUE);
-							fastestRateMap.put(RATE_LIMITER_TYPE_REQUESTS, Double.MAX_VALUE);
-
-							for (RateLimit l : exchangeInfo.getRateLimits()) {
-								String rateLimitType = l.getRateLimitType(); // "ORDERS" or "REQUESTS"
-								Double val = fastestRateMap.get(rateLimitType);
-								double ratePerSecond = RateLimiterProfile.getRatePerSecond(l);
-								if (ratePerSecond < val)
-									fastestRateMap.put(rateLimitType, ratePerSecond);
-							}
-
-							if (log.isInfoEnabled()) {
-								log.info("Updating Binance " + RATE_LIMITER_TYPE_ORDERS + " rate limit to "
-										+ fastestRateMap.get(RATE_LIMITER_TYPE_ORDERS) + "/sec");
-								log.info("Updating Binance " + RATE_LIMITER_TYPE_REQUESTS + " rate limit to "
-										+ fastestRateMap.get(RATE_LIMITER_TYPE_REQUESTS) + "/sec");
-							}
-
-							rateLimiterMap = fastestRateMap.entrySet().stream().collect(
-									Collectors.toMap(Map.Entry::getKey, p -> RateLimiter.create(p.getValue())));
-						}
-
-					} catch (Exception e) {
-						log.error("Couldn't process Binance exchange info update; trying again later", e);
-					}
-
-					try {
-						Thread.sleep(params.getLong("BinanceExchangeInfoRefreshDelayMillis", 15 * 60 * 1000L));
-					} catch (InterruptedException e1) {
-						break;
-					}
-				}
-			}
-		});
-		return jobs;
+	protected void loadOrderBookSnapshotWithinRate(CurrencyPair currencyPair, LocalOrderBook orderBook)
+			throws Exception {
+		BinanceMarketDataService marketDataService = (BinanceMarketDataService) exchange.getMarketDataService();
+		BinanceOrderbook binanceOrderBook = marketDataService.getBinanceOrderbook(currencyPair, 100);
+		orderBook.applySnapshot(binanceOrderBook.bids, binanceOrderBook.asks, binanceOrderBook.lastUpdateId);
 	}
 
 }
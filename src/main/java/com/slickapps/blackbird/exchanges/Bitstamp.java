@@ -1,6 +1,5 @@
 package com.slickapps.blackbird.exchanges;
 
-import static com.slickapps.blackbird.exchanges.OperationType.QUERY_EXCHANGE_INFO;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_OPEN_ORDERS_FOR_ALL_CURRENCY_PAIRS;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_OPEN_ORDERS_FOR_CURRENCY_PAIR;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER_STATUS;
@@ -45,6 +44,7 @@ import org.knowm.xchange.utils.nonce.AtomicLongCurrentTimeIncrementalNonceFactor
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
 import com.slickapps.blackbird.model.tradingRules.TradingRule;
 import com.slickapps.blackbird.service.ExchangeCalculationService.UserTradesAggregateResult;
 
@@ -66,21 +66,21 @@ public class Bitstamp extends AbstractBlackbirdExchange {
 			customMetadataService = new CustomBitstampMetadataService(exchange);
 		}
 
-		initializeLocal();
+		initializeMetadata();
 	}
 
-	private void initializeLocal() {
-		log.info("Querying dynamic Bitstamp configuration...");
-		BitstampTradingPairInfo[] infos = callSyncWithRetry(() -> {
-			BitstampTradingPairInfo[] i = customMetadataService.getExchangeInfo();
-			return i;
-		}, getRateLimitersForOperation(QUERY_EXCHANGE_INFO));
+	@Override
+	protected Optional<ExchangeMetadata> fetchMetadataWithinRate() throws Exception {
+		BitstampTradingPairInfo[] infos = customMetadataService.getExchangeInfo();
 
+		ExchangeMetadata m = new ExchangeMetadata(System.currentTimeMillis());
 		for (BitstampTradingPairInfo info : infos) {
-			TradingRule tradingRule = getOrCreateTradingRule(info.getCurrencyPair());
+			TradingRule tradingRule = new TradingRule();
 			tradingRule.setMinTotal(info.getMinimumOrderTotalPrice());
 			tradingRule.setStepSizeForQuantity(new BigDecimal(10).pow(-1 * info.baseDecimals, DECIMAL32));
+			m.getTradingRules().put(info.getCurrencyPair().toString(), tradingRule);
 		}
+		return Optional.of(m);
 	}
 
 	public Exchange createExchangeInstance() {
@@ -15,10 +15,13 @@ import org.knowm.xchange.dto.Order.OrderType;
 import org.knowm.xchange.dto.account.Balance;
 import org.knowm.xchange.dto.account.Wallet;
 
+import com.google.common.util.concurrent.RateLimiter;
 import com.slickapps.blackbird.EventListenerProvider;
 import com.slickapps.blackbird.MarketPairsProvider;
 import com.slickapps.blackbird.model.OrderPair;
 import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.balance.BalanceLedger;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
 import com.slickapps.blackbird.model.orderCompletion.OrderRollbackType;
 import com.slickapps.blackbird.processes.QuoteGenerator;
 import com.slickapps.blackbird.service.QuoteService;
@@ -33,10 +36,32 @@ public interface BlackbirdExchange extends Comparable<BlackbirdExchange> {
 
 	CompletableFuture<Balance> queryBalance(Currency currency, boolean allowCache);
 
+	/**
+	 * @return The available balance according to our balance ledger, falling back
+	 *         to querying the wallet if the ledger can't answer for this currency
+	 */
+	CompletableFuture<Balance> queryAvailableBalance(Currency currency);
+
+	BalanceLedger getBalanceLedger();
+
+	/**
+	 * @return The currency the fee for the specified order was charged in,
+	 *         according to its trades, or the counter currency if we don't know
+	 */
+	Currency getFeeCurrency(CurrencyPair currencyPair, String orderId);
+
 	CompletableFuture<Optional<Order>> queryOrder(CurrencyPair currencyPair, String orderId);
 
 	CompletableFuture<Optional<OrderStatus>> queryOrderStatus(CurrencyPair currencyPair, String orderId);
 
+	/**
+	 * @return A CompletableFuture which returns the status of each of the
+	 *         specified orders, keyed by order ID. Orders whose status couldn't be
+	 *         determined are omitted. Exchanges with a bulk order endpoint answer
+	 *         this with as few requests as possible.
+	 */
+	CompletableFuture<Map<String, OrderStatus>> queryOrderStatuses(CurrencyPair currencyPair, Set<String> orderIds);
+
 	CompletableFuture<String> openLongPosition(CurrencyPair currencyPair, BigDecimal quantity, boolean useMarketOrder,
 			BigDecimal limitPriceOverride);
 
@@ -81,6 +106,18 @@ public interface BlackbirdExchange extends Comparable<BlackbirdExchange> {
 
 	CompletableFuture<BigDecimal> queryLimitPrice(CurrencyPair currencyPair, BigDecimal volume, OrderType orderType);
 
+	/**
+	 * @return A CompletableFuture which returns a compact snapshot of the bids (for
+	 *         BID) or asks (for ASK), against which any number of volumes can be
+	 *         priced without further requests
+	 */
+	CompletableFuture<OrderBookDepth> queryOrderBookDepth(CurrencyPair currencyPair, OrderType orderType);
+
+	/**
+	 * @return How old order book data may be before it's downloaded again
+	 */
+	long getOrderBookCacheMaxAgeMillis();
+
 	String getDbTableName();
 
 	String getName();
@@ -93,6 +130,12 @@ public interface BlackbirdExchange extends Comparable<BlackbirdExchange> {
 
 	List<CurrencyPair> getCurrencyPairsForLongPositions();
 
+	/**
+	 * @return true if the exchange's metadata shows the specified pair is no
+	 *         longer listed
+	 */
+	boolean isDelisted(CurrencyPair currencyPair);
+
 	Set<CurrencyPair> getCombinedCurrencyPairs();
 
 	boolean isEnabled();
@@ -119,6 +162,12 @@ public interface BlackbirdExchange extends Comparable<BlackbirdExchange> {
 	 */
 	Map<String, Runnable> getBackgroundJobs(MarketPairsProvider provider);
 
+	/**
+	 * @return The push connection over which this exchange reports changes to our
+	 *         orders, if it offers one
+	 */
+	Optional<UserDataStream> getUserDataStream();
+
 	BigDecimal getOrderMinQuantity(CurrencyPair currencyPair);
 
 	BigDecimal getOrderMinPrice(CurrencyPair currencyPair);
@@ -137,6 +186,8 @@ public interface BlackbirdExchange extends Comparable<BlackbirdExchange> {
 
 	boolean isExceptionRetryable(Exception e);
 
+	RateLimiter getDefaultRateLimiter();
+
 	BigDecimal roundQuantityToStepSizeIfNecessary(boolean roundDown, BigDecimal quantity, CurrencyPair currencyPair);
 
 	BigDecimal roundPriceToStepSizeIfNecessary(boolean roundDown, BigDecimal price, CurrencyPair currencyPair);
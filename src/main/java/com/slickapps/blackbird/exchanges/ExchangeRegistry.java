@@ -0,0 +1,106 @@
+package com.slickapps.blackbird.exchanges;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.model.Parameters;
+
+/**
+ * The list of exchanges Blackbird supports. Each is keyed by its name (the
+ * prefix of its configuration properties) and only loaded and constructed if
+ * its "&lt;Name&gt;Enabled" flag is set, so disabled exchanges don't pull in
+ * their XChange modules or make any network calls at startup.
+ * <p>
+ * New exchange implementations must be added here.
+ *
+ * @author barrycon
+ *
+ */
+public class ExchangeRegistry {
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRegistry.class);
+
+	/* exchange name -> implementation class, in initialization order */
+	private static final Map<String, String> EXCHANGE_CLASSES = new LinkedHashMap<>();
+
+	static {
+		register("Binance");
+		register("Bitfinex");
+		register("Bitstamp");
+		register("Bittrex");
+		register("Cex");
+		register("GDAX");
+		register("Gemini");
+		register("HitBTC");
+		register("Kraken");
+		register("Liqui");
+		register("OkCoin");
+	}
+
+	private static void register(String name) {
+		EXCHANGE_CLASSES.put(name, ExchangeRegistry.class.getPackage().getName() + "." + name);
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * @return The names of all supported exchanges
+	 */
+	public static List<String> getExchangeNames() {
+		return Collections.unmodifiableList(new ArrayList<>(EXCHANGE_CLASSES.keySet()));
+	}
+
+	/**
+	 * @return The names of the exchanges which are enabled in the specified
+	 *         parameters
+	 */
+	public static List<String> getEnabledExchangeNames(Parameters params) {
+		List<String> results = new ArrayList<>();
+		for (String name : EXCHANGE_CLASSES.keySet()) {
+			if (params.getBoolean(name + "Enabled", false))
+				results.add(name);
+		}
+		return results;
+	}
+
+	/**
+	 * @return A disabled instance of the specified exchange, which makes no network
+	 *         calls; used as a placeholder for saved pairs on exchanges that are no
+	 *         longer enabled. Null if the exchange is unknown or can't be loaded.
+	 */
+	public static BlackbirdExchange createDisabledExchange(String name) {
+		if (!EXCHANGE_CLASSES.containsKey(name))
+			return null;
+		try {
+			/*
+			 * without any parameters (which, like a blank configuration, leave every
+			 * setting at its default), "<Name>Enabled" defaults to false
+			 */
+			return createExchange(name, new Parameters());
+		} catch (Exception e) {
+			log.warn("Couldn't load exchange " + name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Loads and constructs the specified exchange. This may make network calls
+	 * (e.g. XChange's remoteInit).
+	 */
+	public static BlackbirdExchange createExchange(String name, Parameters params) throws Exception {
+		String className = EXCHANGE_CLASSES.get(name);
+		if (className == null)
+			throw new IllegalArgumentException("Unknown exchange " + name);
+
+		Class<? extends BlackbirdExchange> clazz = Class.forName(className).asSubclass(BlackbirdExchange.class);
+		Constructor<? extends BlackbirdExchange> constr = clazz.getDeclaredConstructor(Parameters.class);
+		return constr.newInstance(params);
+	}
+
+}
@@ -4,7 +4,6 @@ import static com.slickapps.blackbird.exchanges.OperationType.PLACE_LIMIT_ORDER;
 import static com.slickapps.blackbird.exchanges.OperationType.PLACE_MARKET_ORDER;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_OPEN_ORDERS_FOR_ALL_CURRENCY_PAIRS;
 import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER;
-import static com.slickapps.blackbird.exchanges.OperationType.QUERY_ORDER_BOOK;
 import static com.slickapps.blackbird.util.FormatUtil.formatCurrency;
 import static com.slickapps.blackbird.util.FormatUtil.getQuantityFormatter;
 import static java.util.stream.Collectors.toSet;
@@ -108,7 +107,7 @@ public class Kraken extends AbstractBlackbirdExchange {
 	@Override
 	public Map<String, Runnable> getBackgroundJobs(MarketPairsProvider marketPairsProvider) {
 		Kraken kraken = this;
-		Map<String, Runnable> jobs = new HashMap<>();
+		Map<String, Runnable> jobs = super.getBackgroundJobs(marketPairsProvider);
 
 		Runnable positionCleanupJob = new Runnable() {
 			@Override
@@ -320,8 +319,7 @@ public class Kraken extends AbstractBlackbirdExchange {
 			BigDecimal quantity, boolean useMarketOrder, BigDecimal limitPriceOverride) {
 		BigDecimal limitPrice = limitPriceOverride;
 		if (!useMarketOrder && limitPriceOverride == null)
-			limitPrice = callSyncWithRetry(queryLimitPriceInternal(currencyPair, quantity, orderType),
-					getRateLimitersForOperation(QUERY_ORDER_BOOK));
+			limitPrice = queryLimitPriceSync(currencyPair, quantity, orderType);
 		BigDecimal finalPrice = limitPrice;
 
 		log.info("Price: {}", useMarketOrder ? "market price" : formatCurrency(currencyPair.counter, finalPrice));
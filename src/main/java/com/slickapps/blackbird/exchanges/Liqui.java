@@ -16,6 +16,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
@@ -48,6 +49,7 @@ import com.slickapps.blackbird.EventListenerProvider;
 import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
 import com.slickapps.blackbird.model.tradingRules.TradingRule;
 import com.slickapps.blackbird.processes.QuoteGenerator;
 import com.slickapps.blackbird.service.QuoteService;
@@ -69,7 +71,7 @@ public class Liqui extends AbstractBlackbirdExchange {
 			customTradeService = new CustomLiquiTradeService(exchange);
 		}
 
-		initializeLocal();
+		initializeMetadata();
 	}
 
 	@Override
@@ -86,16 +88,16 @@ public class Liqui extends AbstractBlackbirdExchange {
 		};
 	}
 
-	private void initializeLocal() {
-		log.info("Querying dynamic Liqui configuration...");
-
+	@Override
+	protected Optional<ExchangeMetadata> fetchMetadataWithinRate() throws Exception {
 		LiquiMarketDataService marketDataService = (LiquiMarketDataService) exchange.getMarketDataService();
 		Map<String, LiquiPairInfo> infoMap = marketDataService.getInfo();
 
+		ExchangeMetadata m = new ExchangeMetadata(System.currentTimeMillis());
 		for (Entry<String, LiquiPairInfo> entry : infoMap.entrySet()) {
 			CurrencyPair cp = LiquiAdapters.adaptCurrencyPair(entry.getKey());
 			LiquiPairInfo info = entry.getValue();
-			TradingRule tradingRule = getOrCreateTradingRule(cp);
+			TradingRule tradingRule = new TradingRule();
 
 			BigDecimal tickSize = ONE.scaleByPowerOfTen(-1 * info.getDecimalPlaces());
 			tradingRule.setStepSizeForPrice(tickSize);
@@ -108,7 +110,9 @@ public class Liqui extends AbstractBlackbirdExchange {
 				tradingRule.setMinPrice(info.getMinPrice());
 			if (info.getMinTotal() != null)
 				tradingRule.setMinTotal(info.getMinTotal());
+			m.getTradingRules().put(cp.toString(), tradingRule);
 		}
+		return Optional.of(m);
 	}
 
 	@Override
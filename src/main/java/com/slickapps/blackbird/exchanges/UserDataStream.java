@@ -0,0 +1,121 @@
+package com.slickapps.blackbird.exchanges;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.Main;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.orderCompletion.OrderUpdate;
+
+/**
+ * A push connection to an exchange over which it reports changes to our orders
+ * as they happen. Exchanges supporting one return an implementation from
+ * {@link BlackbirdExchange#getUserDataStream()}; it's run as one of the
+ * exchange's background jobs.
+ * <p>
+ * Implementations only need to connect and dispatch events in
+ * {@link #runSession()}. This class reconnects with an exponential backoff
+ * whenever a session ends, and notifies reconnect listeners each time a session
+ * is established, since events sent while we were disconnected are lost and
+ * must be reconciled over REST.
+ *
+ * @author barrycon
+ *
+ */
+public abstract class UserDataStream implements Runnable {
+	private static final Logger log = LoggerFactory.getLogger(UserDataStream.class);
+
+	private static final long DEFAULT_RECONCILIATION_INTERVAL_MILLIS = 30000;
+	private static final long INITIAL_RECONNECT_DELAY_MILLIS = 1000;
+	private static final long MAX_RECONNECT_DELAY_MILLIS = 60000;
+
+	protected BlackbirdExchange exchange;
+	protected long reconciliationIntervalMillis;
+
+	private List<Consumer<OrderUpdate>> orderUpdateListeners = new CopyOnWriteArrayList<>();
+	private List<Runnable> reconnectListeners = new CopyOnWriteArrayList<>();
+	private volatile boolean connected;
+	private long reconnectDelayMillis = INITIAL_RECONNECT_DELAY_MILLIS;
+
+	protected UserDataStream(BlackbirdExchange exchange, Parameters params) {
+		this.exchange = exchange;
+		this.reconciliationIntervalMillis = params.getLong("UserDataStreamReconciliationMillis",
+				DEFAULT_RECONCILIATION_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Connects to the exchange, calls {@link #onConnected()} once subscribed, and
+	 * then {@link #publish(OrderUpdate)} for each order event received. Should
+	 * block until the session ends, either by returning or throwing an exception.
+	 */
+	protected abstract void runSession() throws Exception;
+
+	@Override
+	public void run() {
+		while (Main.stillRunning) {
+			try {
+				runSession();
+				log.warn("User data stream for {} disconnected", exchange);
+			} catch (InterruptedException e) {
+				log.debug("{} user data stream interrupted, exiting", exchange);
+				return;
+			} catch (Exception e) {
+				log.warn("User data stream for " + exchange + " failed", e);
+			} finally {
+				connected = false;
+			}
+
+			try {
+				log.info("Reconnecting user data stream for {} in {} ms...", exchange, reconnectDelayMillis);
+				Thread.sleep(reconnectDelayMillis);
+			} catch (InterruptedException e) {
+				log.debug("{} user data stream interrupted, exiting", exchange);
+				return;
+			}
+			reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+		}
+	}
+
+	protected void onConnected() {
+		log.info("User data stream for {} connected", exchange);
+		connected = true;
+		reconnectDelayMillis = INITIAL_RECONNECT_DELAY_MILLIS;
+		for (Runnable r : reconnectListeners)
+			r.run();
+	}
+
+	protected void publish(OrderUpdate update) {
+		log.debug("{} pushed {}", exchange, update);
+		for (Consumer<OrderUpdate> l : orderUpdateListeners)
+			l.accept(update);
+	}
+
+	public void addOrderUpdateListener(Consumer<OrderUpdate> listener) {
+		orderUpdateListeners.add(listener);
+	}
+
+	/**
+	 * The listener is run every time a session is established, including the
+	 * first
+	 */
+	public void addReconnectListener(Runnable listener) {
+		reconnectListeners.add(listener);
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return How often orders should still be checked over REST while the stream
+	 *         is connected, as a safety net for missed events
+	 */
+	public long getReconciliationIntervalMillis() {
+		return reconciliationIntervalMillis;
+	}
+
+}
@@ -2,6 +2,8 @@ package com.slickapps.blackbird.listener;
 
 import java.util.List;
 
+import org.knowm.xchange.dto.account.Wallet;
+
 import com.slickapps.blackbird.MarketPairsProvider;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
@@ -29,4 +31,6 @@ public interface BlackbirdEventListener {
 
 	void orderComplete(ExchangePairInMarket p);
 
+	void walletChanged(BlackbirdExchange exchange, Wallet previous, Wallet current);
+
 }
@@ -2,6 +2,8 @@ package com.slickapps.blackbird.listener;
 
 import java.util.List;
 
+import org.knowm.xchange.dto.account.Wallet;
+
 import com.slickapps.blackbird.MarketPairsProvider;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
@@ -49,6 +51,10 @@ public abstract class DefaultBlackbirdEventListener implements BlackbirdEventLis
 	public void quotePairEvaluation(QuotePair quotePair, boolean entryNotExit) {
 	}
 
+	@Override
+	public void walletChanged(BlackbirdExchange exchange, Wallet previous, Wallet current) {
+	}
+
 	@Override
 	public void programExit() throws Exception {
 	}
@@ -1,15 +1,21 @@
 package com.slickapps.blackbird.listener;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
 import com.slickapps.blackbird.model.QuotePair;
 import com.slickapps.blackbird.model.SpreadBounds;
+import com.slickapps.blackbird.model.spread.SpreadState.SpreadWindow;
 
 public class SpreadMonitor extends DefaultBlackbirdEventListener {
 
@@ -38,6 +44,24 @@ public class SpreadMonitor extends DefaultBlackbirdEventListener {
 		spreadBounds.input(spread);
 	}
 
+	/**
+	 * Like quotePairEvaluation(), but records the spread as of when the quotes were
+	 * created; used to rebuild the windows from recorded quote history. Quote
+	 * pairs must be replayed in chronological order.
+	 */
+	public void replayQuotePair(QuotePair quotePair, boolean entryNotExit) {
+		Quote longQuote = quotePair.getLongQuote();
+		Quote shortQuote = quotePair.getShortQuote();
+
+		ExchangePairAndCurrencyPair ecp = new ExchangePairAndCurrencyPair(longQuote, shortQuote);
+		BigDecimal spread = entryNotExit ? quotePair.getSpreadIfEntering() : quotePair.getSpreadIfExiting();
+		LocalDateTime time = longQuote.getCreationTime().isAfter(shortQuote.getCreationTime())
+				? longQuote.getCreationTime()
+				: shortQuote.getCreationTime();
+
+		spreadsByExchangeAndCurrency.computeIfAbsent(ecp, p -> createNewSpreadBounds()).input(time, spread);
+	}
+
 	protected SpreadBounds createNewSpreadBounds() {
 		return new SpreadBounds(params.spreadAverageWindowLengthSeconds, params.spreadWindowValidAfterSeconds);
 	}
@@ -63,6 +87,45 @@ public class SpreadMonitor extends DefaultBlackbirdEventListener {
 				.reset();
 	}
 
+	/**
+	 * @return A copy of every non-empty spread window, for saving across restarts
+	 */
+	public List<SpreadWindow> exportSpreadWindows() {
+		List<SpreadWindow> results = new ArrayList<>();
+		for (Entry<ExchangePairAndCurrencyPair, SpreadBounds> entry : spreadsByExchangeAndCurrency.entrySet()) {
+			SpreadBounds bounds = entry.getValue();
+			SpreadWindow window = new SpreadWindow(entry.getKey());
+			window.setSamples(bounds.getSamples());
+			if (window.getSamples().isEmpty())
+				continue;
+			window.setGlobalMin(bounds.getGlobalMin());
+			window.setGlobalMax(bounds.getGlobalMax());
+			results.add(window);
+		}
+		return results;
+	}
+
+	/**
+	 * Restores previously exported spread windows, skipping any for exchanges that
+	 * aren't active and any samples that have fallen out of the window.
+	 * 
+	 * @return The number of windows restored
+	 */
+	public int restoreSpreadWindows(List<SpreadWindow> windows, List<BlackbirdExchange> exchanges) {
+		int numRestored = 0;
+		for (SpreadWindow window : windows) {
+			ExchangePairAndCurrencyPair ecp = window.toExchangePairAndCurrencyPair(exchanges);
+			if (ecp == null)
+				continue;
+
+			SpreadBounds bounds = spreadsByExchangeAndCurrency.computeIfAbsent(ecp, p -> createNewSpreadBounds());
+			bounds.restore(window.getSamples(), window.getGlobalMin(), window.getGlobalMax());
+			if (!bounds.getSamples().isEmpty())
+				numRestored++;
+		}
+		return numRestored;
+	}
+
 	public Optional<SpreadBounds> getSpreadBounds(ExchangePairAndCurrencyPair e) {
 		return Optional.ofNullable(spreadsByExchangeAndCurrency.get(e));
 	}
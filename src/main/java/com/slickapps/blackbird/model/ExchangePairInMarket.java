@@ -15,6 +15,7 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -104,6 +105,9 @@ public class ExchangePairInMarket implements Comparable<ExchangePairInMarket> {
 
 	private AtomicLong versionCounter = new AtomicLong(0);
 
+	/* Notified of each change while this belongs to an ExchangePairsInMarket */
+	private volatile Consumer<ExchangePairInMarket> changeListener;
+
 	// ------------------------------------- Constructor
 
 	public ExchangePairInMarket() {
@@ -167,6 +171,14 @@ public class ExchangePairInMarket implements Comparable<ExchangePairInMarket> {
 
 	private void flagDirty() {
 		versionCounter.incrementAndGet();
+		Consumer<ExchangePairInMarket> listener = changeListener;
+		if (listener != null)
+			listener.accept(this);
+	}
+
+	@JsonIgnore
+	void setChangeListener(Consumer<ExchangePairInMarket> changeListener) {
+		this.changeListener = changeListener;
 	}
 
 	@JsonIgnore
@@ -2,19 +2,27 @@ package com.slickapps.blackbird.model;
 
 import static com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility.ANY;
 import static com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility.NONE;
+import static java.util.Collections.emptySet;
+import static java.util.concurrent.ConcurrentHashMap.newKeySet;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -46,6 +54,91 @@ public class ExchangePairsInMarket {
 	@JsonIgnore
 	private AtomicLong pairsInMarketModifiedCounter = new AtomicLong(0);
 
+	/*
+	 * Secondary indexes, only modified while holding the pairsInMarket lock but
+	 * readable without it
+	 */
+	@JsonIgnore
+	private ConcurrentSkipListMap<Integer, ExchangePairInMarket> pairsById = new ConcurrentSkipListMap<>();
+	@JsonIgnore
+	private Map<BlackbirdExchange, Set<ExchangePairInMarket>> pairsByLongExchange = new ConcurrentHashMap<>();
+	@JsonIgnore
+	private Map<BlackbirdExchange, Set<ExchangePairInMarket>> pairsByShortExchange = new ConcurrentHashMap<>();
+	/* both legs of each pair */
+	@JsonIgnore
+	private Map<ExchangeAndCurrencyPair, Set<ExchangePairInMarket>> pairsByExchangeAndCurrency = new ConcurrentHashMap<>();
+	@JsonIgnore
+	private Map<CurrencyPair, Set<ExchangePairInMarket>> pairsByCurrencyPair = new ConcurrentHashMap<>();
+
+	/* Replaced, never modified, whenever pairs are added, removed or reindexed */
+	@JsonIgnore
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+	@JsonIgnore
+	private long snapshotVersion;
+
+	@JsonIgnore
+	private List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Notified whenever a pair is added to, changed within or removed from the
+	 * market, on the thread which made the change
+	 */
+	public interface ChangeListener {
+		void pairChanged(ExchangePairInMarket pair, boolean removed);
+	}
+
+	/**
+	 * An immutable view of the pairs in market as of some change, which can be
+	 * iterated without locking or copying. The pairs themselves are the live
+	 * instances, so their state may have moved on since.
+	 */
+	public static final class Snapshot {
+		private static final Snapshot EMPTY = new Snapshot(0, Collections.emptyList(),
+				Collections.emptySortedSet(), Collections.emptySortedSet());
+
+		private final long version;
+		private final List<ExchangePairInMarket> pairs;
+		private final SortedSet<ExchangePairInMarket> sortedPairs;
+		private final SortedSet<ExchangePairAndCurrencyPair> exchangePairAndCurrencyPairs;
+
+		private Snapshot(long version, List<ExchangePairInMarket> pairs, SortedSet<ExchangePairInMarket> sortedPairs,
+				SortedSet<ExchangePairAndCurrencyPair> exchangePairAndCurrencyPairs) {
+			this.version = version;
+			this.pairs = pairs;
+			this.sortedPairs = sortedPairs;
+			this.exchangePairAndCurrencyPairs = exchangePairAndCurrencyPairs;
+		}
+
+		/**
+		 * @return A number which increases every time the set of pairs changes
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return The pairs in market, in their natural order
+		 */
+		public List<ExchangePairInMarket> getPairs() {
+			return pairs;
+		}
+
+		/**
+		 * @return The same pairs as {@link #getPairs()}, as an unmodifiable set
+		 */
+		public SortedSet<ExchangePairInMarket> getSortedPairs() {
+			return sortedPairs;
+		}
+
+		public SortedSet<ExchangePairAndCurrencyPair> getExchangePairAndCurrencyPairs() {
+			return exchangePairAndCurrencyPairs;
+		}
+
+		public boolean isEmpty() {
+			return pairs.isEmpty();
+		}
+	}
+
 	// --------------------------------------- Constructors
 
 	public ExchangePairsInMarket() {
@@ -70,10 +163,16 @@ public class ExchangePairsInMarket {
 		}
 	}
 
+	/**
+	 * Iterates the current snapshot, so no lock is held while the action runs
+	 */
 	public void forEach(Consumer<? super ExchangePairInMarket> a) {
-		synchronized (pairsInMarket) {
-			pairsInMarket.forEach(a);
-		}
+		snapshot.getPairs().forEach(a);
+	}
+
+	@JsonIgnore
+	public Snapshot getSnapshot() {
+		return snapshot;
 	}
 
 	public boolean isInMarket(BlackbirdExchange e, CurrencyPair currencyPair) {
@@ -88,43 +187,44 @@ public class ExchangePairsInMarket {
 				pairsInMarketCopy.add(deepCopy ? new ExchangePairInMarket(m) : m);
 			}
 			copy.pairsInMarket = Collections.synchronizedSortedSet(pairsInMarketCopy);
+			copy.reindex();
 			copy.pairsInMarketModifiedCounter.set(pairsInMarketModifiedCounter.get());
 			return copy;
 		}
 	}
 
+	/**
+	 * @return An unmodifiable set taken from the current snapshot
+	 */
 	@JsonIgnore
 	public SortedSet<ExchangePairAndCurrencyPair> getAsExchangePairAndCurrencyPairs() {
-		synchronized (pairsInMarket) {
-			return pairsInMarket.stream().map(p -> p.toExchangePairAndCurrencyPair())
-					.collect(Collectors.toCollection(TreeSet::new));
-		}
+		return snapshot.getExchangePairAndCurrencyPairs();
 	}
 
 	public Set<ExchangePairInMarket> getPairsForExchange(BlackbirdExchange exchange, boolean includeLong,
 			boolean includeShort) {
-		synchronized (pairsInMarket) {
-			return pairsInMarket.stream().filter(p -> (includeLong && exchange.equals(p.getLongExchange()))
-					|| (includeShort && exchange.equals(p.getShortExchange()))).collect(Collectors.toSet());
-		}
+		Set<ExchangePairInMarket> results = new HashSet<>();
+		if (includeLong)
+			results.addAll(pairsByLongExchange.getOrDefault(exchange, emptySet()));
+		if (includeShort)
+			results.addAll(pairsByShortExchange.getOrDefault(exchange, emptySet()));
+		return results;
 	}
 
 	public ExchangePairInMarket getPairForExchangeAndCurrency(BlackbirdExchange e, CurrencyPair currencyPair) {
-		synchronized (pairsInMarket) {
-			return pairsInMarket.stream().filter(p -> p.getLongExchange().isEnabled()
-					&& p.getShortExchange().isEnabled()
-					&& ((p.getLongExchange().equals(e) && p.getLongCurrencyPair().equals(currencyPair))
-							|| (p.getShortExchange().equals(e) && p.getShortCurrencyPair().equals(currencyPair))))
-					.findFirst().orElse(null);
-		}
+		Set<ExchangePairInMarket> pairs = pairsByExchangeAndCurrency.get(new ExchangeAndCurrencyPair(e, currencyPair));
+		if (pairs == null)
+			return null;
+		return pairs.stream().filter(p -> p.getLongExchange().isEnabled() && p.getShortExchange().isEnabled())
+				.findFirst().orElse(null);
 	}
 
 	public Set<ExchangePairInMarket> getPairsForCurrencyPair(CurrencyPair currencyPair) {
-		synchronized (pairsInMarket) {
-			return pairsInMarket.stream().filter(
-					p -> p.getLongCurrencyPair().equals(currencyPair) || p.getShortCurrencyPair().equals(currencyPair))
-					.collect(Collectors.toSet());
-		}
+		return new HashSet<>(pairsByCurrencyPair.getOrDefault(currencyPair, emptySet()));
+	}
+
+	public ExchangePairInMarket getPairById(int id) {
+		return pairsById.get(id);
 	}
 
 	@JsonIgnore
@@ -149,14 +249,13 @@ public class ExchangePairsInMarket {
 
 	@JsonIgnore
 	public int getMaxId() {
-		synchronized (pairsInMarket) {
-			return pairsInMarket.stream().mapToInt(p -> p.getId()).max().orElse(0);
-		}
+		return pairsById.isEmpty() ? 0 : pairsById.lastKey();
 	}
 
 	@JsonIgnore
 	public BigDecimal getTotalExposure(CurrencyPair cp) {
-		return getPairsForCurrencyPair(cp).stream().map(p -> p.getExposure()).reduce(BigDecimal.ZERO, BigDecimal::add);
+		return pairsByCurrencyPair.getOrDefault(cp, emptySet()).stream().map(p -> p.getExposure())
+				.reduce(BigDecimal.ZERO, BigDecimal::add);
 	}
 
 	@JsonIgnore
@@ -166,15 +265,118 @@ public class ExchangePairsInMarket {
 
 	public void addPairInMarket(ExchangePairInMarket e) {
 		pairsInMarketModifiedCounter.incrementAndGet();
-		pairsInMarket.add(e);
+		synchronized (pairsInMarket) {
+			pairsInMarket.add(e);
+			index(e);
+			publishSnapshot();
+		}
+		e.setChangeListener(p -> firePairChanged(p, false));
+		firePairChanged(e, false);
 	}
 
 	public boolean removePairFromMarket(ExchangePairInMarket e) {
 		pairsInMarketModifiedCounter.incrementAndGet();
-		return pairsInMarket.remove(e);
+		boolean removed;
+		synchronized (pairsInMarket) {
+			removed = pairsInMarket.remove(e);
+			if (removed) {
+				unindex(e);
+				publishSnapshot();
+			}
+		}
+		if (removed) {
+			e.setChangeListener(null);
+			firePairChanged(e, true);
+		}
+		return removed;
+	}
+
+	public void addChangeListener(ChangeListener l) {
+		changeListeners.add(l);
+	}
+
+	private void firePairChanged(ExchangePairInMarket e, boolean removed) {
+		for (ChangeListener l : changeListeners)
+			l.pairChanged(e, removed);
+	}
+
+	/*
+	 * Must hold the pairsInMarket lock. Pairs restored from a file have no
+	 * exchanges until filterExchanges() is called, which reindexes them.
+	 */
+	private void index(ExchangePairInMarket e) {
+		pairsById.put(e.getId(), e);
+		if (e.getLongExchange() != null)
+			pairsByLongExchange.computeIfAbsent(e.getLongExchange(), k -> newKeySet()).add(e);
+		if (e.getShortExchange() != null)
+			pairsByShortExchange.computeIfAbsent(e.getShortExchange(), k -> newKeySet()).add(e);
+		for (ExchangeAndCurrencyPair leg : getLegs(e)) {
+			pairsByExchangeAndCurrency.computeIfAbsent(leg, k -> newKeySet()).add(e);
+			pairsByCurrencyPair.computeIfAbsent(leg.getCurrencyPair(), k -> newKeySet()).add(e);
+		}
+	}
+
+	private void unindex(ExchangePairInMarket e) {
+		pairsById.remove(e.getId(), e);
+		if (e.getLongExchange() != null)
+			pairsByLongExchange.getOrDefault(e.getLongExchange(), emptySet()).remove(e);
+		if (e.getShortExchange() != null)
+			pairsByShortExchange.getOrDefault(e.getShortExchange(), emptySet()).remove(e);
+		for (ExchangeAndCurrencyPair leg : getLegs(e)) {
+			pairsByExchangeAndCurrency.getOrDefault(leg, emptySet()).remove(e);
+			pairsByCurrencyPair.getOrDefault(leg.getCurrencyPair(), emptySet()).remove(e);
+		}
+	}
+
+	private static List<ExchangeAndCurrencyPair> getLegs(ExchangePairInMarket e) {
+		List<ExchangeAndCurrencyPair> legs = new ArrayList<>(2);
+		if (e.getLongExchange() != null && e.getLongCurrencyPair() != null)
+			legs.add(e.toLongExchangeAndCurrencyPair());
+		if (e.getShortExchange() != null && e.getShortCurrencyPair() != null)
+			legs.add(e.toShortExchangeAndCurrencyPair());
+		return legs;
+	}
+
+	private void reindex() {
+		synchronized (pairsInMarket) {
+			pairsById.clear();
+			pairsByLongExchange.clear();
+			pairsByShortExchange.clear();
+			pairsByExchangeAndCurrency.clear();
+			pairsByCurrencyPair.clear();
+			for (ExchangePairInMarket e : pairsInMarket)
+				index(e);
+			publishSnapshot();
+		}
+	}
+
+	/*
+	 * Must hold the pairsInMarket lock. Pairs whose exchanges haven't been resolved
+	 * yet (see index()) are left out of the exchange/currency pairs.
+	 */
+	private void publishSnapshot() {
+		SortedSet<ExchangePairInMarket> sortedPairs = new TreeSet<>(pairsInMarket);
+		List<ExchangePairInMarket> pairs = new ArrayList<>(sortedPairs);
+		SortedSet<ExchangePairAndCurrencyPair> ecps = new TreeSet<>();
+		for (ExchangePairInMarket e : pairs)
+			if (e.getLongExchange() != null && e.getShortExchange() != null)
+				ecps.add(e.toExchangePairAndCurrencyPair());
+		snapshot = new Snapshot(++snapshotVersion, Collections.unmodifiableList(pairs),
+				Collections.unmodifiableSortedSet(sortedPairs), Collections.unmodifiableSortedSet(ecps));
 	}
 
 	public void filterExchanges(Collection<? extends BlackbirdExchange> exchanges) {
+		filterExchanges(exchanges, name -> null);
+	}
+
+	/**
+	 * @param disabledExchangeFactory
+	 *            Creates a placeholder for an exchange that's referenced but not
+	 *            active, so the pair is kept (and saved again) but not traded; may
+	 *            return null if the exchange isn't supported
+	 */
+	public void filterExchanges(Collection<? extends BlackbirdExchange> exchanges,
+			Function<String, BlackbirdExchange> disabledExchangeFactory) {
 		Map<String, BlackbirdExchange> exchangesByName = new HashMap<>();
 		for (BlackbirdExchange e : exchanges)
 			exchangesByName.put(e.getName(), e);
@@ -183,8 +385,10 @@ public class ExchangePairsInMarket {
 			for (Iterator<ExchangePairInMarket> it = pairsInMarket.iterator(); it.hasNext();) {
 				ExchangePairInMarket epim = it.next();
 
-				BlackbirdExchange longExchange = exchangesByName.get(epim.getLongExchangeName());
-				BlackbirdExchange shortExchange = exchangesByName.get(epim.getShortExchangeName());
+				BlackbirdExchange longExchange = exchangesByName.computeIfAbsent(epim.getLongExchangeName(),
+						disabledExchangeFactory);
+				BlackbirdExchange shortExchange = exchangesByName.computeIfAbsent(epim.getShortExchangeName(),
+						disabledExchangeFactory);
 				/*
 				 * if our incoming file references an exchange that we didn't activate or don't
 				 * support, ignore this incoming data element entirely
@@ -205,22 +409,25 @@ public class ExchangePairsInMarket {
 				epim.setShortCurrencyPairAndCodes(
 						new CurrencyPair(epim.getShortBaseCurrencyCode(), epim.getShortCounterCurrencyCode()));
 			}
+			reindex();
 		}
 	}
 
 	/**
-	 * @return A list of the ExchangePairInMarket - synchronize on this list
-	 *         externally during iteration.
+	 * @return An unmodifiable set of the pairs in the current snapshot; add or
+	 *         remove pairs with addPairInMarket() and removePairFromMarket()
 	 */
 	public SortedSet<ExchangePairInMarket> getPairsInMarket() {
-		return pairsInMarket;
+		return snapshot.getSortedPairs();
 	}
 
 	@SuppressWarnings("unused")
 	private void setPairsInMarket(Collection<ExchangePairInMarket> incoming) {
-		pairsInMarket.clear();
+		for (ExchangePairInMarket e : snapshot.getPairs())
+			removePairFromMarket(e);
 		if (CollectionUtils.isNotEmpty(incoming))
-			pairsInMarket.addAll(incoming);
+			for (ExchangePairInMarket e : incoming)
+				addPairInMarket(e);
 	}
 
 }
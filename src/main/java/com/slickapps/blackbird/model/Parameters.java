@@ -10,9 +10,11 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 
@@ -24,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Iterators;
+import com.slickapps.blackbird.util.UnionFind;
 
 public class Parameters {
 	private static final Logger log = LoggerFactory.getLogger(Parameters.class);
@@ -41,6 +44,7 @@ public class Parameters {
 	public int trailingRequiredConfirmationPeriods;
 
 	public BigDecimal orderBookFactor;
+	public boolean useExecutableSpread;
 	public boolean demoMode;
 	public boolean fileSaveEnabled;
 	private Map<Currency, BigDecimal> maxInitialCurrenciesAllowed = new HashMap<>();
@@ -62,7 +66,9 @@ public class Parameters {
 
 	public String dbFile;
 
-	private Map<Currency, Set<Currency>> equivalentCurrencies;
+	private Map<Currency, Set<Currency>> equivalentCurrencies = new HashMap<>();
+	/* the representative of each currency linked to others through equivalentCurrencies */
+	private Map<Currency, Currency> equivalenceClasses = new HashMap<>();
 
 	public void setFromProperties(Properties properties) throws IOException {
 		this.params = properties;
@@ -103,6 +109,7 @@ public class Parameters {
 			targetProfitPercentage = targetProfitPercentage.divide(_100, DECIMAL64);
 
 		equivalentCurrencies = parseEquivalentCurrenciesCSV(getString("EquivalentCurrencies", ""));
+		equivalenceClasses = linkEquivalenceClasses(equivalentCurrencies);
 
 		// ------------------- dynamic behavior
 
@@ -136,16 +143,38 @@ public class Parameters {
 				equivalentCurrencies.computeIfAbsent(c2, p -> new HashSet<>()).add(c1);
 			}
 		}
+
+		equivalentCurrencies.replaceAll((c, equivalents) -> Collections.unmodifiableSet(equivalents));
 		return equivalentCurrencies;
 	}
 
+	/**
+	 * Maps each currency to the alphabetically first currency it's linked to,
+	 * directly or through others; e.g. "USD:USDT,USDT:TUSD" links all three even
+	 * though USD and TUSD aren't equivalent themselves
+	 */
+	private static Map<Currency, Currency> linkEquivalenceClasses(Map<Currency, Set<Currency>> equivalentCurrencies) {
+		UnionFind<Currency> links = new UnionFind<>();
+		for (Entry<Currency, Set<Currency>> e : equivalentCurrencies.entrySet())
+			for (Currency equivalent : e.getValue())
+				links.union(e.getKey(), equivalent);
+
+		Map<Currency, Currency> equivalenceClasses = new HashMap<>();
+		for (Set<Currency> linked : links.getSets()) {
+			Currency first = linked.stream().min(Comparator.comparing(Currency::getCurrencyCode)).get();
+			for (Currency c : linked)
+				equivalenceClasses.put(c, first);
+		}
+		return equivalenceClasses;
+	}
+
 	/**
 	 * Gets all equivalent currencies to the specified Currency (not including the
-	 * specified Currency)
+	 * specified Currency) as configured, as an unmodifiable set
 	 */
 	public Set<Currency> getEquivalentCurrencies(Currency c) {
 		Set<Currency> set = equivalentCurrencies.get(c);
-		return set == null ? new HashSet<>() : set;
+		return set == null ? Collections.emptySet() : set;
 	}
 
 	public boolean currenciesEquivalent(Currency c1, Currency c2) {
@@ -162,6 +191,19 @@ public class Parameters {
 		return currenciesEquivalent(cp1.base, cp2.base) && currenciesEquivalent(cp1.counter, cp2.counter);
 	}
 
+	/**
+	 * @return The currency pair representing every currency pair linked to the
+	 *         specified one through EquivalentCurrencies, made of the
+	 *         alphabetically first currency linked to each of its currencies
+	 *         (e.g. BTC/USD for BTC/USDT when USD and USDT are equivalent). Unlike
+	 *         equivalence itself this is transitive, so it's meant for grouping
+	 *         pairs that may interact rather than for limits.
+	 */
+	public CurrencyPair getEquivalenceClass(CurrencyPair cp) {
+		return new CurrencyPair(equivalenceClasses.getOrDefault(cp.base, cp.base),
+				equivalenceClasses.getOrDefault(cp.counter, cp.counter));
+	}
+
 	public Map<Currency, BigDecimal> getMaxExposureAmounts() {
 		return maxExposureAmounts;
 	}
@@ -197,10 +239,10 @@ public class Parameters {
 		if (max != null)
 			return max;
 
-		Set<Currency> equivalentBases = getEquivalentCurrencies(c.base);
+		Set<Currency> equivalentBases = new HashSet<>(getEquivalentCurrencies(c.base));
 		equivalentBases.add(c.base);
 
-		Set<Currency> equivalentCounters = getEquivalentCurrencies(c.counter);
+		Set<Currency> equivalentCounters = new HashSet<>(getEquivalentCurrencies(c.counter));
 		equivalentCounters.add(c.counter);
 
 		for (Currency equivalentBase : equivalentBases) {
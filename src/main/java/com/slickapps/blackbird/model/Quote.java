@@ -18,6 +18,12 @@ public class Quote {
 	private ExchangeAndCurrencyPair exchangeAndCurrencyPair;
 	private BigDecimal bid;
 	private BigDecimal ask;
+	/*
+	 * Optional volume weighted prices for our intended order quantity; only
+	 * populated when quotes are derived from order book depth
+	 */
+	private BigDecimal executableBid;
+	private BigDecimal executableAsk;
 	private LocalDateTime creationTime;
 
 	public Quote(ExchangeAndCurrencyPair exchangeAndCurrencyPair, BigDecimal bid, BigDecimal ask) {
@@ -30,6 +36,22 @@ public class Quote {
 		this.creationTime = LocalDateTime.now();
 	}
 
+	/**
+	 * Recreates a quote that was received at the specified time
+	 */
+	public Quote(ExchangeAndCurrencyPair exchangeAndCurrencyPair, BigDecimal bid, BigDecimal ask,
+			LocalDateTime creationTime) {
+		this(exchangeAndCurrencyPair, bid, ask);
+		this.creationTime = creationTime;
+	}
+
+	public Quote(ExchangeAndCurrencyPair exchangeAndCurrencyPair, BigDecimal bid, BigDecimal ask,
+			BigDecimal executableBid, BigDecimal executableAsk) {
+		this(exchangeAndCurrencyPair, bid, ask);
+		this.executableBid = executableBid;
+		this.executableAsk = executableAsk;
+	}
+
 	public BigDecimal getMidPrice() {
 		if (bid != null && ask != null && bid.signum() == 1 && ask.signum() == 1) {
 			return bid.add(ask).divide(TWO, DECIMAL64);
@@ -63,6 +85,26 @@ public class Quote {
 		return ask;
 	}
 
+	public boolean hasExecutablePrices() {
+		return executableBid != null && executableAsk != null;
+	}
+
+	/**
+	 * @return The volume weighted bid for our intended quantity if known,
+	 *         otherwise the top of book bid
+	 */
+	public BigDecimal getExecutableBid() {
+		return executableBid != null ? executableBid : bid;
+	}
+
+	/**
+	 * @return The volume weighted ask for our intended quantity if known,
+	 *         otherwise the top of book ask
+	 */
+	public BigDecimal getExecutableAsk() {
+		return executableAsk != null ? executableAsk : ask;
+	}
+
 	public LocalDateTime getCreationTime() {
 		return creationTime;
 	}
@@ -36,6 +36,19 @@ public class QuotePair {
 		return spread;
 	}
 
+	/**
+	 * @return The spread percentage for entering the market at the prices we'd
+	 *         actually pay to fill our intended quantity - that is, using each
+	 *         quote's volume weighted executable prices where available. Without
+	 *         depth information this is the same as getSpreadIfEntering().
+	 */
+	public BigDecimal getExecutableSpreadIfEntering() {
+		BigDecimal priceLong = longQuote.getExecutableAsk();
+		BigDecimal priceShort = shortQuote.getExecutableBid();
+		BigDecimal spread = priceShort.subtract(priceLong).divide(priceLong, DECIMAL64);
+		return spread;
+	}
+
 	/**
 	 * @return The spread percentage for exiting the market with these two quotes -
 	 *         that is, the (shortQuote's bid - longQuote's ask) / (longQuote's
@@ -6,7 +6,11 @@ import static java.time.temporal.ChronoUnit.MILLIS;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+
+import com.slickapps.blackbird.model.spread.SpreadSample;
 
 /**
  * @author barrycon
@@ -41,17 +45,24 @@ public class SpreadBounds {
 		this.windowValidAfterSeconds = windowValidAfterSeconds;
 	}
 
-	public synchronized void input(BigDecimal val) {
+	public void input(BigDecimal val) {
+		input(LocalDateTime.now(), val);
+	}
+
+	/**
+	 * Records a value observed at the specified time, which must not be earlier
+	 * than the last value input (e.g. when replaying recorded history)
+	 */
+	public synchronized void input(LocalDateTime time, BigDecimal val) {
 		if (globalMin == null || val.compareTo(globalMin) == -1)
 			globalMin = val;
 		if (globalMax == null || val.compareTo(globalMax) == 1)
 			globalMax = val;
 
-		LocalDateTime now = LocalDateTime.now();
-		vals.addLast(new TimeAndValue(now, val));
+		vals.addLast(new TimeAndValue(time, val));
 		lastSum = lastSum.add(val);
 
-		trimExpired(now.minusSeconds(windowLengthSeconds));
+		trimExpired(time.minusSeconds(windowLengthSeconds));
 	}
 
 	public synchronized boolean hasWindowAverage() {
@@ -109,6 +120,43 @@ public class SpreadBounds {
 		}
 	}
 
+	public synchronized boolean hasSamples() {
+		return !vals.isEmpty();
+	}
+
+	/**
+	 * @return A copy of the values within the current window, oldest first
+	 */
+	public synchronized List<SpreadSample> getSamples() {
+		List<SpreadSample> results = new ArrayList<>(vals.size());
+		for (TimeAndValue v : vals)
+			results.add(new SpreadSample(v.time, v.value));
+		return results;
+	}
+
+	/**
+	 * Replaces our state with previously saved samples (e.g. from before a
+	 * restart), ignoring any which have already fallen out of the window. The
+	 * window is considered valid as soon as the oldest restored sample is older
+	 * than windowValidAfterSeconds.
+	 */
+	public synchronized void restore(List<SpreadSample> samples, BigDecimal globalMin, BigDecimal globalMax) {
+		reset();
+
+		LocalDateTime windowStart = LocalDateTime.now().minusSeconds(windowLengthSeconds);
+		for (SpreadSample s : samples) {
+			if (s.getTime().isBefore(windowStart) || !vals.isEmpty() && s.getTime().isBefore(vals.getLast().time))
+				continue;
+			vals.addLast(new TimeAndValue(s.getTime(), s.getValue()));
+			lastSum = lastSum.add(s.getValue());
+		}
+
+		if (!vals.isEmpty()) {
+			this.globalMin = globalMin;
+			this.globalMax = globalMax;
+		}
+	}
+
 	public synchronized void reset() {
 		this.globalMin = null;
 		this.globalMax = null;
@@ -0,0 +1,322 @@
+package com.slickapps.blackbird.model.balance;
+
+import static java.math.BigDecimal.ZERO;
+import static java.math.MathContext.DECIMAL64;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.Order.OrderStatus;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Our own running tally of the available balances at a single exchange, so that
+ * entry checks don't need to query the wallet. It's seeded and periodically
+ * reconciled from wallet snapshots; in between, the amount an order spends is
+ * debited as soon as it's placed, and the amount it received (along with any
+ * unspent reservation, less its fee) is credited once it's settled.
+ * <p>
+ * A snapshot taken while an order is open already reflects whatever it has
+ * filled so far, which we'd count again when it settles. So while we have a
+ * tally, a snapshot doesn't replace the balances of currencies with open
+ * orders; they're reconciled by the first snapshot after their orders settle.
+ * Without a tally, their snapshot balances are taken but marked stale.
+ * <p>
+ * If a snapshot differs from our tally by more than the drift threshold for a
+ * currency without any pending orders, an alarm is logged since something is
+ * moving funds that we don't know about. Currencies affected by orders we
+ * can't model (e.g. margin positions) are marked stale and aren't served from
+ * the ledger until the next snapshot.
+ * <p>
+ * Before placing its orders, an entry may also hold the balance it needs, so
+ * that entries evaluated concurrently (e.g. in other currency pairs) can't
+ * count on the same funds. Held amounts are excluded from the available
+ * balance until released. Holds are only granted against a tally, so a stale
+ * currency (e.g. after a margin order) must be snapshotted again first.
+ *
+ * @author barrycon
+ *
+ */
+public class BalanceLedger {
+	private static final Logger log = LoggerFactory.getLogger(BalanceLedger.class);
+
+	public static final BigDecimal DEFAULT_DRIFT_ALARM_PERCENTAGE = new BigDecimal("1");
+	private static final BigDecimal ONE_HUNDRED = new BigDecimal(100);
+
+	private String exchangeName;
+	private BigDecimal driftAlarmPercentage = DEFAULT_DRIFT_ALARM_PERCENTAGE;
+
+	private Map<Currency, BigDecimal> available = new HashMap<>();
+	private Set<Currency> staleCurrencies = new HashSet<>();
+	private Map<String, Reservation> reservations = new HashMap<>();
+	private Map<Object, Hold> holds = new HashMap<>();
+	private boolean seeded;
+	private int driftAlarmCount;
+
+	private static class Reservation {
+		CurrencyPair currencyPair;
+		OrderType orderType;
+		BigDecimal amount;
+		Currency currency;
+	}
+
+	private static class Hold {
+		Currency currency;
+		BigDecimal amount;
+	}
+
+	public BalanceLedger(String exchangeName) {
+		this.exchangeName = exchangeName;
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * Replaces our tally with the balances in the specified snapshot, except for
+	 * currencies with open orders, raising an alarm for any currency which
+	 * drifted further than expected.
+	 */
+	public synchronized void reconcile(Wallet wallet) {
+		Set<Currency> reservedCurrencies = new HashSet<>();
+		for (Reservation r : reservations.values()) {
+			reservedCurrencies.add(r.currencyPair.base);
+			reservedCurrencies.add(r.currencyPair.counter);
+		}
+
+		Map<Currency, BigDecimal> snapshot = new HashMap<>();
+		for (Balance b : wallet.getBalances().values())
+			snapshot.put(b.getCurrency(), b.getAvailable());
+
+		Set<Currency> newStaleCurrencies = new HashSet<>();
+		for (Currency c : reservedCurrencies) {
+			if (seeded && !staleCurrencies.contains(c))
+				snapshot.put(c, available.getOrDefault(c, ZERO));
+			else
+				newStaleCurrencies.add(c);
+		}
+
+		if (seeded) {
+			Set<Currency> currencies = new HashSet<>(available.keySet());
+			currencies.addAll(snapshot.keySet());
+			for (Currency c : currencies) {
+				if (reservedCurrencies.contains(c) || staleCurrencies.contains(c))
+					continue;
+
+				BigDecimal expected = available.getOrDefault(c, ZERO);
+				BigDecimal actual = snapshot.getOrDefault(c, ZERO);
+				if (isDrift(expected, actual)) {
+					driftAlarmCount++;
+					log.error("Balance drift detected at {}: expected {} {} available but the exchange reports {}",
+							exchangeName, expected.toPlainString(), c, actual.toPlainString());
+				}
+			}
+		}
+
+		available = snapshot;
+		staleCurrencies = newStaleCurrencies;
+		seeded = true;
+	}
+
+	private boolean isDrift(BigDecimal expected, BigDecimal actual) {
+		BigDecimal diff = actual.subtract(expected).abs();
+		if (diff.signum() == 0)
+			return false;
+		BigDecimal base = expected.abs().max(actual.abs());
+		return diff.multiply(ONE_HUNDRED).divide(base, DECIMAL64).compareTo(driftAlarmPercentage) > 0;
+	}
+
+	/**
+	 * Debits the amount the specified order will spend: the counter currency for
+	 * a buy (only if the limit price is known), or the base currency for a sell.
+	 */
+	public synchronized void orderPlaced(String orderId, CurrencyPair currencyPair, OrderType orderType,
+			BigDecimal quantity, BigDecimal limitPrice) {
+		if (orderId == null)
+			return;
+
+		Reservation r = new Reservation();
+		r.currencyPair = currencyPair;
+		r.orderType = orderType;
+		if (orderType == OrderType.BID) {
+			r.currency = currencyPair.counter;
+			r.amount = limitPrice == null ? ZERO : quantity.multiply(limitPrice);
+		} else {
+			r.currency = currencyPair.base;
+			r.amount = quantity;
+		}
+		add(r.currency, r.amount.negate());
+		reservations.put(orderId, r);
+	}
+
+	/**
+	 * Credits what the specified order received and refunds its reservation, now
+	 * that we know how much it actually spent, and debits its fee. Orders that
+	 * haven't reached a final status are ignored, as are orders we didn't see
+	 * placed or already settled.
+	 *
+	 * @param status
+	 *            The order's status, which some exchanges don't fill in on the
+	 *            order itself
+	 * @param feeCurrency
+	 *            The currency the order's fee was charged in, or null for the
+	 *            counter currency
+	 */
+	public synchronized void orderSettled(Order order, OrderStatus status, Currency feeCurrency) {
+		if (order == null || !isFinal(status))
+			return;
+
+		Reservation r = reservations.remove(order.getId());
+		if (r == null)
+			return;
+
+		BigDecimal filled = order.getCumulativeAmount() == null ? ZERO : order.getCumulativeAmount();
+		BigDecimal proceeds = order.getAveragePrice() == null ? ZERO : filled.multiply(order.getAveragePrice());
+
+		if (r.orderType == OrderType.BID) {
+			add(r.currencyPair.base, filled);
+			add(r.currencyPair.counter, proceeds.negate());
+		} else {
+			add(r.currencyPair.counter, proceeds);
+			add(r.currencyPair.base, filled.negate());
+		}
+		add(r.currency, r.amount);
+
+		if (order.getFee() != null)
+			add(feeCurrency == null ? r.currencyPair.counter : feeCurrency, order.getFee().negate());
+	}
+
+	/**
+	 * Drops the reservation of an order we've stopped watching without seeing it
+	 * settle, e.g. a revert order whose tracking expired. Since we don't know what
+	 * it spent, its currencies are marked stale until the next snapshot.
+	 */
+	public synchronized void orderAbandoned(String orderId) {
+		Reservation r = reservations.remove(orderId);
+		if (r == null)
+			return;
+
+		staleCurrencies.add(r.currencyPair.base);
+		staleCurrencies.add(r.currencyPair.counter);
+	}
+
+	private static boolean isFinal(OrderStatus status) {
+		if (status == null)
+			return false;
+		switch (status) {
+		case FILLED:
+		case CANCELED:
+		case REPLACED:
+		case STOPPED:
+		case REJECTED:
+		case EXPIRED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Stops serving the specified currency from the ledger until the next
+	 * snapshot, e.g. after an order whose effect on it we can't model
+	 */
+	public synchronized void markStale(Currency currency) {
+		staleCurrencies.add(currency);
+	}
+
+	/**
+	 * Atomically holds the specified amount for the specified key (replacing any
+	 * previous hold for it), as long as that much is available and not already
+	 * held. If we don't have a tally for the currency (see
+	 * {@link #getAvailable(Currency)}), there's nothing to check against, so the
+	 * hold is refused; the caller should take a wallet snapshot and try again.
+	 *
+	 * @return false if not enough was available or we don't have a tally, in
+	 *         which case nothing is held
+	 */
+	public synchronized boolean hold(Object key, Currency currency, BigDecimal amount) {
+		holds.remove(key);
+		if (!seeded || staleCurrencies.contains(currency))
+			return false;
+
+		BigDecimal free = available.getOrDefault(currency, ZERO).subtract(getHeld(currency));
+		if (free.compareTo(amount) < 0)
+			return false;
+
+		Hold h = new Hold();
+		h.currency = currency;
+		h.amount = amount;
+		holds.put(key, h);
+		return true;
+	}
+
+	public synchronized void releaseHold(Object key) {
+		holds.remove(key);
+	}
+
+	private BigDecimal getHeld(Currency currency) {
+		BigDecimal held = ZERO;
+		for (Hold h : holds.values())
+			if (h.currency.equals(currency))
+				held = held.add(h.amount);
+		return held;
+	}
+
+	private void add(Currency c, BigDecimal amount) {
+		available.merge(c, amount, BigDecimal::add);
+	}
+
+	/**
+	 * Forgets everything until the next snapshot
+	 */
+	public synchronized void clear() {
+		available.clear();
+		staleCurrencies.clear();
+		reservations.clear();
+		holds.clear();
+		seeded = false;
+	}
+
+	// ------------------------------ Accessor Methods
+
+	/**
+	 * @return Our tally of the available balance of the specified currency, less
+	 *         any amount held, or empty if we haven't received a snapshot yet or
+	 *         the currency is stale
+	 */
+	public synchronized Optional<BigDecimal> getAvailable(Currency currency) {
+		if (!seeded || staleCurrencies.contains(currency))
+			return Optional.empty();
+		return Optional.of(available.getOrDefault(currency, ZERO).subtract(getHeld(currency)).max(ZERO));
+	}
+
+	/**
+	 * @return true if the specified order was placed and hasn't settled yet
+	 */
+	public synchronized boolean isReserved(String orderId) {
+		return reservations.containsKey(orderId);
+	}
+
+	public synchronized boolean isSeeded() {
+		return seeded;
+	}
+
+	public synchronized int getDriftAlarmCount() {
+		return driftAlarmCount;
+	}
+
+	public void setDriftAlarmPercentage(BigDecimal driftAlarmPercentage) {
+		this.driftAlarmPercentage = driftAlarmPercentage;
+	}
+
+}
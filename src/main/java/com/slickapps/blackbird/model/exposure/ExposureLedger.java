@@ -0,0 +1,194 @@
+package com.slickapps.blackbird.model.exposure;
+
+import static java.math.BigDecimal.ZERO;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+import com.slickapps.blackbird.model.Parameters;
+
+/**
+ * Running totals of the exposure of our pairs in market, per currency pair and
+ * per equivalence class of currency pairs (e.g. BTC/USD and BTC/USDT when USD
+ * and USDT are equivalent). The totals are kept up to date from the
+ * ExchangePairsInMarket change notifications, so reading them never scans the
+ * market or waits on a lock.
+ * <p>
+ * An entry which is still being placed reserves its transaction amount against
+ * the equivalence class of its currency pairs. The check against the max
+ * exposure and the reservation happen atomically, so concurrent entries can't
+ * both fit into the same remaining exposure. Once the pair is added to the
+ * market its reservation is replaced by its actual exposure in the same step.
+ *
+ * @author barrycon
+ *
+ */
+public class ExposureLedger implements ExchangePairsInMarket.ChangeListener {
+
+	private Parameters params;
+
+	/* pair ID -> what that pair currently contributes to the totals */
+	private Map<Integer, Contribution> contributions = new HashMap<>();
+	private Map<ExchangePairAndCurrencyPair, Contribution> reservations = new HashMap<>();
+
+	/* Only modified while holding our lock but readable without it */
+	private Map<CurrencyPair, BigDecimal> totalsByCurrencyPair = new ConcurrentHashMap<>();
+	private Map<CurrencyPair, BigDecimal> totalsByClass = new ConcurrentHashMap<>();
+	private Map<CurrencyPair, BigDecimal> reservedByClass = new ConcurrentHashMap<>();
+
+	private Map<CurrencyPair, CurrencyPair> classKeys = new ConcurrentHashMap<>();
+
+	private static class Contribution {
+		Set<CurrencyPair> currencyPairs = new LinkedHashSet<>();
+		Set<CurrencyPair> classes = new LinkedHashSet<>();
+		BigDecimal amount;
+	}
+
+	public ExposureLedger(Parameters params) {
+		this.params = params;
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * Counts the pairs already in the specified market and follows its changes from
+	 * now on
+	 */
+	public void init(ExchangePairsInMarket exchangePairsInMarket) {
+		/*
+		 * listen first so nothing is missed; counting a pair twice is harmless since
+		 * we replace its contribution rather than adding to it
+		 */
+		exchangePairsInMarket.addChangeListener(this);
+		exchangePairsInMarket.forEach(p -> pairChanged(p, false));
+	}
+
+	@Override
+	public synchronized void pairChanged(ExchangePairInMarket pair, boolean removed) {
+		Contribution old = contributions.remove(pair.getId());
+		if (old != null)
+			apply(old, false);
+
+		if (removed)
+			return;
+
+		BigDecimal exposure = pair.getExposure() == null ? ZERO : pair.getExposure();
+		Contribution c = newContribution(pair.getLongCurrencyPair(), pair.getShortCurrencyPair(), exposure);
+		contributions.put(pair.getId(), c);
+		apply(c, true);
+
+		/* the entry has made it into the market; its actual exposure now counts */
+		if (old == null)
+			release(pair.toExchangePairAndCurrencyPair());
+	}
+
+	/**
+	 * Reserves up to the specified amount against the equivalence class of this
+	 * pair's currency pairs without exceeding the specified max exposure. Any
+	 * previous reservation for the same pair is replaced.
+	 *
+	 * @return The amount reserved, or zero if the max exposure is already met (in
+	 *         which case nothing is reserved)
+	 */
+	public synchronized BigDecimal reserve(ExchangePairAndCurrencyPair ecp, BigDecimal amount,
+			BigDecimal maxExposure) {
+		release(ecp);
+
+		Contribution c = newContribution(ecp.getLongCurrencyPair(), ecp.getShortCurrencyPair(), ZERO);
+		BigDecimal current = ZERO;
+		for (CurrencyPair classKey : c.classes)
+			current = current.max(getTotal(totalsByClass, classKey).add(getTotal(reservedByClass, classKey)));
+
+		BigDecimal reserved = amount.min(maxExposure.subtract(current));
+		if (reserved.signum() <= 0)
+			return ZERO;
+
+		c.amount = reserved;
+		for (CurrencyPair classKey : c.classes)
+			reservedByClass.merge(classKey, reserved, BigDecimal::add);
+		reservations.put(ecp, c);
+		return reserved;
+	}
+
+	/**
+	 * Releases the reservation for this pair, if it still has one
+	 */
+	public synchronized void release(ExchangePairAndCurrencyPair ecp) {
+		Contribution c = reservations.remove(ecp);
+		if (c == null)
+			return;
+		for (CurrencyPair classKey : c.classes)
+			reservedByClass.merge(classKey, c.amount.negate(), BigDecimal::add);
+	}
+
+	/**
+	 * @return The total exposure of our pairs in market with a leg in exactly this
+	 *         currency pair
+	 */
+	public BigDecimal getTotalExposure(CurrencyPair cp) {
+		return getTotal(totalsByCurrencyPair, cp);
+	}
+
+	/**
+	 * @return The total exposure of our pairs in market with a leg in this currency
+	 *         pair or any equivalent one, plus what's reserved against them
+	 */
+	public BigDecimal getEquivalentExposure(CurrencyPair cp) {
+		CurrencyPair classKey = getClassKey(cp);
+		return getTotal(totalsByClass, classKey).add(getTotal(reservedByClass, classKey));
+	}
+
+	// ------------------------------ Helper Methods
+
+	private Contribution newContribution(CurrencyPair longCurrencyPair, CurrencyPair shortCurrencyPair,
+			BigDecimal amount) {
+		Contribution c = new Contribution();
+		c.currencyPairs.add(longCurrencyPair);
+		c.currencyPairs.add(shortCurrencyPair);
+		c.classes.add(getClassKey(longCurrencyPair));
+		c.classes.add(getClassKey(shortCurrencyPair));
+		c.amount = amount;
+		return c;
+	}
+
+	private void apply(Contribution c, boolean add) {
+		BigDecimal amount = add ? c.amount : c.amount.negate();
+		for (CurrencyPair cp : c.currencyPairs)
+			totalsByCurrencyPair.merge(cp, amount, BigDecimal::add);
+		for (CurrencyPair classKey : c.classes)
+			totalsByClass.merge(classKey, amount, BigDecimal::add);
+	}
+
+	private static BigDecimal getTotal(Map<CurrencyPair, BigDecimal> totals, CurrencyPair cp) {
+		return totals.getOrDefault(cp, ZERO);
+	}
+
+	/*
+	 * Every currency pair in an equivalence class maps to the same key, made of the
+	 * alphabetically first of each currency's equivalents. Unlike
+	 * Parameters.getEquivalenceClass(), only configured equivalents count.
+	 */
+	private CurrencyPair getClassKey(CurrencyPair cp) {
+		return classKeys.computeIfAbsent(cp,
+				p -> new CurrencyPair(getClassCurrency(p.base), getClassCurrency(p.counter)));
+	}
+
+	private Currency getClassCurrency(Currency c) {
+		Currency first = c;
+		for (Currency equivalent : params.getEquivalentCurrencies(c))
+			if (equivalent.getCurrencyCode().compareTo(first.getCurrencyCode()) < 0)
+				first = equivalent;
+		return first;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.slickapps.blackbird.model.metadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.slickapps.blackbird.model.tradingRules.TradingRule;
+
+/**
+ * The dynamic configuration an exchange publishes about itself - its symbols,
+ * per-pair trading rules and rate limits. It's downloaded at startup (or read
+ * from the metadata cache) and refreshed periodically in the background.
+ * <p>
+ * Currency pairs are keyed by their string form (e.g. "BTC/USD") so the
+ * metadata serializes as plain JSON.
+ *
+ * @author barrycon
+ *
+ */
+public class ExchangeMetadata {
+
+	/* When this was downloaded from the exchange */
+	private long fetchedMillis;
+
+	/* exchange symbol -> currency pair */
+	private Map<String, String> symbols = new HashMap<>();
+	/* currency pair -> rule */
+	private Map<String, TradingRule> tradingRules = new HashMap<>();
+	/* rate limiter name -> permits per second */
+	private Map<String, Double> rateLimits = new HashMap<>();
+
+	public ExchangeMetadata() {
+	}
+
+	public ExchangeMetadata(long fetchedMillis) {
+		this.fetchedMillis = fetchedMillis;
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * @return A short description of what differs between this and the specified
+	 *         (older) metadata, ignoring when each was fetched
+	 */
+	public String describeChangesFrom(ExchangeMetadata old) {
+		StringBuilder sb = new StringBuilder();
+		Set<String> changedPairs = new TreeSet<>();
+		Set<String> allPairs = new TreeSet<>(tradingRules.keySet());
+		allPairs.addAll(old.tradingRules.keySet());
+		for (String pair : allPairs)
+			if (!Objects.equals(tradingRules.get(pair), old.tradingRules.get(pair)))
+				changedPairs.add(pair);
+		if (!changedPairs.isEmpty())
+			sb.append("trading rules changed for ").append(changedPairs.size() > 10
+					? changedPairs.size() + " pairs" : String.join(", ", changedPairs));
+
+		if (!symbols.equals(old.symbols))
+			sb.append(sb.length() > 0 ? "; " : "").append("symbols changed (").append(old.symbols.size())
+					.append(" -> ").append(symbols.size()).append(")");
+
+		if (!rateLimits.equals(old.rateLimits))
+			sb.append(sb.length() > 0 ? "; " : "").append("rate limits changed from ").append(old.rateLimits)
+					.append(" to ").append(rateLimits);
+
+		return sb.length() == 0 ? "no changes" : sb.toString();
+	}
+
+	@JsonIgnore
+	public boolean isFresh(long ttlMillis) {
+		return System.currentTimeMillis() - fetchedMillis < ttlMillis;
+	}
+
+	// ------------------------------ Object Methods
+
+	/*
+	 * Equal if the content is the same, regardless of when it was fetched
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null || obj.getClass() != getClass())
+			return false;
+		ExchangeMetadata o = (ExchangeMetadata) obj;
+		return new EqualsBuilder().append(symbols, o.symbols).append(tradingRules, o.tradingRules)
+				.append(rateLimits, o.rateLimits).isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder().append(symbols).append(tradingRules).append(rateLimits).toHashCode();
+	}
+
+	// ------------------------------ Accessor Methods
+
+	public long getFetchedMillis() {
+		return fetchedMillis;
+	}
+
+	public void setFetchedMillis(long fetchedMillis) {
+		this.fetchedMillis = fetchedMillis;
+	}
+
+	public Map<String, String> getSymbols() {
+		return symbols;
+	}
+
+	public void setSymbols(Map<String, String> symbols) {
+		this.symbols = symbols;
+	}
+
+	public Map<String, TradingRule> getTradingRules() {
+		return tradingRules;
+	}
+
+	public void setTradingRules(Map<String, TradingRule> tradingRules) {
+		this.tradingRules = tradingRules;
+	}
+
+	public Map<String, Double> getRateLimits() {
+		return rateLimits;
+	}
+
+	public void setRateLimits(Map<String, Double> rateLimits) {
+		this.rateLimits = rateLimits;
+	}
+
+}
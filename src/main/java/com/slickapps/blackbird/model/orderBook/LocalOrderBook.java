@@ -0,0 +1,195 @@
+package com.slickapps.blackbird.model.orderBook;
+
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+/**
+ * An in-memory L2 order book for a single exchange and currency pair. It's
+ * seeded from full snapshots and may then be kept current by incremental
+ * updates from exchanges offering a diff stream. Each update carries a sequence
+ * number; if an update arrives out of sequence the book is invalidated and must
+ * be resynchronized from a new snapshot before it can be used again.
+ *
+ * @author barrycon
+ *
+ */
+public class LocalOrderBook {
+
+	public static final long UNKNOWN_SEQUENCE = -1;
+
+	private CurrencyPair currencyPair;
+
+	/* price -> quantity; bids are kept highest first, asks lowest first */
+	private TreeMap<BigDecimal, BigDecimal> bids = new TreeMap<>(Collections.reverseOrder());
+	private TreeMap<BigDecimal, BigDecimal> asks = new TreeMap<>();
+
+	/* built lazily from the levels above and discarded on every change */
+	private OrderBookDepth bidDepth;
+	private OrderBookDepth askDepth;
+
+	private long lastSequence = UNKNOWN_SEQUENCE;
+	private long lastUpdatedMillis;
+	private boolean valid;
+
+	public LocalOrderBook(CurrencyPair currencyPair) {
+		this.currencyPair = currencyPair;
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * Replaces the contents of this book with the specified snapshot.
+	 *
+	 * @param sequence
+	 *            The exchange's sequence number (update ID) for this snapshot, or
+	 *            UNKNOWN_SEQUENCE if the exchange doesn't provide one
+	 * @return false if the snapshot was older than the data we already have and
+	 *         was therefore ignored
+	 */
+	public boolean applySnapshot(OrderBook orderBook, long sequence) {
+		Map<BigDecimal, BigDecimal> snapshotBids = new TreeMap<>();
+		Map<BigDecimal, BigDecimal> snapshotAsks = new TreeMap<>();
+		addLevels(snapshotBids, orderBook.getBids());
+		addLevels(snapshotAsks, orderBook.getAsks());
+		return applySnapshot(snapshotBids, snapshotAsks, sequence);
+	}
+
+	/**
+	 * Replaces the contents of this book with the specified price -> quantity
+	 * levels.
+	 * 
+	 * @see #applySnapshot(OrderBook, long)
+	 */
+	public synchronized boolean applySnapshot(Map<BigDecimal, BigDecimal> snapshotBids,
+			Map<BigDecimal, BigDecimal> snapshotAsks, long sequence) {
+		if (valid && sequence != UNKNOWN_SEQUENCE && lastSequence != UNKNOWN_SEQUENCE && sequence < lastSequence)
+			return false;
+
+		bids.clear();
+		asks.clear();
+		bids.putAll(snapshotBids);
+		asks.putAll(snapshotAsks);
+		bidDepth = null;
+		askDepth = null;
+
+		lastSequence = sequence;
+		lastUpdatedMillis = System.currentTimeMillis();
+		valid = true;
+		return true;
+	}
+
+	private static void addLevels(Map<BigDecimal, BigDecimal> side, List<LimitOrder> orders) {
+		for (LimitOrder o : orders)
+			side.merge(o.getLimitPrice(), o.getOriginalAmount(), BigDecimal::add);
+	}
+
+	/**
+	 * Applies a single price level change from an exchange diff stream. A quantity
+	 * of zero removes the level.
+	 *
+	 * @return false if a sequence gap was detected (or the book was already
+	 *         invalid), in which case the book is marked invalid and the caller
+	 *         should request a new snapshot
+	 */
+	public synchronized boolean applyUpdate(long sequence, OrderType side, BigDecimal price, BigDecimal quantity) {
+		if (!valid)
+			return false;
+
+		if (lastSequence != UNKNOWN_SEQUENCE) {
+			/* updates already contained in our snapshot can be dropped */
+			if (sequence <= lastSequence)
+				return true;
+			if (sequence != lastSequence + 1) {
+				invalidate();
+				return false;
+			}
+		}
+
+		TreeMap<BigDecimal, BigDecimal> levels = side == BID ? bids : asks;
+		if (quantity.signum() == 0)
+			levels.remove(price);
+		else
+			levels.put(price, quantity);
+		if (side == BID)
+			bidDepth = null;
+		else
+			askDepth = null;
+
+		lastSequence = sequence;
+		lastUpdatedMillis = System.currentTimeMillis();
+		return true;
+	}
+
+	public synchronized void invalidate() {
+		valid = false;
+	}
+
+	public synchronized boolean isFresh(long maxAgeMillis) {
+		return valid && System.currentTimeMillis() - lastUpdatedMillis <= maxAgeMillis;
+	}
+
+	/**
+	 * @return A compact, immutable view of the bids (for BID) or asks (for ASK) as
+	 *         of the latest update. It's built at most once per update, so callers
+	 *         can query any number of volumes against it.
+	 */
+	public synchronized OrderBookDepth getDepth(OrderType orderType) {
+		if (orderType == BID) {
+			if (bidDepth == null)
+				bidDepth = OrderBookDepth.fromLevels(bids, lastUpdatedMillis);
+			return bidDepth;
+		}
+
+		if (askDepth == null)
+			askDepth = OrderBookDepth.fromLevels(asks, lastUpdatedMillis);
+		return askDepth;
+	}
+
+	/**
+	 * @see OrderBookDepth#getLimitPrice(BigDecimal)
+	 */
+	public BigDecimal getLimitPrice(OrderType orderType, BigDecimal volume) {
+		return getDepth(orderType).getLimitPrice(volume);
+	}
+
+	/**
+	 * @see OrderBookDepth#getVolumeWeightedPrice(BigDecimal)
+	 */
+	public BigDecimal getVolumeWeightedPrice(OrderType orderType, BigDecimal volume) {
+		return getDepth(orderType).getVolumeWeightedPrice(volume);
+	}
+
+	public synchronized BigDecimal getBestPrice(OrderType orderType) {
+		TreeMap<BigDecimal, BigDecimal> levels = orderType == BID ? bids : asks;
+		return levels.isEmpty() ? null : levels.firstKey();
+	}
+
+	// ------------------------------ Accessor Methods
+
+	public CurrencyPair getCurrencyPair() {
+		return currencyPair;
+	}
+
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	public synchronized long getLastUpdatedMillis() {
+		return lastUpdatedMillis;
+	}
+
+	public synchronized boolean isValid() {
+		return valid;
+	}
+
+}
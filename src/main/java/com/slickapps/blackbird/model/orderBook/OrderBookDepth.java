@@ -0,0 +1,153 @@
+package com.slickapps.blackbird.model.orderBook;
+
+import static java.math.BigDecimal.ZERO;
+import static java.math.MathContext.DECIMAL64;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An immutable, compact view of one side of an order book, built once per
+ * snapshot. Prices are stored best first alongside running (prefix sum) totals
+ * of quantity and notional, so the limit price for any volume can be found by
+ * binary search and the volume weighted price over any depth in O(log n),
+ * without walking the levels. The totals are kept exact so that a volume equal
+ * to the quantity available at a level is always filled at that level. Any
+ * number of volumes may be queried against the same instance.
+ *
+ * @author barrycon
+ *
+ */
+public class OrderBookDepth {
+
+	public static final OrderBookDepth EMPTY = new OrderBookDepth(new BigDecimal[0], new BigDecimal[0],
+			new BigDecimal[0], 0);
+
+	private final BigDecimal[] prices;
+	private final BigDecimal[] cumulativeQuantities;
+	private final BigDecimal[] cumulativeNotionals;
+	private final long asOfMillis;
+
+	private OrderBookDepth(BigDecimal[] prices, BigDecimal[] cumulativeQuantities, BigDecimal[] cumulativeNotionals,
+			long asOfMillis) {
+		this.prices = prices;
+		this.cumulativeQuantities = cumulativeQuantities;
+		this.cumulativeNotionals = cumulativeNotionals;
+		this.asOfMillis = asOfMillis;
+	}
+
+	/**
+	 * @param levels
+	 *            price -> quantity, iterated best price first
+	 * @param asOfMillis
+	 *            When the levels were last updated from the exchange
+	 */
+	public static OrderBookDepth fromLevels(Map<BigDecimal, BigDecimal> levels, long asOfMillis) {
+		int size = levels.size();
+		if (size == 0)
+			return new OrderBookDepth(new BigDecimal[0], new BigDecimal[0], new BigDecimal[0], asOfMillis);
+
+		BigDecimal[] prices = new BigDecimal[size];
+		BigDecimal[] cumulativeQuantities = new BigDecimal[size];
+		BigDecimal[] cumulativeNotionals = new BigDecimal[size];
+
+		BigDecimal quantitySum = ZERO, notionalSum = ZERO;
+		int i = 0;
+		for (Entry<BigDecimal, BigDecimal> level : levels.entrySet()) {
+			BigDecimal price = level.getKey();
+			BigDecimal quantity = level.getValue();
+			quantitySum = quantitySum.add(quantity);
+			notionalSum = notionalSum.add(price.multiply(quantity));
+
+			prices[i] = price;
+			cumulativeQuantities[i] = quantitySum;
+			cumulativeNotionals[i] = notionalSum;
+			i++;
+		}
+
+		return new OrderBookDepth(prices, cumulativeQuantities, cumulativeNotionals, asOfMillis);
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * @return The index of the first level at which the cumulative quantity reaches
+	 *         the specified volume, or -1 if the book isn't deep enough
+	 */
+	private int indexOfVolume(BigDecimal volume) {
+		/* the cumulative quantities are non-decreasing */
+		int low = 0, high = cumulativeQuantities.length - 1, result = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (cumulativeQuantities[mid].compareTo(volume) >= 0) {
+				result = mid;
+				high = mid - 1;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The price of the level at which the cumulative quantity reaches the
+	 *         specified volume. If the book isn't deep enough, the price of the
+	 *         deepest level is returned; if the book is empty, zero is returned.
+	 */
+	public BigDecimal getLimitPrice(BigDecimal volume) {
+		if (prices.length == 0)
+			return ZERO;
+
+		int i = indexOfVolume(volume);
+		return prices[i == -1 ? prices.length - 1 : i];
+	}
+
+	/**
+	 * @return The volume weighted average price to fill the specified volume, or
+	 *         null if the volume isn't positive or the book isn't deep enough
+	 */
+	public BigDecimal getVolumeWeightedPrice(BigDecimal volume) {
+		if (volume.signum() <= 0)
+			return null;
+
+		int i = indexOfVolume(volume);
+		if (i == -1)
+			return null;
+
+		BigDecimal quantityBefore = i == 0 ? ZERO : cumulativeQuantities[i - 1];
+		BigDecimal notionalBefore = i == 0 ? ZERO : cumulativeNotionals[i - 1];
+		BigDecimal notional = notionalBefore.add(volume.subtract(quantityBefore).multiply(prices[i]));
+		return notional.divide(volume, DECIMAL64);
+	}
+
+	/**
+	 * @return The price of the best level, or null if the book is empty
+	 */
+	public BigDecimal getBestPrice() {
+		return prices.length == 0 ? null : prices[0];
+	}
+
+	/**
+	 * @return The total quantity available across all levels
+	 */
+	public BigDecimal getTotalQuantity() {
+		return prices.length == 0 ? ZERO : cumulativeQuantities[prices.length - 1];
+	}
+
+	/**
+	 * @return When the levels were last updated from the exchange
+	 */
+	public long getAsOfMillis() {
+		return asOfMillis;
+	}
+
+	public int getNumLevels() {
+		return prices.length;
+	}
+
+	public boolean isEmpty() {
+		return prices.length == 0;
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.slickapps.blackbird.model.orderCompletion;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderStatus;
+
+/**
+ * A change to one of our orders as pushed by an exchange's user data stream
+ *
+ * @author barrycon
+ *
+ */
+public class OrderUpdate {
+
+	public String orderId;
+	public CurrencyPair currencyPair;
+	public OrderStatus status;
+	public long timestamp;
+
+	public OrderUpdate(String orderId, CurrencyPair currencyPair, OrderStatus status, long timestamp) {
+		this.orderId = orderId;
+		this.currencyPair = currencyPair;
+		this.status = status;
+		this.timestamp = timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "OrderUpdate [orderId=" + orderId + ", currencyPair=" + currencyPair + ", status=" + status + "]";
+	}
+}
@@ -0,0 +1,41 @@
+package com.slickapps.blackbird.model.spread;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A single spread value and when it was observed
+ *
+ * @author barrycon
+ *
+ */
+public class SpreadSample {
+
+	private LocalDateTime time;
+	private BigDecimal value;
+
+	public SpreadSample() {
+	}
+
+	public SpreadSample(LocalDateTime time, BigDecimal value) {
+		this.time = time;
+		this.value = value;
+	}
+
+	public LocalDateTime getTime() {
+		return time;
+	}
+
+	public void setTime(LocalDateTime time) {
+		this.time = time;
+	}
+
+	public BigDecimal getValue() {
+		return value;
+	}
+
+	public void setValue(BigDecimal value) {
+		this.value = value;
+	}
+
+}
@@ -0,0 +1,216 @@
+package com.slickapps.blackbird.model.spread;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+
+/**
+ * A snapshot of the spread windows and trailing stops we've built up, saved so
+ * that a restart doesn't need to wait for the spread windows to fill again.
+ * <p>
+ * Exchanges and currency pairs are stored by name so the snapshot serializes
+ * as plain JSON; they're matched back up to the active exchanges on restore.
+ *
+ * @author barrycon
+ *
+ */
+public class SpreadState {
+
+	/* When this snapshot was taken */
+	private LocalDateTime savedTime;
+
+	private List<SpreadWindow> spreadWindows = new ArrayList<>();
+	private List<Trailing> entryTrailing = new ArrayList<>();
+	private List<Trailing> exitTrailing = new ArrayList<>();
+
+	public SpreadState() {
+	}
+
+	public SpreadState(LocalDateTime savedTime) {
+		this.savedTime = savedTime;
+	}
+
+	/**
+	 * Identifies the exchanges and currency pairs on each side of a spread
+	 */
+	public static class PairKey {
+		private String longExchangeName;
+		private String longCurrencyPair;
+		private String shortExchangeName;
+		private String shortCurrencyPair;
+
+		public PairKey() {
+		}
+
+		public PairKey(ExchangePairAndCurrencyPair ecp) {
+			this.longExchangeName = ecp.getLongExchange().getName();
+			this.longCurrencyPair = ecp.getLongCurrencyPair().toString();
+			this.shortExchangeName = ecp.getShortExchange().getName();
+			this.shortCurrencyPair = ecp.getShortCurrencyPair().toString();
+		}
+
+		/**
+		 * @return The matching key using the specified exchanges, or null if either
+		 *         exchange isn't active
+		 */
+		public ExchangePairAndCurrencyPair toExchangePairAndCurrencyPair(List<BlackbirdExchange> exchanges) {
+			BlackbirdExchange longExchange = findExchange(exchanges, longExchangeName);
+			BlackbirdExchange shortExchange = findExchange(exchanges, shortExchangeName);
+			if (longExchange == null || shortExchange == null)
+				return null;
+			return new ExchangePairAndCurrencyPair(longExchange, new CurrencyPair(longCurrencyPair), shortExchange,
+					new CurrencyPair(shortCurrencyPair));
+		}
+
+		private static BlackbirdExchange findExchange(List<BlackbirdExchange> exchanges, String name) {
+			for (BlackbirdExchange e : exchanges)
+				if (e.getName().equals(name))
+					return e;
+			return null;
+		}
+
+		public String getLongExchangeName() {
+			return longExchangeName;
+		}
+
+		public void setLongExchangeName(String longExchangeName) {
+			this.longExchangeName = longExchangeName;
+		}
+
+		public String getLongCurrencyPair() {
+			return longCurrencyPair;
+		}
+
+		public void setLongCurrencyPair(String longCurrencyPair) {
+			this.longCurrencyPair = longCurrencyPair;
+		}
+
+		public String getShortExchangeName() {
+			return shortExchangeName;
+		}
+
+		public void setShortExchangeName(String shortExchangeName) {
+			this.shortExchangeName = shortExchangeName;
+		}
+
+		public String getShortCurrencyPair() {
+			return shortCurrencyPair;
+		}
+
+		public void setShortCurrencyPair(String shortCurrencyPair) {
+			this.shortCurrencyPair = shortCurrencyPair;
+		}
+	}
+
+	/**
+	 * The samples in a single SpreadBounds window
+	 */
+	public static class SpreadWindow extends PairKey {
+		private BigDecimal globalMin;
+		private BigDecimal globalMax;
+		private List<SpreadSample> samples = new ArrayList<>();
+
+		public SpreadWindow() {
+		}
+
+		public SpreadWindow(ExchangePairAndCurrencyPair ecp) {
+			super(ecp);
+		}
+
+		public BigDecimal getGlobalMin() {
+			return globalMin;
+		}
+
+		public void setGlobalMin(BigDecimal globalMin) {
+			this.globalMin = globalMin;
+		}
+
+		public BigDecimal getGlobalMax() {
+			return globalMax;
+		}
+
+		public void setGlobalMax(BigDecimal globalMax) {
+			this.globalMax = globalMax;
+		}
+
+		public List<SpreadSample> getSamples() {
+			return samples;
+		}
+
+		public void setSamples(List<SpreadSample> samples) {
+			this.samples = samples;
+		}
+	}
+
+	/**
+	 * The state of a single TrailingDetails
+	 */
+	public static class Trailing extends PairKey {
+		private BigDecimal trailingStop;
+		private int trailingStopApprovalCount;
+
+		public Trailing() {
+		}
+
+		public Trailing(ExchangePairAndCurrencyPair ecp) {
+			super(ecp);
+		}
+
+		public BigDecimal getTrailingStop() {
+			return trailingStop;
+		}
+
+		public void setTrailingStop(BigDecimal trailingStop) {
+			this.trailingStop = trailingStop;
+		}
+
+		public int getTrailingStopApprovalCount() {
+			return trailingStopApprovalCount;
+		}
+
+		public void setTrailingStopApprovalCount(int trailingStopApprovalCount) {
+			this.trailingStopApprovalCount = trailingStopApprovalCount;
+		}
+	}
+
+	// ------------------------------ Accessor Methods
+
+	public LocalDateTime getSavedTime() {
+		return savedTime;
+	}
+
+	public void setSavedTime(LocalDateTime savedTime) {
+		this.savedTime = savedTime;
+	}
+
+	public List<SpreadWindow> getSpreadWindows() {
+		return spreadWindows;
+	}
+
+	public void setSpreadWindows(List<SpreadWindow> spreadWindows) {
+		this.spreadWindows = spreadWindows;
+	}
+
+	public List<Trailing> getEntryTrailing() {
+		return entryTrailing;
+	}
+
+	public void setEntryTrailing(List<Trailing> entryTrailing) {
+		this.entryTrailing = entryTrailing;
+	}
+
+	public List<Trailing> getExitTrailing() {
+		return exitTrailing;
+	}
+
+	public void setExitTrailing(List<Trailing> exitTrailing) {
+		this.exitTrailing = exitTrailing;
+	}
+
+}
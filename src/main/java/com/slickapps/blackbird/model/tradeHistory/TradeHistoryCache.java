@@ -0,0 +1,152 @@
+package com.slickapps.blackbird.model.tradeHistory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.UserTrade;
+
+/**
+ * Our own trades for a single exchange and currency pair, indexed by order ID.
+ * Trades are added incrementally; the cache remembers the newest trade ID and
+ * timestamp it has seen so that subsequent requests only need to fetch newer
+ * trades. Trades already seen are ignored, so overlapping fetches are harmless;
+ * trades without an ID are recognized by their timestamp, order ID, amount and
+ * price.
+ * <p>
+ * Only the trades of the most recent {@value #MAX_ORDERS} orders are retained.
+ *
+ * @author barrycon
+ *
+ */
+public class TradeHistoryCache {
+
+	public static final int MAX_ORDERS = 1000;
+
+	private CurrencyPair currencyPair;
+
+	/* order ID -> trades, least recently added order first */
+	private Map<String, List<UserTrade>> tradesByOrderId = new LinkedHashMap<String, List<UserTrade>>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<UserTrade>> eldest) {
+			if (size() <= MAX_ORDERS)
+				return false;
+			for (UserTrade t : eldest.getValue())
+				seenTradeKeys.remove(getKey(t));
+			return true;
+		}
+	};
+	private Set<Object> seenTradeKeys = new HashSet<>();
+
+	private String lastTradeId;
+	private Long lastNumericTradeId;
+	private Date lastTimestamp;
+	private boolean seeded;
+
+	public TradeHistoryCache(CurrencyPair currencyPair) {
+		this.currencyPair = currencyPair;
+	}
+
+	// ------------------------------ Business Methods
+
+	/**
+	 * Adds any trades we haven't already seen and advances our cursor
+	 *
+	 * @return The number of trades that were new
+	 */
+	public synchronized int addTrades(List<UserTrade> trades) {
+		int numAdded = 0;
+		for (UserTrade t : trades) {
+			if (!seenTradeKeys.add(getKey(t)))
+				continue;
+
+			tradesByOrderId.computeIfAbsent(t.getOrderId(), k -> new ArrayList<>()).add(t);
+			advanceCursor(t);
+			numAdded++;
+		}
+		seeded = true;
+		return numAdded;
+	}
+
+	private static Object getKey(UserTrade t) {
+		if (t.getId() != null)
+			return t.getId();
+		return Arrays.asList(t.getTimestamp() == null ? null : t.getTimestamp().getTime(), t.getOrderId(),
+				stripZeros(t.getOriginalAmount()), stripZeros(t.getPrice()));
+	}
+
+	private static BigDecimal stripZeros(BigDecimal d) {
+		return d == null ? null : d.stripTrailingZeros();
+	}
+
+	private void advanceCursor(UserTrade t) {
+		if (t.getTimestamp() != null && (lastTimestamp == null || t.getTimestamp().after(lastTimestamp)))
+			lastTimestamp = t.getTimestamp();
+
+		if (t.getId() == null)
+			return;
+
+		try {
+			long id = Long.parseLong(t.getId());
+			if (lastNumericTradeId == null || id > lastNumericTradeId) {
+				lastNumericTradeId = id;
+				lastTradeId = t.getId();
+			}
+		} catch (NumberFormatException e) {
+			/* IDs aren't ordered; the most recent by timestamp is our best guess */
+			if (lastNumericTradeId == null && t.getTimestamp() != null && !t.getTimestamp().before(lastTimestamp))
+				lastTradeId = t.getId();
+		}
+	}
+
+	/**
+	 * @return Our trades for the specified order, or an empty list if we haven't
+	 *         seen any
+	 */
+	public synchronized List<UserTrade> getTradesForOrder(String orderId) {
+		List<UserTrade> trades = tradesByOrderId.get(orderId);
+		return trades == null ? Collections.emptyList() : new ArrayList<>(trades);
+	}
+
+	public synchronized boolean hasTradesForOrder(String orderId) {
+		return tradesByOrderId.containsKey(orderId);
+	}
+
+	// ------------------------------ Accessor Methods
+
+	public CurrencyPair getCurrencyPair() {
+		return currencyPair;
+	}
+
+	/**
+	 * @return The ID of the newest trade seen, or null if none has been
+	 */
+	public synchronized String getLastTradeId() {
+		return lastTradeId;
+	}
+
+	/**
+	 * @return The timestamp of the newest trade seen, or null if none has been
+	 */
+	public synchronized Date getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	/**
+	 * @return true once the full history has been loaded at least once
+	 */
+	public synchronized boolean isSeeded() {
+		return seeded;
+	}
+
+}
@@ -4,6 +4,9 @@ import java.math.BigDecimal;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
 public class TradingRule {
 
 	private BigDecimal minQuantity;
@@ -68,4 +71,30 @@ public class TradingRule {
 		this.leveragesSupported = leveragesSupported;
 	}
 
+	// ---------------------------------------- Object Methods
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null || obj.getClass() != getClass())
+			return false;
+		TradingRule o = (TradingRule) obj;
+		return new EqualsBuilder().append(minQuantity, o.minQuantity).append(minPrice, o.minPrice)
+				.append(minTotal, o.minTotal).append(stepSizeForQuantity, o.stepSizeForQuantity)
+				.append(stepSizeForPrice, o.stepSizeForPrice).append(getLeveragesSupported(), o.getLeveragesSupported())
+				.isEquals();
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder().append(minQuantity).append(minPrice).append(minTotal)
+				.append(stepSizeForQuantity).append(stepSizeForPrice).append(getLeveragesSupported()).toHashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "TradingRule [minQuantity=" + minQuantity + ", minPrice=" + minPrice + ", minTotal=" + minTotal
+				+ ", stepSizeForQuantity=" + stepSizeForQuantity + ", stepSizeForPrice=" + stepSizeForPrice
+				+ ", leveragesSupported=" + leveragesSupported + "]";
+	}
+
 }
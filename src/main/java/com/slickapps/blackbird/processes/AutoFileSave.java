@@ -1,41 +1,68 @@
 package com.slickapps.blackbird.processes;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.slickapps.blackbird.Main;
 import com.slickapps.blackbird.MarketPairsProvider;
-import com.slickapps.blackbird.data.SaveFileDAO;
+import com.slickapps.blackbird.data.SaveFileJournal;
+import com.slickapps.blackbird.data.SaveFileJournal.Entry;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.listener.DefaultBlackbirdEventListener;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
 import com.slickapps.blackbird.model.ExchangePairsInMarket;
 import com.slickapps.blackbird.model.Parameters;
 
-public class AutoFileSave extends DefaultBlackbirdEventListener {
+/**
+ * Journals changes to our pairs in market as they're published, and compacts
+ * the journal into the save file every SaveJournalCompactionEntries entries and
+ * on exit. See SaveFileJournal.
+ * <p>
+ * The saver thread sleeps until a pair is added, changed or removed, then waits
+ * FileSaveDebounceMillis so a burst of changes is written in one batch.
+ */
+public class AutoFileSave extends DefaultBlackbirdEventListener implements ExchangePairsInMarket.ChangeListener {
 	private static final Logger log = LoggerFactory.getLogger(AutoFileSave.class);
 
+	private static final int DEFAULT_COMPACTION_ENTRIES = 100;
+	private static final long DEFAULT_DEBOUNCE_MILLIS = 200;
+
 	private MarketPairsProvider marketPairsProvider;
-	private long lastVersion = 0;
+	private SaveFileJournal journal;
+	private int compactionEntries;
+	private long debounceMillis;
 	private Thread thread;
 
+	/* pair ID -> its latest state (or null if removed) since the last write */
+	private Map<Integer, ExchangePairInMarket> pendingChanges = new LinkedHashMap<>();
+
 	@Override
 	public void init(List<BlackbirdExchange> exchanges, MarketPairsProvider marketPairsProvider, Parameters params)
 			throws Exception {
 		log.info("Starting AutoExport...");
 		this.marketPairsProvider = marketPairsProvider;
+		this.compactionEntries = params.getInteger("SaveJournalCompactionEntries", DEFAULT_COMPACTION_ENTRIES);
+		this.debounceMillis = params.getLong("FileSaveDebounceMillis", DEFAULT_DEBOUNCE_MILLIS);
+		this.journal = new SaveFileJournal(Main.SAVE_FILE, Main.SAVE_JOURNAL_FILE);
 
 		ExchangePairsInMarket exchangePairsInMarket = marketPairsProvider.getPairsInMarket();
-		this.lastVersion = exchangePairsInMarket.getVersion();
+		exchangePairsInMarket.addChangeListener(this);
+		/* fold in whatever was recovered at startup */
+		journal.compact(exchangePairsInMarket.getPairsInMarketCopy(true));
 
 		thread = new Thread(new Runnable() {
 			@Override
 			public void run() {
 				while (Main.stillRunning) {
 					try {
-						Thread.sleep(500);
+						awaitChanges();
+						Thread.sleep(debounceMillis);
 
 						if (Main.stillRunning) {
 							writeFileIfNeeded();
@@ -61,18 +88,46 @@ public class AutoFileSave extends DefaultBlackbirdEventListener {
 	public void programExit() throws Exception {
 		thread.interrupt();
 		writeFileIfNeeded();
+		synchronized (this) {
+			journal.compact(marketPairsProvider.getPairsInMarket().getPairsInMarketCopy(true));
+			journal.close();
+		}
 	}
 
-	private synchronized void writeFileIfNeeded() throws IOException {
-		ExchangePairsInMarket exchangePairsInMarket = marketPairsProvider.getPairsInMarket();
+	@Override
+	public void pairChanged(ExchangePairInMarket pair, boolean removed) {
+		synchronized (pendingChanges) {
+			pendingChanges.put(pair.getId(), removed ? null : pair);
+			pendingChanges.notifyAll();
+		}
+	}
 
-		long newVer = exchangePairsInMarket.getVersion();
-		if (newVer > this.lastVersion) {
-			/* Ensure thread safety during marshalization by using copy */
-			ExchangePairsInMarket copy = exchangePairsInMarket.getPairsInMarketCopy(true);
-			SaveFileDAO.fileExport(Main.SAVE_FILE, copy);
-			this.lastVersion = newVer;
+	private void awaitChanges() throws InterruptedException {
+		synchronized (pendingChanges) {
+			while (pendingChanges.isEmpty())
+				pendingChanges.wait();
 		}
 	}
 
-}
\ No newline at end of file
+	private synchronized void writeFileIfNeeded() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		synchronized (pendingChanges) {
+			for (Map.Entry<Integer, ExchangePairInMarket> change : pendingChanges.entrySet()) {
+				ExchangePairInMarket pair = change.getValue();
+				/* Ensure thread safety during marshalization by using copy */
+				entries.add(pair == null ? Entry.removal(change.getKey())
+						: Entry.upsert(new ExchangePairInMarket(pair)));
+			}
+			pendingChanges.clear();
+		}
+
+		if (entries.isEmpty())
+			return;
+
+		journal.append(entries);
+
+		if (journal.getEntriesSinceCompaction() >= compactionEntries)
+			journal.compact(marketPairsProvider.getPairsInMarket().getPairsInMarketCopy(true));
+	}
+
+}
@@ -1,22 +1,36 @@
 package com.slickapps.blackbird.processes;
 
+import static java.lang.System.currentTimeMillis;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.dto.account.Balance;
 import org.knowm.xchange.dto.account.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.slickapps.blackbird.EventListenerProvider;
 import com.slickapps.blackbird.Main;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.listener.BlackbirdEventListener;
 import com.slickapps.blackbird.model.ExchangePairsInMarket;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.service.BalanceService;
+import com.slickapps.blackbird.util.FutureUtil;
 
 /**
- * A daemon thread which periodically polls the wallets at each exchange to
- * ensure their caches are updated
- * 
+ * A daemon thread which periodically refreshes the wallets at each exchange to
+ * ensure their caches (and balance ledgers) are updated. Each exchange is
+ * refreshed on its own interval and the requests run concurrently, so a slow
+ * exchange doesn't hold up the others. Listeners are notified whenever an
+ * exchange's balances change.
+ *
  * @author barrycon
  *
  */
@@ -24,43 +38,60 @@ public class ExchangeWalletPoller implements Runnable {
 	private static final Logger log = LoggerFactory.getLogger(ExchangeWalletPoller.class);
 
 	/* Every 5 minutes */
-	private static final long SLEEP_TIME_BETWEEN_REQUESTS = 300000;
+	private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 300000;
+	private static final long MIN_SLEEP_MILLIS = 100;
 
 	private Parameters params;
 	private List<BlackbirdExchange> exchanges;
 	private ExchangePairsInMarket exchangePairsInMarket;
+	private EventListenerProvider eventListenerProvider;
+
+	private Map<BlackbirdExchange, Long> refreshIntervals = new HashMap<>();
+	private Map<BlackbirdExchange, Long> nextRefreshTimes = new HashMap<>();
+	private Set<BlackbirdExchange> refreshesInFlight = ConcurrentHashMap.newKeySet();
+	private Map<BlackbirdExchange, Wallet> lastWallets = new ConcurrentHashMap<>();
 
 	public ExchangeWalletPoller(Parameters params, List<BlackbirdExchange> exchanges,
-			ExchangePairsInMarket exchangePairsInMarket) {
+			ExchangePairsInMarket exchangePairsInMarket, EventListenerProvider eventListenerProvider) {
 		this.params = params;
 		this.exchanges = exchanges;
 		this.exchangePairsInMarket = exchangePairsInMarket;
+		this.eventListenerProvider = eventListenerProvider;
+
+		long defaultInterval = params.getLong("WalletRefreshMillis", DEFAULT_REFRESH_INTERVAL_MILLIS);
+		long now = currentTimeMillis();
+		for (BlackbirdExchange exchange : exchanges) {
+			long interval = params.getLong(exchange.getName() + "WalletRefreshMillis", defaultInterval);
+			refreshIntervals.put(exchange, interval);
+			/* wallets were just populated at startup, so they're still cached */
+			if (exchange.isWalletPopulated()) {
+				Wallet wallet = exchange.queryWallet(true).getNow(null);
+				if (wallet != null)
+					lastWallets.put(exchange, wallet);
+			}
+			nextRefreshTimes.put(exchange, exchange.isWalletPopulated() ? now + interval : now);
+		}
 	}
 
 	@Override
 	public void run() {
 		while (Main.stillRunning) {
 			try {
+				long now = currentTimeMillis();
+				long nextWakeup = Long.MAX_VALUE;
+
 				for (BlackbirdExchange exchange : exchanges) {
-					if (!exchange.isEnabled() || exchange.isDisabledTemporarily())
-						continue;
-
-					try {
-						boolean isFirstTime = !exchange.isWalletPopulated();
-
-						CompletableFuture<Wallet> future = exchange.queryWallet(true);
-						if (isFirstTime) {
-							Wallet wallet = future.get();
-							BalanceService.performInitialBalanceValidation(params, exchangePairsInMarket, exchange,
-									wallet);
-						}
-					} catch (Exception ignored) {
-						log.warn("Encountered an exception while polling the balance at " + exchange + ", ignoring...",
-								ignored);
+					long nextRefresh = nextRefreshTimes.get(exchange);
+					if (nextRefresh <= now) {
+						nextRefresh = now + refreshIntervals.get(exchange);
+						nextRefreshTimes.put(exchange, nextRefresh);
+						refresh(exchange);
 					}
+					nextWakeup = Math.min(nextWakeup, nextRefresh);
 				}
 
-				Thread.sleep(SLEEP_TIME_BETWEEN_REQUESTS);
+				long sleepMillis = nextWakeup == Long.MAX_VALUE ? DEFAULT_REFRESH_INTERVAL_MILLIS : nextWakeup - now;
+				Thread.sleep(Math.max(sleepMillis, MIN_SLEEP_MILLIS));
 			} catch (InterruptedException e) {
 				log.debug("{} interrupted, exiting", getClass().getSimpleName());
 				return;
@@ -68,14 +99,77 @@ public class ExchangeWalletPoller implements Runnable {
 		}
 	}
 
+	/*
+	 * Starts a wallet request without waiting for it; the previous one must have
+	 * completed first
+	 */
+	private void refresh(BlackbirdExchange exchange) {
+		if (!exchange.isEnabled() || exchange.isDisabledTemporarily())
+			return;
+
+		if (!refreshesInFlight.add(exchange)) {
+			log.debug("Previous wallet refresh at {} still in progress, skipping", exchange);
+			return;
+		}
+
+		boolean isFirstTime = !exchange.isWalletPopulated();
+		try {
+			/*
+			 * as before, a wallet fetched more recently (e.g. by an entry) is reused until
+			 * the cache expires
+			 */
+			exchange.queryWallet(true).whenComplete((wallet, t) -> {
+				refreshesInFlight.remove(exchange);
+				if (t != null) {
+					log.warn("Encountered an exception while polling the balance at " + exchange + ", ignoring...",
+							FutureUtil.unwrap(t));
+					return;
+				}
+
+				if (isFirstTime)
+					BalanceService.performInitialBalanceValidation(params, exchangePairsInMarket, exchange, wallet);
+
+				Wallet previous = lastWallets.put(exchange, wallet);
+				if (previous != null && !sameAvailableBalances(previous, wallet)) {
+					log.debug("Balances changed at {}", exchange);
+					for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
+						l.walletChanged(exchange, previous, wallet);
+				}
+			});
+		} catch (Exception e) {
+			refreshesInFlight.remove(exchange);
+			log.warn("Encountered an exception while polling the balance at " + exchange + ", ignoring...", e);
+		}
+	}
+
+	private static boolean sameAvailableBalances(Wallet w1, Wallet w2) {
+		Map<Currency, BigDecimal> a1 = getNonZeroAvailable(w1);
+		Map<Currency, BigDecimal> a2 = getNonZeroAvailable(w2);
+		if (!a1.keySet().equals(a2.keySet()))
+			return false;
+		for (Map.Entry<Currency, BigDecimal> e : a1.entrySet())
+			if (e.getValue().compareTo(a2.get(e.getKey())) != 0)
+				return false;
+		return true;
+	}
+
+	private static Map<Currency, BigDecimal> getNonZeroAvailable(Wallet wallet) {
+		Map<Currency, BigDecimal> results = new HashMap<>();
+		for (Balance b : wallet.getBalances().values())
+			if (b.getAvailable() != null && b.getAvailable().signum() != 0)
+				results.put(b.getCurrency(), b.getAvailable());
+		return results;
+	}
+
 	public static ExchangeWalletPoller initAndStart(Parameters params, List<BlackbirdExchange> exchanges,
-			ExchangePairsInMarket exchangePairsInMarket) {
+			ExchangePairsInMarket exchangePairsInMarket, EventListenerProvider eventListenerProvider) {
 		log.info("Starting balance poller...");
-		ExchangeWalletPoller exchangeWalletPoller = new ExchangeWalletPoller(params, exchanges, exchangePairsInMarket);
+		ExchangeWalletPoller exchangeWalletPoller = new ExchangeWalletPoller(params, exchanges, exchangePairsInMarket,
+				eventListenerProvider);
 		Thread quoteGenThread = new Thread(exchangeWalletPoller, "BalancePoller");
 		quoteGenThread.setDaemon(true);
 		quoteGenThread.start();
 		return exchangeWalletPoller;
 	}
 
-}
\ No newline at end of file
+}
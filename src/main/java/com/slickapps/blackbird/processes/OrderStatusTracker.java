@@ -0,0 +1,523 @@
+package com.slickapps.blackbird.processes;
+
+import static com.slickapps.blackbird.Main.stillRunning;
+import static com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus.FILLED;
+import static com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus.TIME_EXPIRED;
+import static com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus.UNRECOVERABLE_EXCEPTION;
+import static com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus.getFromOrderStatus;
+import static com.slickapps.blackbird.util.exception.ExceptionUtil.disableExchange;
+import static com.slickapps.blackbird.util.exception.ExceptionUtil.isRetryable;
+import static java.lang.System.currentTimeMillis;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.Order.OrderStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.exchanges.UserDataStream;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.orderCompletion.OrderCompletion;
+import com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus;
+import com.slickapps.blackbird.model.orderCompletion.OrderUpdate;
+
+/**
+ * Watches every open order we've placed on a single exchange from one thread.
+ * Each pass groups the tracked orders by currency pair and asks the exchange
+ * for all of their statuses at once (see
+ * {@link BlackbirdExchange#queryOrderStatuses(CurrencyPair, Set)}), so the
+ * number of requests grows with the number of currency pairs rather than the
+ * number of orders. Once an order reaches a complete status, the full order
+ * including aggregate fields is queried and its callback is activated, exactly
+ * as a dedicated poller would have done.
+ * <p>
+ * Most limit orders fill within a few hundred millis or not for minutes, so
+ * each order is polled on its own adaptive schedule: first
+ * {OrderPollInitialMillis} after it's tracked, then with an interval doubling
+ * after each check up to {OrderPollMaxMillis}. Status requests acquire permits
+ * from the exchange's rate limiter like any other request, and may use at most
+ * {OrderPollBudgetFraction} of its rate; once that share is exhausted, due
+ * checks are deferred rather than competing with trading requests. The time
+ * taken to detect each fill and the number of status checks it needed are
+ * logged so the schedule can be tuned.
+ * <p>
+ * If the exchange offers a {@link UserDataStream}, pushed order updates wake the
+ * tracker immediately, so fills are recognized as soon as they're reported.
+ * While the stream is connected the REST queries above only run every
+ * reconciliation interval as a safety net, and once right after each
+ * (re)connection to catch events missed while disconnected.
+ * <p>
+ * Each order's maxExecutionTime is enforced at its deadline regardless of when
+ * its next status check is due.
+ * <p>
+ * The tracker's thread is started when the first order is tracked and exits
+ * once no orders remain.
+ *
+ * @author barrycon
+ *
+ */
+public class OrderStatusTracker implements Runnable {
+	private static final Logger log = LoggerFactory.getLogger(OrderStatusTracker.class);
+
+	private static final long DEFAULT_INITIAL_POLL_MILLIS = 250;
+	private static final long DEFAULT_MAX_POLL_MILLIS = 4000;
+	private static final double DEFAULT_POLL_BUDGET_FRACTION = 0.5;
+
+	private static volatile long initialPollMillis = DEFAULT_INITIAL_POLL_MILLIS;
+	private static volatile long maxPollMillis = DEFAULT_MAX_POLL_MILLIS;
+	private static volatile double pollBudgetFraction = DEFAULT_POLL_BUDGET_FRACTION;
+
+	private static final Map<BlackbirdExchange, OrderStatusTracker> TRACKERS = new ConcurrentHashMap<>();
+
+	/* how many pushed updates to keep for orders that aren't tracked (yet) */
+	private static final int MAX_UNTRACKED_UPDATES = 100;
+
+	private BlackbirdExchange exchange;
+	private Optional<UserDataStream> userDataStream;
+	private Map<String, TrackedOrder> trackedOrders = new HashMap<>();
+	private Map<String, OrderStatus> pushedStatuses = new HashMap<>();
+
+	/*
+	 * An order may be filled and reported before we've begun tracking it, so keep
+	 * the most recent updates for untracked orders around for a while
+	 */
+	private Map<String, OrderStatus> untrackedStatuses = new LinkedHashMap<String, OrderStatus>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OrderStatus> eldest) {
+			return size() > MAX_UNTRACKED_UPDATES;
+		}
+	};
+	private boolean reconciliationRequested;
+	private RateLimiter pollBudget;
+	private Thread thread;
+
+	/* statistics for tuning the poll schedule */
+	private long numFillsDetected;
+	private long sumDetectionMillis;
+	private long sumStatusChecksPerFill;
+	private long numStatusRequests;
+
+	private static class TrackedOrder {
+		String orderId;
+		CurrencyPair currencyPair;
+		long startTime = currentTimeMillis();
+		long maxExecutionTime;
+		Consumer<OrderCompletion> callback;
+		/* written by the tracker's thread but read under our lock */
+		volatile long pollIntervalMillis;
+		volatile long nextPollMillis;
+		int statusChecks;
+	}
+
+	private OrderStatusTracker(BlackbirdExchange exchange) {
+		this.exchange = exchange;
+		this.userDataStream = exchange.getUserDataStream();
+		userDataStream.ifPresent(s -> {
+			s.addOrderUpdateListener(this::orderUpdated);
+			s.addReconnectListener(this::requestReconciliation);
+		});
+	}
+
+	public static void configure(Parameters params) {
+		initialPollMillis = params.getLong("OrderPollInitialMillis", DEFAULT_INITIAL_POLL_MILLIS);
+		maxPollMillis = params.getLong("OrderPollMaxMillis", DEFAULT_MAX_POLL_MILLIS);
+		pollBudgetFraction = params
+				.getBigDecimal("OrderPollBudgetFraction", BigDecimal.valueOf(DEFAULT_POLL_BUDGET_FRACTION))
+				.doubleValue();
+	}
+
+	public static OrderStatusTracker getTracker(BlackbirdExchange exchange) {
+		return TRACKERS.computeIfAbsent(exchange, OrderStatusTracker::new);
+	}
+
+	/**
+	 * Begins watching the specified order. The callback is activated exactly once,
+	 * from the tracker's thread, when the order is complete, the maxExecutionTime
+	 * has elapsed (TIME_EXPIRED) or an unrecoverable exception occurs.
+	 */
+	public synchronized void track(String orderId, CurrencyPair currencyPair, long maxExecutionTime,
+			Consumer<OrderCompletion> callback) {
+		TrackedOrder t = new TrackedOrder();
+		t.orderId = orderId;
+		t.currencyPair = currencyPair;
+		t.maxExecutionTime = maxExecutionTime;
+		t.callback = callback;
+		t.pollIntervalMillis = isStreaming() ? userDataStream.get().getReconciliationIntervalMillis()
+				: initialPollMillis;
+		t.nextPollMillis = t.startTime + t.pollIntervalMillis;
+		trackedOrders.put(orderId, t);
+
+		OrderStatus pushed = untrackedStatuses.remove(orderId);
+		if (pushed != null)
+			pushedStatuses.put(orderId, pushed);
+
+		if (thread == null) {
+			thread = new Thread(this);
+			thread.setName(exchange.getName() + "OrderStatusTracker");
+			thread.start();
+		} else {
+			notifyAll();
+		}
+	}
+
+	private boolean isStreaming() {
+		return userDataStream.isPresent() && userDataStream.get().isConnected();
+	}
+
+	public synchronized int getNumTrackedOrders() {
+		return trackedOrders.size();
+	}
+
+	/**
+	 * @return The tracked orders grouped by currency pair, or null (after clearing
+	 *         our thread) if there are none left to track
+	 */
+	private synchronized Map<CurrencyPair, List<TrackedOrder>> getOrdersByCurrencyPairOrFinish() {
+		if (trackedOrders.isEmpty() || !stillRunning) {
+			thread = null;
+			return null;
+		}
+
+		Map<CurrencyPair, List<TrackedOrder>> results = new HashMap<>();
+		for (TrackedOrder t : trackedOrders.values())
+			results.computeIfAbsent(t.currencyPair, k -> new ArrayList<>()).add(t);
+		return results;
+	}
+
+	private void complete(TrackedOrder t, OrderCompletion completion) {
+		synchronized (this) {
+			if (trackedOrders.remove(t.orderId) == null)
+				return;
+
+			if (completion.status == FILLED) {
+				long detectionMillis = currentTimeMillis() - t.startTime;
+				numFillsDetected++;
+				sumDetectionMillis += detectionMillis;
+				sumStatusChecksPerFill += t.statusChecks;
+				log.info("Fill of order ID {} on {} detected after {} ms and {} status checks ({})", t.orderId,
+						exchange, detectionMillis, t.statusChecks, getPollStatistics());
+			}
+		}
+		t.callback.accept(completion);
+	}
+
+	/**
+	 * @return The average time to detect a fill and the average number of status
+	 *         checks and requests per fill
+	 */
+	public synchronized String getPollStatistics() {
+		if (numFillsDetected == 0)
+			return "no fills detected yet";
+		return String.format("%d fills, avg %d ms to detect, avg %.1f checks and %.1f requests per fill",
+				numFillsDetected, sumDetectionMillis / numFillsDetected,
+				sumStatusChecksPerFill * 1.0 / numFillsDetected, numStatusRequests * 1.0 / numFillsDetected);
+	}
+
+	/*
+	 * Backs off the poll interval of an order that's still open
+	 */
+	private synchronized void scheduleNextPoll(TrackedOrder t, long now) {
+		t.pollIntervalMillis = isStreaming() ? userDataStream.get().getReconciliationIntervalMillis()
+				: Math.min(t.pollIntervalMillis * 2, maxPollMillis);
+		t.nextPollMillis = now + t.pollIntervalMillis;
+	}
+
+	private synchronized void deferPoll(TrackedOrder t, long now) {
+		t.nextPollMillis = now + initialPollMillis;
+	}
+
+	/**
+	 * @return true if the status requests can be made without exceeding our share
+	 *         of the exchange's request rate. The requests themselves still
+	 *         acquire their permits from the exchange's limiter.
+	 */
+	private synchronized boolean tryAcquirePollBudget(int numRequests) {
+		RateLimiter exchangeLimiter = exchange.getDefaultRateLimiter();
+		if (exchangeLimiter == null) {
+			numStatusRequests += numRequests;
+			return true;
+		}
+
+		double rate = exchangeLimiter.getRate() * pollBudgetFraction;
+		if (pollBudget == null)
+			pollBudget = RateLimiter.create(rate);
+		else if (pollBudget.getRate() != rate)
+			pollBudget.setRate(rate);
+
+		if (!pollBudget.tryAcquire(numRequests))
+			return false;
+		numStatusRequests += numRequests;
+		return true;
+	}
+
+	private synchronized void orderUpdated(OrderUpdate update) {
+		if (update.status == null)
+			return;
+
+		if (!trackedOrders.containsKey(update.orderId)) {
+			untrackedStatuses.put(update.orderId, update.status);
+			return;
+		}
+
+		pushedStatuses.put(update.orderId, update.status);
+		notifyAll();
+	}
+
+	private synchronized void requestReconciliation() {
+		reconciliationRequested = true;
+		notifyAll();
+	}
+
+	private synchronized OrderStatus takePushedStatus(String orderId) {
+		return pushedStatuses.remove(orderId);
+	}
+
+	/*
+	 * The earliest of any order's next status check or deadline; deadlines don't
+	 * depend on the poll schedule, which is stretched while streaming
+	 */
+	private long getNextPollMillis() {
+		long next = Long.MAX_VALUE;
+		for (TrackedOrder t : trackedOrders.values())
+			next = Math.min(next, Math.min(t.nextPollMillis, getDeadlineMillis(t)));
+		return next;
+	}
+
+	private static long getDeadlineMillis(TrackedOrder t) {
+		return t.startTime + t.maxExecutionTime;
+	}
+
+	/**
+	 * Completes every order whose maxExecutionTime has elapsed with a status of
+	 * TIME_EXPIRED. This runs on every pass, whether or not the order's next
+	 * status check is due.
+	 */
+	private void expireOverdueOrders() {
+		long now = currentTimeMillis();
+		List<TrackedOrder> expired = new ArrayList<>();
+		synchronized (this) {
+			for (TrackedOrder t : trackedOrders.values())
+				if (now >= getDeadlineMillis(t))
+					expired.add(t);
+		}
+
+		for (TrackedOrder t : expired) {
+			log.info("Order {} on {} was not filled within the maximum allowed time.", t.orderId, exchange);
+			complete(t, new OrderCompletion(exchange, TIME_EXPIRED, t.orderId, null, null));
+		}
+	}
+
+	/**
+	 * Waits until an order update is pushed, a reconciliation is requested or the
+	 * next check of any order is due
+	 * 
+	 * @return true if a reconciliation was requested, in which case every order
+	 *         should be queried over REST in this pass
+	 */
+	private synchronized boolean awaitNextPass() throws InterruptedException {
+		long now, next;
+		while (!trackedOrders.isEmpty() && !reconciliationRequested
+				&& (now = currentTimeMillis()) < (next = getNextPollMillis())
+				&& (pushedStatuses.isEmpty() || exchange.isDisabledTemporarilyOrNeedsWalletPopulation()))
+			wait(next - now);
+
+		boolean reconcile = reconciliationRequested;
+		reconciliationRequested = false;
+		return reconcile;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				boolean reconcile = awaitNextPass();
+				expireOverdueOrders();
+
+				Map<CurrencyPair, List<TrackedOrder>> ordersByCurrencyPair = getOrdersByCurrencyPairOrFinish();
+				if (ordersByCurrencyPair == null)
+					return;
+
+				for (Entry<CurrencyPair, List<TrackedOrder>> entry : ordersByCurrencyPair.entrySet())
+					poll(entry.getKey(), entry.getValue(), reconcile);
+			}
+		} catch (InterruptedException e) {
+			log.debug("{} interrupted with exchange {}, exiting", getClass().getSimpleName(), exchange);
+			synchronized (this) {
+				thread = null;
+			}
+		}
+	}
+
+	/*
+	 * Our status calls to the exchange all have retry logic within them. If these
+	 * methods throw an exception satisfying ExceptionUtil.isRetryable(), we disable
+	 * the exchange temporarily and keep tracking until it's back online. If a bulk
+	 * status query fails permanently, each order is queried on its own, and only an
+	 * order whose own query fails permanently is completed with a status of
+	 * UNRECOVERABLE_EXCEPTION. The maxExecutionTime of each order takes precedence
+	 * over the exchange going offline; see expireOverdueOrders().
+	 */
+	private void poll(CurrencyPair currencyPair, List<TrackedOrder> orders, boolean reconcile)
+			throws InterruptedException {
+		long now = currentTimeMillis();
+		Set<String> orderIds = new HashSet<>();
+		for (TrackedOrder t : orders)
+			orderIds.add(t.orderId);
+
+		if (exchange.isDisabledTemporarilyOrNeedsWalletPopulation()) {
+			for (TrackedOrder t : orders)
+				scheduleNextPoll(t, now);
+			return;
+		}
+
+		/* statuses pushed by the user data stream need no request */
+		Map<String, OrderStatus> statuses = new HashMap<>();
+		for (String orderId : orderIds) {
+			OrderStatus pushed = takePushedStatus(orderId);
+			if (pushed != null)
+				statuses.put(orderId, pushed);
+		}
+
+		/* the orders whose next check is due and which weren't answered by a push */
+		Set<String> dueOrderIds = new HashSet<>();
+		for (TrackedOrder t : orders)
+			if (!statuses.containsKey(t.orderId) && (reconcile || t.nextPollMillis <= now))
+				dueOrderIds.add(t.orderId);
+
+		if (!dueOrderIds.isEmpty()) {
+			/*
+			 * Conservatively count one request per order, as though the exchange had no
+			 * bulk endpoint
+			 */
+			if (!tryAcquirePollBudget(dueOrderIds.size())) {
+				log.debug("Order poll budget for {} exhausted; deferring {} status checks", exchange,
+						dueOrderIds.size());
+				for (TrackedOrder t : orders)
+					if (dueOrderIds.contains(t.orderId))
+						deferPoll(t, now);
+				dueOrderIds.clear();
+			} else {
+				try {
+					statuses.putAll(exchange.queryOrderStatuses(currencyPair, dueOrderIds).get());
+				} catch (ExecutionException e) {
+					if (disableExchangeIfRetryable(e))
+						return;
+					log.warn("Couldn't check the status of {} orders on {} at once; checking each order...",
+							dueOrderIds.size(), exchange, e);
+					if (!queryStatusesIndividually(currencyPair, orders, dueOrderIds, statuses))
+						return;
+				}
+			}
+		}
+
+		now = currentTimeMillis();
+		for (TrackedOrder t : orders) {
+			boolean checked = dueOrderIds.contains(t.orderId);
+			if (checked)
+				t.statusChecks++;
+			else if (!statuses.containsKey(t.orderId))
+				continue;
+
+			OrderStatus status = statuses.get(t.orderId);
+			if (status == null) {
+				log.warn("Unexpectedly got a null order status for order ID {} on {}; trying again...", t.orderId,
+						exchange);
+				scheduleNextPoll(t, now);
+				continue;
+			}
+
+			OrderCompletionStatus ocs = getFromOrderStatus(status);
+			if (ocs == null || !ocs.isComplete()) {
+				log.debug("Order ID {} on {} still open...", t.orderId, exchange);
+				if (checked)
+					scheduleNextPoll(t, now);
+				continue;
+			}
+
+			/*
+			 * Now that our order was filled, query the complete order including aggregate
+			 * fields
+			 */
+			Order order = null;
+			try {
+				Optional<Order> orderOpt = exchange.queryOrder(currencyPair, t.orderId).get();
+				if (orderOpt.isPresent())
+					order = orderOpt.get();
+			} catch (ExecutionException e) {
+				if (disableExchangeIfRetryable(e))
+					return;
+				completeWithException(t, e);
+				continue;
+			}
+
+			log.info("Order ID {} on {} is completed with a status of {}.", t.orderId, exchange, ocs);
+			exchange.getBalanceLedger().orderSettled(order, status,
+					exchange.getFeeCurrency(currencyPair, t.orderId));
+			complete(t, new OrderCompletion(exchange, ocs, t.orderId, order, null));
+		}
+	}
+
+	/**
+	 * Queries the status of each of the specified orders on its own, after a bulk
+	 * query failed. Only an order whose own query fails permanently is completed
+	 * with UNRECOVERABLE_EXCEPTION (and removed from dueOrderIds).
+	 * 
+	 * @return false if the exchange was disabled, in which case this pass should
+	 *         end
+	 */
+	private boolean queryStatusesIndividually(CurrencyPair currencyPair, List<TrackedOrder> orders,
+			Set<String> dueOrderIds, Map<String, OrderStatus> statuses) throws InterruptedException {
+		for (TrackedOrder t : orders) {
+			if (!dueOrderIds.contains(t.orderId))
+				continue;
+			try {
+				exchange.queryOrderStatus(currencyPair, t.orderId).get()
+						.ifPresent(status -> statuses.put(t.orderId, status));
+			} catch (ExecutionException e) {
+				if (disableExchangeIfRetryable(e))
+					return false;
+				completeWithException(t, e);
+				dueOrderIds.remove(t.orderId);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the exception is retryable, in which case the exchange was
+	 *         disabled temporarily and its orders remain tracked
+	 */
+	private boolean disableExchangeIfRetryable(ExecutionException e) {
+		if (!isRetryable(exchange, e))
+			return false;
+
+		log.error("Error attempting to check for order completion for exchange " + exchange
+				+ ", disabling exchange temporarily...", e);
+		disableExchange(exchange);
+		return true;
+	}
+
+	private void completeWithException(TrackedOrder t, ExecutionException e) {
+		log.error("Couldn't check the status of order ID " + t.orderId + " on " + exchange, e);
+		complete(t, new OrderCompletion(exchange, UNRECOVERABLE_EXCEPTION, t.orderId, null, e.getCause()));
+	}
+
+}
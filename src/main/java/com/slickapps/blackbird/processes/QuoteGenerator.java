@@ -3,6 +3,7 @@ package com.slickapps.blackbird.processes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -15,6 +16,7 @@ import com.slickapps.blackbird.EventListenerProvider;
 import com.slickapps.blackbird.Main;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.listener.BlackbirdEventListener;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
 import com.slickapps.blackbird.model.Quote;
 import com.slickapps.blackbird.service.QuoteService;
 import com.slickapps.blackbird.util.exception.ExceptionUtil;
@@ -87,9 +89,16 @@ public class QuoteGenerator implements Runnable {
 			return;
 		}
 
+		/* don't leave the last quotes of delisted pairs behind */
+		for (CurrencyPair cp : uniqueCurrencyPairs)
+			if (exchange.isDelisted(cp))
+				quoteService.removeQuote(new ExchangeAndCurrencyPair(exchange, cp));
+
 		Collection<Quote> quoteList = getQuotes();
 
 		for (Quote newQuote : quoteList) {
+			if (exchange.isDelisted(newQuote.getCurrencyPair()))
+				continue;
 			quoteService.updateQuote(newQuote.getExchangeAndCurrencyPair(), newQuote);
 			for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
 				l.quoteReceived(newQuote);
@@ -97,10 +106,19 @@ public class QuoteGenerator implements Runnable {
 	}
 
 	protected Collection<Quote> getQuotes() throws InterruptedException, ExecutionException {
-		/* get the value for the current currency */
-		CurrencyPair currencyPair = uniqueCurrencyPairs.get(currencyPairIndex);
-		/* set the index for next time */
-		currencyPairIndex = (currencyPairIndex + 1) % uniqueCurrencyPairs.size();
+		/* get the value for the current currency, skipping delisted ones */
+		CurrencyPair currencyPair = null;
+		for (int i = 0; i < uniqueCurrencyPairs.size() && currencyPair == null; i++) {
+			CurrencyPair cp = uniqueCurrencyPairs.get(currencyPairIndex);
+			/* set the index for next time */
+			currencyPairIndex = (currencyPairIndex + 1) % uniqueCurrencyPairs.size();
+			if (!exchange.isDelisted(cp))
+				currencyPair = cp;
+		}
+		if (currencyPair == null) {
+			Thread.sleep(10000);
+			return Collections.emptyList();
+		}
 
 		CompletableFuture<Quote> quoteFuture = exchange.queryForQuote(currencyPair);
 		Quote q = quoteFuture.get();
@@ -0,0 +1,120 @@
+package com.slickapps.blackbird.processes;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.Main;
+import com.slickapps.blackbird.data.SpreadStateDAO;
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.listener.DefaultBlackbirdEventListener;
+import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.spread.SpreadState;
+import com.slickapps.blackbird.service.TrailingStopFilter;
+
+/**
+ * Restores the spread windows and trailing stops saved by a previous execution,
+ * then periodically (and on exit) saves them again. Without this, every pair
+ * waits spreadWindowValidAfterSeconds after a restart before it may be entered.
+ * <p>
+ * Trailing stops are only restored if the saved state is recent enough that the
+ * market hasn't moved on, i.e. within TrailingStateMaxAgeSeconds.
+ *
+ * @author barrycon
+ *
+ */
+public class SpreadStateAutoSave extends DefaultBlackbirdEventListener implements Runnable {
+	private static final Logger log = LoggerFactory.getLogger(SpreadStateAutoSave.class);
+
+	/* Every minute */
+	private static final long DEFAULT_SAVE_INTERVAL_MILLIS = 60000;
+	private static final long DEFAULT_TRAILING_STATE_MAX_AGE_SECONDS = 60;
+
+	private File file;
+	private long saveIntervalMillis;
+	private long trailingStateMaxAgeSeconds;
+	private SpreadMonitor spreadMonitor;
+	private TrailingStopFilter entryTrailingStopFilter;
+	private TrailingStopFilter exitTrailingStopFilter;
+
+	public SpreadStateAutoSave(Parameters params, File file, SpreadMonitor spreadMonitor,
+			TrailingStopFilter entryTrailingStopFilter, TrailingStopFilter exitTrailingStopFilter) {
+		this.file = file;
+		this.saveIntervalMillis = params.getLong("SpreadStateSaveMillis", DEFAULT_SAVE_INTERVAL_MILLIS);
+		this.trailingStateMaxAgeSeconds = params.getLong("TrailingStateMaxAgeSeconds",
+				DEFAULT_TRAILING_STATE_MAX_AGE_SECONDS);
+		this.spreadMonitor = spreadMonitor;
+		this.entryTrailingStopFilter = entryTrailingStopFilter;
+		this.exitTrailingStopFilter = exitTrailingStopFilter;
+	}
+
+	/**
+	 * Restores the saved state, if any, for the specified active exchanges
+	 */
+	public void restore(List<BlackbirdExchange> exchanges) {
+		Optional<SpreadState> saved = SpreadStateDAO.load(file);
+		if (!saved.isPresent())
+			return;
+
+		SpreadState state = saved.get();
+		int numWindows = spreadMonitor.restoreSpreadWindows(state.getSpreadWindows(), exchanges);
+
+		boolean trailingFresh = state.getSavedTime() != null && !state.getSavedTime()
+				.isBefore(LocalDateTime.now().minusSeconds(trailingStateMaxAgeSeconds));
+		if (trailingFresh) {
+			entryTrailingStopFilter.restoreTrailing(state.getEntryTrailing(), exchanges);
+			exitTrailingStopFilter.restoreTrailing(state.getExitTrailing(), exchanges);
+		}
+
+		log.info("Restored {} spread windows{} saved at {}", numWindows, trailingFresh ? " and trailing stops" : "",
+				state.getSavedTime());
+	}
+
+	@Override
+	public void run() {
+		while (Main.stillRunning) {
+			try {
+				Thread.sleep(saveIntervalMillis);
+				if (Main.stillRunning)
+					save();
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				log.warn("Couldn't save the spread state, will retry", e);
+			}
+		}
+	}
+
+	@Override
+	public void programExit() throws Exception {
+		save();
+	}
+
+	private synchronized void save() throws IOException {
+		SpreadState state = new SpreadState(LocalDateTime.now());
+		state.setSpreadWindows(spreadMonitor.exportSpreadWindows());
+		state.setEntryTrailing(entryTrailingStopFilter.exportTrailing());
+		state.setExitTrailing(exitTrailingStopFilter.exportTrailing());
+		SpreadStateDAO.save(file, state);
+	}
+
+	public static SpreadStateAutoSave initAndStart(Parameters params, List<BlackbirdExchange> exchanges,
+			SpreadMonitor spreadMonitor, TrailingStopFilter entryTrailingStopFilter,
+			TrailingStopFilter exitTrailingStopFilter) {
+		log.info("Starting spread state auto save...");
+		SpreadStateAutoSave autoSave = new SpreadStateAutoSave(params, SpreadStateDAO.SPREAD_STATE_FILE,
+				spreadMonitor, entryTrailingStopFilter, exitTrailingStopFilter);
+		autoSave.restore(exchanges);
+		Thread thread = new Thread(autoSave, "SpreadStateAutoSave");
+		thread.setDaemon(true);
+		thread.start();
+		return autoSave;
+	}
+
+}
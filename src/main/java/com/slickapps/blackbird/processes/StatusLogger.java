@@ -27,7 +27,7 @@ import com.slickapps.blackbird.listener.DefaultBlackbirdEventListener;
 import com.slickapps.blackbird.listener.SpreadMonitor;
 import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
-import com.slickapps.blackbird.model.ExchangePairsInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket.Snapshot;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
 import com.slickapps.blackbird.model.QuotePair;
@@ -89,8 +89,9 @@ public class StatusLogger extends DefaultBlackbirdEventListener implements Runna
 
 				LocalDateTime currTime = LocalDateTime.now();
 
-				ExchangePairsInMarket exchangePairsInMarket = marketPairsProvider.getPairsInMarket();
-				boolean hasPair = !latestEntryQuotes.isEmpty() || exchangePairsInMarket.getNumPairsInMarket() > 0;
+				/* immutable, so we can print it without locking or copying */
+				Snapshot pairsInMarket = marketPairsProvider.getPairsInMarket().getSnapshot();
+				boolean hasPair = !latestEntryQuotes.isEmpty() || !pairsInMarket.isEmpty();
 				if (!hasPair)
 					continue;
 
@@ -104,10 +105,10 @@ public class StatusLogger extends DefaultBlackbirdEventListener implements Runna
 				}
 
 				log.info("[ pairs in market ]");
-				if (exchangePairsInMarket.getNumPairsInMarket() == 0) {
+				if (pairsInMarket.isEmpty()) {
 					log.info("\t(none)");
 				} else {
-					printInMarketInfo(exchangePairsInMarket);
+					printInMarketInfo(pairsInMarket);
 				}
 			} catch (InterruptedException e) {
 				break;
@@ -118,10 +119,10 @@ public class StatusLogger extends DefaultBlackbirdEventListener implements Runna
 		}
 	}
 
-	public void printInMarketInfo(ExchangePairsInMarket exchangePairsInMarket) {
+	public void printInMarketInfo(Snapshot pairsInMarket) {
 		NumberFormat pctF = FormatUtil.getPercentFormatter();
 
-		exchangePairsInMarket.forEach(p -> {
+		pairsInMarket.getPairs().forEach(p -> {
 			if (!p.getLongExchange().isEnabled() || !p.getShortExchange().isEnabled())
 				return;
 
@@ -118,15 +118,22 @@ public class BalanceService {
 	}
 
 	public BigDecimal getTotalBalance(Collection<BlackbirdExchange> exchanges, Currency c, boolean allowCache) {
+		return queryTotalBalance(exchanges, c, allowCache).join();
+	}
+
+	/**
+	 * @return The sum of the available balances of the specified currency, with
+	 *         every exchange queried concurrently
+	 */
+	public CompletableFuture<BigDecimal> queryTotalBalance(Collection<BlackbirdExchange> exchanges, Currency c,
+			boolean allowCache) {
 		List<CompletableFuture<Balance>> futures = new ArrayList<>(exchanges.size());
 		for (BlackbirdExchange e : exchanges) {
 			futures.add(e.queryBalance(c, allowCache));
 		}
-		BigDecimal total = BigDecimal.ZERO;
-		for (CompletableFuture<Balance> f : futures) {
-			total = total.add(f.join().getAvailable());
-		}
-		return total;
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(v -> futures.stream().map(f -> f.join().getAvailable()).reduce(BigDecimal.ZERO,
+						BigDecimal::add));
 	}
 
 }
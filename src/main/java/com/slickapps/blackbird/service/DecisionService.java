@@ -0,0 +1,206 @@
+package com.slickapps.blackbird.service;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.util.FutureUtil;
+import com.slickapps.blackbird.util.UnionFind;
+import com.slickapps.blackbird.util.exception.PairsInMarketUpdatedNotification;
+
+/**
+ * Decides which pairs to exit and enter on each pass of the main loop.
+ * <p>
+ * Pairs in different currency equivalence classes (e.g. BTC/USD and ETH/USDT)
+ * share no exchange/currency legs and no exposure limits, so when
+ * PartitionedDecisionsEnabled is set the pairs are grouped by the equivalence
+ * class of their currency pairs and each group is evaluated on its own worker,
+ * up to DecisionThreads at once. The only state the groups share is each
+ * exchange's balances, which an entry holds atomically in the exchange's
+ * BalanceLedger before placing its orders.
+ *
+ * @author barrycon
+ *
+ */
+public class DecisionService {
+	private static final Logger log = LoggerFactory.getLogger(DecisionService.class);
+
+	private Parameters params;
+	private MarketEntryService marketEntryService;
+	private MarketExitService marketExitService;
+	/* null unless partitioned */
+	private ExecutorService executor;
+
+	/**
+	 * The pairs whose exit or entry orders were placed by one group
+	 */
+	public static class Decisions {
+		private List<ExchangePairInMarket> pairsExiting = emptyList();
+		private List<ExchangePairInMarket> pairsEntering = emptyList();
+		private Throwable failure;
+
+		public List<ExchangePairInMarket> getPairsExiting() {
+			return pairsExiting;
+		}
+
+		public List<ExchangePairInMarket> getPairsEntering() {
+			return pairsEntering;
+		}
+
+		/**
+		 * @return What kept this group from finishing, if anything; any exits or
+		 *         entries it placed before then are still included
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		public boolean isEmpty() {
+			return pairsExiting.isEmpty() && pairsEntering.isEmpty();
+		}
+
+		public void rethrowFailure()
+				throws IOException, InterruptedException, ExecutionException, PairsInMarketUpdatedNotification {
+			if (failure == null)
+				return;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure instanceof InterruptedException)
+				throw (InterruptedException) failure;
+			if (failure instanceof ExecutionException)
+				throw (ExecutionException) failure;
+			if (failure instanceof PairsInMarketUpdatedNotification)
+				throw (PairsInMarketUpdatedNotification) failure;
+			throw new ExecutionException(failure);
+		}
+	}
+
+	public DecisionService(Parameters params, MarketEntryService marketEntryService,
+			MarketExitService marketExitService) {
+		this.params = params;
+		this.marketEntryService = marketEntryService;
+		this.marketExitService = marketExitService;
+
+		if (params.getBoolean("PartitionedDecisionsEnabled", false)) {
+			int numThreads = params.getInteger("DecisionThreads", Runtime.getRuntime().availableProcessors());
+			AtomicInteger threadCount = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(numThreads, r -> {
+				Thread t = new Thread(r, "DecisionWorker-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			log.info("Evaluating each currency equivalence class separately on up to {} threads", numThreads);
+		}
+	}
+
+	/**
+	 * Evaluates the specified pairs for exit and entry, placing the orders of each
+	 * one that qualifies. A group which fails doesn't stop the others; its failure
+	 * is returned in its Decisions so that the caller can first take on whatever
+	 * was placed.
+	 *
+	 * @param pairsInMarket
+	 *            An immutable list of the pairs in market, e.g. from the current
+	 *            ExchangePairsInMarket snapshot
+	 * @param outOfMarketPairs
+	 *            All unique {Exchange and Currency Pair} combinations that are not
+	 *            already in the market
+	 * @return The decisions of each group
+	 */
+	public List<Decisions> decide(List<ExchangePairInMarket> pairsInMarket,
+			Set<ExchangePairAndCurrencyPair> outOfMarketPairs) {
+		if (executor == null)
+			return Collections.singletonList(decideGroup(pairsInMarket, outOfMarketPairs));
+
+		/*
+		 * Entries require equivalent currency pairs, but a pair already in the market
+		 * may span two classes (e.g. if EquivalentCurrencies changed since it entered),
+		 * so the classes of both its legs are evaluated as one group. Candidates whose
+		 * legs aren't equivalent are never entered, so they just go with their long leg.
+		 */
+		UnionFind<CurrencyPair> groups = new UnionFind<>();
+		for (ExchangePairInMarket epim : pairsInMarket)
+			groups.union(params.getEquivalenceClass(epim.getLongCurrencyPair()),
+					params.getEquivalenceClass(epim.getShortCurrencyPair()));
+
+		Map<CurrencyPair, List<ExchangePairInMarket>> pairsByClass = new LinkedHashMap<>();
+		for (ExchangePairInMarket epim : pairsInMarket)
+			pairsByClass.computeIfAbsent(groups.find(params.getEquivalenceClass(epim.getLongCurrencyPair())),
+					k -> new ArrayList<>()).add(epim);
+
+		Map<CurrencyPair, Set<ExchangePairAndCurrencyPair>> candidatesByClass = new LinkedHashMap<>();
+		for (ExchangePairAndCurrencyPair ecp : outOfMarketPairs)
+			candidatesByClass.computeIfAbsent(groups.find(params.getEquivalenceClass(ecp.getLongCurrencyPair())),
+					k -> new LinkedHashSet<>()).add(ecp);
+
+		Set<CurrencyPair> classes = new LinkedHashSet<>(pairsByClass.keySet());
+		classes.addAll(candidatesByClass.keySet());
+
+		List<CompletableFuture<Decisions>> futures = new ArrayList<>();
+		for (CurrencyPair c : classes) {
+			List<ExchangePairInMarket> pairs = pairsByClass.getOrDefault(c, emptyList());
+			Set<ExchangePairAndCurrencyPair> candidates = candidatesByClass.getOrDefault(c, emptySet());
+			futures.add(CompletableFuture.supplyAsync(() -> decideGroup(pairs, candidates), executor));
+		}
+
+		List<Decisions> results = new ArrayList<>();
+		for (CompletableFuture<Decisions> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (CompletionException e) {
+				Decisions failed = new Decisions();
+				failed.failure = FutureUtil.unwrap(e);
+				results.add(failed);
+			}
+		}
+		return results;
+	}
+
+	private Decisions decideGroup(List<ExchangePairInMarket> pairsInMarket,
+			Set<ExchangePairAndCurrencyPair> outOfMarketPairs) {
+		/*
+		 * Every exit and entry found is committed, as long as their exchange/currency
+		 * legs don't overlap
+		 */
+		Set<ExchangeAndCurrencyPair> usedLegs = new HashSet<>();
+
+		Decisions d = new Decisions();
+		d.pairsExiting = new ArrayList<>();
+		try {
+			marketExitService.preparePairsReadyToExit(pairsInMarket, usedLegs, d.pairsExiting);
+			d.pairsEntering = marketEntryService.preparePairsReadyToEnter(outOfMarketPairs, usedLegs);
+		} catch (Exception e) {
+			/* the caller rethrows it, possibly on another thread */
+			if (e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			d.failure = e;
+		}
+		return d;
+	}
+
+}
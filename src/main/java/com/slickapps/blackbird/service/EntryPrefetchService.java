@@ -0,0 +1,158 @@
+package com.slickapps.blackbird.service;
+
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
+
+/**
+ * Once a pair has exceeded its entry target and the trailing stop filter is
+ * counting confirmation periods, an entry is likely to follow. This service
+ * speculatively requests both legs' balances and order books at that point so
+ * that, if the entry is approved, the results are usually already available
+ * and the decision doesn't wait on those network round trips.
+ * <p>
+ * Prefetched results are only handed out while they are younger than
+ * {SpeculativePrefetchMaxAgeMillis}, which by default is the smaller of the two
+ * exchanges' OrderBookCacheMaxAgeMillis; otherwise callers should query the
+ * exchanges as usual, as they should if a prefetched request fails.
+ * <p>
+ * Balances are served from each exchange's ledger where possible. Otherwise
+ * one wallet request per exchange is shared by every pair prefetched within
+ * the max age, rather than each trailing pair requesting its own.
+ *
+ * @author barrycon
+ *
+ */
+public class EntryPrefetchService {
+	private static final Logger log = LoggerFactory.getLogger(EntryPrefetchService.class);
+
+	protected Map<ExchangePairAndCurrencyPair, Prefetch> prefetches = new ConcurrentHashMap<>();
+	protected Map<BlackbirdExchange, WalletPrefetch> walletPrefetches = new ConcurrentHashMap<>();
+	protected boolean enabled;
+	/* 0 to derive it from the exchanges' order book cache ages */
+	protected long maxAgeMillis;
+
+	public static class Prefetch {
+		public final long createdMillis = System.currentTimeMillis();
+		public final long maxAgeMillis;
+		public CompletableFuture<Balance> longBalance;
+		public CompletableFuture<Balance> shortBalance;
+		public CompletableFuture<OrderBookDepth> longDepth;
+		public CompletableFuture<OrderBookDepth> shortDepth;
+
+		public Prefetch(long maxAgeMillis) {
+			this.maxAgeMillis = maxAgeMillis;
+		}
+
+		public boolean isFresh() {
+			return System.currentTimeMillis() - createdMillis <= maxAgeMillis;
+		}
+	}
+
+	protected static class WalletPrefetch {
+		final long createdMillis = System.currentTimeMillis();
+		final CompletableFuture<Wallet> wallet;
+
+		WalletPrefetch(CompletableFuture<Wallet> wallet) {
+			this.wallet = wallet;
+		}
+
+		boolean isFresh(long maxAgeMillis) {
+			return System.currentTimeMillis() - createdMillis <= maxAgeMillis;
+		}
+	}
+
+	public EntryPrefetchService(Parameters params) {
+		this.enabled = params.getBoolean("SpeculativePrefetchEnabled", false);
+		this.maxAgeMillis = params.getLong("SpeculativePrefetchMaxAgeMillis", 0L);
+	}
+
+	/**
+	 * Starts requests for both legs' counter currency balances and order books
+	 * unless a fresh prefetch already exists for this pair.
+	 */
+	public void prefetch(ExchangePairAndCurrencyPair ecp) {
+		if (!enabled)
+			return;
+
+		Prefetch existing = prefetches.get(ecp);
+		if (existing != null && existing.isFresh())
+			return;
+
+		log.debug("Prefetching balances and order books for {}", ecp);
+		Prefetch p = new Prefetch(getMaxAgeMillis(ecp));
+		try {
+			p.longBalance = prefetchBalance(ecp.getLongExchange(), ecp.getLongCurrencyPair().counter,
+					p.maxAgeMillis);
+			p.shortBalance = prefetchBalance(ecp.getShortExchange(), ecp.getShortCurrencyPair().counter,
+					p.maxAgeMillis);
+			p.longDepth = ecp.getLongExchange().queryOrderBookDepth(ecp.getLongCurrencyPair(), ASK);
+			p.shortDepth = ecp.getShortExchange().queryOrderBookDepth(ecp.getShortCurrencyPair(), BID);
+		} catch (Exception e) {
+			/* purely an optimization; the regular path will query again */
+			log.debug("Couldn't prefetch for " + ecp, e);
+			return;
+		}
+		prefetches.put(ecp, p);
+	}
+
+	/**
+	 * @return The configured max age, or the age beyond which either exchange
+	 *         would no longer use a cached order book
+	 */
+	protected long getMaxAgeMillis(ExchangePairAndCurrencyPair ecp) {
+		if (maxAgeMillis > 0)
+			return maxAgeMillis;
+		return Math.min(ecp.getLongExchange().getOrderBookCacheMaxAgeMillis(),
+				ecp.getShortExchange().getOrderBookCacheMaxAgeMillis());
+	}
+
+	private CompletableFuture<Balance> prefetchBalance(BlackbirdExchange exchange, Currency currency,
+			long maxAgeMillis) {
+		if (exchange.getBalanceLedger().getAvailable(currency).isPresent())
+			return exchange.queryAvailableBalance(currency);
+
+		WalletPrefetch w = walletPrefetches.compute(exchange,
+				(e, existing) -> existing != null && existing.isFresh(maxAgeMillis) ? existing
+						: new WalletPrefetch(e.queryWallet(false)));
+		return w.wallet.thenApply(wallet -> wallet.getBalance(currency));
+	}
+
+	/**
+	 * @return The prefetch for this pair if one exists and is still fresh
+	 */
+	public Optional<Prefetch> getFreshPrefetch(ExchangePairAndCurrencyPair ecp) {
+		Prefetch p = prefetches.get(ecp);
+		if (p == null || !p.isFresh())
+			return Optional.empty();
+		return Optional.of(p);
+	}
+
+	/**
+	 * Discards any prefetch for this pair, e.g. when its trailing stop is reset or
+	 * an entry has been made
+	 */
+	public void clear(ExchangePairAndCurrencyPair ecp) {
+		prefetches.remove(ecp);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+}
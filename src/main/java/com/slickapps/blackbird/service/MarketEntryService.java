@@ -4,24 +4,30 @@ import static com.slickapps.blackbird.Main.TWO;
 import static com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus.FILLED;
 import static com.slickapps.blackbird.model.orderCompletion.OrderRollbackType.CUMULATIVE;
 import static com.slickapps.blackbird.util.FormatUtil.formatCurrency;
+import static com.slickapps.blackbird.util.FutureUtil.orElseGet;
+import static com.slickapps.blackbird.util.FutureUtil.withTimeout;
 import static java.math.MathContext.DECIMAL64;
 import static java.time.LocalDateTime.now;
 import static org.knowm.xchange.dto.Order.OrderType.ASK;
 import static org.knowm.xchange.dto.Order.OrderType.BID;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.Order.OrderType;
 import org.knowm.xchange.dto.account.Balance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,21 +41,27 @@ import com.slickapps.blackbird.model.BigDecimalPair;
 import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
-import com.slickapps.blackbird.model.ExchangePairsInMarket;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
 import com.slickapps.blackbird.model.QuotePair;
 import com.slickapps.blackbird.model.SpreadBounds;
 import com.slickapps.blackbird.model.TrailingDetails;
+import com.slickapps.blackbird.model.balance.BalanceLedger;
+import com.slickapps.blackbird.model.exposure.ExposureLedger;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
 import com.slickapps.blackbird.model.orderCompletion.OrderCompletion;
 import com.slickapps.blackbird.processes.OrderCompletionPoller;
+import com.slickapps.blackbird.service.EntryPrefetchService.Prefetch;
 import com.slickapps.blackbird.service.tradingRule.TradingRuleEvaluationService;
 import com.slickapps.blackbird.service.tradingRule.TradingRuleViolationException;
+import com.slickapps.blackbird.util.FutureUtil;
 import com.slickapps.blackbird.util.exception.PairsInMarketUpdatedNotification;
 
 public class MarketEntryService extends AbstractMarketService {
 	private static final Logger log = LoggerFactory.getLogger(MarketEntryService.class);
 
+	private static final long DEFAULT_STAGE_TIMEOUT_MILLIS = 10000;
+
 	protected Parameters params;
 	protected EventListenerProvider eventListenerProvider;
 	protected QuoteService quoteService;
@@ -58,8 +70,17 @@ public class MarketEntryService extends AbstractMarketService {
 	protected MarketPairsProvider marketPairsProvider;
 	protected StringPaddingService stringPaddingService = new StringPaddingService();
 	protected TradingRuleEvaluationService tradingRuleEvaluationService = new TradingRuleEvaluationService();
+	protected EntryPrefetchService entryPrefetchService;
 	protected AtomicInteger resultCount = new AtomicInteger();
 
+	/* the exchange/currency legs of entries currently being validated or placed */
+	protected Set<ExchangeAndCurrencyPair> entriesInFlight = ConcurrentHashMap.newKeySet();
+	/* exposure of our pairs in market, plus the transaction amounts of in flight entries */
+	protected ExposureLedger exposureLedger;
+	protected long balanceTimeoutMillis;
+	protected long limitPriceTimeoutMillis;
+	protected boolean rankEntriesByExpectedProfit;
+
 	protected Map<ExchangePairAndCurrencyPair, String> mostRecentValidComparisons = new ConcurrentHashMap<>();
 
 	public MarketEntryService(Parameters params, MarketPairsProvider marketPairsProvider,
@@ -70,29 +91,57 @@ public class MarketEntryService extends AbstractMarketService {
 		this.quoteService = quoteService;
 		this.spreadMonitor = spreadMonitor;
 		trailingStopFilter = new TrailingStopFilter(params, true);
+		entryPrefetchService = new EntryPrefetchService(params);
+		balanceTimeoutMillis = params.getLong("EntryBalanceTimeoutMillis", DEFAULT_STAGE_TIMEOUT_MILLIS);
+		limitPriceTimeoutMillis = params.getLong("EntryLimitPriceTimeoutMillis", DEFAULT_STAGE_TIMEOUT_MILLIS);
+		rankEntriesByExpectedProfit = params.getBoolean("RankEntriesByExpectedProfit", false);
 		resultCount.set(marketPairsProvider.getPairsInMarket().getMaxId() + 1);
+		exposureLedger = new ExposureLedger(params);
+		exposureLedger.init(marketPairsProvider.getPairsInMarket());
 	}
 
 	/**
 	 * Compare every permutation of {Short Exchange and Currency Pair} with every
 	 * other {Long Exchange and Currency Pair} to see if the latest quotes from
-	 * those exchanges qualify us for entry into the market. If we find one, we
-	 * submit entry orders at both exchanges, and return the new
-	 * ExchangePairInMarket object so it can be added to the ExchangePairsInMarket
-	 * wrapper and we can begin monitoring for those entry orders to be completed.
+	 * those exchanges qualify us for entry into the market.
+	 * <p>
+	 * Once a pair passes the checks that only need our quotes, the remaining
+	 * validation (balances, limit prices) and the placement of both entry orders
+	 * run as a CompletableFuture pipeline so the main loop doesn't wait on the
+	 * network. While that pipeline is in flight both of its exchange/currency legs
+	 * are reserved, so no other pair using either leg is evaluated until it has
+	 * finished. If the pipeline has already completed by the time evaluation
+	 * returns (e.g. every result was cached or prefetched), the new
+	 * ExchangePairInMarket is returned so the caller can add it to the
+	 * ExchangePairsInMarket wrapper as usual; otherwise, it's added here upon
+	 * completion. Either way, scanning continues with the next pair so that every
+	 * opportunity whose legs don't overlap one already taken in this pass (and
+	 * which fits within our max exposure) is entered.
+	 * <p>
+	 * Pairs are evaluated in their natural order unless
+	 * RankEntriesByExpectedProfit is set, in which case they're evaluated best
+	 * first; see {@link #rankByExpectedProfit(Set)}.
 	 * 
 	 * @param outOfMarketPairs
 	 *            All unique {Exchange and Currency Pair} combinations that are not
 	 *            already in the market
-	 * @return The newly added ExchangePairInMarket, or null if none was found
+	 * @param usedLegs
+	 *            Legs already committed to during this pass, e.g. by exits; the
+	 *            legs of each pair returned are added to it
+	 * @return The newly added ExchangePairInMarkets which completed synchronously,
+	 *         possibly empty
 	 * @throws InterruptedException
-	 *             If we are waiting for a
 	 * @throws ExecutionException
 	 * @throws PairsInMarketUpdatedNotification
 	 */
-	public ExchangePairInMarket prepareNextPairReadyToEnter(Set<ExchangePairAndCurrencyPair> outOfMarketPairs)
+	public List<ExchangePairInMarket> preparePairsReadyToEnter(Set<ExchangePairAndCurrencyPair> outOfMarketPairs,
+			Set<ExchangeAndCurrencyPair> usedLegs)
 			throws InterruptedException, ExecutionException, PairsInMarketUpdatedNotification {
-		for (ExchangePairAndCurrencyPair epcp : outOfMarketPairs) {
+		List<ExchangePairInMarket> results = new ArrayList<>();
+		Collection<ExchangePairAndCurrencyPair> candidates = rankEntriesByExpectedProfit
+				? rankByExpectedProfit(outOfMarketPairs)
+				: outOfMarketPairs;
+		for (ExchangePairAndCurrencyPair epcp : candidates) {
 			ExchangeAndCurrencyPair i = epcp.getShortExchangeAndCurrencyPair();
 			ExchangeAndCurrencyPair j = epcp.getLongExchangeAndCurrencyPair();
 
@@ -113,6 +162,14 @@ public class MarketEntryService extends AbstractMarketService {
 					|| longExchange.isDisabledTemporarilyOrNeedsWalletPopulation())
 				continue;
 
+			/*
+			 * an entry using either of these legs is already being validated or placed, or
+			 * we've already committed to one during this pass
+			 */
+			if (entriesInFlight.contains(i) || entriesInFlight.contains(j) || usedLegs.contains(i)
+					|| usedLegs.contains(j))
+				continue;
+
 			Optional<Quote> newLongQuote = quoteService.getLatestQuote(j);
 			Optional<Quote> newShortQuote = quoteService.getLatestQuote(i);
 
@@ -137,54 +194,181 @@ public class MarketEntryService extends AbstractMarketService {
 				l.quotePairEvaluation(quotePair, true);
 
 			/*
-			 * Evaluate these two quotes to see if they qualify us for entry into the market
+			 * Evaluate these two quotes to see if they qualify us for entry into the
+			 * market. If so, both legs are reserved and the returned future completes
+			 * once both orders have been placed (or with null if the entry was skipped).
 			 */
-			ExchangePairInMarket epim = null;
+			CompletableFuture<ExchangePairInMarket> entry;
 			try {
-				epim = evaluate(quotePair);
+				entry = evaluate(quotePair);
 			} catch (SkipEvaluation e) {
-				if (e.getCause() != null) {
-					log.error(e.getReason(), e.getCause());
-				} else if (StringUtils.isNotBlank(e.getReason())) {
-					log.info(e.getReason());
+				logSkip(e);
+				continue;
+			}
+
+			if (entry.isDone()) {
+				ExchangePairInMarket epim = entry.join();
+				/*
+				 * its exposure stays reserved until the caller adds it to the market, which
+				 * releases the reservation
+				 */
+				releaseInFlight(epcp, epim == null);
+				if (epim != null) {
+					results.add(epim);
+					usedLegs.add(i);
+					usedLegs.add(j);
 				}
 				continue;
 			}
 
-			/*
-			 * We found a new entry into the market. Place both orders, notify our listeners
-			 * as such, and return the new epim so we can add it to the
-			 * ExchangePairsInMarket wrapper and begin monitoring for its entry orders to be
-			 * completed.
-			 */
-			placeLongAndOrShortOrders(epim);
+			entry.whenComplete((epim, t) -> {
+				try {
+					if (epim != null)
+						completeEntry(epim);
+				} catch (Exception e) {
+					log.error("Couldn't add " + epim + " to the market", e);
+				} finally {
+					releaseInFlight(epcp, true);
+				}
+			});
+		}
 
-			for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
-				l.entryOrdersPlaced(epim);
+		return results;
+	}
 
-			return epim;
+	/**
+	 * Orders the specified pairs by the profit we'd expect from entering each of
+	 * them on this tick: how far its current spread exceeds its target entry
+	 * spread, times the amount we could trade (our max transaction amount, limited
+	 * by our remaining exposure). Only our latest quotes, spread windows and
+	 * exposure totals are consulted, so this is cheap enough to run every tick.
+	 * Pairs we can't score (e.g. no quotes yet, or no max transaction or exposure
+	 * amount configured for their currencies) follow the rest in their natural
+	 * order.
+	 * <p>
+	 * Every pair is still evaluated afterward, since evaluation also maintains the
+	 * trailing stops of pairs that don't qualify yet.
+	 */
+	protected List<ExchangePairAndCurrencyPair> rankByExpectedProfit(
+			Set<ExchangePairAndCurrencyPair> outOfMarketPairs) {
+		Map<ExchangePairAndCurrencyPair, BigDecimal> scores = new HashMap<>();
+		List<ExchangePairAndCurrencyPair> ranked = new ArrayList<>();
+		List<ExchangePairAndCurrencyPair> unscored = new ArrayList<>();
+		for (ExchangePairAndCurrencyPair ecp : outOfMarketPairs) {
+			Optional<BigDecimal> score = getExpectedProfit(ecp);
+			if (score.isPresent()) {
+				scores.put(ecp, score.get());
+				ranked.add(ecp);
+			} else {
+				unscored.add(ecp);
+			}
+		}
+
+		/* stable, so ties keep their natural order */
+		ranked.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+		ranked.addAll(unscored);
+		return ranked;
+	}
+
+	private Optional<BigDecimal> getExpectedProfit(ExchangePairAndCurrencyPair ecp) {
+		if (ecp.getLongExchange().equals(ecp.getShortExchange())
+				|| !params.currencyPairsEquivalent(ecp.getLongCurrencyPair(), ecp.getShortCurrencyPair()))
+			return Optional.empty();
+
+		Optional<Quote> longQuote = quoteService.getLatestQuote(ecp.getLongExchangeAndCurrencyPair());
+		Optional<Quote> shortQuote = quoteService.getLatestQuote(ecp.getShortExchangeAndCurrencyPair());
+		if (!longQuote.isPresent() || !shortQuote.isPresent())
+			return Optional.empty();
+
+		Optional<SpreadBounds> spreadBounds = spreadMonitor.getSpreadBounds(ecp);
+		if (!spreadBounds.isPresent() || !spreadBounds.get().hasWindowAverage())
+			return Optional.empty();
+
+		Optional<BigDecimal> targetEntrySpread = getEntrySpreadUsingWindowAverage(ecp, spreadBounds.get());
+		if (!targetEntrySpread.isPresent())
+			return Optional.empty();
+
+		QuotePair quotePair = new QuotePair(longQuote.get(), shortQuote.get());
+		BigDecimal currentSpread = params.useExecutableSpread ? quotePair.getExecutableSpreadIfEntering()
+				: quotePair.getSpreadIfEntering();
+
+		CurrencyPair longCurrencyPair = ecp.getLongCurrencyPair();
+		CurrencyPair shortCurrencyPair = ecp.getShortCurrencyPair();
+		BigDecimal feasibleAmount;
+		try {
+			BigDecimal maxExposureAmount = params.getMaxExposureAmount(shortCurrencyPair.counter)
+					.min(params.getMaxExposureAmount(longCurrencyPair.counter));
+			feasibleAmount = params.getMaxTransactionAmount(shortCurrencyPair)
+					.min(params.getMaxTransactionAmount(longCurrencyPair))
+					.min(maxExposureAmount.subtract(exposureLedger.getEquivalentExposure(longCurrencyPair)))
+					.max(BigDecimal.ZERO);
+		} catch (IllegalArgumentException e) {
+			/* no max transaction or exposure amount is configured for these currencies */
+			return Optional.empty();
 		}
 
-		return null;
+		return Optional.of(currentSpread.subtract(targetEntrySpread.get()).multiply(feasibleAmount));
+	}
+
+	/**
+	 * Adds a pair whose entry orders were placed asynchronously to the market and
+	 * begins monitoring those orders, just as the main loop does for entries
+	 * returned from {@link #preparePairsReadyToEnter(Set, Set)}
+	 */
+	protected void completeEntry(ExchangePairInMarket epim) {
+		marketPairsProvider.getPairsInMarket().addPairInMarket(epim);
+		beginEntryOrderCompletionPollers(epim);
+		log.info(epim.getEntryInfo());
+		quoteService.marketPairsUpdated();
 	}
 
 	/**
-	 * Checks for entry opportunity given quotes at two different exchanges and
-	 * returns an instance of ExchangePairInMarket if an opportunity is found.
-	 * Otherwise throws a SkipEvaluation.
+	 * Reserves both legs of this pair so no other entry using either is evaluated
+	 * concurrently.
 	 * 
-	 * @throws InterruptedException
-	 *             If a blocked thread waiting on an asynchronous result is
-	 *             interrupted
+	 * @return false if either leg was already reserved
 	 */
-	private ExchangePairInMarket evaluate(QuotePair quotePair) throws InterruptedException, SkipEvaluation {
+	private synchronized boolean reserveInFlight(ExchangePairAndCurrencyPair ecp) {
+		ExchangeAndCurrencyPair longLeg = ecp.getLongExchangeAndCurrencyPair();
+		ExchangeAndCurrencyPair shortLeg = ecp.getShortExchangeAndCurrencyPair();
+		if (entriesInFlight.contains(longLeg) || entriesInFlight.contains(shortLeg))
+			return false;
+		entriesInFlight.add(longLeg);
+		entriesInFlight.add(shortLeg);
+		return true;
+	}
+
+	private synchronized void releaseInFlight(ExchangePairAndCurrencyPair ecp, boolean releaseExposure) {
+		entriesInFlight.remove(ecp.getLongExchangeAndCurrencyPair());
+		entriesInFlight.remove(ecp.getShortExchangeAndCurrencyPair());
+		if (releaseExposure)
+			exposureLedger.release(ecp);
+		ecp.getLongExchange().getBalanceLedger().releaseHold(ecp);
+		ecp.getShortExchange().getBalanceLedger().releaseHold(ecp);
+	}
+
+	private void logSkip(SkipEvaluation e) {
+		if (e.getCause() != null) {
+			log.error(e.getReason(), e.getCause());
+		} else if (StringUtils.isNotBlank(e.getReason())) {
+			log.info(e.getReason());
+		}
+	}
+
+	/**
+	 * Checks for entry opportunity given quotes at two different exchanges. The
+	 * checks that only depend on our quotes run immediately and throw a
+	 * SkipEvaluation if the pair doesn't qualify; otherwise both legs are reserved
+	 * and a future is returned which completes with the ExchangePairInMarket once
+	 * its orders have been placed, or with null if a later stage skipped the entry.
+	 * The returned future never completes exceptionally.
+	 */
+	private CompletableFuture<ExchangePairInMarket> evaluate(QuotePair quotePair) throws SkipEvaluation {
 		Quote longQuote = quotePair.getLongQuote();
 		Quote shortQuote = quotePair.getShortQuote();
 
 		ExchangePairAndCurrencyPair ecp = new ExchangePairAndCurrencyPair(longQuote.getExchangeAndCurrencyPair(),
 				shortQuote.getExchangeAndCurrencyPair());
-		CurrencyPair longCurrencyPair = ecp.getLongCurrencyPair();
-		CurrencyPair shortCurrencyPair = ecp.getShortCurrencyPair();
 
 		/*
 		 * Now that I'm trying to enter the market, I want to purchase some of the long
@@ -206,7 +390,13 @@ public class MarketEntryService extends AbstractMarketService {
 		if (!sb.hasWindowAverage())
 			throw new SkipEvaluation();
 
-		BigDecimal currentSpread = quotePair.getSpreadIfEntering();
+		/*
+		 * In executable spread mode our quotes carry the volume weighted prices for
+		 * our intended quantity (times the order book factor), so an opportunity that
+		 * only exists at the top of the book is never considered
+		 */
+		BigDecimal currentSpread = params.useExecutableSpread ? quotePair.getExecutableSpreadIfEntering()
+				: quotePair.getSpreadIfEntering();
 		Optional<BigDecimal> targetEntrySpread = getEntrySpreadUsingWindowAverage(ecp, sb);
 		if (!targetEntrySpread.isPresent())
 			throw new SkipEvaluation();
@@ -216,42 +406,82 @@ public class MarketEntryService extends AbstractMarketService {
 		 */
 		TrailingDetails trailing = getTrailingDetails(ecp);
 		boolean trailingStopFilterApproval = trailingStopFilter.evaluate(ecp, currentSpread, targetEntrySpread.get());
-		if (!trailingStopFilterApproval)
+		if (!trailingStopFilterApproval) {
+			/*
+			 * While we're trailing, an entry is likely to follow; request the balances and
+			 * order books we'll need now so they're ready if it's approved
+			 */
+			if (trailing.hasTrailingSpread())
+				entryPrefetchService.prefetch(ecp);
+			else
+				entryPrefetchService.clear(ecp);
+			throw new SkipEvaluation();
+		}
+
+		if (!reserveInFlight(ecp))
 			throw new SkipEvaluation();
 
-		/* Ensure I have some USD to use to enter the market */
-		BigDecimalPair balances = getAndValidateNonZeroBalances(ecp);
+		Optional<Prefetch> prefetch = entryPrefetchService.getFreshPrefetch(ecp);
+		entryPrefetchService.clear(ecp);
 
-		/*
-		 * Ensure we aren't going to exceed our overall max exposure for our currency
-		 * pairs
-		 */
-		BigDecimal remainingAvailableExposure = getAndValidateRemainingAvailableExposure(longCurrencyPair,
-				shortCurrencyPair);
+		CompletableFuture<ExchangePairInMarket> result;
+		try {
+			/* Ensure I have some USD to use to enter the market */
+			CompletableFuture<BigDecimalPair> balancesFuture = getAndValidateNonZeroBalances(ecp, prefetch);
 
-		/*
-		 * Based on our remaining available exposure and how much each exchange will
-		 * allow us to leverage, calculate the final transaction amount
-		 */
-		BigDecimal transactionAmount = getMaxTransactionAmount(ecp, balances, remainingAvailableExposure);
+			/*
+			 * Based on our remaining available exposure (ensuring we aren't going to exceed
+			 * our overall max exposure for our currency pairs) and how much each exchange
+			 * will allow us to leverage, calculate and reserve the final transaction amount
+			 */
+			CompletableFuture<BigDecimal> transactionAmountFuture = balancesFuture
+					.thenCompose(balances -> reserveTransactionAmount(ecp, balances));
 
-		/*
-		 * Calculate the quantities to submit based on the transactionAmount. For those
-		 * exchanges that assess fees on the base currency, the quantity received will
-		 * be lower; otherwise, the fees are assessed on the final total.
-		 */
-		BigDecimalPair quantities = getQuantitiesToSubmit(ecp, marketPrices, transactionAmount);
+			result = transactionAmountFuture.thenCompose(transactionAmount -> {
+				/*
+				 * Calculate the quantities to submit based on the transactionAmount. For those
+				 * exchanges that assess fees on the base currency, the quantity received will
+				 * be lower; otherwise, the fees are assessed on the final total.
+				 */
+				BigDecimalPair quantities = getQuantitiesToSubmit(ecp, marketPrices, transactionAmount);
 
-		/*
-		 * Get the actual prices necessary to purchase the desired quantities. The limit
-		 * prices will be >= than the market prices on the long exchange since we're
-		 * buying, and <= the market prices on the short exchange since we're selling.
-		 * Since our orders will use these prices, our final transaction amounts will be
-		 * slightly different than our desired transactionAmount above, which is why
-		 */
-		log.info("Entry opportunity found, checking limit prices...");
-		BigDecimalPair limitPrices = getLimitPrices(ecp, trailing, quantities);
+				/*
+				 * Get the actual prices necessary to purchase the desired quantities. The limit
+				 * prices will be >= than the market prices on the long exchange since we're
+				 * buying, and <= the market prices on the short exchange since we're selling.
+				 * Since our orders will use these prices, our final transaction amounts will be
+				 * slightly different than our desired transactionAmount above.
+				 */
+				log.info("Entry opportunity found, checking limit prices...");
+				return getLimitPrices(ecp, trailing, quantities, prefetch)
+						.thenApply(limitPrices -> createPairInMarket(ecp, trailing, marketPrices, currentSpread,
+								quantities, limitPrices));
+			}).thenCompose(this::placeLongAndOrShortOrders);
+		} catch (RuntimeException e) {
+			releaseInFlight(ecp, true);
+			throw e;
+		}
+
+		return result.handle((epim, t) -> {
+			if (t == null)
+				return epim;
 
+			Throwable cause = FutureUtil.unwrap(t);
+			if (cause instanceof SkipEvaluation)
+				logSkip((SkipEvaluation) cause);
+			else
+				log.error("Error evaluating entry for " + ecp, cause);
+			return null;
+		});
+	}
+
+	/**
+	 * Runs the final liquidity and trading rule checks and prepares the
+	 * ExchangePairInMarket for addition to the market
+	 */
+	private ExchangePairInMarket createPairInMarket(ExchangePairAndCurrencyPair ecp, TrailingDetails trailing,
+			BigDecimalPair marketPrices, BigDecimal currentSpread, BigDecimalPair quantities,
+			BigDecimalPair limitPrices) {
 		ensureLiquidity(ecp, marketPrices, limitPrices);
 
 		/*
@@ -264,9 +494,6 @@ public class MarketEntryService extends AbstractMarketService {
 			throw new SkipEvaluation(e.getMessage());
 		}
 
-		/*
-		 * Prepare and return the ExchangePairInMarket for addition to the market
-		 */
 		ExchangePairInMarket epim = new ExchangePairInMarket(ecp);
 		epim.setId(resultCount.getAndIncrement());
 		epim.setEntryTime(now());
@@ -334,89 +561,186 @@ public class MarketEntryService extends AbstractMarketService {
 		}
 	}
 
-	private BigDecimal getAndValidateRemainingAvailableExposure(CurrencyPair longCurrencyPair,
-			CurrencyPair shortCurrencyPair) throws SkipEvaluation {
-		ExchangePairsInMarket pairsInMarket = marketPairsProvider.getPairsInMarket();
+	/**
+	 * Calculates the transaction amount for this pair and, while it's in flight,
+	 * reserves it against the exposure of its currency pairs so concurrent entries
+	 * can't exceed our max exposure before either has been added to the market
+	 */
+	private CompletableFuture<BigDecimal> reserveTransactionAmount(ExchangePairAndCurrencyPair ecp,
+			BigDecimalPair balances) {
+		CurrencyPair longCurrencyPair = ecp.getLongCurrencyPair();
+		CurrencyPair shortCurrencyPair = ecp.getShortCurrencyPair();
 
 		BigDecimal maxExposureAmount = params.getMaxExposureAmount(shortCurrencyPair.counter)
 				.min(params.getMaxExposureAmount(longCurrencyPair.counter));
-		BigDecimal currentTotalExposure = pairsInMarket.getTotalExposure(shortCurrencyPair)
-				.max(pairsInMarket.getTotalExposure(longCurrencyPair));
-		BigDecimal remainingAvailableExposure = maxExposureAmount.subtract(currentTotalExposure);
+		BigDecimal transactionAmount = getMaxTransactionAmount(ecp, balances);
 
-		if (remainingAvailableExposure.signum() == 0)
+		BigDecimal reservedAmount = exposureLedger.reserve(ecp, transactionAmount, maxExposureAmount);
+		if (reservedAmount.signum() <= 0) {
+			BigDecimal currentTotalExposure = exposureLedger.getEquivalentExposure(shortCurrencyPair);
 			throw new SkipEvaluation(
 					"Opportunity found but max exposure for " + shortCurrencyPair.base + " is already met ("
-							+ formatCurrency(shortCurrencyPair.base, currentTotalExposure) + "); trade skipped.");
-		return remainingAvailableExposure;
+							+ formatCurrency(shortCurrencyPair.counter, currentTotalExposure) + "); trade skipped.");
+		}
+
+		if (reservedAmount.compareTo(transactionAmount) < 0)
+			log.info("Reducing transaction amount to {} to meet remaining available exposure.",
+					formatCurrency(shortCurrencyPair.counter, reservedAmount));
+
+		/*
+		 * Hold the balance each leg needs at its exchange so a concurrent entry in
+		 * another currency pair can't count on the same funds; both holds are released
+		 * along with the rest of this entry's in flight state
+		 */
+		return holdBalance(ecp, ecp.getLongExchange(), longCurrencyPair, reservedAmount)
+				.thenCompose(v -> holdBalance(ecp, ecp.getShortExchange(), shortCurrencyPair, reservedAmount))
+				.thenApply(v -> reservedAmount);
 	}
 
-	private BigDecimalPair getLimitPrices(ExchangePairAndCurrencyPair ecp, TrailingDetails trailing,
-			BigDecimalPair quantities) throws InterruptedException, SkipEvaluation {
-		Future<BigDecimal> limPriceLongFuture = ecp.getLongExchange().queryLimitPrice(ecp.getLongCurrencyPair(),
-				quantities.getLong(), ASK);
-		Future<BigDecimal> limPriceShortFuture = ecp.getShortExchange().queryLimitPrice(ecp.getShortCurrencyPair(),
-				quantities.getShort(), BID);
+	private CompletableFuture<Void> holdBalance(ExchangePairAndCurrencyPair ecp, BlackbirdExchange exchange,
+			CurrencyPair cp, BigDecimal transactionAmount) {
+		BigDecimal balanceNeeded = exchange.getExposureWithMaxLeverage(cp, transactionAmount);
+		BalanceLedger ledger = exchange.getBalanceLedger();
 
-		BigDecimal limPriceLong = null, limPriceShort = null;
-		try {
-			limPriceLong = limPriceLongFuture.get();
-			limPriceShort = limPriceShortFuture.get();
-		} catch (ExecutionException e) {
-			throw new SkipEvaluation("Error retrieving limit prices from the exchange", e.getCause());
-		}
+		/*
+		 * The ledger can't vouch for a balance it has no tally for (e.g. it was marked
+		 * stale by a margin order since our balance query), so take a new snapshot
+		 * before holding against it
+		 */
+		CompletableFuture<Void> tallied = CompletableFuture.completedFuture(null);
+		if (!ledger.getAvailable(cp.counter).isPresent())
+			tallied = skipOnError(
+					withTimeout(exchange.queryWallet(false), balanceTimeoutMillis, "Balance refresh at " + exchange),
+					"Couldn't refresh the balance at " + exchange + "; trade skipped.").thenApply(wallet -> null);
+
+		return tallied.thenRun(() -> {
+			if (!ledger.getAvailable(cp.counter).isPresent())
+				throw new SkipEvaluation("Opportunity found but the balance at " + exchange
+						+ " has open orders we can't account for yet; trade skipped.");
+
+			if (!ledger.hold(ecp, cp.counter, balanceNeeded))
+				throw new SkipEvaluation("Opportunity found but the balance needed at " + exchange
+						+ " is held by another entry; trade skipped.");
+		});
+	}
 
-		if (limPriceLong.signum() == 0 || limPriceShort.signum() == 0) {
-			log.warn("Opportunity found but error with the order books (limit price is null). Trade canceled");
-			log.warn("         Long limit price:  {}", formatCurrency(ecp.getLongCurrencyPair().counter, limPriceLong));
-			log.warn("         Short limit price: {}",
-					formatCurrency(ecp.getShortCurrencyPair().counter, limPriceShort));
-			trailing.reset();
-			throw new SkipEvaluation();
-		}
+	public ExposureLedger getExposureLedger() {
+		return exposureLedger;
+	}
 
-		limPriceLong = ecp.getLongExchange().roundPriceToStepSizeIfNecessary(true, limPriceLong,
-				ecp.getLongCurrencyPair());
-		limPriceShort = ecp.getShortExchange().roundPriceToStepSizeIfNecessary(true, limPriceShort,
-				ecp.getShortCurrencyPair());
+	private CompletableFuture<BigDecimalPair> getLimitPrices(ExchangePairAndCurrencyPair ecp,
+			TrailingDetails trailing, BigDecimalPair quantities, Optional<Prefetch> prefetch) {
+		CompletableFuture<BigDecimal> limPriceLongFuture = getLimitPrice(ecp.getLongExchange(),
+				ecp.getLongCurrencyPair(), quantities.getLong(), ASK,
+				prefetch.isPresent() ? prefetch.get().longDepth : null);
+		CompletableFuture<BigDecimal> limPriceShortFuture = getLimitPrice(ecp.getShortExchange(),
+				ecp.getShortCurrencyPair(), quantities.getShort(), BID,
+				prefetch.isPresent() ? prefetch.get().shortDepth : null);
+
+		limPriceLongFuture = withTimeout(limPriceLongFuture, limitPriceTimeoutMillis,
+				"Limit price query at " + ecp.getLongExchange());
+		limPriceShortFuture = withTimeout(limPriceShortFuture, limitPriceTimeoutMillis,
+				"Limit price query at " + ecp.getShortExchange());
+
+		return skipOnError(limPriceLongFuture.thenCombine(limPriceShortFuture, BigDecimalPair::new),
+				"Error retrieving limit prices from the exchange").thenApply(prices -> {
+					BigDecimal limPriceLong = prices.getLong(), limPriceShort = prices.getShort();
+					if (limPriceLong.signum() == 0 || limPriceShort.signum() == 0) {
+						log.warn("Opportunity found but error with the order books (limit price is null). Trade canceled");
+						log.warn("         Long limit price:  {}",
+								formatCurrency(ecp.getLongCurrencyPair().counter, limPriceLong));
+						log.warn("         Short limit price: {}",
+								formatCurrency(ecp.getShortCurrencyPair().counter, limPriceShort));
+						trailing.reset();
+						throw new SkipEvaluation();
+					}
+
+					limPriceLong = ecp.getLongExchange().roundPriceToStepSizeIfNecessary(true, limPriceLong,
+							ecp.getLongCurrencyPair());
+					limPriceShort = ecp.getShortExchange().roundPriceToStepSizeIfNecessary(true, limPriceShort,
+							ecp.getShortCurrencyPair());
+
+					return new BigDecimalPair(limPriceLong, limPriceShort);
+				});
+	}
 
-		BigDecimalPair limitPrices = new BigDecimalPair(limPriceLong, limPriceShort);
-		return limitPrices;
+	/**
+	 * Prices the specified volume against the prefetched order book, as long as
+	 * it's no older than the exchange allows for its own cached order books;
+	 * otherwise the exchange is queried as usual.
+	 */
+	private CompletableFuture<BigDecimal> getLimitPrice(BlackbirdExchange exchange, CurrencyPair currencyPair,
+			BigDecimal volume, OrderType orderType, CompletableFuture<OrderBookDepth> prefetchedDepth) {
+		if (prefetchedDepth == null)
+			return exchange.queryLimitPrice(currencyPair, volume, orderType);
+
+		return prefetchedDepth.handle((d, t) -> {
+			if (t != null) {
+				log.debug("Prefetch of {} order book on {} failed; querying again", currencyPair, exchange, t);
+				return exchange.queryLimitPrice(currencyPair, volume, orderType);
+			}
+			if (System.currentTimeMillis() - d.getAsOfMillis() > exchange.getOrderBookCacheMaxAgeMillis()) {
+				log.debug("Prefetched {} order book on {} is too old; querying again", currencyPair, exchange);
+				return exchange.queryLimitPrice(currencyPair, volume, orderType);
+			}
+			return CompletableFuture.completedFuture(d.getLimitPrice(volume.abs().multiply(params.orderBookFactor)));
+		}).thenCompose(f -> f);
 	}
 
-	private BigDecimalPair getAndValidateNonZeroBalances(ExchangePairAndCurrencyPair ecp)
-			throws InterruptedException, SkipEvaluation {
+	private CompletableFuture<BigDecimalPair> getAndValidateNonZeroBalances(ExchangePairAndCurrencyPair ecp,
+			Optional<Prefetch> prefetch) {
 		BlackbirdExchange longExchange = ecp.getLongExchange();
 		BlackbirdExchange shortExchange = ecp.getShortExchange();
 		CurrencyPair longCurrencyPair = ecp.getLongCurrencyPair();
 		CurrencyPair shortCurrencyPair = ecp.getShortCurrencyPair();
 
-		Future<Balance> longBalanceFuture = longExchange.queryBalance(longCurrencyPair.counter, false);
-		Future<Balance> shortBalanceFuture = shortExchange.queryBalance(shortCurrencyPair.counter, false);
-
-		BigDecimal longBalance = null, shortBalance = null;
-		try {
-			longBalance = longBalanceFuture.get().getAvailable();
-			log.info("Current balance at {}: {}", longExchange, formatCurrency(longCurrencyPair.counter, longBalance));
-			shortBalance = shortBalanceFuture.get().getAvailable();
-			log.info("Current balance at {}: {}", shortExchange,
-					formatCurrency(shortCurrencyPair.counter, shortBalance));
-		} catch (ExecutionException e) {
-			throw new SkipEvaluation("Error retrieving balances from the exchange", e.getCause());
-		}
-
-		BigDecimalPair balances = new BigDecimalPair(longBalance, shortBalance);
+		/* a failed prefetch is only an optimization lost, so query again */
+		CompletableFuture<Balance> longBalanceFuture = withTimeout(
+				orElseGet(prefetch.map(p -> p.longBalance).orElse(null),
+						() -> longExchange.queryAvailableBalance(longCurrencyPair.counter)),
+				balanceTimeoutMillis, "Balance query at " + longExchange);
+		CompletableFuture<Balance> shortBalanceFuture = withTimeout(
+				orElseGet(prefetch.map(p -> p.shortBalance).orElse(null),
+						() -> shortExchange.queryAvailableBalance(shortCurrencyPair.counter)),
+				balanceTimeoutMillis, "Balance query at " + shortExchange);
+
+		return skipOnError(longBalanceFuture.thenCombine(shortBalanceFuture,
+				(l, s) -> new BigDecimalPair(l.getAvailable(), s.getAvailable())),
+				"Error retrieving balances from the exchange").thenApply(balances -> {
+					log.info("Current balance at {}: {}", longExchange,
+							formatCurrency(longCurrencyPair.counter, balances.getLong()));
+					log.info("Current balance at {}: {}", shortExchange,
+							formatCurrency(shortCurrencyPair.counter, balances.getShort()));
+
+					if (balances.getLong().signum() == 0) {
+						throw new SkipEvaluation("No balance available at " + longExchange + "; trade skipped.");
+					}
+					if (balances.getShort().signum() == 0) {
+						throw new SkipEvaluation("No balance available at " + shortExchange + "; trade skipped.");
+					}
+					return balances;
+				});
+	}
 
-		if (balances.getLong().signum() == 0) {
-			throw new SkipEvaluation("No balance available at " + longExchange + "; trade skipped.");
-		}
-		if (balances.getShort().signum() == 0) {
-			throw new SkipEvaluation("No balance available at " + shortExchange + "; trade skipped.");
-		}
-		return balances;
+	/**
+	 * @return A future which fails with a SkipEvaluation carrying the specified
+	 *         reason (and the original cause) if the specified future fails
+	 */
+	private static <T> CompletableFuture<T> skipOnError(CompletableFuture<T> future, String reason) {
+		return future.handle((val, t) -> {
+			if (t == null)
+				return val;
+			Throwable cause = FutureUtil.unwrap(t);
+			if (cause instanceof SkipEvaluation)
+				throw (SkipEvaluation) cause;
+			throw new SkipEvaluation(reason, cause);
+		});
 	}
 
-	private static class SkipEvaluation extends Exception {
+	/*
+	 * Unchecked so it can propagate through the stages of the entry pipeline
+	 */
+	private static class SkipEvaluation extends RuntimeException {
 		private static final long serialVersionUID = 4661909864590817162L;
 
 		public SkipEvaluation() {
@@ -435,19 +759,16 @@ public class MarketEntryService extends AbstractMarketService {
 		}
 	}
 
-	private BigDecimal getMaxTransactionAmount(ExchangePairAndCurrencyPair ecp, BigDecimalPair balances,
-			BigDecimal remainingAvailableExposure) {
+	/*
+	 * Our remaining available exposure is applied afterward, when the amount is
+	 * reserved
+	 */
+	private BigDecimal getMaxTransactionAmount(ExchangePairAndCurrencyPair ecp, BigDecimalPair balances) {
 		BigDecimal shortTransactionAmount = params.getMaxTransactionAmount(ecp.getShortCurrencyPair());
 		BigDecimal longTransactionAmount = params.getMaxTransactionAmount(ecp.getLongCurrencyPair());
 
 		BigDecimal transactionAmount = shortTransactionAmount.min(longTransactionAmount);
 
-		if (transactionAmount.compareTo(remainingAvailableExposure) == 1) {
-			log.info("Reducing transaction amount to {} to meet remaining available exposure.",
-					formatCurrency(ecp.getShortCurrencyPair().counter, transactionAmount));
-			transactionAmount = transactionAmount.min(remainingAvailableExposure);
-		}
-
 		BigDecimal shortMaxLeverageableAmount = ecp.getShortExchange()
 				.getMaxLeveragableAmount(ecp.getShortCurrencyPair(), balances.getShort());
 		BigDecimal longMaxLeverageableAmount = ecp.getLongExchange().getMaxLeveragableAmount(ecp.getLongCurrencyPair(),
@@ -474,74 +795,90 @@ public class MarketEntryService extends AbstractMarketService {
 		return trailingStopFilter.getOrCreateTrailingDetails(ecp);
 	}
 
+	public TrailingStopFilter getTrailingStopFilter() {
+		return trailingStopFilter;
+	}
+
 	/*
 	 * Places both long and short orders concurrently at each exchange. If either
 	 * fails to be placed, we first check to see if the other succeeded; if so, we
 	 * immediately place an inverse order to cancel it (at market price,
 	 * unfortunately, since we need it to be filled immediately). In the event
-	 * either order placement fails, we throw a PairsInMarketUpdatedNotification so
-	 * that we restart our master loop; otherwise, if both succeeded, we return
-	 * normally.
+	 * either order placement fails, the returned future completes with null and
+	 * the quote service is notified that the pairs in market changed so the master
+	 * loop restarts; otherwise, once both succeeded, our listeners are notified
+	 * and it completes with the epim.
+	 * 
+	 * No timeout is applied here: an order placement that's slow to respond may
+	 * still succeed, and abandoning it would leave an untracked order behind.
 	 */
-	private void placeLongAndOrShortOrders(ExchangePairInMarket epim) throws PairsInMarketUpdatedNotification {
+	private CompletableFuture<ExchangePairInMarket> placeLongAndOrShortOrders(ExchangePairInMarket epim) {
 		log.info("Placing entry orders...");
 		BlackbirdExchange longExchange = epim.getLongExchange();
 		BlackbirdExchange shortExchange = epim.getShortExchange();
 
-		String longOrderId = null, shortOrderId = null;
 		/* Send the orders to the two exchanges (concurrently) */
 
 		BigDecimal entryVolumeLong = epim.getEntryVolumeLong();
-		CompletableFuture<String> longOrderIdFuture = longExchange.openLongPosition(epim.getLongCurrencyPair(),
-				entryVolumeLong, false, epim.getEntryPriceLong());
+		CompletableFuture<String> longOrderIdFuture = longExchange
+				.openLongPosition(epim.getLongCurrencyPair(), entryVolumeLong, false, epim.getEntryPriceLong())
+				.handle((id, t) -> {
+					if (t != null)
+						log.info("Error placing " + epim.getLongCurrencyPair() + " long order on " + longExchange,
+								FutureUtil.unwrap(t));
+					return id;
+				});
 
 		BigDecimal entryVolumeShort = epim.getEntryVolumeShort();
-		CompletableFuture<String> shortOrderIdFuture = shortExchange.openShortPosition(epim.getShortCurrencyPair(),
-				entryVolumeShort, false, epim.getEntryPriceShort());
-
-		try {
-			longOrderId = longOrderIdFuture.get();
+		CompletableFuture<String> shortOrderIdFuture = shortExchange
+				.openShortPosition(epim.getShortCurrencyPair(), entryVolumeShort, false, epim.getEntryPriceShort())
+				.handle((id, t) -> {
+					if (t != null)
+						log.info("Error placing " + epim.getShortCurrencyPair() + " short order on " + shortExchange,
+								FutureUtil.unwrap(t));
+					return id;
+				});
+
+		return longOrderIdFuture.thenCombine(shortOrderIdFuture, (longOrderId, shortOrderId) -> {
 			epim.setEntryLongOrderId(longOrderId);
-		} catch (Exception e) {
-			log.info("Error placing " + epim.getLongCurrencyPair() + " long order on " + longExchange, e);
-		}
-
-		try {
-			shortOrderId = shortOrderIdFuture.get();
 			epim.setEntryShortOrderId(shortOrderId);
-		} catch (Exception e) {
-			log.info("Error placing " + epim.getShortCurrencyPair() + " short order on " + shortExchange, e);
-		}
 
-		if (longOrderId == null || shortOrderId == null) {
-			/*
-			 * at least one did not complete successfully; cancel the other if it completed
-			 */
-			if (longOrderId != null) {
-				try {
-					cancelOrRevertLongOrder(longExchange, epim.getLongCurrencyPair(), longOrderId, CUMULATIVE);
-				} catch (Exception e) {
-					log.error("Couldn't place a market order at long exchange " + longExchange
-							+ " to revert market entry; manual intervention required.", e);
+			if (longOrderId == null || shortOrderId == null) {
+				/*
+				 * at least one did not complete successfully; cancel the other if it completed
+				 */
+				if (longOrderId != null) {
+					try {
+						cancelOrRevertLongOrder(longExchange, epim.getLongCurrencyPair(), longOrderId, CUMULATIVE);
+					} catch (Exception e) {
+						log.error("Couldn't place a market order at long exchange " + longExchange
+								+ " to revert market entry; manual intervention required.", e);
+					}
 				}
-			}
 
-			if (shortOrderId != null) {
-				try {
-					cancelOrRevertShortOrder(shortExchange, epim.getShortCurrencyPair(), shortOrderId, CUMULATIVE);
-				} catch (Exception e) {
-					log.error("Couldn't place a market order at short exchange " + shortExchange
-							+ " to revert market entry; manual intervention required.", e);
+				if (shortOrderId != null) {
+					try {
+						cancelOrRevertShortOrder(shortExchange, epim.getShortCurrencyPair(), shortOrderId,
+								CUMULATIVE);
+					} catch (Exception e) {
+						log.error("Couldn't place a market order at short exchange " + shortExchange
+								+ " to revert market entry; manual intervention required.", e);
+					}
 				}
+
+				/*
+				 * Might be save to continue to next currency pair, but just to be safe let's
+				 * reset here
+				 */
+				quoteService.marketPairsUpdated();
+				return null;
 			}
 
-			/*
-			 * Might be save to continue to next currency pair, but just to be safe let's
-			 * reset here
-			 */
-			throw new PairsInMarketUpdatedNotification();
-		}
+			for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
+				l.entryOrdersPlaced(epim);
 
+			return epim;
+		});
 	}
 
 	public void beginEntryOrderCompletionPollers(ExchangePairInMarket epim) {
@@ -582,15 +919,6 @@ public class MarketEntryService extends AbstractMarketService {
 				for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
 					l.entryOrdersFilled(epim);
 			} else {
-				/*
-				 * Let's wait a little bit here so that orders show up at some exchanges - e.g.
-				 * HitBTC
-				 */
-				try {
-					Thread.sleep(30000);
-				} catch (InterruptedException e1) {
-				}
-
 				log.warn("Removing {} pair from market since both entry orders could not be filled.",
 						epim.getShortCurrencyPair());
 
@@ -630,7 +958,14 @@ public class MarketEntryService extends AbstractMarketService {
 		return entrySpread.subtract(percentDiff);
 	}
 
-	public void cleanupIncompleteOrderPair(ExchangePairInMarket epim) {
+	/**
+	 * Cancels and reverts both entry orders of a pair that couldn't be fully
+	 * entered, then removes it from the market. The exchanges wait a little before
+	 * cancelling so that the orders show up at all of them (e.g. HitBTC); this
+	 * happens on a timer, so the returned future completes once the pair has been
+	 * removed without tying up a thread in the meantime.
+	 */
+	public CompletableFuture<Void> cleanupIncompleteOrderPair(ExchangePairInMarket epim) {
 		BlackbirdExchange longExchange = epim.getLongExchange();
 		String longOrderId = epim.getEntryLongOrderId();
 
@@ -647,52 +982,34 @@ public class MarketEntryService extends AbstractMarketService {
 		 * amount we may have shorted (on the short exchange).
 		 */
 
+		CompletableFuture<?> shortCleanup = CompletableFuture.completedFuture(null);
 		if (shortOrderId != null) {
 			CurrencyPair shortCurrencyPair = epim.getShortCurrencyPair();
-			try {
-				shortExchange.cancelOrder(shortCurrencyPair, shortOrderId).get();
-			} catch (Exception e) {
-				log.warn("Couldn't cancel " + shortCurrencyPair + " short order ID " + shortOrderId + " at exchange "
-						+ shortExchange + ". It may have already been filled; attempting to close position next.", e);
-			}
-
-			try {
-				Optional<Order> orderOpt = shortExchange.queryOrder(shortCurrencyPair, shortOrderId).get();
-				if (orderOpt.isPresent()) {
-					shortExchange
-							.closeShortPosition(shortCurrencyPair, orderOpt.get().getCumulativeAmount(), true, null)
-							.get();
-					log.error("{} short order placed.", shortCurrencyPair);
-				}
-			} catch (Exception e) {
-				log.error("Couldn't place " + shortCurrencyPair + " short order at exchange " + shortExchange
-						+ "; manual intervention required.", e);
-			}
+			shortCleanup = cancelOrRevertShortOrder(shortExchange, shortCurrencyPair, shortOrderId, CUMULATIVE)
+					.handle((orderPair, t) -> {
+						if (t != null)
+							log.error("Couldn't revert " + shortCurrencyPair + " short order ID " + shortOrderId
+									+ " at exchange " + shortExchange + "; manual intervention required.",
+									FutureUtil.unwrap(t));
+						return orderPair;
+					});
 		}
 
+		CompletableFuture<?> longCleanup = CompletableFuture.completedFuture(null);
 		if (longOrderId != null) {
 			CurrencyPair longCurrencyPair = epim.getLongCurrencyPair();
-			try {
-				longExchange.cancelOrder(longCurrencyPair, longOrderId).get();
-			} catch (Exception e) {
-				log.warn("Couldn't cancel " + longCurrencyPair + " long order ID " + longOrderId + " at exchange "
-						+ longExchange + ". It may have already been filled; attempting to close position next.", e);
-			}
-
-			try {
-				Optional<Order> orderOpt = longExchange.queryOrder(longCurrencyPair, longOrderId).get();
-				if (orderOpt.isPresent()) {
-					longExchange.closeLongPosition(longCurrencyPair, orderOpt.get().getCumulativeAmount(), true, null)
-							.get();
-					log.error("{} long order placed.", longCurrencyPair);
-				}
-			} catch (Exception e) {
-				log.error("Couldn't place " + longCurrencyPair + " long order at exchange " + longExchange
-						+ "; manual intervention required.", e);
-			}
+			longCleanup = cancelOrRevertLongOrder(longExchange, longCurrencyPair, longOrderId, CUMULATIVE)
+					.handle((orderPair, t) -> {
+						if (t != null)
+							log.error("Couldn't revert " + longCurrencyPair + " long order ID " + longOrderId
+									+ " at exchange " + longExchange + "; manual intervention required.",
+									FutureUtil.unwrap(t));
+						return orderPair;
+					});
 		}
 
-		marketPairsProvider.getPairsInMarket().removePairFromMarket(epim);
+		return CompletableFuture.allOf(shortCleanup, longCleanup)
+				.thenRun(() -> marketPairsProvider.getPairsInMarket().removePairFromMarket(epim));
 	}
 
 }
@@ -15,10 +15,15 @@ import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.SortedSet;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -32,9 +37,9 @@ import com.slickapps.blackbird.MarketPairsProvider;
 import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.listener.BlackbirdEventListener;
 import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.ExchangePairInMarket;
-import com.slickapps.blackbird.model.ExchangePairsInMarket;
 import com.slickapps.blackbird.model.OrderPair;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.Quote;
@@ -44,6 +49,7 @@ import com.slickapps.blackbird.model.TrailingDetails;
 import com.slickapps.blackbird.model.orderCompletion.OrderCompletion;
 import com.slickapps.blackbird.processes.OrderCompletionPoller;
 import com.slickapps.blackbird.util.FormatUtil;
+import com.slickapps.blackbird.util.FutureUtil;
 import com.slickapps.blackbird.util.exception.OrderPlacementException;
 import com.slickapps.blackbird.util.exception.PairsInMarketUpdatedNotification;
 
@@ -73,19 +79,82 @@ public class MarketExitService extends AbstractMarketService {
 		trailingStopFilter = new TrailingStopFilter(params, false);
 	}
 
-	public ExchangePairInMarket prepareNextPairReadyToExit(ExchangePairsInMarket exchangePairsInMarket)
+	/**
+	 * Evaluates every specified pair for exit and places the exit orders of each
+	 * one that qualifies, as long as its exchange/currency legs don't overlap
+	 * those of a pair already exiting during this pass. The orders of all the
+	 * qualifying pairs are placed concurrently.
+	 * 
+	 * @param pairsInMarket
+	 *            Pairs in market to consider, e.g. from the current
+	 *            ExchangePairsInMarket snapshot; it must not be modified while
+	 *            we're iterating it
+	 * @param usedLegs
+	 *            Legs already committed to during this pass; the legs of each pair
+	 *            exiting are added to it
+	 * @param pairsExiting
+	 *            Receives the pairs whose exit orders were all placed. If
+	 *            evaluating a pair throws, the placements already started are
+	 *            still awaited and added to it before the exception propagates, so
+	 *            the caller can track their orders.
+	 */
+	public void preparePairsReadyToExit(Collection<ExchangePairInMarket> pairsInMarket,
+			Set<ExchangeAndCurrencyPair> usedLegs, List<ExchangePairInMarket> pairsExiting)
 			throws IOException, InterruptedException, ExecutionException, PairsInMarketUpdatedNotification {
-		if (exchangePairsInMarket.getNumPairsInMarket() == 0)
-			return null;
+		if (pairsInMarket.isEmpty())
+			return;
+
+		int numAlreadyExiting = pairsExiting.size();
+		Map<ExchangePairInMarket, CompletableFuture<Void>> placements = new LinkedHashMap<>();
+		try {
+			startNewExits(pairsInMarket, usedLegs, placements);
+		} finally {
+			/*
+			 * one or more orders of a pair may not have been placed; we'll retry later
+			 * down below if either order was placed successfully
+			 */
+			pairsExiting.addAll(awaitPlacements(placements, usedLegs));
+		}
+		if (pairsExiting.size() > numAlreadyExiting)
+			return;
 
 		/*
-		 * Let's make a shallow copy so we can iterate over the list without blocking
-		 * other synchronized items. TODO The forEach() method would be better design
-		 * here.
+		 * Since we don't have any new pairs ready to exit (above), let's reprocess any
+		 * that previously were ready to exit but we had a problem placing one or both
+		 * of their exit orders.
 		 */
-		ExchangePairsInMarket epimCopy = exchangePairsInMarket.getPairsInMarketCopy(false);
-		SortedSet<ExchangePairInMarket> pairsInMarket = epimCopy.getPairsInMarket();
+		placements.clear();
+		try {
+			for (ExchangePairInMarket epim : pairsInMarket) {
+				if (epim.getLongExchange().isDisabledTemporarilyOrNeedsWalletPopulation()
+						|| epim.getShortExchange().isDisabledTemporarilyOrNeedsWalletPopulation())
+					continue;
+
+				if (!epim.isEitherExitOrderPlaced() || usedLegs.contains(epim.toLongExchangeAndCurrencyPair())
+						|| usedLegs.contains(epim.toShortExchangeAndCurrencyPair()))
+					continue;
+
+				/* only claim the legs once the placement has started without throwing */
+				placements.put(epim, placeLongAndShortOrders(epim));
+				usedLegs.add(epim.toLongExchangeAndCurrencyPair());
+				usedLegs.add(epim.toShortExchangeAndCurrencyPair());
+			}
+		} finally {
+			/*
+			 * If orders were successfully placed this time, return the pairs and let the
+			 * system start their ExitOrderCompletionPollers.
+			 */
+			pairsExiting.addAll(awaitPlacements(placements, usedLegs));
+		}
+	}
 
+	/**
+	 * Starts placing the exit orders of each new pair ready to exit, adding its
+	 * placement to the specified map as soon as it's started
+	 */
+	private void startNewExits(Collection<ExchangePairInMarket> pairsInMarket,
+			Set<ExchangeAndCurrencyPair> usedLegs, Map<ExchangePairInMarket, CompletableFuture<Void>> placements)
+			throws IOException, InterruptedException {
 		for (ExchangePairInMarket epim : pairsInMarket) {
 			if (!epim.getLongExchange().isEnabled() || !epim.getShortExchange().isEnabled()
 					|| epim.getLongExchange().isDisabledTemporarilyOrNeedsWalletPopulation()
@@ -113,6 +182,11 @@ public class MarketExitService extends AbstractMarketService {
 			if (epim.isEitherExitOrderPlaced())
 				continue;
 
+			/* another pair exiting during this pass already trades on either leg */
+			if (usedLegs.contains(epim.toLongExchangeAndCurrencyPair())
+					|| usedLegs.contains(epim.toShortExchangeAndCurrencyPair()))
+				continue;
+
 			Optional<Quote> latestLongQuote = quoteService.getLatestQuote(epim.toLongExchangeAndCurrencyPair());
 			Optional<Quote> latestShortQuote = quoteService.getLatestQuote(epim.toShortExchangeAndCurrencyPair());
 
@@ -136,42 +210,35 @@ public class MarketExitService extends AbstractMarketService {
 			if (!shouldExit)
 				continue;
 
-			try {
-				placeLongAndShortOrders(epim);
-				return epim;
-			} catch (OrderPlacementException e) {
-				/*
-				 * one or both orders couldn't be placed; we'll retry later down below if either
-				 * order was placed successfully
-				 */
-			}
+			/* only claim the legs once the placement has started without throwing */
+			placements.put(epim, placeLongAndShortOrders(epim));
+			usedLegs.add(epim.toLongExchangeAndCurrencyPair());
+			usedLegs.add(epim.toShortExchangeAndCurrencyPair());
 		}
+	}
 
-		/*
-		 * Since we don't have any new pairs ready to exit (above), let's reprocess any
-		 * that previously were ready to exit but we had a problem placing one or both
-		 * of their exit orders.
-		 */
-		for (ExchangePairInMarket epim : pairsInMarket) {
-			if (epim.getLongExchange().isDisabledTemporarilyOrNeedsWalletPopulation()
-					|| epim.getShortExchange().isDisabledTemporarilyOrNeedsWalletPopulation())
-				continue;
-
-			/*
-			 * If orders were successfully placed this time, return the epim and let the
-			 * system start ExitOrderCompletionPollers.
-			 */
-			if (epim.isEitherExitOrderPlaced()) {
-				try {
-					placeLongAndShortOrders(epim);
-					return epim;
-				} catch (OrderPlacementException e) {
-					; // continue to the next epim
-				}
+	/**
+	 * Waits for each of the specified placements to finish. The legs of any pair
+	 * whose orders couldn't all be placed are freed up again for this pass.
+	 * 
+	 * @return The pairs whose orders were all placed
+	 */
+	private List<ExchangePairInMarket> awaitPlacements(
+			Map<ExchangePairInMarket, CompletableFuture<Void>> placements, Set<ExchangeAndCurrencyPair> usedLegs) {
+		List<ExchangePairInMarket> results = new ArrayList<>();
+		for (Entry<ExchangePairInMarket, CompletableFuture<Void>> e : placements.entrySet()) {
+			ExchangePairInMarket epim = e.getKey();
+			try {
+				e.getValue().join();
+				results.add(epim);
+			} catch (CompletionException ex) {
+				if (!(FutureUtil.unwrap(ex) instanceof OrderPlacementException))
+					log.error("Error placing exit orders for " + epim, FutureUtil.unwrap(ex));
+				usedLegs.remove(epim.toLongExchangeAndCurrencyPair());
+				usedLegs.remove(epim.toShortExchangeAndCurrencyPair());
 			}
 		}
-
-		return null;
+		return results;
 	}
 
 	/**
@@ -330,13 +397,13 @@ public class MarketExitService extends AbstractMarketService {
 	/**
 	 * @param epim
 	 *            The pair whose long and short orders we will be placing. We only
-	 *            place orders that haven't already been placed. If both orders were
-	 *            successfully placed in this method, we return normally; if either
-	 *            order had a problem being placed, we throw a
-	 *            PairsInMarketUpdatedNotification.
-	 * @throws PairsInMarketUpdatedNotification
+	 *            place orders that haven't already been placed, and both are sent
+	 *            without waiting on the other.
+	 * @return A future which completes normally once both orders were
+	 *         successfully placed, or exceptionally with an
+	 *         OrderPlacementException if either order had a problem being placed
 	 */
-	private void placeLongAndShortOrders(ExchangePairInMarket epim) throws OrderPlacementException {
+	private CompletableFuture<Void> placeLongAndShortOrders(ExchangePairInMarket epim) {
 		BlackbirdExchange longExchange = epim.getLongExchange();
 		BlackbirdExchange shortExchange = epim.getShortExchange();
 
@@ -350,7 +417,7 @@ public class MarketExitService extends AbstractMarketService {
 		boolean shortOrderPlaced = epim.isExitShortOrderPlaced();
 		boolean useMarketOrder = logicalXor(longOrderPlaced, shortOrderPlaced);
 
-		CompletableFuture<String> longOrderIdFuture = null;
+		CompletableFuture<Boolean> longOrderFuture = CompletableFuture.completedFuture(true);
 		if (!longOrderPlaced) {
 			log.info("Placing long exit order...");
 
@@ -359,11 +426,20 @@ public class MarketExitService extends AbstractMarketService {
 			BigDecimal priceLong = longExchange.roundQuantityToStepSizeIfNecessary(true, epim.getExitPriceLong(),
 					epim.getLongCurrencyPair());
 
-			longOrderIdFuture = longExchange.closeLongPosition(epim.getLongCurrencyPair(), quantityLong, useMarketOrder,
-					priceLong);
+			longOrderFuture = longExchange
+					.closeLongPosition(epim.getLongCurrencyPair(), quantityLong, useMarketOrder, priceLong)
+					.handle((longOrderId, t) -> {
+						if (t != null) {
+							log.info("Error placing " + epim.getLongCurrencyPair() + " long order on " + longExchange,
+									FutureUtil.unwrap(t));
+							return false;
+						}
+						epim.setExitLongOrderId(longOrderId);
+						return true;
+					});
 		}
 
-		CompletableFuture<String> shortOrderIdFuture = null;
+		CompletableFuture<Boolean> shortOrderFuture = CompletableFuture.completedFuture(true);
 		if (!shortOrderPlaced) {
 			log.info("Placing short exit order...");
 
@@ -372,45 +448,34 @@ public class MarketExitService extends AbstractMarketService {
 			BigDecimal priceShort = shortExchange.roundQuantityToStepSizeIfNecessary(true, epim.getExitPriceShort(),
 					epim.getShortCurrencyPair());
 
-			shortOrderIdFuture = shortExchange.closeShortPosition(epim.getShortCurrencyPair(), quantityShort,
-					useMarketOrder, priceShort);
+			shortOrderFuture = shortExchange
+					.closeShortPosition(epim.getShortCurrencyPair(), quantityShort, useMarketOrder, priceShort)
+					.handle((shortOrderId, t) -> {
+						if (t != null) {
+							log.info("Error placing " + epim.getShortCurrencyPair() + " short order on "
+									+ shortExchange, FutureUtil.unwrap(t));
+							return false;
+						}
+						epim.setExitShortOrderId(shortOrderId);
+						return true;
+					});
 		}
 
-		boolean errorClosing = false;
-
-		String longOrderId = null, shortOrderId = null;
-		if (longOrderIdFuture != null) {
-			try {
-				longOrderId = longOrderIdFuture.get();
-				epim.setExitLongOrderId(longOrderId);
-			} catch (Exception e) {
-				log.info("Error placing " + epim.getLongCurrencyPair() + " long order on " + longExchange, e);
-				errorClosing = true;
-			}
-		}
-
-		if (shortOrderIdFuture != null) {
-			try {
-				shortOrderId = shortOrderIdFuture.get();
-				epim.setExitShortOrderId(shortOrderId);
-			} catch (Exception e) {
-				log.info("Error placing " + epim.getShortCurrencyPair() + " short order on " + shortExchange, e);
-				errorClosing = true;
+		return longOrderFuture.thenCombine(shortOrderFuture, (longOk, shortOk) -> {
+			if (!longOk || !shortOk) {
+				/*
+				 * By failing, we are leaving the pair in the market and the system will
+				 * eventually retry whichever order(s) could not be placed. In the event that
+				 * these orders somehow do end up being placed, but not returned to us by the
+				 * calls above, we'll rely on background position cleanup jobs.
+				 */
+				throw new CompletionException(new OrderPlacementException());
 			}
-		}
-
-		if (errorClosing) {
-			/*
-			 * By throwing this exception, we are leaving the pair in the market and the
-			 * system will eventually retry whichever order(s) could not be placed. In the
-			 * event that these orders somehow do end up being placed, but not returned to
-			 * us by the calls above, we'll rely on background position cleanup jobs.
-			 */
-			throw new OrderPlacementException();
-		}
 
-		for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
-			l.exitOrdersPlaced(epim);
+			for (BlackbirdEventListener l : eventListenerProvider.getEventListeners())
+				l.exitOrdersPlaced(epim);
+			return null;
+		});
 	}
 
 	/**
@@ -552,4 +617,8 @@ public class MarketExitService extends AbstractMarketService {
 			l.orderComplete(epim);
 	}
 
+	public TrailingStopFilter getTrailingStopFilter() {
+		return trailingStopFilter;
+	}
+
 }
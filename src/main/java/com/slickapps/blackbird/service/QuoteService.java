@@ -67,6 +67,10 @@ public class QuoteService {
 		quoteArrivedCounter.incrementAndGet();
 	}
 
+	public void removeQuote(ExchangeAndCurrencyPair exchangeAndCurrencyPair) {
+		liveQuotes.remove(exchangeAndCurrencyPair);
+	}
+
 	public Optional<Quote> getLatestQuote(ExchangeAndCurrencyPair p) {
 		return Optional.ofNullable(liveQuotes.get(p));
 	}
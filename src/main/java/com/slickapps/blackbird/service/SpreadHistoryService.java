@@ -0,0 +1,136 @@
+package com.slickapps.blackbird.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.slickapps.blackbird.data.QuoteHistoryDAO;
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.QuotePair;
+import com.slickapps.blackbird.model.SpreadBounds;
+
+/**
+ * Rebuilds the spread windows at startup by replaying the quotes DBQuoteWriter
+ * recorded during the last spreadAverageWindowLengthSeconds, pairing them up
+ * the same way the entry and exit services do. Windows which already have
+ * samples (e.g. restored by SpreadStateAutoSave) are left alone. Since the
+ * exit window of a pair is reset once it enters the market, only the quotes
+ * recorded since its entry are replayed into it.
+ *
+ * @author barrycon
+ *
+ */
+public class SpreadHistoryService {
+	private static final Logger log = LoggerFactory.getLogger(SpreadHistoryService.class);
+
+	private Parameters params;
+	private QuoteService quoteService;
+	private SpreadMonitor spreadMonitor;
+
+	/*
+	 * A pair whose window we're rebuilding, which spread it tracks and the time
+	 * its window began (or null if it began before our history)
+	 */
+	private static class Candidate {
+		ExchangePairAndCurrencyPair ecp;
+		boolean entryNotExit;
+		LocalDateTime windowStart;
+
+		Candidate(ExchangePairAndCurrencyPair ecp, boolean entryNotExit, LocalDateTime windowStart) {
+			this.ecp = ecp;
+			this.entryNotExit = entryNotExit;
+			this.windowStart = windowStart;
+		}
+	}
+
+	public SpreadHistoryService(Parameters params, QuoteService quoteService, SpreadMonitor spreadMonitor) {
+		this.params = params;
+		this.quoteService = quoteService;
+		this.spreadMonitor = spreadMonitor;
+	}
+
+	/**
+	 * @param inMarketPairs
+	 *            Pairs whose windows track the exit spread, from their entry
+	 * @param outOfMarketPairs
+	 *            Pairs whose windows track the entry spread
+	 * @return The number of quotes replayed
+	 */
+	public long rebuildSpreadWindows(List<BlackbirdExchange> exchanges,
+			Collection<ExchangePairInMarket> inMarketPairs, Set<ExchangePairAndCurrencyPair> outOfMarketPairs)
+			throws Exception {
+		/* each leg -> the pairs it's part of */
+		Map<ExchangeAndCurrencyPair, List<Candidate>> candidatesByLeg = new HashMap<>();
+		for (ExchangePairInMarket epim : inMarketPairs)
+			addCandidate(candidatesByLeg,
+					new Candidate(epim.toExchangePairAndCurrencyPair(), false, epim.getEntryTime()));
+		for (ExchangePairAndCurrencyPair ecp : outOfMarketPairs)
+			if (isEnterable(ecp))
+				addCandidate(candidatesByLeg, new Candidate(ecp, true, null));
+
+		if (candidatesByLeg.isEmpty())
+			return 0;
+
+		/* only the latest quote per leg is kept while replaying */
+		Map<ExchangeAndCurrencyPair, Quote> latestQuotes = new HashMap<>();
+		LocalDateTime since = LocalDateTime.now().minusSeconds(params.spreadAverageWindowLengthSeconds);
+
+		long numQuotes = QuoteHistoryDAO.replay(params.dbFile, exchanges, since, quote -> {
+			ExchangeAndCurrencyPair leg = quote.getExchangeAndCurrencyPair();
+			List<Candidate> candidates = candidatesByLeg.get(leg);
+			if (candidates == null)
+				return;
+
+			latestQuotes.put(leg, quote);
+			for (Candidate c : candidates) {
+				/* this quote is the latest of any pair it completes */
+				if (c.windowStart != null && quote.getCreationTime().isBefore(c.windowStart))
+					continue;
+
+				Quote longQuote = latestQuotes.get(c.ecp.getLongExchangeAndCurrencyPair());
+				Quote shortQuote = latestQuotes.get(c.ecp.getShortExchangeAndCurrencyPair());
+				if (longQuote == null || shortQuote == null)
+					continue;
+
+				QuotePair quotePair = new QuotePair(longQuote, shortQuote);
+				if (quoteService.quotesComparable(quotePair))
+					spreadMonitor.replayQuotePair(quotePair, c.entryNotExit);
+			}
+		});
+
+		log.info("Rebuilt spread windows from {} recorded quotes since {}", numQuotes, since);
+		return numQuotes;
+	}
+
+	private void addCandidate(Map<ExchangeAndCurrencyPair, List<Candidate>> candidatesByLeg, Candidate c) {
+		boolean hasSamples = spreadMonitor.getSpreadBounds(c.ecp).map(SpreadBounds::hasSamples).orElse(false);
+		if (hasSamples)
+			return;
+
+		candidatesByLeg.computeIfAbsent(c.ecp.getLongExchangeAndCurrencyPair(), p -> new ArrayList<>()).add(c);
+		candidatesByLeg.computeIfAbsent(c.ecp.getShortExchangeAndCurrencyPair(), p -> new ArrayList<>()).add(c);
+	}
+
+	/*
+	 * Same static checks as MarketEntryService applies before evaluating a pair
+	 */
+	private boolean isEnterable(ExchangePairAndCurrencyPair ecp) {
+		return !ecp.getLongExchange().equals(ecp.getShortExchange())
+				&& params.currencyPairsEquivalent(ecp.getLongCurrencyPair(), ecp.getShortCurrencyPair())
+				&& ecp.getShortExchangeAndCurrencyPair().isShortable();
+	}
+
+}
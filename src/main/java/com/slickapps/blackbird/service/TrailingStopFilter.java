@@ -2,15 +2,20 @@ package com.slickapps.blackbird.service;
 
 import java.math.BigDecimal;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
 import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.TrailingDetails;
+import com.slickapps.blackbird.model.spread.SpreadState.Trailing;
 import com.slickapps.blackbird.util.FormatUtil;
 
 /**
@@ -120,6 +125,39 @@ public class TrailingStopFilter {
 		return trailingMap.computeIfAbsent(ecp, p -> new TrailingDetails());
 	}
 
+	/**
+	 * @return A copy of every established trailing stop, for saving across
+	 *         restarts
+	 */
+	public List<Trailing> exportTrailing() {
+		List<Trailing> results = new ArrayList<>();
+		for (Entry<ExchangePairAndCurrencyPair, TrailingDetails> entry : trailingMap.entrySet()) {
+			TrailingDetails details = entry.getValue();
+			if (!details.hasTrailingSpread())
+				continue;
+			Trailing t = new Trailing(entry.getKey());
+			t.setTrailingStop(details.getTrailingStop());
+			t.setTrailingStopApprovalCount(details.getTrailingStopApprovalCount());
+			results.add(t);
+		}
+		return results;
+	}
+
+	/**
+	 * Restores previously exported trailing stops, skipping any for exchanges that
+	 * aren't active
+	 */
+	public void restoreTrailing(List<Trailing> trailing, List<BlackbirdExchange> exchanges) {
+		for (Trailing t : trailing) {
+			ExchangePairAndCurrencyPair ecp = t.toExchangePairAndCurrencyPair(exchanges);
+			if (ecp == null)
+				continue;
+			TrailingDetails details = getOrCreateTrailingDetails(ecp);
+			details.setTrailingStop(t.getTrailingStop());
+			details.setTrailingStopApprovalCount(t.getTrailingStopApprovalCount());
+		}
+	}
+
 	public Map<ExchangePairAndCurrencyPair, TrailingDetails> getTrailingMap() {
 		return trailingMap;
 	}
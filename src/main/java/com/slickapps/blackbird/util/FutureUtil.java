@@ -0,0 +1,81 @@
+package com.slickapps.blackbird.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Helpers for composing CompletableFutures without blocking a thread.
+ */
+public class FutureUtil {
+
+	/*
+	 * A single daemon thread is enough since the tasks scheduled here only complete
+	 * futures or hand work off to other executors
+	 */
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "FutureScheduler");
+		t.setDaemon(true);
+		return t;
+	});
+
+	public static ScheduledExecutorService getScheduler() {
+		return SCHEDULER;
+	}
+
+	/**
+	 * @return A future which completes with the result of the specified future, or
+	 *         exceptionally with a TimeoutException if that doesn't happen within
+	 *         the specified millis. The original future is left untouched.
+	 */
+	public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis,
+			String description) {
+		if (future.isDone() || timeoutMillis <= 0)
+			return future;
+
+		CompletableFuture<T> result = new CompletableFuture<>();
+		ScheduledFuture<?> timeout = SCHEDULER.schedule(() -> result.completeExceptionally(
+				new TimeoutException(description + " timed out after " + timeoutMillis + " ms")), timeoutMillis,
+				TimeUnit.MILLISECONDS);
+
+		future.whenComplete((val, t) -> {
+			timeout.cancel(false);
+			if (t != null)
+				result.completeExceptionally(t);
+			else
+				result.complete(val);
+		});
+		return result;
+	}
+
+	/**
+	 * @return A future which completes with the result of the specified future,
+	 *         or if that's null or fails, with the result of the future the
+	 *         fallback supplies
+	 */
+	public static <T> CompletableFuture<T> orElseGet(CompletableFuture<T> future,
+			Supplier<CompletableFuture<T>> fallback) {
+		if (future == null)
+			return fallback.get();
+
+		return future.handle((val, t) -> t == null ? CompletableFuture.completedFuture(val) : fallback.get())
+				.thenCompose(f -> f);
+	}
+
+	/**
+	 * @return The underlying cause of an exception thrown by a CompletableFuture
+	 *         stage
+	 */
+	public static Throwable unwrap(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null)
+			t = t.getCause();
+		return t;
+	}
+
+}
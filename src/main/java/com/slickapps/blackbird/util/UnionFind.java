@@ -0,0 +1,58 @@
+package com.slickapps.blackbird.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partitions elements into disjoint sets, where joining two elements merges
+ * their sets; so if A is joined with B and B with C, A and C share a set. Not
+ * thread safe.
+ *
+ * @author barrycon
+ *
+ */
+public class UnionFind<T> {
+
+	/* insertion ordered, so that getSets() is predictable */
+	private Map<T, T> parents = new LinkedHashMap<>();
+
+	/**
+	 * Merges the sets containing the two specified elements
+	 */
+	public void union(T a, T b) {
+		T rootA = find(a);
+		T rootB = find(b);
+		if (!rootA.equals(rootB))
+			parents.put(rootA, rootB);
+	}
+
+	/**
+	 * @return The element representing the set containing the specified one; an
+	 *         element never joined with another represents its own set
+	 */
+	public T find(T t) {
+		T parent = parents.putIfAbsent(t, t);
+		if (parent == null || parent.equals(t))
+			return t;
+
+		T root = find(parent);
+		parents.put(t, root);
+		return root;
+	}
+
+	/**
+	 * @return Every set, each including all of the elements passed to union() or
+	 *         find() that belong to it
+	 */
+	public Collection<Set<T>> getSets() {
+		Map<T, Set<T>> setsByRoot = new LinkedHashMap<>();
+		for (T t : new ArrayList<>(parents.keySet()))
+			setsByRoot.computeIfAbsent(find(t), k -> new LinkedHashSet<>()).add(t);
+		return setsByRoot.values();
+	}
+
+}
@@ -14,6 +14,7 @@ import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
 import com.slickapps.blackbird.model.Parameters;
 import com.slickapps.blackbird.model.TrailingDetails;
 import com.slickapps.blackbird.service.BalanceService;
+import com.slickapps.blackbird.service.DecisionService;
 import com.slickapps.blackbird.service.TestMarketEntryService;
 import com.slickapps.blackbird.service.TestMarketExitService;
 import com.slickapps.blackbird.service.TestQuoteService;
@@ -47,6 +48,7 @@ public class TestMain extends Main {
 		/* Init services */
 		
 		marketExitService = new TestMarketExitService(params, this, this, quoteService, spreadMonitor);
+		decisionService = new DecisionService(params, marketEntryService, marketExitService);
 
 		balanceService = new BalanceService(params);
 		balanceService.populateAndValidateBalances(exchanges, exchangePairsInMarket);
@@ -67,6 +67,7 @@ public class MockExchange extends AbstractMockExchange<MockExchange> {
 					new Balance(Currency.BTC, amountPurchased));
 
 			walletLastUpdated = LocalDateTime.now();
+			balanceLedger.reconcile(walletCache);
 			return walletCache;
 		};
 	}
@@ -0,0 +1,233 @@
+package com.slickapps.blackbird.test;
+
+import static org.knowm.xchange.currency.Currency.BTC;
+import static org.knowm.xchange.currency.Currency.USD;
+import static org.knowm.xchange.dto.Order.OrderStatus.CANCELED;
+import static org.knowm.xchange.dto.Order.OrderStatus.FILLED;
+import static org.knowm.xchange.dto.Order.OrderStatus.NEW;
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderStatus;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.slickapps.blackbird.model.balance.BalanceLedger;
+
+public class BalanceLedgerTest {
+
+	private static Wallet wallet(double usd, double btc) {
+		return new Wallet(new Balance(USD, BigDecimal.valueOf(usd), BigDecimal.valueOf(usd)),
+				new Balance(BTC, BigDecimal.valueOf(btc), BigDecimal.valueOf(btc)));
+	}
+
+	private static LimitOrder order(String id, OrderType type, double filled, double averagePrice,
+			OrderStatus status) {
+		return order(id, type, filled, averagePrice, 0, status);
+	}
+
+	private static LimitOrder order(String id, OrderType type, double filled, double averagePrice, double fee,
+			OrderStatus status) {
+		return new LimitOrder(type, BigDecimal.ONE, CurrencyPair.BTC_USD, id, null, BigDecimal.valueOf(averagePrice),
+				BigDecimal.valueOf(averagePrice), BigDecimal.valueOf(filled), BigDecimal.valueOf(fee), status);
+	}
+
+	private static void assertAvailable(BalanceLedger ledger, Currency c, String expected) {
+		Assert.assertEquals(0, new BigDecimal(expected).compareTo(ledger.getAvailable(c).get()));
+	}
+
+	@Test
+	public void unseededLedgerHasNoBalances() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		Assert.assertFalse(ledger.getAvailable(USD).isPresent());
+
+		ledger.reconcile(wallet(1000, 0));
+		assertAvailable(ledger, USD, "1000");
+		assertAvailable(ledger, BTC, "0");
+	}
+
+	@Test
+	public void buyIsReservedThenSettled() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, BID, BigDecimal.ONE, new BigDecimal("100"));
+		assertAvailable(ledger, USD, "900");
+
+		/* not final yet */
+		ledger.orderSettled(order("1", BID, 0.5, 99, NEW), NEW, null);
+		assertAvailable(ledger, USD, "900");
+
+		/* half filled at a better price, the rest cancelled */
+		ledger.orderSettled(order("1", BID, 0.5, 98, CANCELED), CANCELED, null);
+		assertAvailable(ledger, USD, "951");
+		assertAvailable(ledger, BTC, "0.5");
+
+		/* settling twice has no effect */
+		ledger.orderSettled(order("1", BID, 0.5, 98, CANCELED), CANCELED, null);
+		assertAvailable(ledger, USD, "951");
+	}
+
+	@Test
+	public void sellIsReservedThenSettled() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(0, 2));
+
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, ASK, BigDecimal.ONE, null);
+		assertAvailable(ledger, BTC, "1");
+
+		ledger.orderSettled(order("1", ASK, 1, 100, FILLED), FILLED, null);
+		assertAvailable(ledger, BTC, "1");
+		assertAvailable(ledger, USD, "100");
+	}
+
+	@Test
+	public void feesAreDebited() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 1));
+
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, BID, BigDecimal.ONE, new BigDecimal("100"));
+		ledger.orderSettled(order("1", BID, 1, 100, 0.25, FILLED), FILLED, null);
+		assertAvailable(ledger, USD, "899.75");
+
+		ledger.orderPlaced("2", CurrencyPair.BTC_USD, ASK, BigDecimal.ONE, null);
+		ledger.orderSettled(order("2", ASK, 1, 100, 0.001, FILLED), FILLED, BTC);
+		assertAvailable(ledger, USD, "999.75");
+		assertAvailable(ledger, BTC, "0.999");
+	}
+
+	@Test
+	public void snapshotsDontCountOpenOrdersTwice() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, BID, BigDecimal.ONE, new BigDecimal("100"));
+
+		/* half filled when the snapshot is taken */
+		ledger.reconcile(wallet(900, 0.5));
+		assertAvailable(ledger, USD, "900");
+		assertAvailable(ledger, BTC, "0");
+
+		ledger.orderSettled(order("1", BID, 1, 100, FILLED), FILLED, null);
+		assertAvailable(ledger, USD, "900");
+		assertAvailable(ledger, BTC, "1");
+
+		ledger.reconcile(wallet(900, 1));
+		Assert.assertEquals(0, ledger.getDriftAlarmCount());
+	}
+
+	@Test
+	public void openOrdersLeaveTheFirstSnapshotStale() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, BID, BigDecimal.ONE, new BigDecimal("100"));
+
+		ledger.reconcile(wallet(900, 0.5));
+		Assert.assertFalse(ledger.getAvailable(USD).isPresent());
+		Assert.assertFalse(ledger.getAvailable(BTC).isPresent());
+
+		ledger.orderSettled(order("1", BID, 1, 100, FILLED), FILLED, null);
+		Assert.assertFalse(ledger.getAvailable(BTC).isPresent());
+
+		ledger.reconcile(wallet(900, 1));
+		assertAvailable(ledger, USD, "900");
+		assertAvailable(ledger, BTC, "1");
+	}
+
+	@Test
+	public void staleCurrenciesAreNotServed() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+
+		ledger.markStale(USD);
+		Assert.assertFalse(ledger.getAvailable(USD).isPresent());
+		assertAvailable(ledger, BTC, "0");
+
+		ledger.reconcile(wallet(800, 0));
+		assertAvailable(ledger, USD, "800");
+		Assert.assertEquals(0, ledger.getDriftAlarmCount());
+	}
+
+	@Test
+	public void driftRaisesAlarm() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+
+		/* within the default 1% */
+		ledger.reconcile(wallet(995, 0));
+		Assert.assertEquals(0, ledger.getDriftAlarmCount());
+
+		ledger.reconcile(wallet(900, 0));
+		Assert.assertEquals(1, ledger.getDriftAlarmCount());
+		assertAvailable(ledger, USD, "900");
+	}
+
+	@Test
+	public void holdsCannotOvercommitABalance() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+
+		Assert.assertTrue(ledger.hold("a", USD, new BigDecimal("600")));
+		Assert.assertFalse(ledger.hold("b", USD, new BigDecimal("500")));
+		assertAvailable(ledger, USD, "400");
+
+		/* replacing a hold doesn't count it twice */
+		Assert.assertTrue(ledger.hold("a", USD, new BigDecimal("700")));
+		assertAvailable(ledger, USD, "300");
+
+		ledger.releaseHold("a");
+		Assert.assertTrue(ledger.hold("b", USD, new BigDecimal("500")));
+		assertAvailable(ledger, USD, "500");
+	}
+
+	@Test
+	public void holdsNeedATally() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		Assert.assertFalse(ledger.hold("a", USD, BigDecimal.ONE));
+
+		ledger.reconcile(wallet(1000, 0));
+		ledger.markStale(USD);
+		Assert.assertFalse(ledger.hold("a", USD, BigDecimal.ONE));
+
+		/* the next snapshot makes it servable again */
+		ledger.reconcile(wallet(1000, 0));
+		Assert.assertTrue(ledger.hold("a", USD, BigDecimal.ONE));
+		assertAvailable(ledger, USD, "999");
+	}
+
+	@Test
+	public void abandonedOrdersAreReconciledByTheNextSnapshot() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 1));
+		ledger.orderPlaced("1", CurrencyPair.BTC_USD, ASK, BigDecimal.ONE, null);
+		ledger.orderSettled(order("1", ASK, 0.5, 100, NEW), NEW, null);
+		Assert.assertTrue(ledger.isReserved("1"));
+
+		ledger.orderAbandoned("1");
+		Assert.assertFalse(ledger.isReserved("1"));
+		Assert.assertFalse(ledger.getAvailable(BTC).isPresent());
+
+		ledger.reconcile(wallet(1100, 0));
+		assertAvailable(ledger, USD, "1100");
+		assertAvailable(ledger, BTC, "0");
+		Assert.assertEquals(0, ledger.getDriftAlarmCount());
+	}
+
+	@Test
+	public void clearReleasesHolds() {
+		BalanceLedger ledger = new BalanceLedger("Test");
+		ledger.reconcile(wallet(1000, 0));
+		Assert.assertTrue(ledger.hold("a", USD, new BigDecimal("600")));
+
+		ledger.clear();
+		ledger.reconcile(wallet(1000, 0));
+		assertAvailable(ledger, USD, "1000");
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.slickapps.blackbird.test;
+
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.Order.OrderStatus;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.model.OrderPair;
+import com.slickapps.blackbird.model.orderCompletion.OrderRollbackType;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class CancelOrRevertTest {
+
+	private static LimitOrder order(String id, OrderType type, String filled, OrderStatus status) {
+		return new LimitOrder(type, BigDecimal.ONE, CurrencyPair.BTC_USD, id, null, new BigDecimal("100"),
+				new BigDecimal("100"), new BigDecimal(filled), BigDecimal.ZERO, status);
+	}
+
+	/**
+	 * Serves its orders from a map, records cancellations and fills every market
+	 * order immediately
+	 */
+	private static class RevertExchange extends MockExchange {
+		Map<String, Order> orders = new ConcurrentHashMap<>();
+		List<String> cancelled = new ArrayList<>();
+		List<Order> marketOrders = new ArrayList<>();
+		/* the status market orders have when first queried */
+		OrderStatus marketOrderStatus = OrderStatus.FILLED;
+
+		RevertExchange() {
+			super("Revert", 0.25, 100);
+			cancelOrRevertDelayMillis = 0;
+			walletLastUpdated = LocalDateTime.now();
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		public CompletableFuture<Optional<Order>> queryOrder(CurrencyPair currencyPair, String orderId) {
+			return CompletableFuture.completedFuture(Optional.ofNullable(orders.get(orderId)));
+		}
+
+		@Override
+		public CompletableFuture<Map<String, OrderStatus>> queryOrderStatuses(CurrencyPair currencyPair,
+				Set<String> orderIds) {
+			Map<String, OrderStatus> statuses = new HashMap<>();
+			for (String orderId : orderIds)
+				statuses.put(orderId, orders.get(orderId).getStatus());
+			return CompletableFuture.completedFuture(statuses);
+		}
+
+		@Override
+		public CompletableFuture<Boolean> cancelOrder(CurrencyPair currencyPair, String orderId) {
+			cancelled.add(orderId);
+			Order order = orders.get(orderId);
+			orders.put(orderId, order(orderId, order.getType(), order.getCumulativeAmount().toPlainString(),
+					OrderStatus.CANCELED));
+			return CompletableFuture.completedFuture(true);
+		}
+
+		@Override
+		protected CompletableFuture<String> sendMarketOrder(OrderType orderType, BigDecimal quantity,
+				CurrencyPair currencyPair) {
+			String id = "Revert" + marketOrders.size();
+			Order order = new LimitOrder(orderType, quantity, currencyPair, id, null, new BigDecimal("100"),
+					new BigDecimal("100"), quantity, BigDecimal.ZERO, marketOrderStatus);
+			marketOrders.add(order);
+			orders.put(id, order);
+			return CompletableFuture.completedFuture(id);
+		}
+
+		OrderPair cancelOrRevertLong(String orderId, OrderRollbackType rollbackType) throws Exception {
+			return cancelOrRevertLongOrder(CurrencyPair.BTC_USD, orderId, rollbackType).get(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void filledLegIsRevertedCumulatively() throws Exception {
+		RevertExchange exchange = new RevertExchange();
+		exchange.orders.put("A", order("A", BID, "1", OrderStatus.FILLED));
+
+		OrderPair result = exchange.cancelOrRevertLong("A", OrderRollbackType.CUMULATIVE);
+		Assert.assertTrue(exchange.cancelled.isEmpty());
+		Assert.assertEquals(1, exchange.marketOrders.size());
+		Assert.assertEquals(ASK, exchange.marketOrders.get(0).getType());
+		Assert.assertEquals(0, BigDecimal.ONE.compareTo(exchange.marketOrders.get(0).getOriginalAmount()));
+		Assert.assertEquals("Revert0", result.order2.getId());
+	}
+
+	@Test
+	public void filledLegHasNothingRemainingToRevert() throws Exception {
+		RevertExchange exchange = new RevertExchange();
+		exchange.orders.put("A", order("A", BID, "1", OrderStatus.FILLED));
+
+		OrderPair result = exchange.cancelOrRevertLong("A", OrderRollbackType.REMAINING);
+		Assert.assertTrue(exchange.cancelled.isEmpty());
+		Assert.assertTrue(exchange.marketOrders.isEmpty());
+		Assert.assertEquals("A", result.order1.getId());
+		Assert.assertNull(result.order2);
+	}
+
+	@Test
+	public void openLegIsCancelledBeforeItsFillIsReverted() throws Exception {
+		RevertExchange exchange = new RevertExchange();
+		exchange.orders.put("A", order("A", BID, "0.4", OrderStatus.PARTIALLY_FILLED));
+
+		exchange.cancelOrRevertLong("A", OrderRollbackType.CUMULATIVE);
+		Assert.assertEquals(1, exchange.cancelled.size());
+		Assert.assertEquals(1, exchange.marketOrders.size());
+		Assert.assertEquals(0, new BigDecimal("0.4").compareTo(exchange.marketOrders.get(0).getOriginalAmount()));
+	}
+
+	@Test
+	public void revertStillOpenWhenQueriedIsSettledOnceComplete() throws Exception {
+		RevertExchange exchange = new RevertExchange();
+		exchange.getBalanceLedger().reconcile(new Wallet(new Balance(Currency.USD, new BigDecimal("1000")),
+				new Balance(Currency.BTC, BigDecimal.ONE)));
+		exchange.orders.put("A", order("A", BID, "1", OrderStatus.FILLED));
+		exchange.marketOrderStatus = OrderStatus.NEW;
+
+		exchange.cancelOrRevertLong("A", OrderRollbackType.CUMULATIVE);
+		Assert.assertTrue(exchange.getBalanceLedger().isReserved("Revert0"));
+
+		Order revert = exchange.marketOrders.get(0);
+		exchange.orders.put("Revert0", new LimitOrder(ASK, BigDecimal.ONE, CurrencyPair.BTC_USD, "Revert0", null,
+				new BigDecimal("100"), new BigDecimal("100"), revert.getOriginalAmount(), null, OrderStatus.FILLED));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (exchange.getBalanceLedger().isReserved("Revert0") && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+		Assert.assertFalse(exchange.getBalanceLedger().isReserved("Revert0"));
+		Assert.assertEquals(0, new BigDecimal("1100")
+				.compareTo(exchange.getBalanceLedger().getAvailable(Currency.USD).get()));
+		Assert.assertEquals(0, BigDecimal.ZERO.compareTo(exchange.getBalanceLedger().getAvailable(Currency.BTC).get()));
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.slickapps.blackbird.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.MarketPairsProvider;
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.service.DecisionService;
+import com.slickapps.blackbird.service.MarketEntryService;
+import com.slickapps.blackbird.service.MarketExitService;
+
+public class DecisionServiceTest {
+
+	private static final CurrencyPair BTC_USDT = new CurrencyPair("BTC/USDT");
+	private static final CurrencyPair BTC_TUSD = new CurrencyPair("BTC/TUSD");
+
+	private MockExchange exchange1 = new MockExchange("Exchange1", 0.25, 100);
+	private MockExchange exchange2 = new MockExchange("Exchange2", 0.25, 100);
+
+	private Parameters params;
+	private DecisionService service;
+
+	/* the currency pairs each group was given to evaluate */
+	private List<Set<CurrencyPair>> groups = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Hands the pairs its group was given to the entry service on the same thread
+	 */
+	private static ThreadLocal<Collection<ExchangePairInMarket>> groupPairsInMarket = new ThreadLocal<>();
+
+	@Before
+	public void setUp() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("EquivalentCurrencies", "USD:USDT,USDT:TUSD");
+		props.setProperty("PartitionedDecisionsEnabled", "true");
+		props.setProperty("DecisionThreads", "2");
+		params = new Parameters();
+		params.setFromProperties(props);
+
+		MarketPairsProvider marketPairsProvider = new MarketPairsProvider() {
+			ExchangePairsInMarket pairsInMarket = new ExchangePairsInMarket();
+
+			@Override
+			public ExchangePairsInMarket getPairsInMarket() {
+				return pairsInMarket;
+			}
+
+			@Override
+			public SortedSet<ExchangePairAndCurrencyPair> getPairsOutOfMarket() {
+				return Collections.emptySortedSet();
+			}
+		};
+
+		MarketExitService exitService = new MarketExitService(params, marketPairsProvider,
+				() -> Collections.emptyList(), null, null) {
+			@Override
+			public void preparePairsReadyToExit(Collection<ExchangePairInMarket> pairsInMarket,
+					Set<ExchangeAndCurrencyPair> usedLegs, List<ExchangePairInMarket> pairsExiting) {
+				groupPairsInMarket.set(pairsInMarket);
+			}
+		};
+
+		MarketEntryService entryService = new MarketEntryService(params, marketPairsProvider,
+				() -> Collections.emptyList(), null, null) {
+			@Override
+			public List<ExchangePairInMarket> preparePairsReadyToEnter(
+					Set<ExchangePairAndCurrencyPair> outOfMarketPairs, Set<ExchangeAndCurrencyPair> usedLegs) {
+				Set<CurrencyPair> group = new HashSet<>();
+				for (ExchangePairInMarket epim : groupPairsInMarket.get()) {
+					group.add(epim.getLongCurrencyPair());
+					group.add(epim.getShortCurrencyPair());
+				}
+				for (ExchangePairAndCurrencyPair ecp : outOfMarketPairs) {
+					group.add(ecp.getLongCurrencyPair());
+					group.add(ecp.getShortCurrencyPair());
+				}
+				groups.add(group);
+				return new ArrayList<>();
+			}
+		};
+
+		service = new DecisionService(params, entryService, exitService);
+	}
+
+	private ExchangePairAndCurrencyPair ecp(CurrencyPair longPair, CurrencyPair shortPair) {
+		return new ExchangePairAndCurrencyPair(exchange1, longPair, exchange2, shortPair);
+	}
+
+	private static Set<CurrencyPair> set(CurrencyPair... currencyPairs) {
+		return new HashSet<>(Arrays.asList(currencyPairs));
+	}
+
+	@Test
+	public void linkedCurrenciesShareAClassButNotEquivalence() {
+		Assert.assertEquals(params.getEquivalenceClass(CurrencyPair.BTC_USD), params.getEquivalenceClass(BTC_TUSD));
+		Assert.assertEquals(params.getEquivalenceClass(BTC_USDT), params.getEquivalenceClass(BTC_TUSD));
+
+		/* limits still follow the configured pairs */
+		Assert.assertFalse(params.currenciesEquivalent(Currency.USD, new Currency("TUSD")));
+		Assert.assertEquals(1, params.getEquivalentCurrencies(Currency.USD).size());
+	}
+
+	@Test
+	public void equivalentPairsAreEvaluatedTogether() {
+		List<ExchangePairInMarket> pairsInMarket = Arrays
+				.asList(new ExchangePairInMarket(ecp(CurrencyPair.BTC_USD, BTC_USDT)));
+		Set<ExchangePairAndCurrencyPair> candidates = new LinkedHashSet<>(Arrays.asList(
+				ecp(BTC_TUSD, CurrencyPair.BTC_USD), ecp(CurrencyPair.ETH_USD, CurrencyPair.ETH_USD)));
+
+		Assert.assertEquals(2, service.decide(pairsInMarket, candidates).size());
+		Assert.assertEquals(2, groups.size());
+		Assert.assertTrue(groups.contains(set(CurrencyPair.BTC_USD, BTC_USDT, BTC_TUSD)));
+		Assert.assertTrue(groups.contains(set(CurrencyPair.ETH_USD)));
+	}
+
+	@Test
+	public void pairsSpanningTwoClassesJoinTheirGroups() {
+		/* as if ETH and BTC were equivalent when it entered */
+		List<ExchangePairInMarket> pairsInMarket = Arrays
+				.asList(new ExchangePairInMarket(ecp(CurrencyPair.BTC_USD, CurrencyPair.ETH_USD)));
+		Set<ExchangePairAndCurrencyPair> candidates = new LinkedHashSet<>(
+				Arrays.asList(ecp(BTC_USDT, BTC_TUSD), ecp(CurrencyPair.ETH_USD, CurrencyPair.ETH_USD),
+						ecp(CurrencyPair.LTC_USD, CurrencyPair.LTC_USD)));
+
+		Assert.assertEquals(2, service.decide(pairsInMarket, candidates).size());
+		Assert.assertTrue(groups.contains(set(CurrencyPair.BTC_USD, BTC_USDT, BTC_TUSD, CurrencyPair.ETH_USD)));
+		Assert.assertTrue(groups.contains(set(CurrencyPair.LTC_USD)));
+	}
+
+}
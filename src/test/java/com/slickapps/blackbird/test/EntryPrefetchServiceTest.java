@@ -0,0 +1,127 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
+import com.slickapps.blackbird.service.EntryPrefetchService;
+import com.slickapps.blackbird.util.FutureUtil;
+
+public class EntryPrefetchServiceTest {
+
+	/**
+	 * Counts its wallet requests; neither those nor its order book requests ever
+	 * complete
+	 */
+	private static class PrefetchExchange extends MockExchange {
+		int walletQueries;
+
+		PrefetchExchange(String name, long orderBookCacheMaxAgeMillis) {
+			super(name, 0.25, 100);
+			this.orderBookCacheMaxAgeMillis = orderBookCacheMaxAgeMillis;
+		}
+
+		@Override
+		public CompletableFuture<Wallet> queryWallet(boolean allowCache) {
+			walletQueries++;
+			return new CompletableFuture<>();
+		}
+
+		@Override
+		public CompletableFuture<OrderBookDepth> queryOrderBookDepth(CurrencyPair currencyPair, OrderType orderType) {
+			return new CompletableFuture<>();
+		}
+	}
+
+	private static EntryPrefetchService service(String maxAgeMillis) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("SpeculativePrefetchEnabled", "true");
+		if (maxAgeMillis != null)
+			props.setProperty("SpeculativePrefetchMaxAgeMillis", maxAgeMillis);
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+		return new EntryPrefetchService(params);
+	}
+
+	private static ExchangePairAndCurrencyPair ecp(MockExchange longExchange, MockExchange shortExchange) {
+		return new ExchangePairAndCurrencyPair(longExchange, CurrencyPair.BTC_USD, shortExchange,
+				CurrencyPair.BTC_USD);
+	}
+
+	@Test
+	public void maxAgeFollowsTheOrderBookCache() throws Exception {
+		EntryPrefetchService service = service(null);
+		ExchangePairAndCurrencyPair ecp = ecp(new PrefetchExchange("A", 50), new PrefetchExchange("B", 60000));
+
+		service.prefetch(ecp);
+		Assert.assertEquals(50, service.getFreshPrefetch(ecp).get().maxAgeMillis);
+
+		Thread.sleep(100);
+		Assert.assertFalse(service.getFreshPrefetch(ecp).isPresent());
+	}
+
+	@Test
+	public void configuredMaxAgeTakesPrecedence() throws Exception {
+		EntryPrefetchService service = service("2000");
+		ExchangePairAndCurrencyPair ecp = ecp(new PrefetchExchange("A", 50), new PrefetchExchange("B", 60000));
+
+		service.prefetch(ecp);
+		Assert.assertEquals(2000, service.getFreshPrefetch(ecp).get().maxAgeMillis);
+	}
+
+	@Test
+	public void walletRequestsAreSharedPerExchange() throws Exception {
+		EntryPrefetchService service = service("60000");
+		PrefetchExchange a = new PrefetchExchange("A", 1000);
+		PrefetchExchange b = new PrefetchExchange("B", 1000);
+		PrefetchExchange c = new PrefetchExchange("C", 1000);
+
+		service.prefetch(ecp(a, b));
+		service.prefetch(ecp(a, c));
+		service.prefetch(ecp(c, b));
+		Assert.assertEquals(1, a.walletQueries);
+		Assert.assertEquals(1, b.walletQueries);
+		Assert.assertEquals(1, c.walletQueries);
+	}
+
+	@Test
+	public void ledgerBalancesNeedNoWalletRequest() throws Exception {
+		EntryPrefetchService service = service("60000");
+		PrefetchExchange a = new PrefetchExchange("A", 1000);
+		PrefetchExchange b = new PrefetchExchange("B", 1000);
+		a.getBalanceLedger().reconcile(new Wallet(new Balance(Currency.USD, new BigDecimal("500"))));
+
+		ExchangePairAndCurrencyPair ecp = ecp(a, b);
+		service.prefetch(ecp);
+		Assert.assertEquals(0, a.walletQueries);
+		Assert.assertEquals(0,
+				new BigDecimal("500").compareTo(service.getFreshPrefetch(ecp).get().longBalance.get().getAvailable()));
+	}
+
+	@Test
+	public void failedPrefetchFallsBackToAQuery() throws Exception {
+		CompletableFuture<Balance> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("Prefetch failed"));
+		Balance queried = new Balance(Currency.USD, BigDecimal.TEN);
+
+		Assert.assertSame(queried,
+				FutureUtil.orElseGet(failed, () -> CompletableFuture.completedFuture(queried)).get());
+
+		Balance prefetched = new Balance(Currency.USD, BigDecimal.ONE);
+		Assert.assertSame(prefetched, FutureUtil.orElseGet(CompletableFuture.completedFuture(prefetched),
+				() -> CompletableFuture.completedFuture(queried)).get());
+	}
+
+}
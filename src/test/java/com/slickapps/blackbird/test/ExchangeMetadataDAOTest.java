@@ -0,0 +1,86 @@
+package com.slickapps.blackbird.test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.slickapps.blackbird.data.ExchangeMetadataDAO;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
+import com.slickapps.blackbird.model.tradingRules.TradingRule;
+
+public class ExchangeMetadataDAOTest {
+
+	private static final String EXCHANGE_NAME = "MetadataDAOTest";
+	private static final File FILE = new File(ExchangeMetadataDAO.CACHE_DIR, "metadatadaotest.json");
+
+	private static ExchangeMetadata metadata(long fetchedMillis, String minTotal) {
+		ExchangeMetadata m = new ExchangeMetadata(fetchedMillis);
+		TradingRule rule = new TradingRule();
+		rule.setMinTotal(new BigDecimal(minTotal));
+		rule.setStepSizeForQuantity(new BigDecimal("0.001"));
+		m.getTradingRules().put("BTC/USD", rule);
+		m.getSymbols().put("BTCUSD", "BTC/USD");
+		m.getRateLimits().put("REQUESTS", 20.0);
+		return m;
+	}
+
+	@Test
+	public void savedMetadataIsLoaded() {
+		try {
+			ExchangeMetadata saved = metadata(System.currentTimeMillis(), "10");
+			ExchangeMetadataDAO.save(EXCHANGE_NAME, saved);
+
+			Optional<ExchangeMetadata> loaded = ExchangeMetadataDAO.load(EXCHANGE_NAME, 60000);
+			Assert.assertTrue(loaded.isPresent());
+			Assert.assertEquals(saved, loaded.get());
+			Assert.assertEquals(saved.getFetchedMillis(), loaded.get().getFetchedMillis());
+		} finally {
+			FILE.delete();
+		}
+	}
+
+	@Test
+	public void expiredOrMissingMetadataIsIgnored() {
+		try {
+			Assert.assertFalse(ExchangeMetadataDAO.load(EXCHANGE_NAME, 60000).isPresent());
+
+			ExchangeMetadataDAO.save(EXCHANGE_NAME, metadata(System.currentTimeMillis() - 120000, "10"));
+			Assert.assertFalse(ExchangeMetadataDAO.load(EXCHANGE_NAME, 60000).isPresent());
+			Assert.assertTrue(ExchangeMetadataDAO.load(EXCHANGE_NAME, 180000).isPresent());
+		} finally {
+			FILE.delete();
+		}
+	}
+
+	@Test
+	public void unreadableMetadataIsIgnored() throws Exception {
+		try {
+			Files.createDirectories(ExchangeMetadataDAO.CACHE_DIR.toPath());
+			Files.write(FILE.toPath(), "{\"tradingRules\": {".getBytes(StandardCharsets.UTF_8));
+			Assert.assertFalse(ExchangeMetadataDAO.load(EXCHANGE_NAME, 60000).isPresent());
+		} finally {
+			FILE.delete();
+		}
+	}
+
+	@Test
+	public void saveReplacesTheWholeFile() {
+		try {
+			ExchangeMetadataDAO.save(EXCHANGE_NAME, metadata(System.currentTimeMillis(), "10"));
+			ExchangeMetadata replacement = metadata(System.currentTimeMillis(), "20");
+			ExchangeMetadataDAO.save(EXCHANGE_NAME, replacement);
+
+			Assert.assertEquals(replacement, ExchangeMetadataDAO.load(EXCHANGE_NAME, 60000).get());
+			/* the temporary file was moved into place */
+			Assert.assertFalse(new File(ExchangeMetadataDAO.CACHE_DIR, FILE.getName() + ".tmp").exists());
+		} finally {
+			FILE.delete();
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.slickapps.blackbird.test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.data.ExchangeMetadataDAO;
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.model.metadata.ExchangeMetadata;
+import com.slickapps.blackbird.model.tradingRules.TradingRule;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class ExchangeMetadataTest {
+
+	private static final CurrencyPair ETH_USD = new CurrencyPair("ETH/USD");
+
+	private static TradingRule rule(String minQuantity) {
+		TradingRule rule = new TradingRule();
+		rule.setMinQuantity(new BigDecimal(minQuantity));
+		return rule;
+	}
+
+	private static ExchangeMetadata metadata(long fetchedMillis, CurrencyPair... pairs) {
+		ExchangeMetadata m = new ExchangeMetadata(fetchedMillis);
+		for (CurrencyPair cp : pairs)
+			m.getTradingRules().put(cp.toString(), rule("0.01"));
+		return m;
+	}
+
+	@Test
+	public void equalityIgnoresTheFetchTime() {
+		ExchangeMetadata m1 = metadata(1000, CurrencyPair.BTC_USD);
+		ExchangeMetadata m2 = metadata(2000, CurrencyPair.BTC_USD);
+		Assert.assertEquals(m1, m2);
+		Assert.assertEquals(m1.hashCode(), m2.hashCode());
+		Assert.assertEquals("no changes", m2.describeChangesFrom(m1));
+
+		m2.getRateLimits().put("REQUESTS", 10.0);
+		Assert.assertNotEquals(m1, m2);
+	}
+
+	@Test
+	public void changesAreDescribed() {
+		ExchangeMetadata old = metadata(1000, CurrencyPair.BTC_USD, ETH_USD);
+		ExchangeMetadata fresh = metadata(2000, CurrencyPair.BTC_USD);
+		fresh.getTradingRules().put(CurrencyPair.BTC_USD.toString(), rule("0.02"));
+		fresh.getSymbols().put("BTCUSD", CurrencyPair.BTC_USD.toString());
+
+		Assert.assertEquals("trading rules changed for BTC/USD, ETH/USD; symbols changed (0 -> 1)",
+				fresh.describeChangesFrom(old));
+	}
+
+	/**
+	 * Publishes the queued metadata, one per download
+	 */
+	private static class MetadataExchange extends MockExchange {
+		Deque<ExchangeMetadata> published = new ArrayDeque<>();
+
+		MetadataExchange() {
+			super("MetadataTest", 0.25, 100);
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		protected Optional<ExchangeMetadata> fetchMetadataWithinRate() {
+			return Optional.ofNullable(published.poll());
+		}
+
+		ExchangeMetadata download() {
+			downloadMetadata();
+			return metadata;
+		}
+
+		void loadOrderBook(CurrencyPair cp) {
+			getOrCreateLocalOrderBook(cp);
+		}
+
+		boolean hasOrderBook(CurrencyPair cp) {
+			return orderBookCache.containsKey(cp);
+		}
+	}
+
+	@Test
+	public void exchangesWithoutMetadataAreSkipped() {
+		MetadataExchange exchange = new MetadataExchange();
+		Assert.assertNull(exchange.download());
+		Assert.assertFalse(exchange.getBackgroundJobs(null).containsKey("MetadataTestMetadataRefresher"));
+	}
+
+	@Test
+	public void delistedPairsAreDropped() {
+		MetadataExchange exchange = new MetadataExchange();
+		try {
+			exchange.published.add(metadata(1000, CurrencyPair.BTC_USD, ETH_USD));
+			exchange.published.add(metadata(2000, CurrencyPair.BTC_USD));
+			exchange.published.add(metadata(3000, CurrencyPair.BTC_USD, ETH_USD));
+
+			exchange.download();
+			exchange.loadOrderBook(ETH_USD);
+			Assert.assertEquals(0, new BigDecimal("0.01").compareTo(exchange.getOrderMinQuantity(ETH_USD)));
+			Assert.assertFalse(exchange.isDelisted(ETH_USD));
+
+			exchange.download();
+			Assert.assertTrue(exchange.isDelisted(ETH_USD));
+			Assert.assertFalse(exchange.isDelisted(CurrencyPair.BTC_USD));
+			Assert.assertEquals(0, BigDecimal.ZERO.compareTo(exchange.getOrderMinQuantity(ETH_USD)));
+			Assert.assertFalse(exchange.hasOrderBook(ETH_USD));
+
+			/* listed again */
+			exchange.download();
+			Assert.assertFalse(exchange.isDelisted(ETH_USD));
+			Assert.assertEquals(0, new BigDecimal("0.01").compareTo(exchange.getOrderMinQuantity(ETH_USD)));
+		} finally {
+			new File(ExchangeMetadataDAO.CACHE_DIR, "metadatatest.json").delete();
+		}
+	}
+
+}
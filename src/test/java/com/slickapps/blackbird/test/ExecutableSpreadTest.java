@@ -0,0 +1,115 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.QuotePair;
+import com.slickapps.blackbird.model.orderBook.LocalOrderBook;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class ExecutableSpreadTest {
+
+	/**
+	 * Serves a two level order book, counting how many times it was downloaded
+	 */
+	private static class DepthExchange extends MockExchange {
+		int snapshotsLoaded;
+		Map<BigDecimal, BigDecimal> bids = new TreeMap<>();
+		Map<BigDecimal, BigDecimal> asks = new TreeMap<>();
+
+		DepthExchange(String name, Parameters params, long snapshotIntervalMillis) {
+			super(name, 0.25, 100);
+			this.params = params;
+			orderBookCacheMaxAgeMillis = 1;
+			orderBookSnapshotIntervalMillis = snapshotIntervalMillis;
+		}
+
+		DepthExchange level(Map<BigDecimal, BigDecimal> side, String price, String quantity) {
+			side.put(new BigDecimal(price), new BigDecimal(quantity));
+			return this;
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		protected void loadOrderBookSnapshotWithinRate(CurrencyPair currencyPair, LocalOrderBook orderBook) {
+			snapshotsLoaded++;
+			orderBook.applySnapshot(new TreeMap<>(bids), new TreeMap<>(asks), LocalOrderBook.UNKNOWN_SEQUENCE);
+		}
+
+		Quote quote() throws Exception {
+			return queryForQuoteWithDepth(CurrencyPair.BTC_USD).get();
+		}
+	}
+
+	private static Parameters params() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("UseExecutableSpread", "true");
+		props.setProperty("OrderBookFactor", "1");
+		/* about 2 BTC at these prices */
+		props.setProperty("MaxTransactionAmountBTC/USD", "210");
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+		return params;
+	}
+
+	@Test
+	public void executableSpreadAccountsForDepth() throws Exception {
+		Parameters params = params();
+		DepthExchange longExchange = new DepthExchange("Long", params, 0);
+		longExchange.level(longExchange.bids, "99", "1").level(longExchange.asks, "100", "1")
+				.level(longExchange.asks, "102", "10");
+		DepthExchange shortExchange = new DepthExchange("Short", params, 0);
+		shortExchange.level(shortExchange.bids, "110", "1").level(shortExchange.bids, "108", "10")
+				.level(shortExchange.asks, "111", "1");
+
+		Quote longQuote = longExchange.quote();
+		Quote shortQuote = shortExchange.quote();
+		Assert.assertTrue(longQuote.getExecutableAsk().compareTo(new BigDecimal("100")) > 0);
+		Assert.assertTrue(shortQuote.getExecutableBid().compareTo(new BigDecimal("110")) < 0);
+
+		/* filling our amount reaches past the best prices, narrowing the spread */
+		QuotePair quotePair = new QuotePair(longQuote, shortQuote);
+		BigDecimal topOfBook = quotePair.getSpreadIfEntering();
+		BigDecimal executable = quotePair.getExecutableSpreadIfEntering();
+		Assert.assertTrue(executable.signum() > 0);
+		Assert.assertTrue(executable.compareTo(topOfBook) < 0);
+	}
+
+	@Test
+	public void quotesAreReadFromTheRefreshedBook() throws Exception {
+		DepthExchange exchange = new DepthExchange("Refreshed", params(), 60000);
+		exchange.level(exchange.bids, "99", "10").level(exchange.asks, "100", "10");
+
+		exchange.quote();
+		Thread.sleep(10);
+		/* too old for limit prices, but the refresher keeps it current enough for quotes */
+		exchange.quote();
+		Assert.assertEquals(1, exchange.snapshotsLoaded);
+	}
+
+	@Test
+	public void quotesDownloadTheBookWithoutARefresher() throws Exception {
+		DepthExchange exchange = new DepthExchange("OnDemand", params(), 0);
+		exchange.level(exchange.bids, "99", "10").level(exchange.asks, "100", "10");
+
+		exchange.quote();
+		Thread.sleep(10);
+		exchange.quote();
+		Assert.assertEquals(2, exchange.snapshotsLoaded);
+	}
+
+}
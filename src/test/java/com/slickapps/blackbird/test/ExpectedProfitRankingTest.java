@@ -0,0 +1,128 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.MarketPairsProvider;
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.QuotePair;
+import com.slickapps.blackbird.service.MarketEntryService;
+import com.slickapps.blackbird.service.QuoteService;
+
+public class ExpectedProfitRankingTest {
+
+	private MockExchange exchange1 = new MockExchange("Exchange1", 0.25, 100);
+	private MockExchange exchange2 = new MockExchange("Exchange2", 0.25, 100);
+	private MockExchange exchange3 = new MockExchange("Exchange3", 0.25, 100);
+
+	private QuoteService quoteService;
+	private SpreadMonitor spreadMonitor;
+	private RankingService service;
+
+	private static class RankingService extends MarketEntryService {
+		RankingService(Parameters params, QuoteService quoteService, SpreadMonitor spreadMonitor) {
+			super(params, new MarketPairsProvider() {
+				ExchangePairsInMarket pairsInMarket = new ExchangePairsInMarket();
+
+				@Override
+				public ExchangePairsInMarket getPairsInMarket() {
+					return pairsInMarket;
+				}
+
+				@Override
+				public SortedSet<ExchangePairAndCurrencyPair> getPairsOutOfMarket() {
+					return Collections.emptySortedSet();
+				}
+			}, () -> Collections.emptyList(), quoteService, spreadMonitor);
+		}
+
+		List<ExchangePairAndCurrencyPair> rank(Set<ExchangePairAndCurrencyPair> pairs) {
+			return rankByExpectedProfit(pairs);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("TargetProfitPercentage", "0.4");
+		props.setProperty("SpreadAverageWindowLengthSeconds", "60");
+		props.setProperty("SpreadWindowValidAfterSeconds", "0");
+		/* nothing is configured for ETH/USD */
+		props.setProperty("MaxTransactionAmountBTC/USD", "100");
+		props.setProperty("MaxExposureUSD", "1000");
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+
+		quoteService = new QuoteService(params, () -> Collections.emptyList());
+		spreadMonitor = new SpreadMonitor(params);
+		service = new RankingService(params, quoteService, spreadMonitor);
+	}
+
+	private void quote(MockExchange exchange, CurrencyPair currencyPair, String bid, String ask) {
+		ExchangeAndCurrencyPair eacp = new ExchangeAndCurrencyPair(exchange, currencyPair);
+		quoteService.updateQuote(eacp, new Quote(eacp, new BigDecimal(bid), new BigDecimal(ask)));
+	}
+
+	/**
+	 * @return The pair, after recording its current spread so it has a window
+	 *         average
+	 */
+	private ExchangePairAndCurrencyPair pair(MockExchange longExchange, MockExchange shortExchange,
+			CurrencyPair currencyPair) {
+		ExchangePairAndCurrencyPair ecp = new ExchangePairAndCurrencyPair(longExchange, currencyPair, shortExchange,
+				currencyPair);
+		Quote longQuote = quoteService.getLatestQuote(ecp.getLongExchangeAndCurrencyPair()).orElse(null);
+		Quote shortQuote = quoteService.getLatestQuote(ecp.getShortExchangeAndCurrencyPair()).orElse(null);
+		if (longQuote != null && shortQuote != null)
+			spreadMonitor.quotePairEvaluation(new QuotePair(longQuote, shortQuote), true);
+		return ecp;
+	}
+
+	@Test
+	public void widestSpreadOverTargetIsFirst() {
+		quote(exchange1, CurrencyPair.BTC_USD, "99.9", "100");
+		quote(exchange2, CurrencyPair.BTC_USD, "105", "105.1");
+		quote(exchange3, CurrencyPair.BTC_USD, "101", "101.1");
+
+		ExchangePairAndCurrencyPair narrow = pair(exchange1, exchange3, CurrencyPair.BTC_USD);
+		ExchangePairAndCurrencyPair wide = pair(exchange1, exchange2, CurrencyPair.BTC_USD);
+		/* no quotes yet */
+		ExchangePairAndCurrencyPair unquoted = pair(exchange1, exchange2, CurrencyPair.ETH_USD);
+
+		Assert.assertEquals(Arrays.asList(wide, narrow, unquoted),
+				service.rank(new LinkedHashSet<>(Arrays.asList(unquoted, narrow, wide))));
+	}
+
+	@Test
+	public void pairsWithoutConfiguredAmountsAreNotRanked() {
+		quote(exchange1, CurrencyPair.BTC_USD, "99.9", "100");
+		quote(exchange3, CurrencyPair.BTC_USD, "101", "101.1");
+		quote(exchange1, CurrencyPair.ETH_USD, "9.9", "10");
+		quote(exchange2, CurrencyPair.ETH_USD, "20", "20.1");
+
+		ExchangePairAndCurrencyPair unconfigured = pair(exchange1, exchange2, CurrencyPair.ETH_USD);
+		ExchangePairAndCurrencyPair configured = pair(exchange1, exchange3, CurrencyPair.BTC_USD);
+
+		/* despite its far wider spread, it follows the pairs we could score */
+		Assert.assertEquals(Arrays.asList(configured, unconfigured),
+				service.rank(new LinkedHashSet<>(Arrays.asList(unconfigured, configured))));
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.exposure.ExposureLedger;
+
+public class ExposureLedgerTest {
+
+	private static final CurrencyPair BTC_USDT = new CurrencyPair("BTC/USDT");
+	private static final BigDecimal MAX = new BigDecimal("1000");
+
+	private MockExchange exchange1 = new MockExchange("Exchange1", 0.25, 100);
+	private MockExchange exchange2 = new MockExchange("Exchange2", 0.25, 100);
+	private ExchangePairsInMarket pairsInMarket = new ExchangePairsInMarket();
+	private ExposureLedger ledger;
+
+	@Before
+	public void setUp() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("EquivalentCurrencies", "USD:USDT");
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+
+		ledger = new ExposureLedger(params);
+		ledger.init(pairsInMarket);
+	}
+
+	private ExchangePairAndCurrencyPair ecp(CurrencyPair longPair, CurrencyPair shortPair) {
+		return new ExchangePairAndCurrencyPair(exchange1, longPair, exchange2, shortPair);
+	}
+
+	private ExchangePairInMarket pair(int id, ExchangePairAndCurrencyPair ecp, String exposure) {
+		ExchangePairInMarket epim = new ExchangePairInMarket(ecp);
+		epim.setId(id);
+		epim.setExposure(new BigDecimal(exposure));
+		return epim;
+	}
+
+	private static void assertAmount(String expected, BigDecimal actual) {
+		Assert.assertEquals(0, new BigDecimal(expected).compareTo(actual));
+	}
+
+	@Test
+	public void totalsFollowTheMarket() {
+		ExchangePairInMarket usd = pair(1, ecp(CurrencyPair.BTC_USD, CurrencyPair.BTC_USD), "300");
+		ExchangePairInMarket mixed = pair(2, ecp(CurrencyPair.BTC_USD, BTC_USDT), "200");
+		pairsInMarket.addPairInMarket(usd);
+		pairsInMarket.addPairInMarket(mixed);
+
+		assertAmount("500", ledger.getTotalExposure(CurrencyPair.BTC_USD));
+		assertAmount("200", ledger.getTotalExposure(BTC_USDT));
+		assertAmount("500", ledger.getEquivalentExposure(BTC_USDT));
+
+		mixed.setExposure(new BigDecimal("250"));
+		assertAmount("550", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+
+		pairsInMarket.removePairFromMarket(usd);
+		assertAmount("250", ledger.getTotalExposure(CurrencyPair.BTC_USD));
+		assertAmount("250", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+	}
+
+	@Test
+	public void reservationsCannotExceedMaxExposure() {
+		pairsInMarket.addPairInMarket(pair(1, ecp(CurrencyPair.BTC_USD, CurrencyPair.BTC_USD), "600"));
+
+		ExchangePairAndCurrencyPair first = ecp(CurrencyPair.BTC_USD, BTC_USDT);
+		ExchangePairAndCurrencyPair second = ecp(BTC_USDT, BTC_USDT);
+		assertAmount("300", ledger.reserve(first, new BigDecimal("300"), MAX));
+		/* only 100 left in the class */
+		assertAmount("100", ledger.reserve(second, new BigDecimal("300"), MAX));
+		assertAmount("1000", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+
+		ledger.release(second);
+		assertAmount("900", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+	}
+
+	@Test
+	public void addedPairReplacesItsReservation() {
+		ExchangePairAndCurrencyPair ecp = ecp(CurrencyPair.BTC_USD, BTC_USDT);
+		assertAmount("400", ledger.reserve(ecp, new BigDecimal("400"), MAX));
+
+		pairsInMarket.addPairInMarket(pair(1, ecp, "390"));
+		assertAmount("390", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+
+		/* already released */
+		ledger.release(ecp);
+		assertAmount("390", ledger.getEquivalentExposure(CurrencyPair.BTC_USD));
+		assertAmount("0", ledger.reserve(ecp(BTC_USDT, BTC_USDT), new BigDecimal("100"), new BigDecimal("390")));
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.slickapps.blackbird.test;
+
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.model.orderBook.LocalOrderBook;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class LocalOrderBookTest {
+
+	private static LimitOrder order(OrderType type, double quantity, double price) {
+		return new LimitOrder(type, new BigDecimal(quantity), CurrencyPair.BTC_USD, null, null,
+				BigDecimal.valueOf(price));
+	}
+
+	private static OrderBook snapshot(double bestAsk, double bestBid) {
+		return new OrderBook(new Date(), //
+				Arrays.asList(order(ASK, 1, bestAsk), order(ASK, 2, bestAsk + 1)), //
+				Arrays.asList(order(BID, 1, bestBid), order(BID, 2, bestBid - 1)));
+	}
+
+	private static void assertPrice(String expected, BigDecimal actual) {
+		Assert.assertEquals(0, new BigDecimal(expected).compareTo(actual));
+	}
+
+	@Test
+	public void snapshotsReplaceTheBook() {
+		LocalOrderBook book = new LocalOrderBook(CurrencyPair.BTC_USD);
+		Assert.assertFalse(book.isValid());
+
+		Assert.assertTrue(book.applySnapshot(snapshot(101, 99), 10));
+		assertPrice("101", book.getBestPrice(ASK));
+		assertPrice("99", book.getBestPrice(BID));
+		Assert.assertEquals(10, book.getLastSequence());
+
+		Assert.assertTrue(book.applySnapshot(snapshot(111, 109), 20));
+		assertPrice("111", book.getBestPrice(ASK));
+		/* the old levels are gone */
+		assertPrice("112", book.getLimitPrice(ASK, new BigDecimal("2")));
+
+		/* an older snapshot is ignored */
+		Assert.assertFalse(book.applySnapshot(snapshot(101, 99), 15));
+		assertPrice("111", book.getBestPrice(ASK));
+	}
+
+	@Test
+	public void diffsUpdateLevels() {
+		LocalOrderBook book = new LocalOrderBook(CurrencyPair.BTC_USD);
+		book.applySnapshot(snapshot(101, 99), 10);
+
+		/* already contained in the snapshot */
+		Assert.assertTrue(book.applyUpdate(10, ASK, BigDecimal.valueOf(100), BigDecimal.ONE));
+		assertPrice("101", book.getBestPrice(ASK));
+
+		Assert.assertTrue(book.applyUpdate(11, ASK, BigDecimal.valueOf(100.5), BigDecimal.ONE));
+		assertPrice("100.5", book.getBestPrice(ASK));
+
+		/* zero quantity removes the level */
+		Assert.assertTrue(book.applyUpdate(12, BID, BigDecimal.valueOf(99), BigDecimal.ZERO));
+		assertPrice("98", book.getBestPrice(BID));
+		Assert.assertEquals(12, book.getLastSequence());
+	}
+
+	@Test
+	public void sequenceGapRequiresANewSnapshot() {
+		LocalOrderBook book = new LocalOrderBook(CurrencyPair.BTC_USD);
+		book.applySnapshot(snapshot(101, 99), 10);
+
+		Assert.assertFalse(book.applyUpdate(12, ASK, BigDecimal.valueOf(100), BigDecimal.ONE));
+		Assert.assertFalse(book.isValid());
+		Assert.assertFalse(book.isFresh(Long.MAX_VALUE));
+
+		/* the next update in sequence isn't enough */
+		Assert.assertFalse(book.applyUpdate(11, ASK, BigDecimal.valueOf(100), BigDecimal.ONE));
+
+		/* even an older snapshot is accepted once the book is invalid */
+		Assert.assertTrue(book.applySnapshot(snapshot(105, 103), 9));
+		Assert.assertTrue(book.isValid());
+		Assert.assertTrue(book.applyUpdate(10, ASK, BigDecimal.valueOf(104), BigDecimal.ONE));
+		assertPrice("104", book.getBestPrice(ASK));
+	}
+
+	/**
+	 * Counts the snapshots loaded by the order book refresher
+	 */
+	private static class SnapshotExchange extends MockExchange {
+		int snapshotsLoaded;
+
+		SnapshotExchange() {
+			super("Snapshots", 0.25, 100);
+			orderBookSnapshotIntervalMillis = 60000;
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		protected void loadOrderBookSnapshotWithinRate(CurrencyPair currencyPair, LocalOrderBook orderBook) {
+			snapshotsLoaded++;
+			Map<BigDecimal, BigDecimal> asks = new TreeMap<>(
+					Collections.singletonMap(BigDecimal.valueOf(101), BigDecimal.ONE));
+			orderBook.applySnapshot(new TreeMap<>(), asks, LocalOrderBook.UNKNOWN_SEQUENCE);
+		}
+
+		LocalOrderBook refresh() {
+			refreshStaleOrderBooks();
+			return getOrCreateLocalOrderBook(CurrencyPair.BTC_USD);
+		}
+	}
+
+	@Test
+	public void refresherOnlyReloadsStaleBooks() {
+		SnapshotExchange exchange = new SnapshotExchange();
+
+		LocalOrderBook book = exchange.refresh();
+		Assert.assertEquals(1, exchange.snapshotsLoaded);
+		assertPrice("101", book.getBestPrice(ASK));
+
+		/* still fresh */
+		exchange.refresh();
+		Assert.assertEquals(1, exchange.snapshotsLoaded);
+
+		book.invalidate();
+		exchange.refresh();
+		Assert.assertEquals(2, exchange.snapshotsLoaded);
+		Assert.assertTrue(book.isValid());
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.service.MarketExitService;
+import com.slickapps.blackbird.service.QuoteService;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class MarketExitServiceTest {
+
+	/**
+	 * An enabled exchange with a populated wallet whose exit orders are placed
+	 * immediately, or whose long exit throws before any order is started
+	 */
+	private static class ExitExchange extends MockExchange {
+		boolean failLongExits;
+
+		ExitExchange(String name) {
+			super(name, 0.25, 100);
+			enabled = true;
+			walletLastUpdated = LocalDateTime.now();
+			makeShortable();
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		public CompletableFuture<String> closeLongPosition(CurrencyPair currencyPair, BigDecimal quantity,
+				boolean useMarketOrder, BigDecimal limitPriceOverride) {
+			if (failLongExits)
+				throw new IllegalStateException("Couldn't start the order");
+			return super.closeLongPosition(currencyPair, quantity, useMarketOrder, limitPriceOverride);
+		}
+
+		@Override
+		protected CompletableFuture<String> closeShortPositionImp(CurrencyPair currencyPair, BigDecimal quantity,
+				boolean useMarketOrder, BigDecimal limitPriceOverride) {
+			return CompletableFuture.completedFuture("ShortExitOrderId");
+		}
+	}
+
+	private static Parameters params() {
+		Parameters params = new Parameters();
+		params.maxQuoteTimeDifferenceMillis = Long.MAX_VALUE;
+		return params;
+	}
+
+	/**
+	 * @return A pair that has entered the market and is ready to exit
+	 */
+	private static ExchangePairInMarket pairReadyToExit(QuoteService quoteService, ExitExchange longExchange,
+			ExitExchange shortExchange) {
+		ExchangePairInMarket epim = new ExchangePairInMarket(
+				new ExchangePairAndCurrencyPair(longExchange, CurrencyPair.BTC_USD, shortExchange, CurrencyPair.BTC_USD));
+		epim.setEntryLongOrderFilled(true);
+		epim.setEntryShortOrderFilled(true);
+		/* as if the exits had been marked filled by hand */
+		epim.setExitLongOrderFilled(true);
+		epim.setExitShortOrderFilled(true);
+		epim.setExitVolumeLong(BigDecimal.ONE);
+		epim.setExitVolumeShort(BigDecimal.ONE);
+		epim.setExitPriceLong(new BigDecimal("100"));
+		epim.setExitPriceShort(new BigDecimal("100"));
+
+		for (ExchangeAndCurrencyPair leg : Arrays.asList(epim.toLongExchangeAndCurrencyPair(),
+				epim.toShortExchangeAndCurrencyPair()))
+			quoteService.updateQuote(leg, new Quote(leg, new BigDecimal("99.99"), new BigDecimal("100.01")));
+		return epim;
+	}
+
+	@Test
+	public void startedExitsAreReturnedWhenALaterPairFails() throws Exception {
+		Parameters params = params();
+		QuoteService quoteService = new QuoteService(params, () -> Collections.emptyList());
+		MarketExitService service = new MarketExitService(params, null, () -> Collections.emptyList(), quoteService,
+				new SpreadMonitor(params));
+
+		ExitExchange long1 = new ExitExchange("Long1");
+		ExitExchange short1 = new ExitExchange("Short1");
+		ExitExchange long2 = new ExitExchange("Long2");
+		ExitExchange short2 = new ExitExchange("Short2");
+		long2.failLongExits = true;
+
+		ExchangePairInMarket placed = pairReadyToExit(quoteService, long1, short1);
+		/* trades on the same legs, so it waits for the next pass */
+		ExchangePairInMarket overlapping = pairReadyToExit(quoteService, long1, short1);
+		ExchangePairInMarket failing = pairReadyToExit(quoteService, long2, short2);
+
+		Set<ExchangeAndCurrencyPair> usedLegs = new HashSet<>();
+		List<ExchangePairInMarket> pairsExiting = new ArrayList<>();
+		try {
+			service.preparePairsReadyToExit(Arrays.asList(placed, overlapping, failing), usedLegs, pairsExiting);
+			Assert.fail("The failure should have propagated");
+		} catch (IllegalStateException e) {
+			/* expected */
+		}
+
+		Assert.assertEquals(Arrays.asList(placed), pairsExiting);
+		Assert.assertTrue(placed.isBothExitOrdersPlaced());
+		Assert.assertFalse(overlapping.isEitherExitOrderPlaced());
+		Assert.assertFalse(failing.isEitherExitOrderPlaced());
+
+		/* only the legs of the placed pair are still claimed */
+		Assert.assertEquals(new HashSet<>(
+				Arrays.asList(placed.toLongExchangeAndCurrencyPair(), placed.toShortExchangeAndCurrencyPair())),
+				usedLegs);
+	}
+
+}
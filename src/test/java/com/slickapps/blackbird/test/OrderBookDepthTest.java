@@ -0,0 +1,85 @@
+package com.slickapps.blackbird.test;
+
+import static java.math.MathContext.DECIMAL64;
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.slickapps.blackbird.model.orderBook.LocalOrderBook;
+import com.slickapps.blackbird.model.orderBook.OrderBookDepth;
+
+public class OrderBookDepthTest {
+
+	private static LimitOrder order(OrderType type, double quantity, double price) {
+		return new LimitOrder(type, new BigDecimal(quantity), CurrencyPair.BTC_USD, null, null,
+				BigDecimal.valueOf(price));
+	}
+
+	private LocalOrderBook createBook() {
+		LocalOrderBook book = new LocalOrderBook(CurrencyPair.BTC_USD);
+		book.applySnapshot(new OrderBook(new Date(), //
+				Arrays.asList(order(ASK, 1, 101), order(ASK, 2, 102), order(ASK, 3, 103)), //
+				Arrays.asList(order(BID, 1, 99), order(BID, 2, 98), order(BID, 3, 97))), 10);
+		return book;
+	}
+
+	@Test
+	public void limitPrices() {
+		OrderBookDepth asks = createBook().getDepth(ASK);
+		Assert.assertEquals(0, new BigDecimal("101").compareTo(asks.getLimitPrice(new BigDecimal("0.5"))));
+		Assert.assertEquals(0, new BigDecimal("101").compareTo(asks.getLimitPrice(BigDecimal.ONE)));
+		Assert.assertEquals(0, new BigDecimal("102").compareTo(asks.getLimitPrice(new BigDecimal("2.5"))));
+		/* not enough depth returns the deepest level */
+		Assert.assertEquals(0, new BigDecimal("103").compareTo(asks.getLimitPrice(BigDecimal.TEN)));
+
+		OrderBookDepth bids = createBook().getDepth(BID);
+		Assert.assertEquals(0, new BigDecimal("98").compareTo(bids.getLimitPrice(new BigDecimal("3"))));
+	}
+
+	@Test
+	public void exactVolumesFillAtTheirLevel() {
+		Map<BigDecimal, BigDecimal> levels = new TreeMap<>();
+		levels.put(new BigDecimal("101"), new BigDecimal("0.1"));
+		levels.put(new BigDecimal("102"), new BigDecimal("0.2"));
+		levels.put(new BigDecimal("103"), new BigDecimal("0.4"));
+		levels.put(new BigDecimal("104"), new BigDecimal("1"));
+		OrderBookDepth asks = OrderBookDepth.fromLevels(levels, System.currentTimeMillis());
+
+		/* 0.1 + 0.2 + 0.4 falls just short of 0.7 in floating point */
+		Assert.assertEquals(0, new BigDecimal("103").compareTo(asks.getLimitPrice(new BigDecimal("0.7"))));
+		Assert.assertEquals(0, new BigDecimal("102").compareTo(asks.getLimitPrice(new BigDecimal("0.3"))));
+		// 0.1 @ 101 + 0.2 @ 102 + 0.4 @ 103 = 71.7 / 0.7
+		Assert.assertEquals(0, new BigDecimal("71.7").divide(new BigDecimal("0.7"), DECIMAL64)
+				.compareTo(asks.getVolumeWeightedPrice(new BigDecimal("0.7"))));
+	}
+
+	@Test
+	public void volumeWeightedPrices() {
+		OrderBookDepth asks = createBook().getDepth(ASK);
+		// 1 @ 101 + 2 @ 102 + 1 @ 103 = 408 / 4
+		Assert.assertEquals(102.0, asks.getVolumeWeightedPrice(new BigDecimal("4")).doubleValue(), 1e-9);
+		Assert.assertNull(asks.getVolumeWeightedPrice(BigDecimal.TEN));
+	}
+
+	@Test
+	public void sequenceGapInvalidatesBook() {
+		LocalOrderBook book = createBook();
+		Assert.assertTrue(book.applyUpdate(11, ASK, BigDecimal.valueOf(101), BigDecimal.ZERO));
+		Assert.assertEquals(0, new BigDecimal("102").compareTo(book.getDepth(ASK).getBestPrice()));
+		Assert.assertFalse(book.applyUpdate(13, ASK, BigDecimal.valueOf(104), BigDecimal.ONE));
+		Assert.assertFalse(book.isValid());
+	}
+
+}
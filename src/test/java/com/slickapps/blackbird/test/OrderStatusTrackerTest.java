@@ -0,0 +1,204 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.Order.OrderStatus;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.exchanges.UserDataStream;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.orderCompletion.OrderCompletion;
+import com.slickapps.blackbird.model.orderCompletion.OrderCompletionStatus;
+import com.slickapps.blackbird.model.orderCompletion.OrderUpdate;
+import com.slickapps.blackbird.processes.OrderStatusTracker;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class OrderStatusTrackerTest {
+
+	/* trackers are kept per exchange name, so each test uses its own */
+	private static AtomicInteger exchangeCount = new AtomicInteger();
+
+	/**
+	 * Connected whenever we say so, and pushes the updates we hand it
+	 */
+	private static class TestStream extends UserDataStream {
+		TestStream(TrackedExchange exchange) throws Exception {
+			super(exchange, new Parameters());
+		}
+
+		@Override
+		protected void runSession() {
+		}
+
+		void connect() {
+			onConnected();
+		}
+
+		void push(String orderId, OrderStatus status) {
+			publish(new OrderUpdate(orderId, CurrencyPair.BTC_USD, status, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Serves the order statuses we set, counting the bulk and individual status
+	 * requests made
+	 */
+	private static class TrackedExchange extends MockExchange {
+		Map<String, OrderStatus> statuses = new ConcurrentHashMap<>();
+		AtomicInteger bulkQueries = new AtomicInteger();
+		AtomicInteger individualQueries = new AtomicInteger();
+		boolean failBulkQueries;
+		TestStream stream;
+
+		TrackedExchange(boolean streaming) throws Exception {
+			super("Tracked" + exchangeCount.incrementAndGet(), 0.25, 100);
+			walletLastUpdated = LocalDateTime.now();
+			if (streaming)
+				stream = new TestStream(this);
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		public Optional<UserDataStream> getUserDataStream() {
+			return Optional.ofNullable(stream);
+		}
+
+		@Override
+		public CompletableFuture<Map<String, OrderStatus>> queryOrderStatuses(CurrencyPair currencyPair,
+				Set<String> orderIds) {
+			bulkQueries.incrementAndGet();
+			if (failBulkQueries) {
+				CompletableFuture<Map<String, OrderStatus>> failed = new CompletableFuture<>();
+				failed.completeExceptionally(new IllegalStateException("Bulk status query failed"));
+				return failed;
+			}
+			return super.queryOrderStatuses(currencyPair, orderIds);
+		}
+
+		@Override
+		public CompletableFuture<Optional<OrderStatus>> queryOrderStatus(CurrencyPair currencyPair, String orderId) {
+			individualQueries.incrementAndGet();
+			return CompletableFuture.completedFuture(Optional.ofNullable(statuses.get(orderId)));
+		}
+
+		@Override
+		public CompletableFuture<Optional<Order>> queryOrder(CurrencyPair currencyPair, String orderId) {
+			return CompletableFuture.completedFuture(Optional.of(new LimitOrder(OrderType.BID, BigDecimal.ONE,
+					currencyPair, orderId, null, new BigDecimal("100"), new BigDecimal("100"), BigDecimal.ONE,
+					BigDecimal.ZERO, statuses.get(orderId))));
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("OrderPollInitialMillis", "20");
+		props.setProperty("OrderPollMaxMillis", "50");
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+		OrderStatusTracker.configure(params);
+	}
+
+	@After
+	public void tearDown() {
+		OrderStatusTracker.configure(new Parameters());
+	}
+
+	private static CompletableFuture<OrderCompletion> track(TrackedExchange exchange, String orderId,
+			long maxExecutionTime) {
+		CompletableFuture<OrderCompletion> completion = new CompletableFuture<>();
+		OrderStatusTracker.getTracker(exchange).track(orderId, CurrencyPair.BTC_USD, maxExecutionTime,
+				completion::complete);
+		return completion;
+	}
+
+	@Test
+	public void failedBulkQueryFallsBackToEachOrder() throws Exception {
+		TrackedExchange exchange = new TrackedExchange(false);
+		exchange.failBulkQueries = true;
+		exchange.statuses.put("1", OrderStatus.FILLED);
+
+		OrderCompletion completion = track(exchange, "1", 60000).get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(OrderCompletionStatus.FILLED, completion.status);
+		Assert.assertEquals("1", completion.completedOrder.getId());
+		Assert.assertTrue(exchange.bulkQueries.get() > 0);
+		Assert.assertTrue(exchange.individualQueries.get() > 0);
+	}
+
+	@Test
+	public void openOrderExpiresAtItsDeadline() throws Exception {
+		/* checks are far apart, so only the deadline can complete it in time */
+		Properties props = new Properties();
+		props.setProperty("OrderPollInitialMillis", "10000");
+		props.setProperty("OrderPollMaxMillis", "10000");
+		Parameters params = new Parameters();
+		params.setFromProperties(props);
+		OrderStatusTracker.configure(params);
+
+		TrackedExchange exchange = new TrackedExchange(false);
+		exchange.statuses.put("1", OrderStatus.NEW);
+
+		long start = System.currentTimeMillis();
+		OrderCompletion completion = track(exchange, "1", 200).get(5, TimeUnit.SECONDS);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(OrderCompletionStatus.TIME_EXPIRED, completion.status);
+		Assert.assertTrue("Expired after " + elapsed + " ms", elapsed >= 200 && elapsed < 2000);
+	}
+
+	@Test
+	public void pushedFillCompletesTheOrderWithoutPolling() throws Exception {
+		TrackedExchange exchange = new TrackedExchange(true);
+		OrderStatusTracker.getTracker(exchange);
+		exchange.stream.connect();
+		exchange.statuses.put("1", OrderStatus.NEW);
+
+		CompletableFuture<OrderCompletion> completion = track(exchange, "1", 60000);
+
+		/* the reconciliation requested on connecting checks it once over REST */
+		long deadline = System.currentTimeMillis() + 5000;
+		while (exchange.individualQueries.get() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		Assert.assertEquals(1, exchange.individualQueries.get());
+		Assert.assertFalse(completion.isDone());
+
+		exchange.statuses.put("1", OrderStatus.FILLED);
+		exchange.stream.push("1", OrderStatus.FILLED);
+		Assert.assertEquals(OrderCompletionStatus.FILLED, completion.get(5, TimeUnit.SECONDS).status);
+		Assert.assertEquals(1, exchange.individualQueries.get());
+	}
+
+	@Test
+	public void fillPushedBeforeTrackingIsNotMissed() throws Exception {
+		TrackedExchange exchange = new TrackedExchange(true);
+		OrderStatusTracker.getTracker(exchange);
+		exchange.stream.connect();
+		exchange.statuses.put("1", OrderStatus.FILLED);
+		exchange.stream.push("1", OrderStatus.FILLED);
+
+		Assert.assertEquals(OrderCompletionStatus.FILLED, track(exchange, "1", 60000).get(5, TimeUnit.SECONDS).status);
+	}
+
+}
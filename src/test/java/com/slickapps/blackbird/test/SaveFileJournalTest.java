@@ -0,0 +1,148 @@
+package com.slickapps.blackbird.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.data.SaveFileDAO;
+import com.slickapps.blackbird.data.SaveFileJournal;
+import com.slickapps.blackbird.data.SaveFileJournal.Entry;
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.ExchangePairsInMarket;
+
+public class SaveFileJournalTest {
+
+	private MockExchange exchange1 = new MockExchange("Exchange1", 0.25, 100);
+	private MockExchange exchange2 = new MockExchange("Exchange2", 0.25, 100);
+	private List<MockExchange> exchanges = Arrays.asList(exchange1, exchange2);
+
+	private File snapshotFile;
+	private File journalFile;
+
+	@Before
+	public void setUp() throws IOException {
+		snapshotFile = File.createTempFile("blackbird-save", ".json");
+		journalFile = new File(snapshotFile.getPath() + ".journal");
+		snapshotFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		snapshotFile.delete();
+		journalFile.delete();
+		new File(snapshotFile.getPath() + ".tmp").delete();
+	}
+
+	private ExchangePairInMarket pair(int id, String exposure) {
+		ExchangePairInMarket epim = new ExchangePairInMarket(
+				new ExchangePairAndCurrencyPair(exchange1, CurrencyPair.BTC_USD, exchange2, CurrencyPair.BTC_USD));
+		epim.setId(id);
+		epim.setExposure(new BigDecimal(exposure));
+		return epim;
+	}
+
+	private static ExchangePairsInMarket pairs(ExchangePairInMarket... pairs) {
+		ExchangePairsInMarket results = new ExchangePairsInMarket();
+		for (ExchangePairInMarket p : pairs)
+			results.addPairInMarket(p);
+		return results;
+	}
+
+	private ExchangePairsInMarket recover() throws IOException {
+		return SaveFileDAO.recover(exchanges, snapshotFile, journalFile);
+	}
+
+	private static void assertExposure(String expected, ExchangePairInMarket epim) {
+		Assert.assertEquals(0, new BigDecimal(expected).compareTo(epim.getExposure()));
+	}
+
+	private void appendRaw(String s) throws IOException {
+		Files.write(journalFile.toPath(), s.getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	@Test
+	public void entriesAreReplayedOverTheSnapshot() throws IOException {
+		SaveFileDAO.fileExport(snapshotFile, pairs(pair(1, "100"), pair(2, "200")));
+		try (SaveFileJournal journal = new SaveFileJournal(snapshotFile, journalFile)) {
+			journal.append(Arrays.asList(Entry.upsert(pair(1, "150")), Entry.removal(2)));
+			journal.append(Arrays.asList(Entry.upsert(pair(3, "300"))));
+			Assert.assertEquals(3, journal.getEntriesSinceCompaction());
+		}
+
+		ExchangePairsInMarket recovered = recover();
+		Assert.assertEquals(2, recovered.getNumPairsInMarket());
+		assertExposure("150", recovered.getPairById(1));
+		Assert.assertNull(recovered.getPairById(2));
+		assertExposure("300", recovered.getPairById(3));
+		Assert.assertSame(exchange1, recovered.getPairById(3).getLongExchange());
+	}
+
+	@Test
+	public void tornFinalEntryIsIgnored() throws IOException {
+		try (SaveFileJournal journal = new SaveFileJournal(snapshotFile, journalFile)) {
+			journal.append(Arrays.asList(Entry.upsert(pair(1, "100"))));
+		}
+		/* a crash partway through the next append */
+		appendRaw("{\"id\":2,\"pair\":{\"id\":2,\"expo");
+
+		ExchangePairsInMarket recovered = recover();
+		Assert.assertEquals(1, recovered.getNumPairsInMarket());
+		assertExposure("100", recovered.getPairById(1));
+	}
+
+	@Test(expected = IOException.class)
+	public void unreadableEntryBeforeTheEndFails() throws IOException {
+		try (SaveFileJournal journal = new SaveFileJournal(snapshotFile, journalFile)) {
+			journal.append(Arrays.asList(Entry.upsert(pair(1, "100"))));
+			appendRaw("{\"id\":2,\"pair\":{\"id\":2,\"expo\n");
+			journal.append(Arrays.asList(Entry.upsert(pair(3, "300"))));
+		}
+		recover();
+	}
+
+	@Test
+	public void compactionWritesTheSnapshotAndEmptiesTheJournal() throws IOException {
+		try (SaveFileJournal journal = new SaveFileJournal(snapshotFile, journalFile)) {
+			journal.append(Arrays.asList(Entry.upsert(pair(1, "100")), Entry.upsert(pair(2, "200"))));
+
+			journal.compact(pairs(pair(1, "100"), pair(2, "250")));
+			Assert.assertEquals(0, journal.getEntriesSinceCompaction());
+			Assert.assertEquals(0, journalFile.length());
+
+			/* appends continue from the start of the emptied journal */
+			journal.append(Arrays.asList(Entry.removal(1)));
+		}
+
+		ExchangePairsInMarket recovered = recover();
+		Assert.assertEquals(1, recovered.getNumPairsInMarket());
+		assertExposure("250", recovered.getPairById(2));
+	}
+
+	@Test
+	public void fileExportReplacesTheFileAtomically() throws IOException {
+		SaveFileDAO.fileExport(snapshotFile, pairs(pair(1, "100")));
+		SaveFileDAO.fileExport(snapshotFile, pairs(pair(1, "100"), pair(2, "200")));
+		/* written to a temporary file, which was then moved into place */
+		Assert.assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+		Assert.assertEquals(2, SaveFileDAO.fileImport(exchanges, snapshotFile).getNumPairsInMarket());
+
+		/* nothing in the market, nothing saved */
+		SaveFileDAO.fileExport(snapshotFile, new ExchangePairsInMarket());
+		Assert.assertFalse(snapshotFile.exists());
+	}
+
+}
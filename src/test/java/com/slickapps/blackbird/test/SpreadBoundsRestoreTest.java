@@ -0,0 +1,53 @@
+package com.slickapps.blackbird.test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.slickapps.blackbird.model.SpreadBounds;
+import com.slickapps.blackbird.model.spread.SpreadSample;
+
+public class SpreadBoundsRestoreTest {
+
+	private static SpreadSample sample(int secondsAgo, double value) {
+		return new SpreadSample(LocalDateTime.now().minusSeconds(secondsAgo), BigDecimal.valueOf(value));
+	}
+
+	@Test
+	public void restoredWindowIsValidImmediately() {
+		SpreadBounds bounds = new SpreadBounds(600, 300);
+		bounds.restore(Arrays.asList(sample(400, 0.01), sample(200, 0.03)), new BigDecimal("0.01"),
+				new BigDecimal("0.03"));
+
+		Assert.assertTrue(bounds.hasWindowAverage());
+		Assert.assertEquals(0, new BigDecimal("0.02").compareTo(bounds.getWindowAverage()));
+		Assert.assertEquals(2, bounds.getSamples().size());
+	}
+
+	@Test
+	public void expiredSamplesAreDiscarded() {
+		SpreadBounds bounds = new SpreadBounds(600, 300);
+		bounds.restore(Arrays.asList(sample(900, 0.05), sample(100, 0.01)), new BigDecimal("0.01"),
+				new BigDecimal("0.05"));
+
+		List<SpreadSample> samples = bounds.getSamples();
+		Assert.assertEquals(1, samples.size());
+		Assert.assertEquals(0, new BigDecimal("0.01").compareTo(samples.get(0).getValue()));
+		/* only 100 seconds of history, so we still need to wait */
+		Assert.assertFalse(bounds.hasWindowAverage());
+	}
+
+	@Test
+	public void nothingToRestore() {
+		SpreadBounds bounds = new SpreadBounds(600, 300);
+		bounds.restore(Arrays.asList(sample(900, 0.05)), new BigDecimal("0.05"), new BigDecimal("0.05"));
+
+		Assert.assertTrue(bounds.getSamples().isEmpty());
+		Assert.assertNull(bounds.getGlobalMin());
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.slickapps.blackbird.test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import com.slickapps.blackbird.data.DBQuoteWriter;
+import com.slickapps.blackbird.exchanges.BlackbirdExchange;
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.listener.SpreadMonitor;
+import com.slickapps.blackbird.model.ExchangeAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairAndCurrencyPair;
+import com.slickapps.blackbird.model.ExchangePairInMarket;
+import com.slickapps.blackbird.model.Parameters;
+import com.slickapps.blackbird.model.Quote;
+import com.slickapps.blackbird.model.spread.SpreadSample;
+import com.slickapps.blackbird.service.QuoteService;
+import com.slickapps.blackbird.service.SpreadHistoryService;
+
+public class SpreadHistoryServiceTest {
+
+	/* each exchange class records its quotes in its own table */
+	private static class FirstExchange extends MockExchange {
+		FirstExchange() {
+			super("First", 0.25, 100);
+			makeShortable();
+		}
+	}
+
+	private static class SecondExchange extends MockExchange {
+		SecondExchange() {
+			super("Second", 0.25, 100);
+			makeShortable();
+		}
+	}
+
+	private FirstExchange first = new FirstExchange();
+	private SecondExchange second = new SecondExchange();
+	private List<BlackbirdExchange> exchanges = Arrays.asList(first, second);
+
+	private File dbFile;
+	private Parameters params;
+	private SpreadMonitor spreadMonitor;
+	private SpreadHistoryService service;
+	private LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = File.createTempFile("quotes", ".db");
+
+		Properties props = new Properties();
+		props.setProperty("SpreadAverageWindowLengthSeconds", "120");
+		props.setProperty("SpreadWindowValidAfterSeconds", "0");
+		params = new Parameters();
+		params.setFromProperties(props);
+		params.dbFile = dbFile.getAbsolutePath();
+		params.maxQuoteTimeDifferenceMillis = Long.MAX_VALUE;
+
+		spreadMonitor = new SpreadMonitor(params);
+		service = new SpreadHistoryService(params, new QuoteService(params, () -> Collections.emptyList()),
+				spreadMonitor);
+
+		/* the two exchanges' quotes interleave, so replaying needs both cursors */
+		DBQuoteWriter writer = new DBQuoteWriter();
+		writer.init(exchanges, null, params);
+		writer.quoteReceived(quote(first, 50, "100"));
+		writer.quoteReceived(quote(second, 40, "101"));
+		writer.quoteReceived(quote(first, 30, "102"));
+		writer.quoteReceived(quote(second, 20, "103"));
+		writer.quoteReceived(quote(first, 10, "104"));
+	}
+
+	@After
+	public void tearDown() {
+		dbFile.delete();
+	}
+
+	private Quote quote(BlackbirdExchange exchange, int secondsAgo, String price) {
+		BigDecimal p = new BigDecimal(price);
+		return new Quote(new ExchangeAndCurrencyPair(exchange, CurrencyPair.BTC_USD), p, p,
+				now.minusSeconds(secondsAgo));
+	}
+
+	private List<SpreadSample> samples(ExchangePairAndCurrencyPair ecp) {
+		return spreadMonitor.getSpreadBounds(ecp).get().getSamples();
+	}
+
+	private void assertSampleTimes(List<SpreadSample> samples, int... secondsAgo) {
+		Assert.assertEquals(secondsAgo.length, samples.size());
+		for (int i = 0; i < secondsAgo.length; i++)
+			Assert.assertEquals(now.minusSeconds(secondsAgo[i]), samples.get(i).getTime());
+	}
+
+	@Test
+	public void entryWindowsReplayEveryPairingInOrder() throws Exception {
+		ExchangePairAndCurrencyPair ecp = new ExchangePairAndCurrencyPair(first, CurrencyPair.BTC_USD, second,
+				CurrencyPair.BTC_USD);
+
+		Assert.assertEquals(5,
+				service.rebuildSpreadWindows(exchanges, Collections.emptyList(), new HashSet<>(Arrays.asList(ecp))));
+
+		/* each quote after the first pairs with the other exchange's latest */
+		List<SpreadSample> samples = samples(ecp);
+		assertSampleTimes(samples, 40, 30, 20, 10);
+		for (int i = 0; i < samples.size() - 1; i++)
+			Assert.assertNotEquals(samples.get(i).getValue(), samples.get(i + 1).getValue());
+	}
+
+	@Test
+	public void exitWindowsOnlyReplayQuotesSinceEntry() throws Exception {
+		ExchangePairInMarket epim = new ExchangePairInMarket(
+				new ExchangePairAndCurrencyPair(first, CurrencyPair.BTC_USD, second, CurrencyPair.BTC_USD));
+		epim.setEntryTime(now.minusSeconds(25));
+
+		service.rebuildSpreadWindows(exchanges, Arrays.asList(epim), Collections.emptySet());
+		assertSampleTimes(samples(epim.toExchangePairAndCurrencyPair()), 20, 10);
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.slickapps.blackbird.test;
+
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.marketdata.Trades.TradeSortType;
+import org.knowm.xchange.dto.trade.UserTrade;
+import org.knowm.xchange.dto.trade.UserTrades;
+import org.knowm.xchange.service.trade.params.TradeHistoryParamLimit;
+import org.knowm.xchange.service.trade.params.TradeHistoryParams;
+import org.knowm.xchange.service.trade.params.TradeHistoryParamsIdSpan;
+import org.knowm.xchange.service.trade.params.TradeHistoryParamsTimeSpan;
+
+import com.slickapps.blackbird.exchanges.MockExchange;
+import com.slickapps.blackbird.exchanges.OperationType;
+import com.slickapps.blackbird.model.tradeHistory.TradeHistoryCache;
+import com.slickapps.blackbird.util.RateLimiterProfile;
+
+public class TradeHistoryCacheTest {
+
+	private static UserTrade trade(String id, long timestamp, String orderId, String amount) {
+		return new UserTrade(BID, new BigDecimal(amount), CurrencyPair.BTC_USD, new BigDecimal("100"),
+				new Date(timestamp), id, orderId, BigDecimal.ZERO, null);
+	}
+
+	@Test
+	public void cursorFollowsTheNewestTrade() {
+		TradeHistoryCache cache = new TradeHistoryCache(CurrencyPair.BTC_USD);
+		Assert.assertFalse(cache.isSeeded());
+		Assert.assertNull(cache.getLastTradeId());
+
+		cache.addTrades(Arrays.asList(trade("9", 1000, "A", "1"), trade("12", 3000, "A", "1"),
+				trade("10", 2000, "B", "1")));
+		Assert.assertTrue(cache.isSeeded());
+		/* numerically, not alphabetically, newest */
+		Assert.assertEquals("12", cache.getLastTradeId());
+		Assert.assertEquals(3000, cache.getLastTimestamp().getTime());
+		Assert.assertEquals(2, cache.getTradesForOrder("A").size());
+	}
+
+	@Test
+	public void tradesAlreadySeenAreIgnored() {
+		TradeHistoryCache cache = new TradeHistoryCache(CurrencyPair.BTC_USD);
+		Assert.assertEquals(2,
+				cache.addTrades(Arrays.asList(trade("1", 1000, "A", "1"), trade(null, 2000, "A", "0.5"))));
+
+		/* the same trades again, the second without an ID and with a different scale */
+		Assert.assertEquals(1, cache.addTrades(Arrays.asList(trade("1", 1000, "A", "1"),
+				trade(null, 2000, "A", "0.50"), trade(null, 2000, "A", "0.25"))));
+		Assert.assertEquals(3, cache.getTradesForOrder("A").size());
+	}
+
+	private static class IdParams implements TradeHistoryParamsIdSpan, TradeHistoryParamLimit {
+		String startId;
+		Integer limit;
+
+		@Override
+		public void setStartId(String startId) {
+			this.startId = startId;
+		}
+
+		@Override
+		public String getStartId() {
+			return startId;
+		}
+
+		@Override
+		public void setEndId(String endId) {
+		}
+
+		@Override
+		public String getEndId() {
+			return null;
+		}
+
+		@Override
+		public void setLimit(Integer limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public Integer getLimit() {
+			return limit;
+		}
+	}
+
+	private static class TimeParams implements TradeHistoryParamsTimeSpan, TradeHistoryParamLimit {
+		Date startTime;
+		Integer limit;
+
+		@Override
+		public void setStartTime(Date startTime) {
+			this.startTime = startTime;
+		}
+
+		@Override
+		public Date getStartTime() {
+			return startTime;
+		}
+
+		@Override
+		public void setEndTime(Date endTime) {
+		}
+
+		@Override
+		public Date getEndTime() {
+			return null;
+		}
+
+		@Override
+		public void setLimit(Integer limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public Integer getLimit() {
+			return limit;
+		}
+	}
+
+	/**
+	 * Serves our trade history from a list, oldest first, inclusive of the
+	 * requested start ID or time
+	 */
+	private static class HistoryExchange extends MockExchange {
+		List<UserTrade> history = new ArrayList<>();
+		boolean byId;
+		int numRequests;
+
+		HistoryExchange(boolean byId) {
+			super("History", 0.25, 100);
+			this.byId = byId;
+		}
+
+		@Override
+		protected RateLimiterProfile[] getRateLimitersForOperation(OperationType type, Object... args) {
+			return new RateLimiterProfile[0];
+		}
+
+		@Override
+		protected TradeHistoryParams getTradeHistoryParams(CurrencyPair currencyPair, Integer count) {
+			TradeHistoryParamLimit params = byId ? new IdParams() : new TimeParams();
+			params.setLimit(count);
+			return params;
+		}
+
+		@Override
+		protected UserTrades getTradeHistoryWithinRate(TradeHistoryParams params) {
+			numRequests++;
+			List<UserTrade> trades = history.stream().filter(t -> {
+				if (params instanceof IdParams && ((IdParams) params).startId != null)
+					return Long.parseLong(t.getId()) >= Long.parseLong(((IdParams) params).startId);
+				if (params instanceof TimeParams && ((TimeParams) params).startTime != null)
+					return !t.getTimestamp().before(((TimeParams) params).startTime);
+				return true;
+			}).collect(Collectors.toList());
+
+			Integer limit = ((TradeHistoryParamLimit) params).getLimit();
+			if (limit != null && trades.size() > limit)
+				trades = trades.subList(0, limit);
+			return new UserTrades(trades, byId ? TradeSortType.SortByID : TradeSortType.SortByTimestamp);
+		}
+	}
+
+	@Test
+	public void newTradesAreFetchedAPageAtATime() {
+		HistoryExchange exchange = new HistoryExchange(true);
+		for (int i = 1; i <= 3; i++)
+			exchange.history.add(trade(Integer.toString(i), i, "A", "1"));
+
+		Assert.assertEquals(3, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "A").size());
+		Assert.assertEquals(1, exchange.numRequests);
+
+		for (int i = 4; i <= 1203; i++)
+			exchange.history.add(trade(Integer.toString(i), i, i == 1203 ? "B" : "A", "1"));
+
+		/* pages of 500 starting from trades 3, 502 and 1001 */
+		Assert.assertEquals(1, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "B").size());
+		Assert.assertEquals(4, exchange.numRequests);
+		Assert.assertEquals(1202, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "A").size());
+		Assert.assertEquals(5, exchange.numRequests);
+	}
+
+	@Test
+	public void tradesWithoutIdsAreNotAddedAgain() {
+		HistoryExchange exchange = new HistoryExchange(false);
+		exchange.history.add(trade(null, 1000, "A", "1"));
+		exchange.history.add(trade(null, 2000, "A", "2"));
+		Assert.assertEquals(2, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "A").size());
+
+		/* the next request starts at (and so includes) the newest trade */
+		exchange.history.add(trade(null, 3000, "A", "3"));
+		Assert.assertEquals(3, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "A").size());
+		Assert.assertEquals(3, exchange.getTradesForOrder(CurrencyPair.BTC_USD, "A").size());
+	}
+
+}